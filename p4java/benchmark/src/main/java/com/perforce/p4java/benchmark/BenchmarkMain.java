@@ -0,0 +1,61 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Accepts the usual JMH command line,
+ * but unless told otherwise it runs with the GC profiler (so that the
+ * allocation rate is reported next to each score) and writes the results
+ * as JSON to {@link #DEFAULT_RESULT_FILE}, ready to be compared against
+ * the results of another build.
+ */
+
+public class BenchmarkMain {
+
+	public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+	public static void main(String[] args) throws RunnerException {
+		CommandLineOptions cmdOptions;
+		try {
+			cmdOptions = new CommandLineOptions(args);
+		} catch (CommandLineOptionException exc) {
+			System.err.println("Error parsing command line: " + exc.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmdOptions);
+		if (cmdOptions.getProfilers().isEmpty()) {
+			builder.addProfiler(GCProfiler.class);
+		}
+		if (!cmdOptions.getResultFormat().hasValue()) {
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmdOptions.getResult().hasValue()) {
+			builder.result(DEFAULT_RESULT_FILE);
+		}
+
+		Runner runner = new Runner(builder.build());
+		if (cmdOptions.shouldHelp()) {
+			try {
+				cmdOptions.showHelp();
+			} catch (java.io.IOException exc) {
+				System.err.println(exc.getMessage());
+			}
+		} else if (cmdOptions.shouldList()) {
+			runner.list();
+		} else {
+			runner.run();
+		}
+	}
+}
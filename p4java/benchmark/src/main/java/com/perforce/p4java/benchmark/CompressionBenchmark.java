@@ -0,0 +1,83 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcGZIPInputStream;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcGZIPOutputStream;
+
+/**
+ * The jzlib based connection compression streams. The content is written
+ * in packet sized chunks, each flushed, as the connection does it.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+	private static final int PACKET_SIZE = 8192;
+
+	@Param({"TEXT", "BINARY"})
+	public Fixtures.Content content;
+
+	@Param({"1048576"})
+	public int size;
+
+	private byte[] bytes;
+	private byte[] compressed;
+	private byte[] readBuffer;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.bytes = Fixtures.content(this.content, this.size);
+		this.compressed = compress();
+		this.readBuffer = new byte[PACKET_SIZE];
+	}
+
+	@Benchmark
+	public byte[] compress() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(this.size);
+		RpcGZIPOutputStream zout = new RpcGZIPOutputStream(out);
+		for (int pos = 0; pos < this.bytes.length; pos += PACKET_SIZE) {
+			zout.write(this.bytes, pos, Math.min(PACKET_SIZE, this.bytes.length - pos));
+			zout.flush();
+		}
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public int decompress() throws IOException {
+		RpcGZIPInputStream zin = new RpcGZIPInputStream(new ByteArrayInputStream(this.compressed));
+		// The connection stream is never finished, so read exactly what was written.
+		int total = 0;
+		while (total < this.size) {
+			int len = zin.read(this.readBuffer, 0, Math.min(this.readBuffer.length, this.size - total));
+			if (len < 0) {
+				throw new IOException("compressed stream ended after " + total + " bytes");
+			}
+			total += len;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.perforce.p4java.impl.generic.client.ClientLineEnding;
+import com.perforce.p4java.impl.mapbased.rpc.func.helper.MD5Digester;
+
+/**
+ * MD5Digester over in-memory content, and over files the way the client
+ * digests them for "p4 diff" style checks (with line ending conversion for
+ * text).
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DigestBenchmark {
+
+	@Param({"TEXT", "UNICODE", "BINARY"})
+	public Fixtures.Content content;
+
+	@Param({"4096", "1048576", "16777216"})
+	public int size;
+
+	private byte[] bytes;
+	private File file;
+
+	@Setup
+	public void setUp() throws Exception {
+		this.bytes = Fixtures.content(this.content, this.size);
+		this.file = Fixtures.writeTempFile(this.bytes, ".dat");
+	}
+
+	@Benchmark
+	public String digestBytes() {
+		MD5Digester digester = new MD5Digester();
+		digester.update(this.bytes);
+		return digester.digestAs32ByteHex();
+	}
+
+	@Benchmark
+	public String digestFile() {
+		boolean text = (this.content != Fixtures.Content.BINARY);
+		return new MD5Digester().digestFileAs32ByteHex(this.file,
+				(this.content == Fixtures.Content.UNICODE ? Fixtures.UTF8 : null),
+				text, (text ? ClientLineEnding.FST_L_CRLF : null));
+	}
+}
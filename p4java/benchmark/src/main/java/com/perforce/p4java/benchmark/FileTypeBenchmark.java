@@ -0,0 +1,57 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.perforce.p4java.impl.mapbased.rpc.sys.RpcPerforceFileType;
+
+/**
+ * File type inference for "p4 add", which stats the file and reads the
+ * start of its content.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileTypeBenchmark {
+
+	@Param({"TEXT", "UNICODE", "BINARY"})
+	public Fixtures.Content content;
+
+	@Param({"4096", "1048576"})
+	public int size;
+
+	@Param({"false", "true"})
+	public boolean unicodeServer;
+
+	private File file;
+
+	@Setup
+	public void setUp() throws Exception {
+		this.file = Fixtures.writeTempFile(Fixtures.content(this.content, this.size), ".dat");
+	}
+
+	@Benchmark
+	public RpcPerforceFileType inferFileType() {
+		return RpcPerforceFileType.inferFileType(this.file, this.unicodeServer,
+				(this.unicodeServer ? Fixtures.UTF8 : null));
+	}
+}
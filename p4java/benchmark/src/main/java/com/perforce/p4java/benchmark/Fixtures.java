@@ -0,0 +1,210 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import com.perforce.p4java.exception.ConnectionException;
+import com.perforce.p4java.impl.mapbased.MapKeys;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacket;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcStreamConnection;
+
+/**
+ * Builds the benchmark input data. Everything is generated from a fixed
+ * seed, so every run (and every build being compared) sees exactly the
+ * same bytes.<p>
+ *
+ * The packet streams are "captured" by writing the packets through the
+ * real RpcStreamConnection send path. A stream recorded from a real
+ * server can be used instead by pointing the
+ * {@link #PACKET_CAPTURE_PROPERTY} system property at a file holding the
+ * raw bytes received from the server.<p>
+ *
+ * Public only so that the generated benchmark code can use the
+ * {@link Content} parameter.
+ */
+
+public final class Fixtures {
+
+	static final String PACKET_CAPTURE_PROPERTY = "p4java.benchmark.packets";
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final long SEED = 0x5eed1e55L;
+
+	/**
+	 * The kinds of file content that the client handles differently.
+	 */
+	public enum Content {
+		/** ASCII source code, LF line endings */
+		TEXT,
+		/** UTF-8 text with a good share of multi-byte characters, LF line endings */
+		UNICODE,
+		/** uniformly random bytes */
+		BINARY
+	}
+
+	private static final String[] CODE_LINES = {
+		"package com.example.project.module;",
+		"",
+		"import java.util.List;",
+		"public class Generated%d extends AbstractHandler implements Runnable {",
+		"    private final Map<String, Object> values%d = new HashMap<String, Object>();",
+		"    // Returns the value computed for the given key; see the design notes.",
+		"    public int compute%d(int input) {",
+		"        return input * %d + offset;",
+		"    }",
+		"}"
+	};
+
+	private static final String[] UNICODE_WORDS = {
+		"Perforce", "\u00e9t\u00e9", "gr\u00fc\u00dfe", "\u65e5\u672c\u8a9e", "\u0444\u0430\u0439\u043b",
+		"\u03b1\u03c1\u03c7\u03b5\u03af\u03bf", "na\u00efve", "\ud55c\uad6d\uc5b4", "\u4e2d\u6587", "depot"
+	};
+
+	private Fixtures() {
+	}
+
+	static byte[] content(Content kind, int size) {
+		Random random = new Random(SEED + kind.ordinal());
+		if (kind == Content.BINARY) {
+			byte[] ret = new byte[size];
+			random.nextBytes(ret);
+			return ret;
+		}
+
+		StringBuilder sb = new StringBuilder(size + 128);
+		int line = 0;
+		while (sb.length() < size) {
+			if (kind == Content.TEXT) {
+				sb.append(String.format(CODE_LINES[line % CODE_LINES.length],
+						line, line, line, line));
+			} else {
+				for (int i = 0; i < 8; i++) {
+					sb.append(UNICODE_WORDS[random.nextInt(UNICODE_WORDS.length)]).append(' ');
+				}
+			}
+			sb.append('\n');
+			line++;
+		}
+		byte[] bytes = sb.toString().getBytes(UTF8);
+		byte[] ret = new byte[size];
+		System.arraycopy(bytes, 0, ret, 0, size);
+		return ret;
+	}
+
+	static File writeTempFile(byte[] contents, String suffix) throws IOException {
+		File file = File.createTempFile("p4java-bench", suffix);
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * A client spec map, as it is passed to MapUnmapper, with the given
+	 * number of view lines.
+	 */
+	static Map<String, Object> clientSpec(int viewLines) {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(MapKeys.CLIENT_KEY, "bench-client");
+		map.put(MapKeys.OWNER_KEY, "builder");
+		map.put(MapKeys.HOST_KEY, "build-host-01");
+		map.put(MapKeys.UPDATE_KEY, "2016/02/01 10:11:12");
+		map.put(MapKeys.ACCESS_KEY, "2016/02/02 10:11:12");
+		map.put(MapKeys.DESCRIPTION_KEY, "Benchmark client.\nCreated by the benchmark fixtures.\n");
+		map.put(MapKeys.ROOT_KEY, "/home/builder/workspace");
+		map.put(MapKeys.OPTIONS_KEY, "noallwrite noclobber nocompress unlocked nomodtime normdir");
+		map.put(MapKeys.SUBMITOPTIONS_KEY, "submitunchanged");
+		map.put(MapKeys.LINEEND_KEY, "local");
+		for (int i = 0; i < viewLines; i++) {
+			String path = "project" + (i / 50) + "/component" + i + "/...";
+			map.put(MapKeys.VIEW_KEY + i, (i % 10 == 9 ? "-" : "")
+					+ "//depot/" + path + " //bench-client/" + path);
+		}
+		return map;
+	}
+
+	/**
+	 * The tagged fields of one "fstat" result, as the server sends them.
+	 */
+	static Map<String, Object> fstatResult(int index) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		String path = "project" + (index / 200) + "/src/main/java/com/example/Class" + index + ".java";
+		map.put("depotFile", "//depot/" + path);
+		map.put("clientFile", "/home/builder/workspace/" + path);
+		map.put("isMapped", "");
+		map.put("headAction", "edit");
+		map.put("headType", "text");
+		map.put("headTime", Integer.toString(1450000000 + index));
+		map.put("headRev", Integer.toString(1 + index % 17));
+		map.put("headChange", Integer.toString(10000 + index));
+		map.put("headModTime", Integer.toString(1449999000 + index));
+		map.put("haveRev", Integer.toString(1 + index % 17));
+		if (index % 5 == 0) {
+			map.put("action", "edit");
+			map.put("change", "default");
+			map.put("type", "text");
+			map.put("actionOwner", "builder");
+		}
+		map.put("func", "client-FstatInfo");
+		return map;
+	}
+
+	/**
+	 * The bytes a client receives for the given number of fstat results,
+	 * or the recorded capture if {@link #PACKET_CAPTURE_PROPERTY} is set.
+	 */
+	static byte[] packetStream(int packets, Charset charset) throws IOException, ConnectionException {
+		String capture = System.getProperty(PACKET_CAPTURE_PROPERTY);
+		if (capture != null) {
+			return readFile(new File(capture));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RpcStreamConnection connection = connection(new byte[0], out, charset);
+		for (int i = 0; i < packets; i++) {
+			Map<String, Object> args = fstatResult(i);
+			String funcName = (String) args.remove("func");
+			connection.putRpcPacket(RpcPacket.constructRpcPacket(funcName, args, null));
+		}
+		return out.toByteArray();
+	}
+
+	static RpcStreamConnection connection(byte[] received, OutputStream sent, Charset charset)
+			throws ConnectionException {
+		return new RpcStreamConnection("localhost", 1666, new Properties(), null, charset,
+				new ReplaySocket(received, sent));
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = in.read(buf)) > 0) {
+				out.write(buf, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+}
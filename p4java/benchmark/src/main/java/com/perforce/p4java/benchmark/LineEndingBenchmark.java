@@ -0,0 +1,91 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.perforce.p4java.impl.generic.client.ClientLineEnding;
+import com.perforce.p4java.impl.mapbased.rpc.sys.RpcLineEndFilterInputStream;
+import com.perforce.p4java.impl.mapbased.rpc.sys.RpcLineEndFilterOutputStream;
+
+/**
+ * Client line ending conversion of text files: the output filter is used
+ * when syncing a file into the workspace, and the input filter when
+ * sending one to the server.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineEndingBenchmark {
+
+	private static final int CHUNK_SIZE = 8192;
+
+	@Param({"TEXT", "UNICODE"})
+	public Fixtures.Content content;
+
+	@Param({"1048576"})
+	public int size;
+
+	@Param({"FST_L_CRLF", "FST_L_LF"})
+	public ClientLineEnding lineEnding;
+
+	private byte[] serverBytes;
+	private byte[] localBytes;
+	private byte[] readBuffer;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.serverBytes = Fixtures.content(this.content, this.size);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(this.size * 2);
+		write(out, this.serverBytes);
+		this.localBytes = out.toByteArray();
+		this.readBuffer = new byte[CHUNK_SIZE];
+	}
+
+	@Benchmark
+	public int toLocal() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(this.size * 2);
+		write(out, this.serverBytes);
+		return out.size();
+	}
+
+	@Benchmark
+	public int toServer() throws IOException {
+		RpcLineEndFilterInputStream in = new RpcLineEndFilterInputStream(
+				new ByteArrayInputStream(this.localBytes), this.lineEnding);
+		int total = 0;
+		int len;
+		while ((len = in.read(this.readBuffer)) > 0) {
+			total += len;
+		}
+		return total;
+	}
+
+	private void write(ByteArrayOutputStream target, byte[] bytes) throws IOException {
+		RpcLineEndFilterOutputStream out = new RpcLineEndFilterOutputStream(target, this.lineEnding);
+		for (int pos = 0; pos < bytes.length; pos += CHUNK_SIZE) {
+			out.write(bytes, pos, Math.min(CHUNK_SIZE, bytes.length - pos));
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacketPreamble;
+
+/**
+ * A stand-in server on the loopback interface. On each connection it
+ * reads the given number of RPC packets, discarding their contents, then
+ * answers with a fixed byte stream, and starts over until the client
+ * closes the connection. This puts the real socket and system call costs
+ * into the measurement, without the cost of a real server.
+ */
+
+class LoopbackServer {
+
+	private final byte[] response;
+	private final int requestPackets;
+	private final ServerSocket serverSocket;
+
+	LoopbackServer(byte[] response, int requestPackets) throws IOException {
+		this.response = response;
+		this.requestPackets = requestPackets;
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+		Thread acceptor = new Thread("loopback server") {
+			@Override
+			public void run() {
+				acceptLoop();
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	int getPort() {
+		return this.serverSocket.getLocalPort();
+	}
+
+	void close() throws IOException {
+		this.serverSocket.close();
+	}
+
+	private void acceptLoop() {
+		while (true) {
+			final Socket socket;
+			try {
+				socket = this.serverSocket.accept();
+			} catch (IOException exc) {
+				// closed
+				return;
+			}
+			Thread thread = new Thread("loopback connection") {
+				@Override
+				public void run() {
+					try {
+						serve(socket);
+					} catch (IOException exc) {
+						// the client went away
+					} finally {
+						try {
+							socket.close();
+						} catch (IOException exc) {
+							// ignore
+						}
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void serve(Socket socket) throws IOException {
+		socket.setTcpNoDelay(true);
+		InputStream in = new BufferedInputStream(socket.getInputStream(), 65536);
+		OutputStream out = socket.getOutputStream();
+		byte[] preambleBytes = new byte[RpcPacketPreamble.RPC_PREAMBLE_SIZE];
+		while (true) {
+			for (int i = 0; i < this.requestPackets; i++) {
+				if (!readFully(in, preambleBytes, preambleBytes.length)) {
+					return;
+				}
+				long payload = RpcPacketPreamble.retrievePreamble(preambleBytes).getPayloadSize();
+				while (payload > 0) {
+					long skipped = in.skip(payload);
+					if (skipped <= 0) {
+						if (in.read() < 0) {
+							return;
+						}
+						skipped = 1;
+					}
+					payload -= skipped;
+				}
+			}
+			out.write(this.response);
+			out.flush();
+		}
+	}
+
+	private static boolean readFully(InputStream in, byte[] bytes, int length) throws IOException {
+		int pos = 0;
+		while (pos < length) {
+			int count = in.read(bytes, pos, length - pos);
+			if (count < 0) {
+				return false;
+			}
+			pos += count;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.perforce.p4java.impl.mapbased.rpc.func.helper.MapUnmapper;
+
+/**
+ * Turning a client spec map into the spec form text sent with "client -i",
+ * for clients with small and very large views.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapUnmapperBenchmark {
+
+	@Param({"20", "2000", "20000"})
+	public int viewLines;
+
+	private Map<String, Object> clientSpec;
+
+	@Setup
+	public void setUp() {
+		this.clientSpec = Fixtures.clientSpec(this.viewLines);
+	}
+
+	@Benchmark
+	public String unmapClient() {
+		StringBuffer strBuf = new StringBuffer();
+		MapUnmapper.unmapClientMap(this.clientSpec, strBuf);
+		return strBuf.toString();
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * An unconnected socket whose input replays a fixed byte stream, and whose
+ * output goes to a given stream. Passing one of these to the
+ * RpcStreamConnection constructor runs the real packet read and write code
+ * without a server or the network getting in the way of the measurement.
+ */
+
+class ReplaySocket extends Socket {
+
+	private final InputStream in;
+	private final OutputStream out;
+
+	ReplaySocket(byte[] received, OutputStream out) {
+		this.in = new ByteArrayInputStream(received);
+		this.out = out;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return this.in;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return this.out;
+	}
+
+	/**
+	 * Discards everything written to it.
+	 */
+	static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] bytes, int off, int len) {
+		}
+	}
+}
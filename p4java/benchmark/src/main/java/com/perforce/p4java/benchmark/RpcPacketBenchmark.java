@@ -0,0 +1,102 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.perforce.p4java.exception.ConnectionException;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacket;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcStreamConnection;
+
+/**
+ * Reading and writing RPC packets through RpcStreamConnection, which covers
+ * the preamble handling, the field marshaling and unmarshaling, and the
+ * charset translation for unicode servers. Each operation moves a whole
+ * stream of fstat results.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RpcPacketBenchmark {
+
+	@Param({"false", "true"})
+	public boolean unicode;
+
+	@Param({"1000"})
+	public int packets;
+
+	private Charset charset;
+	private byte[] received;
+	private int receivedPackets;
+	private RpcPacket[] toSend;
+
+	@Setup
+	public void setUp() throws Exception {
+		this.charset = (this.unicode ? Fixtures.UTF8 : null);
+		this.received = Fixtures.packetStream(this.packets, this.charset);
+		this.receivedPackets = countPackets(this.received, this.charset);
+		this.toSend = new RpcPacket[this.packets];
+		for (int i = 0; i < this.packets; i++) {
+			Map<String, Object> args = Fixtures.fstatResult(i);
+			String funcName = (String) args.remove("func");
+			this.toSend[i] = RpcPacket.constructRpcPacket(funcName, args, null);
+		}
+	}
+
+	@Benchmark
+	public void readPackets(Blackhole bh) throws ConnectionException {
+		RpcStreamConnection connection = Fixtures.connection(this.received,
+				new ReplaySocket.NullOutputStream(), this.charset);
+		for (int i = 0; i < this.receivedPackets; i++) {
+			bh.consume(connection.getRpcPacket().getResultsMap());
+		}
+	}
+
+	@Benchmark
+	public void writePackets() throws ConnectionException {
+		RpcStreamConnection connection = Fixtures.connection(new byte[0],
+				new ReplaySocket.NullOutputStream(), this.charset);
+		for (RpcPacket packet : this.toSend) {
+			connection.putRpcPacket(packet);
+		}
+	}
+
+	static int countPackets(byte[] stream, Charset charset) throws ConnectionException {
+		// A recorded capture has an unknown number of packets; read until
+		// the stream runs dry.
+		RpcStreamConnection connection = Fixtures.connection(stream,
+				new ReplaySocket.NullOutputStream(), charset);
+		int count = 0;
+		try {
+			while (true) {
+				connection.getRpcPacket();
+				count++;
+			}
+		} catch (ConnectionException exc) {
+			if (count == 0) {
+				throw exc;
+			}
+		}
+		return count;
+	}
+}
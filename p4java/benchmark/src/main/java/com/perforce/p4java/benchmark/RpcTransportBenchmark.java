@@ -0,0 +1,112 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.perforce.p4java.exception.ConnectionException;
+import com.perforce.p4java.impl.mapbased.rpc.channel.RpcChannelConnection;
+import com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacket;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcStreamConnection;
+
+/**
+ * The socket stream and socket channel RPC connections compared over a
+ * loopback socket. "fetch" sends one request and reads a whole stream of
+ * fstat results back, which is where the channel read-ahead pays off;
+ * "submit" writes a run of packets and waits for a single answer, which
+ * exercises the marshaling and the gather writes.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RpcTransportBenchmark {
+
+	@Param({"stream", "channel"})
+	public String transport;
+
+	@Param({"1000"})
+	public int packets;
+
+	private LoopbackServer fetchServer;
+	private LoopbackServer submitServer;
+	private RpcConnection fetchConnection;
+	private RpcConnection submitConnection;
+	private RpcPacket request;
+	private RpcPacket[] toSend;
+	private int receivedPackets;
+
+	@Setup
+	public void setUp() throws Exception {
+		byte[] received = Fixtures.packetStream(this.packets, null);
+		this.receivedPackets = RpcPacketBenchmark.countPackets(received, null);
+		this.toSend = new RpcPacket[this.packets];
+		for (int i = 0; i < this.packets; i++) {
+			Map<String, Object> args = Fixtures.fstatResult(i);
+			String funcName = (String) args.remove("func");
+			this.toSend[i] = RpcPacket.constructRpcPacket(funcName, args, null);
+		}
+		this.request = this.toSend[0];
+
+		ByteArrayOutputStream answer = new ByteArrayOutputStream();
+		Fixtures.connection(new byte[0], answer, null).putRpcPacket(this.request);
+
+		this.fetchServer = new LoopbackServer(received, 1);
+		this.submitServer = new LoopbackServer(answer.toByteArray(), this.packets);
+		this.fetchConnection = connect(this.fetchServer);
+		this.submitConnection = connect(this.submitServer);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		this.fetchConnection.disconnect(null);
+		this.submitConnection.disconnect(null);
+		this.fetchServer.close();
+		this.submitServer.close();
+	}
+
+	@Benchmark
+	public void fetch(Blackhole bh) throws ConnectionException {
+		this.fetchConnection.putRpcPacket(this.request);
+		for (int i = 0; i < this.receivedPackets; i++) {
+			bh.consume(this.fetchConnection.getRpcPacket().getResultsMap());
+		}
+	}
+
+	@Benchmark
+	public void submit(Blackhole bh) throws ConnectionException {
+		for (RpcPacket packet : this.toSend) {
+			this.submitConnection.putRpcPacket(packet);
+		}
+		bh.consume(this.submitConnection.getRpcPacket());
+	}
+
+	private RpcConnection connect(LoopbackServer server) throws ConnectionException {
+		if ("channel".equals(this.transport)) {
+			return new RpcChannelConnection("localhost", server.getPort(), new Properties(), null, null);
+		}
+		return new RpcStreamConnection("localhost", server.getPort(), new Properties(), null, null);
+	}
+}
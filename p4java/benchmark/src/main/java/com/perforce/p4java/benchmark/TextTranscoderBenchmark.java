@@ -0,0 +1,110 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.perforce.p4java.CharsetConverter;
+import com.perforce.p4java.impl.generic.client.ClientLineEnding;
+import com.perforce.p4java.impl.mapbased.rpc.sys.RpcLineEndFilterOutputStream;
+import com.perforce.p4java.impl.mapbased.rpc.sys.RpcTextTranscoder;
+
+/**
+ * Syncing a unicode text file from a unicode server: line end and charset
+ * conversion of the server's UTF-8, one packet at a time. "transcoder" is
+ * the RpcTextTranscoder used by RpcOutputStream; "converter" is the
+ * earlier line end filter plus CharsetConverter pipeline, kept for
+ * comparison.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextTranscoderBenchmark {
+
+	private static final int PACKET_SIZE = 8192;
+
+	@Param({"UTF-16", "Shift_JIS"})
+	public String charset;
+
+	@Param({"FST_L_CRLF", "FST_L_LF"})
+	public ClientLineEnding lineEnding;
+
+	@Param({"1048576"})
+	public int size;
+
+	private Charset toCharset;
+	private byte[] serverBytes;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.toCharset = Charset.forName(this.charset);
+		byte[] content = Fixtures.content(Fixtures.Content.UNICODE, this.size);
+		// Keep whole lines only, so the content doesn't end in a partial character.
+		int end = content.length;
+		while (end > 0 && content[end - 1] != '\n') {
+			end--;
+		}
+		String text = new String(content, 0, end, Fixtures.UTF8);
+		if (!this.toCharset.newEncoder().canEncode(text)) {
+			// Shift_JIS can't do all of the fixture words; drop what it can't.
+			StringBuilder sb = new StringBuilder(text.length());
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (this.toCharset.newEncoder().canEncode(c)) {
+					sb.append(c);
+				}
+			}
+			text = sb.toString();
+		}
+		this.serverBytes = text.getBytes(Fixtures.UTF8);
+	}
+
+	@Benchmark
+	public int transcoder() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(this.size * 2);
+		RpcTextTranscoder transcoder = new RpcTextTranscoder(this.toCharset, this.lineEnding);
+		for (int pos = 0; pos < this.serverBytes.length; pos += PACKET_SIZE) {
+			transcoder.write(out, this.serverBytes, pos, Math.min(PACKET_SIZE, this.serverBytes.length - pos));
+		}
+		transcoder.finish(out);
+		return out.size();
+	}
+
+	@Benchmark
+	public int converter() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(this.size * 2);
+		CharsetConverter converter = new CharsetConverter(Fixtures.UTF8, this.toCharset);
+		RpcLineEndFilterOutputStream lineEndStream = new RpcLineEndFilterOutputStream(out, this.lineEnding);
+		for (int pos = 0; pos < this.serverBytes.length; pos += PACKET_SIZE) {
+			ByteArrayOutputStream lineEnded = new ByteArrayOutputStream(PACKET_SIZE);
+			lineEndStream.write(lineEnded, this.serverBytes, pos,
+					Math.min(PACKET_SIZE, this.serverBytes.length - pos));
+			ByteBuffer converted = converter.convert(ByteBuffer.wrap(lineEnded.toByteArray()));
+			if (converted != null) {
+				out.write(converted.array(), converted.position(), converted.remaining());
+			}
+		}
+		return out.size();
+	}
+}
@@ -7,6 +7,9 @@ import com.perforce.p4java.server.IServerMessage;
 import com.perforce.p4java.server.callback.ILogCallback;
 import com.perforce.p4java.server.callback.ILogCallback.LogTraceLevel;
 
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+
 /**
  * Simple P4Java-wide logger class based on the ILogCallback callback
  * interface. Useful for letting P4Java consumers report errors,
@@ -24,7 +27,12 @@ import com.perforce.p4java.server.callback.ILogCallback.LogTraceLevel;
  * the P4Java API will log to internally. Most of the methods below
  * besides the setLogCallback method are mainly intended for API-internal
  * use, but participating apps may find the other methods useful for
- * interpolating marker text or other messages to the API's log.
+ * interpolating marker text or other messages to the API's log.<p>
+ * 
+ * The methods that take a format string and arguments only format
+ * the message (with String.format) if it will actually be passed
+ * to the callback, so hot code paths should use those rather than
+ * building the message strings themselves.
  */
 
 public class Log {
@@ -73,6 +81,20 @@ public class Log {
 		}
 	}
 
+	/**
+	 * Report a P4Java-internal error to the log callback (if it exists),
+	 * formatting the message only if there is a callback to receive it.
+	 * 
+	 * @param format non-null String.format format string.
+	 * @param args format arguments.
+	 */
+	public static void error(String format, Object... args) {
+		ILogCallback callback = logCallback;
+		if (callback != null) {
+			callback.internalError(format(format, args));
+		}
+	}
+
 	/**
 	 * Report a P4Java-internal warning to the log callback (if it exists).
 	 * 
@@ -84,6 +106,20 @@ public class Log {
 		}
 	}
 	
+	/**
+	 * Report a P4Java-internal warning to the log callback (if it exists),
+	 * formatting the message only if there is a callback to receive it.
+	 * 
+	 * @param format non-null String.format format string.
+	 * @param args format arguments.
+	 */
+	public static void warn(String format, Object... args) {
+		ILogCallback callback = logCallback;
+		if (callback != null) {
+			callback.internalWarn(format(format, args));
+		}
+	}
+	
 	/**
 	 * Report a P4Java-internal informational event to the log callback (if it exists).
 	 * 
@@ -106,6 +142,20 @@ public class Log {
 		}
 	}
 
+	/**
+	 * Report a P4Java-internal informational event to the log callback (if it exists),
+	 * formatting the message only if there is a callback to receive it.
+	 * 
+	 * @param format non-null String.format format string.
+	 * @param args format arguments.
+	 */
+	public static void info(String format, Object... args) {
+		ILogCallback callback = logCallback;
+		if (callback != null) {
+			callback.internalInfo(format(format, args));
+		}
+	}
+
 	/**
 	 * Report a P4Java-internal statistics message to the log callback (if it exists).
 	 * 
@@ -117,6 +167,20 @@ public class Log {
 		}
 	}
 	
+	/**
+	 * Report a P4Java-internal statistics message to the log callback (if it exists),
+	 * formatting the message only if there is a callback to receive it.
+	 * 
+	 * @param format non-null String.format format string.
+	 * @param args format arguments.
+	 */
+	public static void stats(String format, Object... args) {
+		ILogCallback callback = logCallback;
+		if (callback != null) {
+			callback.internalStats(format(format, args));
+		}
+	}
+	
 	/**
 	 * Report a P4Java-internal unexpected exception to the log callback
 	 * (if it exists).
@@ -141,15 +205,59 @@ public class Log {
 	}
 	
 	/**
-	 * Return true if the 
-	 * @param traceLevel
-	 * @return
+	 * Report a P4Java-internal trace message to the log callback
+	 * (if it exists). The trace level is checked before the message
+	 * is formatted, so this costs next to nothing when the level
+	 * isn't being traced.
+	 * 
+	 * @param traceLevel non-null trace level.
+	 * @param format non-null String.format format string.
+	 * @param args format arguments.
+	 */
+	public static void trace(LogTraceLevel traceLevel, String format, Object... args) {
+		ILogCallback callback = logCallback;
+		if ((callback != null) && (traceLevel != null) && (format != null)
+				&& isTracingAtLevel(callback, traceLevel)) {
+			callback.internalTrace(traceLevel, format(format, args));
+		}
+	}
+	
+	/**
+	 * Return true if the log callback exists and is tracing at the
+	 * passed-in level (or a finer level).
+	 * 
+	 * @param traceLevel non-null trace level.
+	 * @return true if trace messages at this level will be logged.
 	 */
 	public static boolean isTracingAtLevel(LogTraceLevel traceLevel) {
-		if ((logCallback != null) && (logCallback.getTraceLevel() != null)
-				&& (traceLevel.compareTo(logCallback.getTraceLevel()) <= 0)) {
-			return true;
+		return isTracingAtLevel(logCallback, traceLevel);
+	}
+
+	/**
+	 * Return true if there is a log callback; if this is false, none
+	 * of the logging methods will do anything.
+	 */
+	public static boolean isLogging() {
+		return logCallback != null;
+	}
+
+	private static boolean isTracingAtLevel(ILogCallback callback, LogTraceLevel traceLevel) {
+		if (callback == null) {
+			return false;
+		}
+		LogTraceLevel callbackLevel = callback.getTraceLevel();
+		return (callbackLevel != null) && (traceLevel.compareTo(callbackLevel) <= 0);
+	}
+
+	private static String format(String format, Object[] args) {
+		if ((args == null) || (args.length == 0)) {
+			return format;
+		}
+		try {
+			return String.format(format, args);
+		} catch (IllegalFormatException exc) {
+			// Don't lose the message over a bad format string.
+			return format + " " + Arrays.toString(args);
 		}
-		return false;
 	}
 }
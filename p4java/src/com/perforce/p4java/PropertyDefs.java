@@ -383,4 +383,44 @@ public class PropertyDefs {
 	 */
 	public static final String UNICODE_MAPPING = Metadata.P4JAVA_PROPS_KEY_PREFIX
 													+ UNICODE_MAPPING_SHORT_FORM;
+	
+	/**
+	 * Short form of the FILE_BATCH_SIZE_KEY property (below).
+	 */
+	public static final String FILE_BATCH_SIZE_SHORT_FORM = "fileBatchSize";
+	
+	/**
+	 * The maximum number of file arguments sent in a single command by the
+	 * methods that split long file spec lists: the IClient add, edit, revert,
+	 * reopen and sync methods, and the IOptionsServer getExtendedFiles methods
+	 * (unless a maximum number of results is given). A longer list is sent as
+	 * a series of commands on the same server, one after the other, with the
+	 * results returned in the order of the file specs. Set to zero to send
+	 * every list in a single command.
+	 */
+	public static final String FILE_BATCH_SIZE_KEY = Metadata.P4JAVA_PROPS_KEY_PREFIX
+													+ FILE_BATCH_SIZE_SHORT_FORM;
+	
+	/**
+	 * Default for the FILE_BATCH_SIZE_KEY property.
+	 */
+	public static final int FILE_BATCH_SIZE_DEFAULT = 1000;
+	
+	/**
+	 * Short form of the FILE_BATCH_BYTES_KEY property (below).
+	 */
+	public static final String FILE_BATCH_BYTES_SHORT_FORM = "fileBatchBytes";
+	
+	/**
+	 * The maximum size, in bytes, of the file arguments sent in a single
+	 * command by the methods listed for FILE_BATCH_SIZE_KEY. Set to zero to
+	 * only limit the number of files.
+	 */
+	public static final String FILE_BATCH_BYTES_KEY = Metadata.P4JAVA_PROPS_KEY_PREFIX
+													+ FILE_BATCH_BYTES_SHORT_FORM;
+	
+	/**
+	 * Default for the FILE_BATCH_BYTES_KEY property.
+	 */
+	public static final int FILE_BATCH_BYTES_DEFAULT = 128 * 1024;
 }
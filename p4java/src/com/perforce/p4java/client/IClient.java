@@ -35,6 +35,7 @@ import com.perforce.p4java.option.client.UnshelveFilesOptions;
 import com.perforce.p4java.option.client.UnlockFilesOptions;
 import com.perforce.p4java.option.server.OpenedFilesOptions;
 import com.perforce.p4java.server.IServer;
+import com.perforce.p4java.server.callback.IFileSpecCallback;
 import com.perforce.p4java.server.callback.IStreamingCallback;
 
 /**
@@ -157,6 +158,30 @@ public interface IClient extends IClientSummary {
 	 */
 	void sync(List<IFileSpec> fileSpecs, SyncOptions syncOpts, IStreamingCallback callback, int key)
 															throws P4JavaException;
+	
+	/**
+	 * Sync a Perforce client workspace against the Perforce server, passing
+	 * each file's result to the callback as soon as it arrives, rather than
+	 * collecting them into a list. Each result is converted into a file spec
+	 * the same way as with the list version of sync.<p>
+	 * 
+	 * The server reports each file just before transferring its contents, so
+	 * a file's contents are only known to be written once the next result
+	 * arrives or the method returns.
+	 * 
+	 * @see com.perforce.p4java.option.client.SyncOptions
+	 * 
+	 * @since 2014.1
+	 * 
+	 * @param fileSpecs files to be synchronized; if empty, synchronize all client files.
+	 * @param syncOpts SyncOptions object describing sync options; see SyncOptions comments.
+	 * @param callback a non-null IFileSpecCallback to receive each file's result.
+	 * @param key an opaque integer key that is passed to the callback.
+	 * @throws P4JavaException if any processing errors occur during exection, or
+	 * 				the callback threw an exception.
+	 */
+	void sync(List<IFileSpec> fileSpecs, SyncOptions syncOpts, IFileSpecCallback callback, int key)
+															throws P4JavaException;
 
 	/**
 	 * Perform a label sync operation for this client. See the main Perforce
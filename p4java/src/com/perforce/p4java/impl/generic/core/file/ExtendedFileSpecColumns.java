@@ -0,0 +1,1047 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.impl.generic.core.file;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.perforce.p4java.core.IChangelist;
+import com.perforce.p4java.core.file.DiffType;
+import com.perforce.p4java.core.file.FileAction;
+import com.perforce.p4java.core.file.FileSpecOpStatus;
+import com.perforce.p4java.core.file.IExtendedFileSpec;
+import com.perforce.p4java.core.file.IFileAnnotation;
+import com.perforce.p4java.core.file.IFileRevisionData;
+import com.perforce.p4java.core.file.IFileSpec;
+import com.perforce.p4java.core.file.IResolveRecord;
+import com.perforce.p4java.exception.AccessException;
+import com.perforce.p4java.exception.ConnectionException;
+import com.perforce.p4java.exception.NullPointerError;
+import com.perforce.p4java.exception.P4JavaError;
+import com.perforce.p4java.exception.P4JavaException;
+import com.perforce.p4java.exception.RequestException;
+import com.perforce.p4java.exception.UnimplementedError;
+import com.perforce.p4java.option.Options;
+import com.perforce.p4java.option.server.GetFileAnnotationsOptions;
+import com.perforce.p4java.option.server.GetFileContentsOptions;
+import com.perforce.p4java.option.server.GetRevisionHistoryOptions;
+import com.perforce.p4java.option.server.MoveFileOptions;
+import com.perforce.p4java.server.IServer;
+import com.perforce.p4java.server.IServerMessage;
+
+/**
+ * A compact, column oriented holder for the results of a bulk fstat that
+ * only asks for a few fields (fstat's "-T" option).<p>
+ *
+ * Each requested field is kept in its own array, indexed by result row;
+ * revisions and changelists are held as primitives, actions as their
+ * ordinal, and the file types are shared between the rows that have the
+ * same type. Fields that were not requested take no space at all. This
+ * is far smaller than an ExtendedFileSpec per file, most of whose fields
+ * are always empty for this kind of query.<p>
+ *
+ * The rows are read through {@link #get(int)}, which returns a small
+ * IExtendedFileSpec view onto the row. The view reports the requested
+ * fields exactly as an ExtendedFileSpec made from the same result map
+ * would, and everything else as if the server hadn't sent the field.
+ * The path, action, changelist and revision setters for requested fields
+ * write through to the columns; any other setter, and any method that
+ * needs a server, throws an exception.<p>
+ *
+ * Message rows (such as "file(s) not opened on this client") are kept
+ * as ordinary ExtendedFileSpec message specs, as they are rare.<p>
+ *
+ * The columns can also be used as a one-row buffer, so that each result
+ * is passed on as it arrives; see the streaming getExtendedFiles in
+ * IOptionsServer.<p>
+ *
+ * Not thread-safe; it is expected to be filled by the command that runs
+ * the fstat, and only read once the command has completed or from that
+ * command's callback.
+ *
+ * @since 2014.1
+ */
+
+public class ExtendedFileSpecColumns {
+
+	/**
+	 * The fstat fields that can be held in columns.
+	 */
+	public enum Field {
+		DEPOT_FILE("depotFile"),
+		CLIENT_FILE("clientFile"),
+		ACTION("action"),
+		CHANGE("change"),
+		TYPE("type"),
+		HAVE_REV("haveRev"),
+		HEAD_ACTION("headAction"),
+		HEAD_CHANGE("headChange"),
+		HEAD_REV("headRev"),
+		HEAD_TYPE("headType");
+
+		private final String tag;
+
+		Field(String tag) {
+			this.tag = tag;
+		}
+
+		/**
+		 * Return the fstat tagged output field name.
+		 */
+		public String getTag() {
+			return this.tag;
+		}
+	}
+
+	private static final int INITIAL_CAPACITY = 64;
+	private static final FileAction[] ACTIONS = FileAction.values();
+
+	private final Set<Field> fields;
+	private int size = 0;
+	private int capacity = 0;
+
+	// Only the columns for requested fields are allocated.
+	private String[] depotFiles;
+	private String[] clientFiles;
+	private byte[] actions;				// FileAction ordinal + 1; 0 for null
+	private int[] changes;
+	private String[] types;
+	private int[] haveRevs;
+	private byte[] headActions;
+	private int[] headChanges;
+	private int[] headRevs;
+	private String[] headTypes;
+
+	private final Map<String, String> typePool = new HashMap<String, String>();
+	private Map<Integer, IExtendedFileSpec> messages = null;
+
+	/**
+	 * Create an empty set of columns for the given fields.
+	 *
+	 * @param fields non-null, non-empty set of fields to request and retain.
+	 */
+	public ExtendedFileSpecColumns(Set<Field> fields) {
+		if (fields == null) {
+			throw new NullPointerError("Null fields passed to ExtendedFileSpecColumns constructor");
+		}
+		if (fields.isEmpty()) {
+			throw new IllegalArgumentException("no fields passed to ExtendedFileSpecColumns constructor");
+		}
+		this.fields = EnumSet.copyOf(fields);
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Return the fields held by these columns.
+	 */
+	public Set<Field> getFields() {
+		return EnumSet.copyOf(this.fields);
+	}
+
+	/**
+	 * Return the value for fstat's "-T" option that asks for exactly
+	 * the fields held by these columns.
+	 */
+	public String getFieldFilter() {
+		StringBuilder sb = new StringBuilder();
+		for (Field field : this.fields) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(field.getTag());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Return the number of rows, including message rows.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Remove all the rows, keeping the allocated space.
+	 */
+	public void clear() {
+		// Drop the string references, so they can be collected.
+		for (String[] column : new String[][] { this.depotFiles, this.clientFiles, this.types, this.headTypes }) {
+			if (column != null) {
+				Arrays.fill(column, 0, this.size, null);
+			}
+		}
+		this.size = 0;
+		this.messages = null;
+		this.typePool.clear();
+	}
+
+	/**
+	 * Add a row from an fstat result map. Fields in the map that these
+	 * columns don't hold are ignored.
+	 *
+	 * @return the index of the new row.
+	 */
+	public int add(Map<String, Object> map) {
+		int row = newRow();
+		if (this.depotFiles != null) {
+			this.depotFiles[row] = (String) map.get("depotFile");
+		}
+		if (this.clientFiles != null) {
+			this.clientFiles[row] = (String) map.get("clientFile");
+		}
+		if (this.actions != null) {
+			this.actions[row] = toOrdinal(FileAction.fromString((String) map.get("action")));
+		}
+		if (this.changes != null) {
+			this.changes[row] = FileSpec.getChangelistFromString((String) map.get("change"));
+		}
+		if (this.types != null) {
+			this.types[row] = pool((String) map.get("type"));
+		}
+		if (this.haveRevs != null) {
+			this.haveRevs[row] = FileSpec.getRevFromString((String) map.get("haveRev"));
+		}
+		if (this.headActions != null) {
+			this.headActions[row] = toOrdinal(FileAction.fromString((String) map.get("headAction")));
+		}
+		if (this.headChanges != null) {
+			String cList = (String) map.get("headChange");
+			this.headChanges[row] = ((cList != null) && !cList.equalsIgnoreCase("default")
+					? Integer.parseInt(cList) : IChangelist.DEFAULT);
+		}
+		if (this.headRevs != null) {
+			String rev = (String) map.get("headRev");
+			this.headRevs[row] = (rev == null ? 0 : Integer.parseInt(rev));
+		}
+		if (this.headTypes != null) {
+			this.headTypes[row] = pool((String) map.get("headType"));
+		}
+		return row;
+	}
+
+	/**
+	 * Add a message row, such as an error or info result.
+	 *
+	 * @param spec non-null spec whose op status is not VALID.
+	 * @return the index of the new row.
+	 */
+	public int addMessage(IExtendedFileSpec spec) {
+		if (spec == null) {
+			throw new NullPointerError("Null spec passed to ExtendedFileSpecColumns.addMessage");
+		}
+		int row = newRow();
+		if (this.messages == null) {
+			this.messages = new HashMap<Integer, IExtendedFileSpec>();
+		}
+		this.messages.put(row, spec);
+		return row;
+	}
+
+	/**
+	 * Return a view onto the given row. The view is only valid until
+	 * the next call to {@link #clear()}.
+	 */
+	public IExtendedFileSpec get(int row) {
+		if ((row < 0) || (row >= this.size)) {
+			throw new IndexOutOfBoundsException("row " + row + " of " + this.size);
+		}
+		if (this.messages != null) {
+			IExtendedFileSpec message = this.messages.get(row);
+			if (message != null) {
+				return message;
+			}
+		}
+		return new Row(row);
+	}
+
+	private int newRow() {
+		if (this.size == this.capacity) {
+			allocate(this.capacity * 2);
+		}
+		return this.size++;
+	}
+
+	private void allocate(int capacity) {
+		this.capacity = capacity;
+		if (this.fields.contains(Field.DEPOT_FILE)) {
+			this.depotFiles = (this.depotFiles == null ? new String[capacity]
+					: Arrays.copyOf(this.depotFiles, capacity));
+		}
+		if (this.fields.contains(Field.CLIENT_FILE)) {
+			this.clientFiles = (this.clientFiles == null ? new String[capacity]
+					: Arrays.copyOf(this.clientFiles, capacity));
+		}
+		if (this.fields.contains(Field.ACTION)) {
+			this.actions = (this.actions == null ? new byte[capacity]
+					: Arrays.copyOf(this.actions, capacity));
+		}
+		if (this.fields.contains(Field.CHANGE)) {
+			this.changes = (this.changes == null ? new int[capacity]
+					: Arrays.copyOf(this.changes, capacity));
+		}
+		if (this.fields.contains(Field.TYPE)) {
+			this.types = (this.types == null ? new String[capacity]
+					: Arrays.copyOf(this.types, capacity));
+		}
+		if (this.fields.contains(Field.HAVE_REV)) {
+			this.haveRevs = (this.haveRevs == null ? new int[capacity]
+					: Arrays.copyOf(this.haveRevs, capacity));
+		}
+		if (this.fields.contains(Field.HEAD_ACTION)) {
+			this.headActions = (this.headActions == null ? new byte[capacity]
+					: Arrays.copyOf(this.headActions, capacity));
+		}
+		if (this.fields.contains(Field.HEAD_CHANGE)) {
+			this.headChanges = (this.headChanges == null ? new int[capacity]
+					: Arrays.copyOf(this.headChanges, capacity));
+		}
+		if (this.fields.contains(Field.HEAD_REV)) {
+			this.headRevs = (this.headRevs == null ? new int[capacity]
+					: Arrays.copyOf(this.headRevs, capacity));
+		}
+		if (this.fields.contains(Field.HEAD_TYPE)) {
+			this.headTypes = (this.headTypes == null ? new String[capacity]
+					: Arrays.copyOf(this.headTypes, capacity));
+		}
+	}
+
+	private String pool(String value) {
+		if (value == null) {
+			return null;
+		}
+		String ret = this.typePool.get(value);
+		if (ret == null) {
+			this.typePool.put(value, value);
+			ret = value;
+		}
+		return ret;
+	}
+
+	private static byte toOrdinal(FileAction action) {
+		return (byte) (action == null ? 0 : action.ordinal() + 1);
+	}
+
+	private static FileAction fromOrdinal(byte ordinal) {
+		return (ordinal == 0 ? null : ACTIONS[ordinal - 1]);
+	}
+
+	private static UnsupportedOperationException notHeld(String what) {
+		return new UnsupportedOperationException(what + " is not held by ExtendedFileSpecColumns");
+	}
+
+	/**
+	 * The flyweight view onto a single valid row.
+	 */
+	private class Row implements IExtendedFileSpec {
+		private final int row;
+
+		Row(int row) {
+			this.row = row;
+		}
+
+		// Fields held in the columns.
+
+		public FilePath getPath(FilePath.PathType pathType) {
+			String path = getPathString(pathType);
+			return (path == null ? null : new FilePath(pathType, path, true));
+		}
+
+		public String getPathString(FilePath.PathType pathType) {
+			if (pathType == FilePath.PathType.DEPOT) {
+				return (depotFiles == null ? null : depotFiles[this.row]);
+			}
+			if (pathType == FilePath.PathType.CLIENT) {
+				return (clientFiles == null ? null : clientFiles[this.row]);
+			}
+			return null;
+		}
+
+		public void setPath(FilePath filePath) {
+			if (filePath != null) {
+				setPathString(filePath.getPathType(), filePath.getPathString());
+			}
+		}
+
+		public void setPathFromString(FilePath.PathType pathType, String pathStr) {
+			setPathString(pathType, PathAnnotations.stripAnnotations(pathStr));
+		}
+
+		private void setPathString(FilePath.PathType pathType, String path) {
+			if ((pathType == FilePath.PathType.DEPOT) && (depotFiles != null)) {
+				depotFiles[this.row] = path;
+			} else if ((pathType == FilePath.PathType.CLIENT) && (clientFiles != null)) {
+				clientFiles[this.row] = path;
+			} else {
+				throw notHeld(pathType + " path");
+			}
+		}
+
+		public FilePath getDepotPath() {
+			return getPath(FilePath.PathType.DEPOT);
+		}
+
+		public String getDepotPathString() {
+			return getPathString(FilePath.PathType.DEPOT);
+		}
+
+		public void setDepotPath(String pathStr) {
+			setPathString(FilePath.PathType.DEPOT, pathStr);
+		}
+
+		public FilePath getClientPath() {
+			return getPath(FilePath.PathType.CLIENT);
+		}
+
+		public String getClientPathString() {
+			return getPathString(FilePath.PathType.CLIENT);
+		}
+
+		public void setClientPath(String pathStr) {
+			setPathString(FilePath.PathType.CLIENT, pathStr);
+		}
+
+		public FilePath getPreferredPath() {
+			String depot = getDepotPathString();
+			if (depot != null) {
+				return new FilePath(FilePath.PathType.DEPOT, depot, true);
+			}
+			return getClientPath();
+		}
+
+		public String getPreferredPathString() {
+			FilePath path = getPreferredPath();
+			return (path == null ? null : path.toString());
+		}
+
+		public String getAnnotatedPathString(FilePath.PathType pathType) {
+			FilePath path = getPath(pathType);
+			return (path == null ? null : path.annotate(this));
+		}
+
+		public String getAnnotatedPreferredPathString() {
+			FilePath path = getPreferredPath();
+			return (path == null ? null : path.annotate(this));
+		}
+
+		public FileAction getAction() {
+			return (actions == null ? null : fromOrdinal(actions[this.row]));
+		}
+
+		public void setAction(FileAction action) {
+			if (actions == null) {
+				throw notHeld("action");
+			}
+			actions[this.row] = toOrdinal(action);
+		}
+
+		public int getChangelistId() {
+			return (changes == null ? IChangelist.UNKNOWN : changes[this.row]);
+		}
+
+		public void setChangelistId(int changeListId) {
+			if (changes == null) {
+				throw notHeld("change");
+			}
+			changes[this.row] = changeListId;
+		}
+
+		public String getFileType() {
+			return (types == null ? null : types[this.row]);
+		}
+
+		public void setFileType(String type) {
+			if (types == null) {
+				throw notHeld("type");
+			}
+			types[this.row] = pool(type);
+		}
+
+		public int getHaveRev() {
+			return (haveRevs == null ? IFileSpec.NO_FILE_REVISION : haveRevs[this.row]);
+		}
+
+		public void setHaveRev(int rev) {
+			if (haveRevs == null) {
+				throw notHeld("haveRev");
+			}
+			haveRevs[this.row] = rev;
+		}
+
+		public int getEndRevision() {
+			// fstat sends no "rev", so FileSpec takes the end revision from "haveRev".
+			return getHaveRev();
+		}
+
+		public FileAction getHeadAction() {
+			return (headActions == null ? null : fromOrdinal(headActions[this.row]));
+		}
+
+		public void setHeadAction(FileAction action) {
+			if (headActions == null) {
+				throw notHeld("headAction");
+			}
+			headActions[this.row] = toOrdinal(action);
+		}
+
+		public int getHeadChange() {
+			return (headChanges == null ? IChangelist.DEFAULT : headChanges[this.row]);
+		}
+
+		public void setHeadChange(int change) {
+			if (headChanges == null) {
+				throw notHeld("headChange");
+			}
+			headChanges[this.row] = change;
+		}
+
+		public int getHeadRev() {
+			return (headRevs == null ? 0 : headRevs[this.row]);
+		}
+
+		public void setHeadRev(int rev) {
+			if (headRevs == null) {
+				throw notHeld("headRev");
+			}
+			headRevs[this.row] = rev;
+		}
+
+		public String getHeadType() {
+			return (headTypes == null ? null : headTypes[this.row]);
+		}
+
+		public void setHeadType(String type) {
+			if (headTypes == null) {
+				throw notHeld("headType");
+			}
+			headTypes[this.row] = pool(type);
+		}
+
+		public FileSpecOpStatus getOpStatus() {
+			return FileSpecOpStatus.VALID;
+		}
+
+		public void setServer(IServer server) {
+			// Rows are never associated with a server.
+		}
+
+		public String toString() {
+			return getAnnotatedPreferredPathString();
+		}
+
+		// Fields that are never held; these match a spec whose result map
+		// didn't have the field.
+
+		public IServerMessage getStatusMessage() {
+			return null;
+		}
+
+		public int getGenericCode() {
+			return 0;
+		}
+
+		public int getRawCode() {
+			return 0;
+		}
+
+		public int getSeverityCode() {
+			return 0;
+		}
+
+		public int getSubCode() {
+			return 0;
+		}
+
+		public int getSubSystem() {
+			return 0;
+		}
+
+		public int getUniqueCode() {
+			return 0;
+		}
+
+		public FilePath getLocalPath() {
+			return null;
+		}
+
+		public String getLocalPathString() {
+			return null;
+		}
+
+		public FilePath getOriginalPath() {
+			return null;
+		}
+
+		public String getOriginalPathString() {
+			return null;
+		}
+
+		public FileAction getOtherAction() {
+			return null;
+		}
+
+		public boolean isLocked() {
+			return false;
+		}
+
+		public boolean isUnmap() {
+			return false;
+		}
+
+		public int getBaseRev() {
+			return IFileSpec.NO_FILE_REVISION;
+		}
+
+		public int getEndFromRev() {
+			return IFileSpec.NO_FILE_REVISION;
+		}
+
+		public int getEndToRev() {
+			return IFileSpec.NO_FILE_REVISION;
+		}
+
+		public int getShelvedChange() {
+			return IChangelist.UNKNOWN;
+		}
+
+		public int getStartFromRev() {
+			return IFileSpec.NO_FILE_REVISION;
+		}
+
+		public int getStartRevision() {
+			return IFileSpec.NO_FILE_REVISION;
+		}
+
+		public int getStartToRev() {
+			return IFileSpec.NO_FILE_REVISION;
+		}
+
+		public int getWorkRev() {
+			return IFileSpec.NO_FILE_REVISION;
+		}
+
+		public String getBaseFile() {
+			return null;
+		}
+
+		public String getBaseName() {
+			return null;
+		}
+
+		public String getClientName() {
+			return null;
+		}
+
+		public String getContentResolveType() {
+			return null;
+		}
+
+		public String getDiffStatus() {
+			return null;
+		}
+
+		public String getFromFile() {
+			return null;
+		}
+
+		public String getHowResolved() {
+			return null;
+		}
+
+		public String getLabel() {
+			return null;
+		}
+
+		public String getResolveType() {
+			return null;
+		}
+
+		public String getToFile() {
+			return null;
+		}
+
+		public String getUserName() {
+			return null;
+		}
+
+		public Date getDate() {
+			return null;
+		}
+
+		public boolean isMapped() {
+			return false;
+		}
+
+		public boolean isOtherLocked() {
+			return false;
+		}
+
+		public boolean isReresolvable() {
+			return false;
+		}
+
+		public boolean isResolved() {
+			return false;
+		}
+
+		public boolean isShelved() {
+			return false;
+		}
+
+		public boolean isUnresolved() {
+			return false;
+		}
+
+		public FileAction getOpenAction() {
+			return null;
+		}
+
+		public int getOpenChangelistId() {
+			return 0;
+		}
+
+		public String getActionOwner() {
+			return null;
+		}
+
+		public String getCharset() {
+			return null;
+		}
+
+		public String getDesc() {
+			return null;
+		}
+
+		public String getDigest() {
+			return null;
+		}
+
+		public String getHeadCharset() {
+			return null;
+		}
+
+		public String getMovedFile() {
+			return null;
+		}
+
+		public String getOpenActionOwner() {
+			return null;
+		}
+
+		public String getOpenType() {
+			return null;
+		}
+
+		public String getVerifyStatus() {
+			return null;
+		}
+
+		public Date getHeadModTime() {
+			return null;
+		}
+
+		public Date getHeadTime() {
+			return null;
+		}
+
+		public List<IResolveRecord> getResolveRecords() {
+			return null;
+		}
+
+		public List<String> getOtherActionList() {
+			return null;
+		}
+
+		public List<String> getOtherChangelist() {
+			return null;
+		}
+
+		public List<String> getOtherOpenList() {
+			return null;
+		}
+
+		public Map<String, byte[]> getAttributes() {
+			return null;
+		}
+
+		public long getFileSize() {
+			return 0;
+		}
+
+		// Setters for fields that are not held.
+
+		public void setBaseFile(String baseFile) {
+			throw notHeld("baseFile");
+		}
+
+		public void setBaseName(String baseName) {
+			throw notHeld("baseName");
+		}
+
+		public void setBaseRev(int baseRev) {
+			throw notHeld("baseRev");
+		}
+
+		public void setClientName(String clientName) {
+			throw notHeld("client");
+		}
+
+		public void setContentResolveType(String contentResolveType) {
+			throw notHeld("contentResolveType");
+		}
+
+		public void setDate(Date date) {
+			throw notHeld("time");
+		}
+
+		public void setDiffStatus(String diffStatus) {
+			throw notHeld("status");
+		}
+
+		public void setEndFromRev(int rev) {
+			throw notHeld("endFromRev");
+		}
+
+		public void setEndRevision(int rev) {
+			throw notHeld("rev");
+		}
+
+		public void setEndToRev(int rev) {
+			throw notHeld("endToRev");
+		}
+
+		public void setFromFile(String pathStr) {
+			throw notHeld("fromFile");
+		}
+
+		public void setHowResolved(String howResolved) {
+			throw notHeld("how");
+		}
+
+		public void setLabel(String label) {
+			throw notHeld("label");
+		}
+
+		public void setLocalPath(String pathStr) {
+			throw notHeld("local path");
+		}
+
+		public void setLocked(boolean locked) {
+			throw notHeld("ourLock");
+		}
+
+		public void setOriginalPath(String pathStr) {
+			throw notHeld("original path");
+		}
+
+		public void setOtherAction(FileAction action) {
+			throw notHeld("otherAction");
+		}
+
+		public void setResolveType(String resolveType) {
+			throw notHeld("resolveType");
+		}
+
+		public void setShelvedChange(int shelvedChange) {
+			throw notHeld("shelvedChange");
+		}
+
+		public void setStartFromRev(int rev) {
+			throw notHeld("startFromRev");
+		}
+
+		public void setStartRevision(int rev) {
+			throw notHeld("start revision");
+		}
+
+		public void setStartToRev(int rev) {
+			throw notHeld("startToRev");
+		}
+
+		public void setToFile(String pathStr) {
+			throw notHeld("toFile");
+		}
+
+		public void setUnmap(boolean unmap) {
+			throw notHeld("unmap");
+		}
+
+		public void setUserName(String userName) {
+			throw notHeld("user");
+		}
+
+		public void setWorkRev(int rev) {
+			throw notHeld("workRev");
+		}
+
+		public void setActionOwner(String actionOwner) {
+			throw notHeld("actionOwner");
+		}
+
+		public void setCharset(String charset) {
+			throw notHeld("charset");
+		}
+
+		public void setDesc(String desc) {
+			throw notHeld("desc");
+		}
+
+		public void setDigest(String digest) {
+			throw notHeld("digest");
+		}
+
+		public void setFileSize(long fileSize) {
+			throw notHeld("fileSize");
+		}
+
+		public void setHeadCharset(String charset) {
+			throw notHeld("headCharset");
+		}
+
+		public void setHeadModTime(Date date) {
+			throw notHeld("headModTime");
+		}
+
+		public void setHeadTime(Date date) {
+			throw notHeld("headTime");
+		}
+
+		public void setMapped(boolean mapped) {
+			throw notHeld("isMapped");
+		}
+
+		public void setMovedFile(String movedFile) {
+			throw notHeld("movedFile");
+		}
+
+		public void setOpenAction(FileAction action) {
+			throw notHeld("openAction");
+		}
+
+		public void setOpenActionOwner(String owner) {
+			throw notHeld("openActionOwner");
+		}
+
+		public void setOpenChangelistId(int id) {
+			throw notHeld("openChangelist");
+		}
+
+		public void setOpenType(String type) {
+			throw notHeld("openType");
+		}
+
+		public void setOtherActionList(List<String> actionList) {
+			throw notHeld("otherAction");
+		}
+
+		public void setOtherChangelist(List<String> changelist) {
+			throw notHeld("otherChange");
+		}
+
+		public void setOtherLocked(boolean locked) {
+			throw notHeld("otherLock");
+		}
+
+		public void setOtherOpenList(List<String> openList) {
+			throw notHeld("otherOpen");
+		}
+
+		public void setReresolvable(boolean reresolvable) {
+			throw notHeld("reresolvable");
+		}
+
+		public void setResolveRecords(List<IResolveRecord> resolveRecords) {
+			throw notHeld("resolve records");
+		}
+
+		public void setResolved(boolean resolved) {
+			throw notHeld("resolved");
+		}
+
+		public void setUnresolved(boolean unresolved) {
+			throw notHeld("unresolved");
+		}
+
+		public void setVerifyStatus(String status) {
+			throw notHeld("status");
+		}
+
+		// Server operations; a row is never associated with a server, so
+		// these behave as they do for a FileSpec without one.
+
+		public boolean canRefresh() {
+			return false;
+		}
+
+		public boolean canUpdate() {
+			return false;
+		}
+
+		public void refresh() throws ConnectionException, RequestException, AccessException {
+			throw new UnimplementedError("called ExtendedFileSpecColumns row refresh");
+		}
+
+		public void update() throws ConnectionException, RequestException, AccessException {
+			throw new UnimplementedError("called ExtendedFileSpecColumns row update");
+		}
+
+		public void update(boolean force) throws ConnectionException, RequestException, AccessException {
+			throw new UnimplementedError("called ExtendedFileSpecColumns row update(force)");
+		}
+
+		public void update(Options opts) throws ConnectionException, RequestException, AccessException {
+			throw new UnimplementedError("called ExtendedFileSpecColumns row update(opts)");
+		}
+
+		public InputStream getContents(boolean noHeaderLine)
+				throws ConnectionException, RequestException, AccessException {
+			throw noServer();
+		}
+
+		public InputStream getContents(GetFileContentsOptions opts) throws P4JavaException {
+			throw noServer();
+		}
+
+		public List<IFileAnnotation> getAnnotations(DiffType wsOptions, boolean allResults,
+				boolean useChangeNumbers, boolean followBranches)
+				throws ConnectionException, RequestException, AccessException {
+			throw noServer();
+		}
+
+		public List<IFileAnnotation> getAnnotations(GetFileAnnotationsOptions opts) throws P4JavaException {
+			throw noServer();
+		}
+
+		public List<IFileSpec> move(int changelistId, boolean listOnly, boolean noClientMove,
+				String fileType, IFileSpec toFile)
+				throws ConnectionException, RequestException, AccessException {
+			throw noServer();
+		}
+
+		public List<IFileSpec> move(IFileSpec toFile, MoveFileOptions opts) throws P4JavaException {
+			throw noServer();
+		}
+
+		public Map<IFileSpec, List<IFileRevisionData>> getRevisionHistory(int maxRevs,
+				boolean contentHistory, boolean includeInherited,
+				boolean longOutput, boolean truncatedLongOutput)
+				throws ConnectionException, RequestException, AccessException {
+			throw noServer();
+		}
+
+		public Map<IFileSpec, List<IFileRevisionData>> getRevisionHistory(GetRevisionHistoryOptions opts)
+				throws P4JavaException {
+			throw noServer();
+		}
+
+		private P4JavaError noServer() {
+			return new P4JavaError("File specification is not associated with any server");
+		}
+	}
+}
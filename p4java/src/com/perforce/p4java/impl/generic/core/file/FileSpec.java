@@ -264,19 +264,7 @@ public class FileSpec extends ServerResource implements IFileSpec {
 			this.setLocked((((map.get("ourLock") == null) && (map.get("otherLock") == null)) ? false : true));
 			this.setEndRevision(getRevFromString(revStr));
 			
-			if (cid == null) {
-				this.setChangelistId(IChangelist.UNKNOWN);
-			} else if (cid.equalsIgnoreCase("default") || cid.equalsIgnoreCase("default change")) {
-				this.setChangelistId(IChangelist.DEFAULT);
-			} else {
-				// Sometimes in format "change nnnnnn", sometimes just "nnnnn". Urgh...
-				int i = cid.indexOf(" ");
-				if (i < 0) {
-					this.setChangelistId(new Integer(cid));
-				} else {
-					this.setChangelistId(new Integer(cid.substring(i+1)));
-				}
-			}
+			this.setChangelistId(getChangelistFromString(cid));
 			
 			this.setEndFromRev(getRevFromString((String) map.get("endFromRev" + indexStr)));
 			this.setStartFromRev(getRevFromString((String) map.get("startFromRev" + indexStr)));
@@ -823,6 +811,22 @@ public class FileSpec extends ServerResource implements IFileSpec {
 		this.unmap = unmap;
 	}
 
+	/**
+	 * Parse a changelist ID as sent in a result map's "change" field.
+	 * 
+	 * @return the changelist ID; IChangelist.UNKNOWN if str is null.
+	 */
+	public static int getChangelistFromString(String str) {
+		if (str == null) {
+			return IChangelist.UNKNOWN;
+		} else if (str.equalsIgnoreCase("default") || str.equalsIgnoreCase("default change")) {
+			return IChangelist.DEFAULT;
+		}
+		// Sometimes in format "change nnnnnn", sometimes just "nnnnn". Urgh...
+		int i = str.indexOf(" ");
+		return new Integer(i < 0 ? str : str.substring(i + 1));
+	}
+
 	public static int getRevFromString(String str) {
 		int rev = NO_FILE_REVISION;
 
@@ -19,6 +19,7 @@ import com.perforce.p4java.PropertyDefs;
 import com.perforce.p4java.impl.generic.client.ClientView;
 import com.perforce.p4java.impl.generic.core.InputMapper;
 import com.perforce.p4java.impl.generic.core.MapEntry;
+import com.perforce.p4java.impl.mapbased.server.FileSpecBatcher;
 import com.perforce.p4java.impl.mapbased.server.Parameters;
 import com.perforce.p4java.impl.mapbased.server.Server;
 import com.perforce.p4java.client.IClient;
@@ -56,6 +57,7 @@ import com.perforce.p4java.option.server.OpenedFilesOptions;
 import com.perforce.p4java.server.CmdSpec;
 import com.perforce.p4java.server.IOptionsServer;
 import com.perforce.p4java.server.IServer;
+import com.perforce.p4java.server.callback.IFileSpecCallback;
 import com.perforce.p4java.server.callback.IStreamingCallback;
 
 /**
@@ -539,14 +541,16 @@ public class Client extends ClientSummary implements IClient {
 					"Attempted to sync a client that is not the server's current client");
 		}
 		
-		List<Map<String, Object>> resultMaps = this.serverImpl.execMapCmdList(CmdSpec.SYNC,
-											Parameters.processParameters(
-													syncOpts, fileSpecs, this.server),
-											null);
-
-		if (resultMaps != null) {
-			for (Map<String, Object> map : resultMaps) {
-				specList.add(this.serverImpl.handleFileReturn(map, this));
+		for (List<IFileSpec> batch : this.serverImpl.getFileSpecBatcher().split(fileSpecs)) {
+			List<Map<String, Object>> resultMaps = this.serverImpl.execMapCmdList(CmdSpec.SYNC,
+												Parameters.processParameters(
+														syncOpts, batch, this.server),
+												null);
+	
+			if (resultMaps != null) {
+				for (Map<String, Object> map : resultMaps) {
+					specList.add(this.serverImpl.handleFileReturn(map, this));
+				}
 			}
 		}
 		
@@ -565,12 +569,63 @@ public class Client extends ClientSummary implements IClient {
 					"Attempted to sync a client that is not the server's current client");
 		}
 
-		this.serverImpl.execStreamingMapCommand(CmdSpec.SYNC.toString(),
-							Parameters.processParameters(
-									syncOpts, fileSpecs, this.server),
-							null,
-							callback,
-							key);
+		List<List<IFileSpec>> batches = this.serverImpl.getFileSpecBatcher().split(fileSpecs);
+		IStreamingCallback batchCallback = callback;
+		FileSpecBatcher.BatchedStreamingCallback batchedCallback = null;
+		if ((callback != null) && (batches.size() > 1)) {
+			batchedCallback = new FileSpecBatcher.BatchedStreamingCallback(callback, batches.size());
+			batchCallback = batchedCallback;
+		}
+		
+		for (List<IFileSpec> batch : batches) {
+			this.serverImpl.execStreamingMapCommand(CmdSpec.SYNC.toString(),
+								Parameters.processParameters(
+										syncOpts, batch, this.server),
+								null,
+								batchCallback,
+								key);
+			if ((batchedCallback != null) && batchedCallback.isStopped()) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @see com.perforce.p4java.client.IClient#sync(List, com.perforce.p4java.option.client.SyncOptions, com.perforce.p4java.server.callback.IFileSpecCallback, int)
+	 */
+	public void sync(List<IFileSpec> fileSpecs, SyncOptions syncOpts, final IFileSpecCallback callback, int key)
+			throws P4JavaException {
+		if (callback == null) {
+			throw new NullPointerError("Null callback passed to sync");
+		}
+		
+		// The RPC layer only logs exceptions thrown by a streaming callback,
+		// so the first one is kept here and rethrown once the command stops.
+		final P4JavaException[] failure = new P4JavaException[1];
+		sync(fileSpecs, syncOpts, new IStreamingCallback() {
+				public boolean startResults(int key) {
+					return true;
+				}
+				
+				public boolean endResults(int key) {
+					return true;
+				}
+				
+				public boolean handleResult(Map<String, Object> resultMap, int key) {
+					if (resultMap == null) {
+						return true;
+					}
+					try {
+						return callback.handleSpec(serverImpl.handleFileReturn(resultMap, Client.this), key);
+					} catch (P4JavaException exc) {
+						failure[0] = exc;
+						return false;
+					}
+				}
+			}, key);
+		if (failure[0] != null) {
+			throw failure[0];
+		}
 	}
 
 	/**
@@ -709,15 +764,17 @@ public class Client extends ClientSummary implements IClient {
 								throws P4JavaException {
 		List<IFileSpec> resultList = new ArrayList<IFileSpec>();
 		
-		List<Map<String, Object>> resultMaps = this.serverImpl.execMapCmdList(
-												CmdSpec.ADD,
-												Parameters.processParameters(
-														opts, fileSpecs, this.serverImpl),
-												null);
-		
-		if (resultMaps != null) {
-			for (Map<String, Object> map : resultMaps) {
-				resultList.add(this.serverImpl.handleFileReturn(map, this));
+		for (List<IFileSpec> batch : this.serverImpl.getFileSpecBatcher().split(fileSpecs)) {
+			List<Map<String, Object>> resultMaps = this.serverImpl.execMapCmdList(
+													CmdSpec.ADD,
+													Parameters.processParameters(
+															opts, batch, this.serverImpl),
+													null);
+			
+			if (resultMaps != null) {
+				for (Map<String, Object> map : resultMaps) {
+					resultList.add(this.serverImpl.handleFileReturn(map, this));
+				}
 			}
 		}
 		return resultList;
@@ -798,15 +855,17 @@ public class Client extends ClientSummary implements IClient {
 	public List<IFileSpec> editFiles(List<IFileSpec> fileSpecs, EditFilesOptions opts) throws P4JavaException {
 		List<IFileSpec> resultList = new ArrayList<IFileSpec>();
 		
-		List<Map<String, Object>> resultMaps = this.serverImpl.execMapCmdList(
-												CmdSpec.EDIT,
-												Parameters.processParameters(
-														opts, fileSpecs, this.serverImpl),
-												null);
-		
-		if (resultMaps != null) {
-			for (Map<String, Object> map : resultMaps) {
-				resultList.add(this.serverImpl.handleFileReturn(map, this));
+		for (List<IFileSpec> batch : this.serverImpl.getFileSpecBatcher().split(fileSpecs)) {
+			List<Map<String, Object>> resultMaps = this.serverImpl.execMapCmdList(
+													CmdSpec.EDIT,
+													Parameters.processParameters(
+															opts, batch, this.serverImpl),
+													null);
+			
+			if (resultMaps != null) {
+				for (Map<String, Object> map : resultMaps) {
+					resultList.add(this.serverImpl.handleFileReturn(map, this));
+				}
 			}
 		}
 		return resultList;
@@ -838,15 +897,17 @@ public class Client extends ClientSummary implements IClient {
 											throws P4JavaException {
 		List<IFileSpec> resultList = new ArrayList<IFileSpec>();
 		
-		List<Map<String, Object>> resultMaps = this.serverImpl.execMapCmdList(
-												CmdSpec.REVERT,
-												Parameters.processParameters(
-														opts, fileSpecs, null, false, this.serverImpl),
-												null);
-		
-		if (resultMaps != null) {
-			for (Map<String, Object> map : resultMaps) {
-				resultList.add(this.serverImpl.handleFileReturn(map, this));
+		for (List<IFileSpec> batch : this.serverImpl.getFileSpecBatcher().split(fileSpecs)) {
+			List<Map<String, Object>> resultMaps = this.serverImpl.execMapCmdList(
+													CmdSpec.REVERT,
+													Parameters.processParameters(
+															opts, batch, null, false, this.serverImpl),
+													null);
+			
+			if (resultMaps != null) {
+				for (Map<String, Object> map : resultMaps) {
+					resultList.add(this.serverImpl.handleFileReturn(map, this));
+				}
 			}
 		}
 		return resultList;
@@ -903,15 +964,17 @@ public class Client extends ClientSummary implements IClient {
 									throws P4JavaException {
 		List<IFileSpec> reopenList = new ArrayList<IFileSpec>();
 		
-		List<Map<String, Object>> resultMaps = this.serverImpl.execMapCmdList(
-												CmdSpec.REOPEN,
-												Parameters.processParameters(
-														opts, fileSpecs, null, false, this.serverImpl),
-												null);
-		
-		if (resultMaps != null) {
-			for (Map<String, Object> map : resultMaps) {
-				reopenList.add(this.serverImpl.handleFileReturn(map, this));
+		for (List<IFileSpec> batch : this.serverImpl.getFileSpecBatcher().split(fileSpecs)) {
+			List<Map<String, Object>> resultMaps = this.serverImpl.execMapCmdList(
+													CmdSpec.REOPEN,
+													Parameters.processParameters(
+															opts, batch, null, false, this.serverImpl),
+													null);
+			
+			if (resultMaps != null) {
+				for (Map<String, Object> map : resultMaps) {
+					reopenList.add(this.serverImpl.handleFileReturn(map, this));
+				}
 			}
 		}
 		return reopenList;
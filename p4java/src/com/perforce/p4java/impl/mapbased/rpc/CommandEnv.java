@@ -156,6 +156,8 @@ public class CommandEnv {
 	private RpcConnection rpcConnection = null;
 	
 	private boolean userCanceled = false; // true if the user tried to cancel the command
+
+	private long firstPacketNanos = 0; // System.nanoTime() when the first response packet arrived
 	
 	public CommandEnv(RpcCmdSpec cmdSpec, RpcConnection rpcConnection,
 									ProtocolCommand protocolSpecs,
@@ -304,6 +306,14 @@ public class CommandEnv {
 		this.cmdCallBackKey = cmdCallBackKey;
 	}
 
+	public long getFirstPacketNanos() {
+		return this.firstPacketNanos;
+	}
+
+	public void setFirstPacketNanos(long firstPacketNanos) {
+		this.firstPacketNanos = firstPacketNanos;
+	}
+
 	public boolean isUserCanceled() {
 		return this.userCanceled;
 	}
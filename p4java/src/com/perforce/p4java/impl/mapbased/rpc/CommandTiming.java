@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package com.perforce.p4java.impl.mapbased.rpc;
+
+import com.perforce.p4java.server.callback.ICommandTimingCallback;
+
+/**
+ * Tracks the wire-level timing of a single command on behalf of the
+ * server's ICommandTimingCallback. Does nothing (beyond its own allocation)
+ * if no callback is registered.<p>
+ *
+ * The byte counts come from the server-wide ServerStats, so for servers that
+ * run commands concurrently they are only approximate.
+ */
+
+public class CommandTiming {
+	private final ICommandTimingCallback callback;
+	private final ServerStats stats;
+	private final String cmdName;
+	private final long startNanos;
+	private final long bytesSentStart;
+	private final long bytesRecvStart;
+	private long sentNanos = 0;
+
+	CommandTiming(ICommandTimingCallback callback, ServerStats stats, String cmdName) {
+		this.callback = (stats == null ? null : callback);
+		this.stats = stats;
+		this.cmdName = cmdName;
+		if (this.callback != null) {
+			this.startNanos = System.nanoTime();
+			this.bytesSentStart = stats.totalBytesSent.get();
+			this.bytesRecvStart = stats.totalBytesRecv.get();
+		} else {
+			this.startNanos = 0;
+			this.bytesSentStart = 0;
+			this.bytesRecvStart = 0;
+		}
+	}
+
+	/**
+	 * Mark the command packets as sent.
+	 */
+	public void sent() {
+		if (this.callback != null) {
+			this.sentNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Mark the command as finished (successfully or not), and report its timing.
+	 *
+	 * @param cmdEnv the command's environment; may be null if the command
+	 * 			failed before it was created.
+	 */
+	public void finish(CommandEnv cmdEnv) {
+		if (this.callback == null) {
+			return;
+		}
+		long endNanos = System.nanoTime();
+		long sent = (this.sentNanos == 0 ? endNanos : this.sentNanos);
+		long firstPacketNanos = (cmdEnv == null ? 0 : cmdEnv.getFirstPacketNanos());
+		long serverNanos = 0;
+		long receiveNanos = endNanos - sent;
+		if (firstPacketNanos >= sent) {
+			serverNanos = firstPacketNanos - sent;
+			receiveNanos = endNanos - firstPacketNanos;
+		}
+		this.callback.commandTimed(this.cmdName, sent - this.startNanos, serverNanos, receiveNanos,
+				this.stats.totalBytesSent.get() - this.bytesSentStart,
+				this.stats.totalBytesRecv.get() - this.bytesRecvStart);
+	}
+}
@@ -30,7 +30,7 @@ import com.perforce.p4java.impl.mapbased.rpc.func.RpcFunctionSpec;
 import com.perforce.p4java.impl.mapbased.rpc.func.proto.ProtocolCommand;
 import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacket;
 import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacketDispatcher;
-import com.perforce.p4java.impl.mapbased.rpc.stream.RpcStreamConnection;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcSocketPool;
 import com.perforce.p4java.impl.mapbased.rpc.sys.RpcOutputStream;
 import com.perforce.p4java.option.UsageOptions;
 import com.perforce.p4java.server.CmdSpec;
@@ -147,12 +147,11 @@ public class NtsServerImpl extends RpcServer {
 	
 	public void connect() throws ConnectionException,
 								AccessException, RequestException, ConfigException {
-		this.rpcConnection = new RpcStreamConnection(serverHost, serverPort, props,
-												this.serverStats, this.charset, this.secure);
+		this.rpcConnection = createRpcConnection((RpcSocketPool) null);
 		this.dispatcher = new RpcPacketDispatcher(props, this);
 				
-		Log.info("RPC connection to Perforce server "
-				+ serverHost + ":" + serverPort + " established");
+		Log.info("RPC connection to Perforce server %s:%d established",
+				serverHost, serverPort);
 		
 		super.connect();
 	}
@@ -167,8 +166,8 @@ public class NtsServerImpl extends RpcServer {
 	 */
 	public void disconnect() throws ConnectionException,
 											AccessException {
-		Log.info("Disconnected RPC connection to Perforce server "
-							+ this.serverHost + ":" + this.serverPort);
+		Log.info("Disconnected RPC connection to Perforce server %s:%d",
+							this.serverHost, this.serverPort);
 		
 		this.dispatcher.shutdown(this.rpcConnection);
 		this.rpcConnection.disconnect(this.dispatcher);
@@ -300,6 +299,7 @@ public class NtsServerImpl extends RpcServer {
 				throws ConnectionException, AccessException, RequestException {
 		
 		CommandEnv cmdEnv = null;
+		CommandTiming timing = startCommandTiming(cmdName);
 		
 		try {
 			int cmdCallBackKey = this.nextCmdCallBackKey.incrementAndGet();
@@ -308,6 +308,7 @@ public class NtsServerImpl extends RpcServer {
 				ClientLineEnding.convertMap(inMap);
 			}
 			ExternalEnv env = setupCmd(cmdName.toLowerCase(Locale.ENGLISH), cmdArgs, inMap, ignoreCallbacks, cmdCallBackKey, false);
+			timing.sent();
 			cmdEnv = new CommandEnv(
 					new RpcCmdSpec(
 							cmdName,
@@ -385,6 +386,7 @@ public class NtsServerImpl extends RpcServer {
 					"I/O error encountered in stream command: "
 					+ ioexc.getLocalizedMessage(), ioexc);
 		} finally {
+			timing.finish(cmdEnv);
 			// Handle user cancelled command
 			if (cmdEnv != null && cmdEnv.isUserCanceled()) {
 				if (rpcConnection != null) {
@@ -470,6 +472,7 @@ public class NtsServerImpl extends RpcServer {
 		}
 		
 		CommandEnv cmdEnv = null;
+		CommandTiming timing = startCommandTiming(cmdName);
 		
 		try {
 			int cmdCallBackKey = this.nextCmdCallBackKey.incrementAndGet();
@@ -478,6 +481,7 @@ public class NtsServerImpl extends RpcServer {
 				ClientLineEnding.convertMap(inMap);
 			}
 			ExternalEnv env = setupCmd(cmdName,cmdArgs, inMap, ignoreCallbacks, cmdCallBackKey, true);
+			timing.sent();
 			cmdEnv = new CommandEnv(
 									new RpcCmdSpec(
 											cmdName,
@@ -547,6 +551,7 @@ public class NtsServerImpl extends RpcServer {
 					"I/O error encountered in stream command: "
 					+ ioexc.getLocalizedMessage(), ioexc);
 		} finally {
+			timing.finish(cmdEnv);
 			// Handle user cancelled command
 			if (cmdEnv != null && cmdEnv.isUserCanceled()) {
 				if (rpcConnection != null) {
@@ -15,7 +15,6 @@ import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacket;
 import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacketDispatcher;
 import com.perforce.p4java.impl.mapbased.rpc.stream.RpcSocketPool;
 import com.perforce.p4java.impl.mapbased.rpc.stream.RpcSocketPool.ShutdownHandler;
-import com.perforce.p4java.impl.mapbased.rpc.stream.RpcStreamConnection;
 import com.perforce.p4java.impl.mapbased.rpc.sys.RpcOutputStream;
 import com.perforce.p4java.option.UsageOptions;
 import com.perforce.p4java.server.CmdSpec;
@@ -112,12 +111,7 @@ public class OneShotServerImpl extends RpcServer {
 						RpcPacketDispatcher dispatcher = new RpcPacketDispatcher(
 								OneShotServerImpl.this.props,
 								OneShotServerImpl.this);
-						RpcStreamConnection rpcConnection = new RpcStreamConnection(
-								serverHost, serverPort,
-								OneShotServerImpl.this.props,
-								OneShotServerImpl.this.serverStats,
-								OneShotServerImpl.this.charset, socket,
-								OneShotServerImpl.this.secure);
+						RpcConnection rpcConnection = createRpcConnection(socket);
 						dispatcher.shutdown(rpcConnection);
 					} catch (ConnectionException e) {
 						Log.exception(e);
@@ -291,13 +285,14 @@ public class OneShotServerImpl extends RpcServer {
 					"Not currently connected to a Perforce server");
 		}
 		
+		CommandEnv cmdEnv = null;
+		CommandTiming timing = startCommandTiming(cmdName);
+		
 		try {
 			int cmdCallBackKey = this.nextCmdCallBackKey.incrementAndGet();
 			long startTime = System.currentTimeMillis();
 			dispatcher = new RpcPacketDispatcher(props, this);
-			rpcConnection = new RpcStreamConnection(serverHost, serverPort,
-					props, this.serverStats, this.charset, this.socketPool,
-					this.secure);
+			rpcConnection = createRpcConnection(this.socketPool);
 			ProtocolCommand protocolSpecs = new ProtocolCommand();
 			
 			if (inMap != null && ClientLineEnding.CONVERT_TEXT) {
@@ -306,7 +301,8 @@ public class OneShotServerImpl extends RpcServer {
 
 			ExternalEnv env = setupCmd(dispatcher, rpcConnection, protocolSpecs,
 									cmdName.toLowerCase(Locale.ENGLISH), cmdArgs, inMap, ignoreCallbacks, cmdCallBackKey, false);
-			CommandEnv cmdEnv = new CommandEnv(
+			timing.sent();
+			cmdEnv = new CommandEnv(
 					new RpcCmdSpec(
 							cmdName.toLowerCase(Locale.ENGLISH),
 							cmdArgs,
@@ -383,6 +379,7 @@ public class OneShotServerImpl extends RpcServer {
 					"I/O error encountered in stream command: "
 					+ ioexc.getLocalizedMessage(), ioexc);
 		} finally {			
+			timing.finish(cmdEnv);
 			if (rpcConnection != null) {
 				rpcConnection.disconnect(dispatcher);
 			}
@@ -459,20 +456,22 @@ public class OneShotServerImpl extends RpcServer {
 					"Not currently connected to a Perforce server");
 		}
 		
+		CommandEnv cmdEnv = null;
+		CommandTiming timing = startCommandTiming(cmdName);
+		
 		try {	
 			int cmdCallBackKey = this.nextCmdCallBackKey.incrementAndGet();
 			long startTime = System.currentTimeMillis();
 			dispatcher = new RpcPacketDispatcher(props, this);
-			rpcConnection = new RpcStreamConnection(serverHost, serverPort,
-					props, this.serverStats, this.charset, this.socketPool,
-					this.secure);
+			rpcConnection = createRpcConnection(this.socketPool);
 			ProtocolCommand protocolSpecs = new ProtocolCommand();
 			if (inMap != null && ClientLineEnding.CONVERT_TEXT) {
 				ClientLineEnding.convertMap(inMap);
 			}
 			ExternalEnv env = setupCmd(dispatcher, rpcConnection, protocolSpecs,
 											cmdName.toLowerCase(Locale.ENGLISH),cmdArgs, inMap, ignoreCallbacks, cmdCallBackKey, true);
-			CommandEnv cmdEnv = new CommandEnv(
+			timing.sent();
+			cmdEnv = new CommandEnv(
 											new RpcCmdSpec(
 													cmdName.toLowerCase(Locale.ENGLISH),
 													cmdArgs,
@@ -541,6 +540,7 @@ public class OneShotServerImpl extends RpcServer {
 					"I/O error encountered in stream command: "
 					+ ioexc.getLocalizedMessage(), ioexc);
 		} finally {
+			timing.finish(cmdEnv);
 			if (rpcConnection != null) {
 				rpcConnection.disconnect(dispatcher);
 			}
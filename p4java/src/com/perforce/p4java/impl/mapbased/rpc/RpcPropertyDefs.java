@@ -175,6 +175,53 @@ public class RpcPropertyDefs {
 	 */
 	public static final int RPC_SOCKET_POOL_DEFAULT_SIZE = 0;
 	
+	/**
+	 * If this property is set to a positive value, each RPC connection keeps
+	 * the headers of that many of its most recent packets in a ring buffer,
+	 * and logs them as an error if the connection fails.
+	 */
+	public static final String RPC_PACKET_TRACE_SIZE_NICK = "packetTraceSize";
+	
+	/**
+	 * Default packet trace size; zero means no packet trace is kept.
+	 */
+	public static final int RPC_DEFAULT_PACKET_TRACE_SIZE = 0;
+	
+	/**
+	 * If this property is set to a directory path, each RPC connection records
+	 * its raw packets into a new session file in that directory, for later
+	 * replay by a stand-in server; see RpcSessionRecorder. Recorded sessions
+	 * only replay cleanly if the socket pool is not used.
+	 */
+	public static final String RPC_SESSION_RECORD_DIR_NICK = "sessionRecordDir";
+	
+	/**
+	 * If this property is set to "true", non-SSL connections use the
+	 * java.nio SocketChannel based RpcChannelConnection, with read-ahead
+	 * and gather writes, rather than the socket stream based
+	 * RpcStreamConnection.
+	 */
+	public static final String RPC_USE_SOCKET_CHANNEL_NICK = "useSocketChannel";
+	
+	/**
+	 * Default for the RPC_USE_SOCKET_CHANNEL_NICK property.
+	 */
+	public static final boolean RPC_USE_SOCKET_CHANNEL_DEFAULT = false;
+	
+	/**
+	 * If this property is set to "false", files that don't yet exist in the
+	 * workspace are synced into a temp file next to the target and renamed
+	 * into place when complete, as existing files are, so an interrupted sync
+	 * never leaves a partly written new file behind. By default new files
+	 * are written directly, which saves the temp file and rename per file.
+	 */
+	public static final String RPC_SYNC_NEW_FILES_DIRECT_NICK = "syncNewFilesDirect";
+	
+	/**
+	 * Default for the RPC_SYNC_NEW_FILES_DIRECT_NICK property.
+	 */
+	public static final boolean RPC_SYNC_NEW_FILES_DIRECT_DEFAULT = true;
+	
 	/**
 	 * If this property is set and equals "false", do not trust all certificates.
 	 */
@@ -231,6 +278,30 @@ public class RpcPropertyDefs {
 	 */
 	public static final String RPC_DEFAULT_SECURE_SOCKET_ENABLED_PROTOCOLS = "TLSv1";
 
+	/**
+	 * If this property is set, use the associated value as the number of
+	 * SSL sessions kept for resumption by the shared SSL context; reconnects
+	 * to a server with a cached session skip the full handshake. Zero means
+	 * no limit.
+	 */
+	public static final String RPC_SECURE_SOCKET_SESSION_CACHE_SIZE_NICK = "secureSocketSessionCacheSize";
+
+	/**
+	 * Default number of cached SSL sessions.
+	 */
+	public static final int RPC_DEFAULT_SECURE_SOCKET_SESSION_CACHE_SIZE = 100;
+
+	/**
+	 * If this property is set, use the associated value as the time, in
+	 * seconds, that a cached SSL session may be resumed. Zero means no limit.
+	 */
+	public static final String RPC_SECURE_SOCKET_SESSION_TIMEOUT_NICK = "secureSocketSessionTimeout";
+
+	/**
+	 * Default SSL session timeout, in seconds.
+	 */
+	public static final int RPC_DEFAULT_SECURE_SOCKET_SESSION_TIMEOUT = 8 * 60 * 60;
+
 	/**
 	 * If this property is set and equals "true", do not perform
 	 * command metadata checks in the RPC layer. This is not recommended,
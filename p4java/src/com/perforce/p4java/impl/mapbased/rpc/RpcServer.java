@@ -7,6 +7,7 @@ import com.perforce.p4java.Log;
 import com.perforce.p4java.PropertyDefs;
 import com.perforce.p4java.env.PerforceEnvironment;
 import com.perforce.p4java.exception.*;
+import com.perforce.p4java.impl.mapbased.rpc.channel.RpcChannelConnection;
 import com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection;
 import com.perforce.p4java.impl.mapbased.rpc.func.client.ClientTrust;
 import com.perforce.p4java.impl.mapbased.rpc.func.proto.PerformanceMonitor;
@@ -15,13 +16,17 @@ import com.perforce.p4java.impl.mapbased.rpc.helper.RpcUserAuthCounter;
 import com.perforce.p4java.impl.mapbased.rpc.msg.RpcMessage;
 import com.perforce.p4java.impl.mapbased.rpc.msg.ServerMessage;
 import com.perforce.p4java.impl.mapbased.rpc.packet.helper.RpcPacketFieldRule;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcSocketPool;
 import com.perforce.p4java.impl.mapbased.rpc.stream.RpcStreamConnection;
+import com.perforce.p4java.impl.mapbased.rpc.stream.helper.RpcSocketHelper;
 import com.perforce.p4java.impl.mapbased.server.Server;
 import com.perforce.p4java.option.UsageOptions;
 import com.perforce.p4java.option.server.TrustOptions;
 import com.perforce.p4java.server.*;
+import com.perforce.p4java.server.callback.ICommandTimingCallback;
 
 import java.io.IOException;
+import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.*;
 
@@ -171,6 +176,8 @@ public abstract class RpcServer extends Server {
 
         protected ServerStats serverStats = null;
 
+        protected ICommandTimingCallback timingCallback = null;
+
         protected String serverId = null;
 
     	protected Map<String, String> secretKeys = new HashMap<String, String>();
@@ -283,6 +290,13 @@ public abstract class RpcServer extends Server {
 	        	if (rpcConnection.getFingerprint() == null) {
 	        		throw new ConnectionException("Null fingerprint for this Perforce SSL connection");
 	        	}
+	        	// Already checked by an earlier connection, and the trust file
+	        	// hasn't changed since.
+	        	if (FingerprintsHelper.isVerified(rpcConnection.getServerIpPort(),
+	        			rpcConnection.getFingerprint(), this.trustFilePath)) {
+	        		rpcConnection.setTrusted(true);
+	        		return;
+	        	}
         		// New connection
        			if (!clientTrust.fingerprintExists(rpcConnection.getServerIpPort())) {
        				throw new TrustException(TrustException.Type.NEW_CONNECTION,
@@ -312,6 +326,8 @@ public abstract class RpcServer extends Server {
        			}
            		// Trust this connection
        			rpcConnection.setTrusted(true);
+       			FingerprintsHelper.setVerified(rpcConnection.getServerIpPort(),
+       					rpcConnection.getFingerprint(), this.trustFilePath);
         	}
         }
         
@@ -341,9 +357,8 @@ public abstract class RpcServer extends Server {
                 super.disconnect();
 
                 if (this.connectionStart != 0) {
-                        Log.stats("RPC connection connected for "
-                                        + (System.currentTimeMillis() - this.connectionStart)
-                                        + " msec elapsed time");
+                        Log.stats("RPC connection connected for %d msec elapsed time",
+                                        System.currentTimeMillis() - this.connectionStart);
                 }
                 this.serverStats.logStats();
 
@@ -564,6 +579,50 @@ public abstract class RpcServer extends Server {
         }
 
 
+        /**
+         * Register a callback for the wire-level timing of each command run
+         * through this server.
+         *
+         * @param callback the new callback; may be null to stop reporting.
+         * @return the previously registered callback, if any.
+         */
+        public ICommandTimingCallback registerTimingCallback(ICommandTimingCallback callback) {
+                ICommandTimingCallback oldCallback = this.timingCallback;
+                this.timingCallback = callback;
+                return oldCallback;
+        }
+
+        protected CommandTiming startCommandTiming(String cmdName) {
+                return new CommandTiming(this.timingCallback, this.serverStats, cmdName);
+        }
+
+        /**
+         * Open a new RPC connection to the server, taking the socket from the
+         * pool if it's not null. Non-SSL connections use RpcChannelConnection
+         * if the RPC_USE_SOCKET_CHANNEL_NICK property is set.
+         */
+        protected RpcConnection createRpcConnection(RpcSocketPool pool) throws ConnectionException {
+                if (!this.secure && RpcSocketHelper.useSocketChannel(this.props)) {
+                        return new RpcChannelConnection(serverHost, serverPort, props,
+                                        this.serverStats, this.charset, pool);
+                }
+                return new RpcStreamConnection(serverHost, serverPort, props,
+                                this.serverStats, this.charset, pool, this.secure);
+        }
+
+        /**
+         * Wrap an already connected socket in an RPC connection of the
+         * matching kind.
+         */
+        protected RpcConnection createRpcConnection(Socket socket) throws ConnectionException {
+                if (socket != null && socket.getChannel() != null) {
+                        return new RpcChannelConnection(serverHost, serverPort, props,
+                                        this.serverStats, this.charset, socket);
+                }
+                return new RpcStreamConnection(serverHost, serverPort, props,
+                                this.serverStats, this.charset, socket, this.secure);
+        }
+
         protected void processCmdCallbacks(int cmdCallBackKey, long timeTaken, List<Map<String, Object>> resultMaps) {
                 this.commandCallback.completedServerCommand(cmdCallBackKey, timeTaken);
                 if (resultMaps != null) {
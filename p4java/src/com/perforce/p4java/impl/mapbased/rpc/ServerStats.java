@@ -57,6 +57,9 @@ public class ServerStats {
 	}
 	
 	public void logStats() {
+		if (!Log.isLogging()) {
+			return;
+		}
 		Log.stats("RPC server connections made: " + this.serverConnections);
 		Log.stats("RPC send ByteBuffer size: " + this.sendBufSize);
 		Log.stats("RPC receive ByteBuffer size: " + this.recvBufSize);
@@ -0,0 +1,755 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.impl.mapbased.rpc.channel;
+
+import com.perforce.p4java.Log;
+import com.perforce.p4java.exception.ConnectionException;
+import com.perforce.p4java.exception.NullPointerError;
+import com.perforce.p4java.exception.P4JavaError;
+import com.perforce.p4java.exception.ProtocolError;
+import com.perforce.p4java.impl.mapbased.rpc.ServerStats;
+import com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection;
+import com.perforce.p4java.impl.mapbased.rpc.func.RpcFunctionMapKey;
+import com.perforce.p4java.impl.mapbased.rpc.func.RpcFunctionSpec;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacket;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacketDispatcher;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacketPreamble;
+import com.perforce.p4java.impl.mapbased.rpc.packet.helper.RpcPacketFieldRule;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcGZIPInputStream;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcGZIPOutputStream;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcSocketPool;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcSocketPool.ShutdownHandler;
+import com.perforce.p4java.impl.mapbased.rpc.stream.helper.RpcSocketHelper;
+import com.perforce.p4java.server.callback.IFilterCallback;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * java.nio SocketChannel based implementation of the RpcConnection class.<p>
+ *
+ * Incoming bytes are read ahead into a pooled direct buffer, so a run of
+ * small packets (the usual fstat or sync result stream) costs one read
+ * system call rather than two per packet. Outgoing packets are marshaled
+ * straight into pooled direct buffers, with the preamble filled in at the
+ * front afterwards, and large field values are passed as buffers of their
+ * own; the whole packet then goes out with a single gather write, without
+ * being copied into one contiguous array first.<p>
+ *
+ * The channel is used in non-blocking mode with a selector, so that the
+ * socket SO_TIMEOUT still applies to reads. Once connection compression is
+ * switched on, the packets go through the usual GZIP streams layered on
+ * top of the read-ahead buffer. SSL connections are not supported; use
+ * RpcStreamConnection for those.<p>
+ *
+ * Selected with the RpcPropertyDefs.RPC_USE_SOCKET_CHANNEL_NICK property.
+ */
+
+public class RpcChannelConnection extends RpcConnection {
+
+	public static final String TRACE_PREFIX = "RpcChannelConnection";
+
+	/**
+	 * Size of the pooled direct buffers used for read-ahead and marshaling.
+	 */
+	public static final int CHANNEL_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Field values at least this big are written from their own array
+	 * rather than copied into the marshaling buffer.
+	 */
+	protected static final int LARGE_FIELD_SIZE = 8 * 1024;
+
+	private static final RpcDirectBufferPool bufferPool = new RpcDirectBufferPool(CHANNEL_BUFFER_SIZE, 32);
+
+	private RpcSocketPool pool = null;
+	private Socket socket = null;
+	private SocketChannel channel = null;
+	private Selector selector = null;
+	private SelectionKey selectionKey = null;
+
+	/**
+	 * Read-ahead buffer; always kept flipped, so the unread bytes are
+	 * those between position and limit.
+	 */
+	private ByteBuffer readBuffer = null;
+
+	private InputStream compressedInputStream = null;
+	private OutputStream compressedOutputStream = null;
+
+	private final List<ByteBuffer> sendBuffers = new ArrayList<ByteBuffer>();
+	private final List<ByteBuffer> sendSegments = new ArrayList<ByteBuffer>();
+	private ByteBuffer sendBuffer = null;
+	private int segmentStart = 0;
+	private byte[] copyBytes = null;
+
+	/**
+	 * Construct a new Perforce RPC connection to the named Perforce server
+	 * over a newly opened socket channel.
+	 *
+	 * @param serverHost
+	 * @param serverPort
+	 * @param props
+	 * @param stats
+	 * @param charset
+	 * @throws ConnectionException
+	 */
+	public RpcChannelConnection(String serverHost, int serverPort,
+			Properties props, ServerStats stats, Charset charset)
+			throws ConnectionException {
+		this(serverHost, serverPort, props, stats, charset, (RpcSocketPool) null);
+	}
+
+	/**
+	 * Construct a new Perforce RPC connection to the named Perforce server
+	 * over an already connected socket; the socket must have been created
+	 * from a socket channel.
+	 *
+	 * @param serverHost
+	 * @param serverPort
+	 * @param props
+	 * @param stats
+	 * @param charset
+	 * @param socket
+	 * @throws ConnectionException
+	 */
+	public RpcChannelConnection(String serverHost, int serverPort,
+			Properties props, ServerStats stats, Charset charset,
+			Socket socket) throws ConnectionException {
+		super(serverHost, serverPort, props, stats, charset, false);
+		if (socket == null) {
+			throw new NullPointerError("null socket passed to RpcChannelConnection constructor");
+		}
+		this.socket = socket;
+		init();
+	}
+
+	/**
+	 * Construct a new Perforce RPC connection to the named Perforce server
+	 * over a socket channel taken from the pool, or newly opened if the
+	 * pool is null.
+	 *
+	 * @param serverHost
+	 * @param serverPort
+	 * @param props
+	 * @param stats
+	 * @param charset
+	 * @param pool
+	 * @throws ConnectionException
+	 */
+	public RpcChannelConnection(String serverHost, int serverPort,
+			Properties props, ServerStats stats, Charset charset,
+			RpcSocketPool pool) throws ConnectionException {
+		super(serverHost, serverPort, props, stats, charset, false);
+		try {
+			this.pool = pool;
+			if (this.pool != null) {
+				this.socket = this.pool.acquire();
+			} else {
+				this.socket = RpcSocketHelper.createSocketChannel(serverHost, serverPort, this.props).socket();
+			}
+		} catch (UnknownHostException exc) {
+			throw new ConnectionException("Unable to resolve Perforce server host name '"
+												+ hostName
+												+ "' for RPC connection");
+		} catch (IOException exc) {
+			throw new ConnectionException("Unable to connect to Perforce server at "
+					+ hostName + ":" + hostPort);
+		}
+		init();
+	}
+
+	private void init() throws ConnectionException {
+		if (this.socket.getInetAddress() != null) {
+			InetAddress address = this.socket.getInetAddress();
+			// Check if it is an IPv6 address
+			if (Inet6Address.class.isAssignableFrom(address.getClass())) {
+				// Add the square brackets for IPv6 address
+				this.hostIp = "[" + address.getHostAddress() + "]";
+			} else {
+				this.hostIp = address.getHostAddress();
+			}
+		}
+		this.channel = this.socket.getChannel();
+		if (this.channel == null) {
+			throw new ConnectionException(
+					"RpcChannelConnection needs a socket created from a socket channel");
+		}
+		try {
+			this.channel.configureBlocking(false);
+		} catch (IOException exc) {
+			throw new ConnectionException(
+					"Unable to set up the Perforce server socket channel: " + exc.getLocalizedMessage(), exc);
+		}
+		this.readBuffer = bufferPool.acquire();
+		this.readBuffer.flip();
+	}
+
+	/**
+	 * @see com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection#getServerIpPort()
+	 */
+	public String getServerIpPort() {
+		String serverIpPort = null;
+		if (this.hostIp != UNKNOWN_SERVER_HOST) {
+			serverIpPort = this.hostIp;
+			if (this.hostPort != UNKNOWN_SERVER_PORT) {
+				serverIpPort += ":" + Integer.toString(this.hostPort);
+			}
+		} else if (this.hostPort != UNKNOWN_SERVER_PORT) {
+			serverIpPort = Integer.toString(this.hostPort);
+		}
+		return serverIpPort;
+	}
+
+	/**
+	 * @see com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection#disconnect(RpcPacketDispatcher)
+	 */
+	public void disconnect(final RpcPacketDispatcher dispatcher) throws ConnectionException {
+		try {
+			ShutdownHandler handler = new ShutdownHandler() {
+				public void shutdown(Socket socket) {
+					if (dispatcher != null) {
+						try {
+							dispatcher.shutdown(RpcChannelConnection.this);
+						} catch (ConnectionException e) {
+							Log.exception(e);
+						}
+					}
+				}
+			};
+			if (this.pool != null) {
+				this.pool.release(this.socket, handler);
+			} else {
+				handler.shutdown(this.socket);
+				if (this.compressedOutputStream != null) {
+					this.compressedOutputStream.close();
+				}
+				this.channel.close();
+			}
+		} catch (IOException exc) {
+			throw new ConnectionException(
+					"RPC disconnection error: " + exc.getLocalizedMessage(), exc);
+		} finally {
+			if (this.selector != null) {
+				try {
+					this.selector.close();
+				} catch (IOException exc) {
+					Log.exception(exc);
+				}
+				this.selector = null;
+			}
+			if (this.readBuffer != null) {
+				bufferPool.release(this.readBuffer);
+				this.readBuffer = null;
+			}
+			if (this.sessionRecorder != null) {
+				this.sessionRecorder.close();
+			}
+		}
+	}
+
+	/**
+	 * @see com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection#useConnectionCompression()
+	 */
+	@Override
+	public void useConnectionCompression() throws ConnectionException {
+		if (!this.usingCompression) {
+			super.useConnectionCompression();
+
+			try {
+				// Send the compress2 itself uncompressed...
+				this.putRpcPacket(RpcPacket.constructRpcPacket(
+									RpcFunctionSpec.PROTOCOL_COMPRESS2,
+									"compress2",
+									(String[]) null, null));
+				this.compressedOutputStream = new RpcGZIPOutputStream(new ChannelOutputStream());
+				this.compressedInputStream = new RpcGZIPInputStream(new ChannelInputStream());
+				if (this.sessionRecorder != null) {
+					this.sessionRecorder.compressed();
+				}
+			} catch (IOException exc) {
+				Log.error("I/O exception encountered while setting up GZIP streaming: "
+						+ exc.getLocalizedMessage());
+				Log.exception(exc);
+				throw new ConnectionException(
+						"unable to set up client compression streaming to Perforce server: "
+						+ exc.getLocalizedMessage(), exc);
+			}
+		}
+	}
+
+	/**
+	 * @see com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection#getRpcPacket()
+	 */
+	public RpcPacket getRpcPacket() throws ConnectionException {
+		return getRpcPacket(null, null);
+	}
+
+	/**
+	 * @see com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection#getRpcPacket(RpcPacketFieldRule, IFilterCallback)
+	 */
+	public RpcPacket getRpcPacket(RpcPacketFieldRule fieldRule, IFilterCallback filterCallback) throws ConnectionException {
+
+		byte[] preambleBytes = new byte[RpcPacketPreamble.RPC_PREAMBLE_SIZE];
+		RpcPacket packet = null;
+
+		try {
+			readFully(preambleBytes, 0, preambleBytes.length);
+
+			RpcPacketPreamble preamble = RpcPacketPreamble.retrievePreamble(preambleBytes);
+
+			if (preamble == null) {
+				throw new ProtocolError("Null RPC packet preamble in byte buffer");
+			} else if (!preamble.isValidChecksum()) {
+				throw new ProtocolError("Bad checksum in RPC preamble");
+			}
+
+			int payloadLength = preamble.getPayloadSize();
+
+			if (payloadLength <= 0) {
+				throw new ProtocolError("Bad payload size in RPC preamble: " + payloadLength);
+			}
+
+			byte[] packetBytes = new byte[payloadLength];
+			readFully(packetBytes, 0, payloadLength);
+
+			packet = RpcPacket.constructRpcPacket(preamble, packetBytes, this.unicodeServer,
+													this.clientCharset, fieldRule, filterCallback);
+
+			this.stats.packetsRecv.incrementAndGet();
+			this.stats.largestRpcPacketRecv.set(Math.max(this.stats.largestRpcPacketRecv.get(), packet.getPacketLength()));
+			if (this.packetTrace != null) {
+				this.packetTrace.received(packet.getFuncNameString(),
+						RpcPacketPreamble.RPC_PREAMBLE_SIZE + payloadLength);
+			}
+			if (this.sessionRecorder != null) {
+				this.sessionRecorder.received(preambleBytes, packetBytes);
+			}
+		} catch (EOFException exc) {
+			logPacketTrace("RPC packet read failed");
+			throw new ConnectionException("server connection unexpectedly closed", exc);
+		} catch (IOException exc) {
+			logPacketTrace("RPC packet read failed");
+			throw new ConnectionException(exc);
+		} catch (P4JavaError p4je) {
+			logPacketTrace("RPC packet read failed");
+			throw p4je;
+		} catch (Exception exc) {
+			Log.error("Unexpected exception: " + exc.getLocalizedMessage());
+			Log.exception(exc);
+			logPacketTrace("RPC packet read failed");
+			throw new P4JavaError(exc.getLocalizedMessage(), exc);
+		}
+
+		return packet;
+	}
+
+	/**
+	 * Marshal the packet into pooled direct buffers and send it with a
+	 * single gather write (or through the compressed stream, once
+	 * compression is on).
+	 */
+	public long putRpcPacket(RpcPacket packet) throws ConnectionException {
+
+		if (packet == null) {
+			throw new NullPointerError(
+					"null RPC packet passed to RpcChannelConnection.putPacket");
+		}
+
+		if (packet.getFuncNameString() == null) {
+			throw new P4JavaError("Unmapped / unmappable function in RpcPacket.put()");
+		}
+
+		try {
+			// Leave room at the front of the first buffer for the preamble,
+			// which we fill in once we know the marshaled length.
+			this.sendBuffer = bufferPool.acquire();
+			this.sendBuffers.add(this.sendBuffer);
+			this.segmentStart = 0;
+			this.sendBuffer.position(RpcPacketPreamble.RPC_PREAMBLE_SIZE);
+
+			Map<String, Object> mapArgs = packet.getMapArgs();
+			String[] strArgs = packet.getStrArgs();
+
+			if (mapArgs != null) {
+				for (Map.Entry<String, Object> entry : mapArgs.entrySet()) {
+					putField(entry.getKey(), entry.getValue());
+				}
+			}
+
+			if (strArgs != null) {
+				for (String arg : strArgs) {
+					if (arg != null) {
+						putField(null, arg);
+					}
+				}
+			}
+
+			if (packet.getEnv() != null) {
+				putBytes(packet.getEnv().marshal());
+			}
+
+			putField(RpcFunctionMapKey.FUNCTION, packet.getFuncNameString());
+			endSegment();
+
+			ByteBuffer[] segments = this.sendSegments.toArray(new ByteBuffer[this.sendSegments.size()]);
+			int sendLength = 0;
+			for (ByteBuffer segment : segments) {
+				sendLength += segment.remaining();
+			}
+
+			byte[] preambleBytes = RpcPacketPreamble.constructPreamble(
+									sendLength - RpcPacketPreamble.RPC_PREAMBLE_SIZE).marshalAsBytes();
+			ByteBuffer first = this.sendBuffers.get(0);
+			for (int i = 0; i < preambleBytes.length; i++) {
+				first.put(i, preambleBytes[i]);
+			}
+
+			if (this.sessionRecorder != null) {
+				byte[] recorded = copySegments(segments, sendLength);
+				this.sessionRecorder.sent(recorded, 0, recorded.length);
+			}
+
+			if (this.compressedOutputStream != null) {
+				for (ByteBuffer segment : segments) {
+					writeToStream(this.compressedOutputStream, segment);
+				}
+				this.compressedOutputStream.flush();
+			} else {
+				writeFully(segments, sendLength);
+			}
+
+			this.stats.totalBytesSent.getAndAdd(sendLength);
+			this.stats.packetsSent.incrementAndGet();
+			if (this.stats.largestRpcPacketSent.get() < sendLength) {
+				this.stats.largestRpcPacketSent.set(sendLength);
+			}
+			if (this.packetTrace != null) {
+				this.packetTrace.sent(packet.getFuncNameString(), sendLength);
+			}
+		} catch (IOException exc) {
+			Log.exception(exc);
+			logPacketTrace("RPC packet send failed");
+			throw new ConnectionException("Unable to send command to Perforce server: "
+					+ exc.getMessage(), exc);
+		} finally {
+			for (ByteBuffer buffer : this.sendBuffers) {
+				bufferPool.release(buffer);
+			}
+			this.sendBuffers.clear();
+			this.sendSegments.clear();
+			this.sendBuffer = null;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * @see com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection#putRpcPackets(com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacket[])
+	 */
+	public long putRpcPackets(RpcPacket[] packets) throws ConnectionException {
+		int retVal = 0;
+
+		if (packets == null) {
+			throw new NullPointerError(
+					"Null RPC packets passed to RpcChannelConnection.putPacket");
+		}
+
+		for (RpcPacket packet : packets) {
+			if (packet != null) {
+				retVal += putRpcPacket(packet);
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * @see com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection#getSystemSendBufferSize()
+	 */
+	public int getSystemSendBufferSize() {
+		if (this.socket != null) {
+			try {
+				return this.socket.getSendBufferSize();
+			} catch (SocketException exc) {
+				Log.error("unexpected exception: " + exc.getLocalizedMessage());
+				Log.exception(exc);
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * @see com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection#getSystemRecvBufferSize()
+	 */
+	public int getSystemRecvBufferSize() {
+		if (this.socket != null) {
+			try {
+				return this.socket.getReceiveBufferSize();
+			} catch (SocketException exc) {
+				Log.error("unexpected exception: " + exc.getLocalizedMessage());
+				Log.exception(exc);
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Marshal one key / value field the same way as
+	 * RpcConnection.marshalPacketField, but into the send buffers.
+	 */
+	private void putField(String key, Object value) {
+		if (key != null) {
+			putBytes(getNormalizedBytes(key));
+		}
+		putByte((byte) 0);
+		byte[] valBytes = marshalPacketValue(value);
+		putBytes(RpcPacket.encodeInt4(valBytes == null ? 0 : valBytes.length));
+		if (valBytes != null) {
+			putBytes(valBytes);
+		}
+		putByte((byte) 0);
+	}
+
+	private void putByte(byte value) {
+		ensureSendSpace(1);
+		this.sendBuffer.put(value);
+	}
+
+	private void putBytes(byte[] bytes) {
+		if (bytes.length >= LARGE_FIELD_SIZE) {
+			// Send it from where it is rather than copying it.
+			endSegment();
+			this.sendSegments.add(ByteBuffer.wrap(bytes));
+		} else {
+			ensureSendSpace(bytes.length);
+			this.sendBuffer.put(bytes);
+		}
+	}
+
+	private void ensureSendSpace(int length) {
+		if (this.sendBuffer.remaining() < length) {
+			endSegment();
+			this.stats.bufferCompacts.getAndIncrement(); // We're overloading the meaning here...
+			this.sendBuffer = bufferPool.acquire();
+			this.sendBuffers.add(this.sendBuffer);
+			this.segmentStart = 0;
+		}
+	}
+
+	/**
+	 * Add the bytes marshaled into the current send buffer since the last
+	 * segment to the gather list.
+	 */
+	private void endSegment() {
+		int position = this.sendBuffer.position();
+		if (position > this.segmentStart) {
+			ByteBuffer segment = this.sendBuffer.duplicate();
+			segment.limit(position);
+			segment.position(this.segmentStart);
+			this.sendSegments.add(segment);
+			this.segmentStart = position;
+		}
+	}
+
+	private void writeFully(ByteBuffer[] segments, long length) throws IOException {
+		int offset = 0;
+		while (length > 0) {
+			long written;
+			if (offset == segments.length - 1) {
+				written = this.channel.write(segments[offset]);
+			} else {
+				written = this.channel.write(segments, offset, segments.length - offset);
+			}
+			if (written == 0) {
+				waitFor(SelectionKey.OP_WRITE);
+				continue;
+			}
+			this.stats.streamSends.incrementAndGet();
+			length -= written;
+			while (offset < segments.length && !segments[offset].hasRemaining()) {
+				offset++;
+			}
+		}
+	}
+
+	private void writeToStream(OutputStream out, ByteBuffer segment) throws IOException {
+		if (segment.hasArray()) {
+			out.write(segment.array(), segment.arrayOffset() + segment.position(), segment.remaining());
+			return;
+		}
+		if (this.copyBytes == null) {
+			this.copyBytes = new byte[LARGE_FIELD_SIZE];
+		}
+		while (segment.hasRemaining()) {
+			int count = Math.min(segment.remaining(), this.copyBytes.length);
+			segment.get(this.copyBytes, 0, count);
+			out.write(this.copyBytes, 0, count);
+		}
+	}
+
+	private static byte[] copySegments(ByteBuffer[] segments, int length) {
+		byte[] bytes = new byte[length];
+		int pos = 0;
+		for (ByteBuffer segment : segments) {
+			int count = segment.remaining();
+			segment.duplicate().get(bytes, pos, count);
+			pos += count;
+		}
+		return bytes;
+	}
+
+	private void readFully(byte[] bytes, int offset, int length) throws IOException {
+		if (this.compressedInputStream != null) {
+			while (length > 0) {
+				int count = this.compressedInputStream.read(bytes, offset, length);
+				if (count < 0) {
+					throw new EOFException();
+				}
+				offset += count;
+				length -= count;
+			}
+			return;
+		}
+		while (length > 0) {
+			if (!this.readBuffer.hasRemaining()) {
+				fillReadBuffer();
+			}
+			int count = Math.min(length, this.readBuffer.remaining());
+			this.readBuffer.get(bytes, offset, count);
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Read whatever the channel has available (at least one byte) into the
+	 * read-ahead buffer, waiting for it if necessary.
+	 */
+	private void fillReadBuffer() throws IOException {
+		this.readBuffer.compact();
+		try {
+			while (true) {
+				int count = this.channel.read(this.readBuffer);
+				if (count < 0) {
+					throw new EOFException();
+				} else if (count > 0) {
+					this.stats.streamRecvs.incrementAndGet();
+					this.stats.totalBytesRecv.getAndAdd(count);
+					return;
+				}
+				waitFor(SelectionKey.OP_READ);
+			}
+		} finally {
+			this.readBuffer.flip();
+		}
+	}
+
+	/**
+	 * Wait until the channel is ready for the given operation, honoring the
+	 * socket's SO_TIMEOUT. The selector is only opened the first time a
+	 * connection actually has to wait.
+	 */
+	private void waitFor(int ops) throws IOException {
+		if (this.selector == null) {
+			this.selector = Selector.open();
+			this.selectionKey = this.channel.register(this.selector, ops);
+		} else {
+			this.selectionKey.interestOps(ops);
+		}
+		int timeout = this.socket.getSoTimeout();
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			long wait = 0;
+			if (timeout > 0) {
+				wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					throw new SocketTimeoutException("Perforce server did not respond within "
+							+ timeout + " ms");
+				}
+			}
+			int ready = this.selector.select(wait);
+			this.selector.selectedKeys().clear();
+			if (ready > 0) {
+				return;
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				throw new InterruptedIOException("interrupted while waiting for the Perforce server");
+			}
+		}
+	}
+
+	/**
+	 * The read-ahead buffer as a stream, for the compressed input stream.
+	 */
+	private class ChannelInputStream extends InputStream {
+		@Override
+		public int read() throws IOException {
+			byte[] bytes = new byte[1];
+			return (read(bytes, 0, 1) < 0 ? -1 : (bytes[0] & 0xff));
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (!readBuffer.hasRemaining()) {
+				try {
+					fillReadBuffer();
+				} catch (EOFException exc) {
+					return -1;
+				}
+			}
+			int count = Math.min(length, readBuffer.remaining());
+			readBuffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return (readBuffer == null ? 0 : readBuffer.remaining());
+		}
+	}
+
+	/**
+	 * The channel as a stream, for the compressed output stream.
+	 */
+	private class ChannelOutputStream extends OutputStream {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			writeFully(new ByteBuffer[] { ByteBuffer.wrap(bytes, offset, length) }, length);
+		}
+
+		@Override
+		public void close() {
+			// The channel is closed by the connection.
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.impl.mapbased.rpc.channel;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A simple thread-safe pool of fixed-size direct byte buffers.<p>
+ *
+ * Direct buffers are expensive to allocate and are only freed when the
+ * garbage collector gets around to their owning objects, so the channel
+ * connections borrow them from here rather than allocating a new set for
+ * every connection and packet. At most maxPooled idle buffers are kept;
+ * anything released beyond that is simply dropped.
+ */
+
+public class RpcDirectBufferPool {
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger freeCount = new AtomicInteger(0);
+
+	public RpcDirectBufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	/**
+	 * Return a cleared direct buffer of getBufferSize() bytes, either from
+	 * the pool or newly allocated.
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = this.free.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(this.bufferSize);
+		}
+		this.freeCount.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Give a buffer obtained from acquire() back to the pool. The caller
+	 * must not use the buffer (or any view of it) afterwards.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.capacity() != this.bufferSize || !buffer.isDirect()) {
+			return;
+		}
+		if (this.freeCount.incrementAndGet() <= this.maxPooled) {
+			this.free.add(buffer);
+		} else {
+			this.freeCount.decrementAndGet();
+		}
+	}
+}
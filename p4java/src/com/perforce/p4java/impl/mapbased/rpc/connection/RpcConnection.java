@@ -3,6 +3,8 @@
  */
 package com.perforce.p4java.impl.mapbased.rpc.connection;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
@@ -13,16 +15,20 @@ import com.perforce.p4java.Log;
 import com.perforce.p4java.exception.ConnectionException;
 import com.perforce.p4java.exception.P4JavaError;
 import com.perforce.p4java.exception.NullPointerError;
+import com.perforce.p4java.impl.mapbased.rpc.RpcPropertyDefs;
 import com.perforce.p4java.impl.mapbased.rpc.ServerStats;
 import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacket;
 import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacketDispatcher;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacketTrace;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcSessionRecorder;
 import com.perforce.p4java.impl.mapbased.rpc.packet.helper.RpcPacketFieldRule;
 import com.perforce.p4java.server.callback.IFilterCallback;
 
 /**
  * Main abstract class for sending and receiving packets (etc.) to and from the
- * Perforce server. There is currently only one known subclass, RpcStreamConnection,
- * which implements the connection using java.io streams on top of sockets.<p>
+ * Perforce server. There are currently two known subclasses: RpcStreamConnection,
+ * which implements the connection using java.io streams on top of sockets, and
+ * RpcChannelConnection, which uses a java.nio socket channel.<p>
  * 
  * Note that charset conversion should never be necessary on connections
  * to non-Unicode servers, as any bytes in the incoming stream that are marked
@@ -99,6 +105,9 @@ public abstract class RpcConnection {
 	protected String fingerprint = null;
 	protected boolean trusted = false;
 	
+	protected RpcPacketTrace packetTrace = null;
+	protected RpcSessionRecorder sessionRecorder = null;
+	
 	/**
 	 * Create a Perforce RPC connection to a given host and port number pair.<p>
 	 * 
@@ -159,6 +168,21 @@ public abstract class RpcConnection {
 		}
 		this.stats.serverConnections.incrementAndGet();
 		this.unicodeServer = (clientCharset != null); // Note: NOT this.clientCharset....
+		int traceSize = RpcPropertyDefs.getPropertyAsInt(this.props,
+				RpcPropertyDefs.RPC_PACKET_TRACE_SIZE_NICK, RpcPropertyDefs.RPC_DEFAULT_PACKET_TRACE_SIZE);
+		if (traceSize > 0) {
+			this.packetTrace = new RpcPacketTrace(traceSize);
+		}
+		String recordDir = RpcPropertyDefs.getProperty(this.props,
+				RpcPropertyDefs.RPC_SESSION_RECORD_DIR_NICK);
+		if (recordDir != null) {
+			try {
+				this.sessionRecorder = RpcSessionRecorder.create(new File(recordDir));
+			} catch (IOException exc) {
+				Log.error("Unable to record the RPC session in " + recordDir + ": "
+						+ exc.getLocalizedMessage());
+			}
+		}
 	}
 
     /**
@@ -397,6 +421,24 @@ public abstract class RpcConnection {
 		return this.usingCompression;
 	}
 	
+	/**
+	 * Get the packet header trace for this connection; null unless the
+	 * RpcPropertyDefs.RPC_PACKET_TRACE_SIZE_NICK property was set.
+	 */
+	public RpcPacketTrace getPacketTrace() {
+		return this.packetTrace;
+	}
+	
+	/**
+	 * Log the recent packet headers, if they're being traced, as
+	 * an error with the given reason.
+	 */
+	protected void logPacketTrace(String reason) {
+		if (this.packetTrace != null) {
+			Log.error("%s; %s", reason, this.packetTrace.dump());
+		}
+	}
+	
 	public RpcConnectionFlowControl getFlowController() {
 		return this.flowController;
 	}
@@ -3,14 +3,11 @@
  */
 package com.perforce.p4java.impl.mapbased.rpc.func.client;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.List;
@@ -18,12 +15,10 @@ import java.util.Map;
 import java.util.Properties;
 
 import com.perforce.p4java.CharsetDefs;
-import com.perforce.p4java.CharsetConverter;
 import com.perforce.p4java.Log;
 import com.perforce.p4java.PropertyDefs;
 import com.perforce.p4java.core.IMapEntry;
 import com.perforce.p4java.core.ViewMap;
-import com.perforce.p4java.exception.ClientError;
 import com.perforce.p4java.exception.ConnectionException;
 import com.perforce.p4java.exception.P4JavaError;
 import com.perforce.p4java.exception.NullPointerError;
@@ -50,6 +45,7 @@ import com.perforce.p4java.impl.mapbased.rpc.sys.RpcOutputStream;
 import com.perforce.p4java.impl.mapbased.rpc.sys.RpcPerforceFile;
 import com.perforce.p4java.impl.mapbased.rpc.sys.RpcPerforceFileType;
 import com.perforce.p4java.impl.mapbased.rpc.sys.RpcPerforceFileType.RpcServerTypeStringSpec;
+import com.perforce.p4java.impl.mapbased.rpc.sys.RpcTextTranscoder;
 import com.perforce.p4java.impl.mapbased.rpc.sys.helper.AppleFileHelper;
 import com.perforce.p4java.impl.mapbased.rpc.sys.helper.SymbolicLinkHelper;
 import com.perforce.p4java.impl.mapbased.rpc.sys.helper.SysFileHelperBridge;
@@ -84,6 +80,7 @@ public class ClientSystemFileCommands {
 	protected static final String FILE_OPEN_ORIG_ARGS_KEY = "origArgs";
 	protected static final String FILE_OPEN_MODTIME_KEY = "modTime";
 	protected static final String FILE_OPEN_IS_SYMBOLIC_LINK_KEY = "isSymbolicLink";
+	protected static final String FILE_OPEN_IS_NEW_FILE_KEY = "isNewFile";
 	
 	// Reconcile handler map key for 'skipAdd'
 	protected static final String RECONCILE_HANDLER_SKIP_ADD_KEY = "skipAdd";
@@ -97,6 +94,8 @@ public class ClientSystemFileCommands {
 	
 	private String tmpDirName = null;
 	
+	private boolean syncNewFilesDirect = RpcPropertyDefs.RPC_SYNC_NEW_FILES_DIRECT_DEFAULT;
+	
 	private ISystemFileCommandsHelper fileCommands
 					= SysFileHelperBridge.getSysFileCommands();
 
@@ -124,6 +123,9 @@ public class ClientSystemFileCommands {
 					+ tmpDirName + " instead");
 			
 		}
+		this.syncNewFilesDirect = RpcPropertyDefs.getPropertyAsBoolean(this.props,
+							RpcPropertyDefs.RPC_SYNC_NEW_FILES_DIRECT_NICK,
+									RpcPropertyDefs.RPC_SYNC_NEW_FILES_DIRECT_DEFAULT);
 	}
 
 	/**
@@ -228,6 +230,9 @@ public class ClientSystemFileCommands {
 	 * is false.<p>
 	 * 
 	 * The temp file created here will be deleted in the subsequent closeFile() method call.
+	 * Files that don't exist yet are written directly unless the syncNewFilesDirect
+	 * property is false; the final permissions and modification time of all files are
+	 * set once, in closeFile().
 	 */
 	
 	protected RpcPacketDispatcherResult openFile(RpcConnection rpcConnection,
@@ -264,6 +269,8 @@ public class ClientSystemFileCommands {
 		try {
 			RpcPerforceFile targetFile = new RpcPerforceFile(path, fileTypeStr);
 			RpcPerforceFile tmpFile = null;
+			RpcOutputStream targetStream = null;
+			boolean newFile = false;
 			RpcHandler handler = cmdEnv.getHandler(clientHandle);	
 			
 			if (handler == null) {
@@ -276,6 +283,7 @@ public class ClientSystemFileCommands {
 				handler.getMap().remove(FILE_OPEN_TMP_STREAM_KEY);
 				handler.getMap().remove(FILE_OPEN_MODTIME_KEY);
 				handler.getMap().remove(FILE_OPEN_IS_SYMBOLIC_LINK_KEY);
+				handler.getMap().remove(FILE_OPEN_IS_NEW_FILE_KEY);
 			}
 			handler.setError(false);
 			handler.getMap().put(FILE_OPEN_ORIG_ARGS_KEY, resultsMap);
@@ -391,20 +399,33 @@ public class ClientSystemFileCommands {
 					return RpcPacketDispatcherResult.CONTINUE_LOOP;
 				}
 				
+				newFile = true;
+				handler.getMap().put(FILE_OPEN_IS_NEW_FILE_KEY, true);
+				
 				try {
-					if (!targetFile.createNewFile()) {
-						Log.warn(TRACE_PREFIX + ".openFile: unable to create new target file");
-					}
-					
 					// If the target file is a file that needs decoding, write the undecoded
 					// output from the server to a tmp file, then arrange for the tmp file to
 					// be decoded in closeFile(). Decoding is currently not necessary any more,
 					// but may be resurrected in the future -- HR.
 					
 					if (!targetFile.canCopyAsIs()) {
+						if (!targetFile.createNewFile()) {
+							Log.warn(TRACE_PREFIX + ".openFile: unable to create new target file");
+						}
 						String tmpFileName = RpcPerforceFile.createTempFileName(tmpDirName);
 						tmpFile = new RpcPerforceFile(tmpFileName, fileTypeStr);
 						handler.getMap().put(FILE_OPEN_TMP_FILE_KEY, tmpFile);
+					} else if (!this.syncNewFilesDirect) {
+						// Same as for an existing file, so nothing partial is left at the
+						// target if the sync fails part way through.
+						String tmpFileName = RpcPerforceFile.createTempFileName(targetFile.getParent());
+						tmpFile = new RpcPerforceFile(tmpFileName, fileTypeStr);
+						handler.getMap().put(FILE_OPEN_TMP_FILE_KEY, tmpFile);
+					} else {
+						// Opening the stream creates the file.
+						targetStream = new RpcOutputStream(targetFile, rpcConnection.getClientCharset(),
+																			rpcConnection.isUnicodeServer(),
+																			useLocalDigester);
 					}
 				} catch (IOException ioexc) {
 					handler.setError(true);
@@ -428,13 +449,17 @@ public class ClientSystemFileCommands {
 			}
 			
 			handler.getMap().put(FILE_OPEN_TARGET_FILE_KEY, targetFile);
-						
-			if ((perms != null) && perms.equalsIgnoreCase(PERMS_RW)) {
-				fileCommands.setWritable(path, true);
-			}
 			
-			if (fileType.isExecutable()) {
-				fileCommands.setExecutable(path, true, true);
+			// A file created here is writable already, and closeFile() sets the
+			// final permissions in any case.
+			if (!newFile) {
+				if ((perms != null) && perms.equalsIgnoreCase(PERMS_RW)) {
+					fileCommands.setWritable(path, true);
+				}
+				
+				if (fileType.isExecutable()) {
+					fileCommands.setExecutable(path, true, true);
+				}
 			}
 			
 			if (tmpFile != null) {
@@ -446,9 +471,11 @@ public class ClientSystemFileCommands {
 				}
 				handler.getMap().put(FILE_OPEN_TMP_STREAM_KEY, tmpStream);
 			} else if (targetFile != null) {
-				RpcOutputStream targetStream = new RpcOutputStream(targetFile, rpcConnection.getClientCharset(),
+				if (targetStream == null) {
+					targetStream = new RpcOutputStream(targetFile, rpcConnection.getClientCharset(),
 																			rpcConnection.isUnicodeServer(),
 																			useLocalDigester);
+				}
 				if (useLocalDigester) {
 					targetStream.setServerDigest(digest);
 				}
@@ -603,71 +630,6 @@ public class ClientSystemFileCommands {
 		return RpcPacketDispatcherResult.CONTINUE_LOOP;
 	}
 	
-	private void writeToStream(byte[] sourceBytes, int start, int length,
-			OutputStream stream) throws IOException {
-		if (ClientLineEnding.CONVERT_TEXT) {
-			for (int i = start; i < length; i++) {
-				if (sourceBytes[i] == ClientLineEnding.FST_L_LF_BYTES[0]) {
-					stream.write(ClientLineEnding.FST_L_LOCAL_BYTES);
-				} else {
-					stream.write(sourceBytes[i]);
-				}
-			}
-		} else {
-			stream.write(sourceBytes, start, length);
-		}
-	}
-	
-	private void translate(byte[] sourceBytes, CharsetConverter converter,
-			int length, OutputStream stream) throws IOException {
-		int start = 0;
-
-		if (ClientLineEnding.CONVERT_TEXT) {
-			ByteArrayOutputStream converted = new ByteArrayOutputStream();
-			writeToStream(sourceBytes, start, length, converted);
-			sourceBytes = converted.toByteArray();
-			start = 0;
-			length = sourceBytes.length;
-		}
-
-		ByteBuffer from = ByteBuffer.wrap(sourceBytes);
-		if (length > 0) {
-			ByteBuffer converted = converter.convert(from);
-			if (converted != null) {
-				// Update byte array for converted buffer values
-				sourceBytes = converted.array();
-				start = converted.position();
-				length = converted.limit();
-			}
-		} else {
-			// Zero length array denotes last writeText call for
-			// the printed file
-			byte[] underflow = converter.clearUnderflow();
-			if (underflow != null) {
-				// Write underflow
-				ByteBuffer converted = converter.convert(ByteBuffer
-						.wrap(underflow));
-				if (converted != null) {
-					sourceBytes = converted.array();
-					start = converted.position();
-					length = converted.limit();
-				}
-
-				// Underflow denotes a failure since it should
-				// convert completely
-				if (converter.clearUnderflow() != null) {
-					throw new ClientError(
-							"Translation of text output failed to charset "
-									+ converter.getToCharsetName());
-				}
-			}
-		}
-
-		if (length > 0) {
-			stream.write(sourceBytes, start, length);
-		}
-	}
-	
 	/**
 	 * Handles the client-OutputText command.<p>
 	 * Basically uses writeBinary (below) with the twist that we
@@ -715,6 +677,9 @@ public class ClientSystemFileCommands {
 		
 		RpcOutputStream outStream = getTempOutputStream(cmdEnv);
 		
+		if ((outStream == null) && (cmdEnv.getStreamingCallback() != null)) {
+			return passDataToCallback(cmdEnv, resultsMap);
+		}
 		if (outStream == null) {
 			throw new NullPointerError(
 					"Null output stream in writeText state map");
@@ -725,47 +690,34 @@ public class ClientSystemFileCommands {
 				byte[] sourceBytes = (byte[]) resultsMap
 						.get(RpcFunctionMapKey.DATA);
 				int len = sourceBytes.length;
-				int start = 0;
 
 				// Check for trans being null here as it was already checked to
 				// be either null or 'no' so null here signifies it is not 'no'.
-				if (trans == null) {
-					CharsetConverter converter = (CharsetConverter) stateMap
+				if (trans != null) {
+					// Untranslated, so the bytes are written as they are.
+					if (len > 0) {
+						outStream.write(sourceBytes, 0, len);
+					}
+				} else {
+					// The transcoder keeps any partial character between packets,
+					// so it's kept in the state map until the file's last packet.
+					RpcTextTranscoder transcoder = (RpcTextTranscoder) stateMap
 							.get(RpcServer.RPC_TMP_CONVERTER_KEY);
-					if (converter == null) {
-						Charset charset = rpcConnection.getClientCharset();
-						
-						// Look inside results map vector to see if file is
-						// utf-16 since the previous fstat into message will
-						// set it if necessary
-						for (Map<String, Object> map : cmdEnv
-								.getResultMaps()) {
-							if (map.containsKey(MapKeys.TYPE_LC_KEY)) {
-								String type = map.get(MapKeys.TYPE_LC_KEY)
-										.toString();
-								if (MapKeys.UTF16_LC_KEY.equals(type)) {
-									charset = CharsetDefs.UTF16;
-									break;
-								}
-							}
-						}
-						
-						// Convert if client charset is not UTF-8
-						if (charset != CharsetDefs.UTF8) {
-							converter = new CharsetConverter(
-									CharsetDefs.UTF8, charset);
-							stateMap.put(
-									RpcServer.RPC_TMP_CONVERTER_KEY,
-									converter);
-						}
+					if (transcoder == null) {
+						transcoder = new RpcTextTranscoder(
+								getTextCharset(rpcConnection, cmdEnv),
+								ClientLineEnding.CONVERT_TEXT ? ClientLineEnding.FST_L_LOCAL : null);
+						stateMap.put(RpcServer.RPC_TMP_CONVERTER_KEY, transcoder);
 					}
-					if (converter != null) {
-						translate(sourceBytes, converter, len, outStream);
+
+					if (len > 0) {
+						transcoder.write(outStream, sourceBytes, 0, len);
 					} else {
-						writeToStream(sourceBytes, start, len, outStream);
+						// Zero length array denotes last writeText call for
+						// the printed file; the next file picks its own charset.
+						stateMap.remove(RpcServer.RPC_TMP_CONVERTER_KEY);
+						transcoder.finish(outStream);
 					}
-				} else if (len > 0) {
-					writeToStream(sourceBytes, start, len, outStream);
 				}
 			} else {
 				Log.error("output stream unexpectedly closed in writeText");
@@ -787,6 +739,32 @@ public class ClientSystemFileCommands {
 		return RpcPacketDispatcherResult.CONTINUE_LOOP;
 	}
 	
+	/**
+	 * Get the charset to convert the text file now being written into, or
+	 * null if the server's UTF-8 is written as is. The file's type comes from
+	 * the most recent info message, since a command may print several files.
+	 */
+	private Charset getTextCharset(RpcConnection rpcConnection, CommandEnv cmdEnv) {
+		Charset charset = rpcConnection.getClientCharset();
+		List<Map<String, Object>> resultMaps = cmdEnv.getResultMaps();
+		for (int i = resultMaps.size() - 1; i >= 0; i--) {
+			Map<String, Object> map = resultMaps.get(i);
+			if ((map != null) && map.containsKey(MapKeys.TYPE_LC_KEY)) {
+				Object type = map.get(MapKeys.TYPE_LC_KEY);
+				if ((type != null) && MapKeys.UTF16_LC_KEY.equals(type.toString())) {
+					charset = CharsetDefs.UTF16;
+				}
+				break;
+			}
+		}
+
+		// Convert if client charset is not UTF-8
+		if ((charset == null) || (charset == CharsetDefs.UTF8)) {
+			return null;
+		}
+		return charset;
+	}
+
 	/**
 	 * A specialised method to handle the client-OutputBinary command.<p>
 	 * 
@@ -826,6 +804,9 @@ public class ClientSystemFileCommands {
 		
 		RpcOutputStream outStream = getTempOutputStream(cmdEnv);
 		
+		if ((outStream == null) && (cmdEnv.getStreamingCallback() != null)) {
+			return passDataToCallback(cmdEnv, resultsMap);
+		}
 		if (outStream == null) {
 			throw new NullPointerError(
 					"Null output stream in writeText state map");
@@ -854,6 +835,24 @@ public class ClientSystemFileCommands {
 		return RpcPacketDispatcherResult.CONTINUE_LOOP;
 	}
 	
+	/**
+	 * Pass a client-OutputText or client-OutputBinary packet to the streaming
+	 * callback of a map command, which has no output stream to write it to
+	 * (e.g. a tagged print run through execStreamingMapCommand). Each printed
+	 * file's data follows its info result as one or more maps holding just
+	 * the "data" byte array, exactly as the server sent it: no line ending
+	 * or charset conversion is done, so text is UTF-8 on a unicode server.
+	 * A text file's last packet may be empty.
+	 */
+	private RpcPacketDispatcherResult passDataToCallback(CommandEnv cmdEnv,
+			Map<String, Object> resultsMap) {
+		Object data = resultsMap.get(RpcFunctionMapKey.DATA);
+		Map<String, Object> dataMap = new HashMap<String, Object>();
+		dataMap.put(RpcFunctionMapKey.DATA, data == null ? new byte[0] : data);
+		cmdEnv.handleResult(dataMap);
+		return RpcPacketDispatcherResult.CONTINUE_LOOP;
+	}
+	
 	/**
 	 * Close a file that was opened earlier for writing. Depending
 	 * on circumstances, this may involve moving a temporary file
@@ -953,12 +952,18 @@ public class ClientSystemFileCommands {
 					// which might still contain data...
 					// so, we must call close() before the File.rename()
 					// See job068751
+					//
+					// The stream is buffered, so this is also where a failed
+					// write (a full disk, etc.) shows up; the tmp file is then
+					// deleted below and the target left alone.
 					try {
 						tmpStream.flush();
 						tmpStream.close();
 					} catch (IOException e) {
 						Log.error("Flushing or closing stream failed in closeFile(); tmp file: "
 										+ tmpFile.getName());
+						reportCloseError(cmdEnv, handler, targetFile, e);
+						return RpcPacketDispatcherResult.CONTINUE_LOOP;
 					}
 					
 					// Need to rename tmp file to target file and clean up.
@@ -978,8 +983,10 @@ public class ClientSystemFileCommands {
 						try {
 							targetStream.flush();
 						} catch (IOException e) {
-								Log.error("Flushing stream failed in closeFile(); tmp file: "
-												+ tmpFile.getName());
+							Log.error("Flushing stream failed in closeFile(); target file: "
+											+ targetFile.getName());
+							reportCloseError(cmdEnv, handler, targetFile, e);
+							return RpcPacketDispatcherResult.CONTINUE_LOOP;
 						}
 					}
 				}
@@ -1059,7 +1066,10 @@ public class ClientSystemFileCommands {
 				}
 				
 				if (perms.equalsIgnoreCase(PERMS_RW)) {
-					fileCommands.setWritable(targetFile.getPath(), true);
+					// Files created by this sync are writable already.
+					if (!Boolean.TRUE.equals(handler.getMap().get(FILE_OPEN_IS_NEW_FILE_KEY))) {
+						fileCommands.setWritable(targetFile.getPath(), true);
+					}
 				} else {
 					fileCommands.setWritable(targetFile.getPath(), false);
 				}
@@ -2027,6 +2037,25 @@ public class ClientSystemFileCommands {
 		return map;
 	}
 
+	/**
+	 * Report a write that failed as the file was flushed in closeFile(),
+	 * the same way as a failed write in writeFile().
+	 */
+	private void reportCloseError(CommandEnv cmdEnv, RpcHandler handler,
+			RpcPerforceFile targetFile, IOException ioexc) {
+		handler.setError(true);
+		cmdEnv.handleResult(
+				new RpcMessage(
+						ClientMessageId.FILE_WRITE_ERROR,
+						MessageSeverityCode.E_FAILED,
+						MessageGenericCode.EV_CLIENT,
+						new String[] {targetFile.getPath(),
+								ioexc.getLocalizedMessage()}
+					).toMap()
+			);
+		Log.exception(ioexc);
+	}
+	
 	/**
 	 * Create all directories, including any necessary but nonexistent parent
 	 * directories.
@@ -150,15 +150,15 @@ public class ClientTrust {
 			throw new NullPointerError(
 					"null fingerprint passed to the ClientTrust fingerprintMatches method");
 		}
-		if (fingerprintExists(serverIpPort)) {
-			Fingerprint existingFingerprint = rpcServer
-					.loadFingerprint(serverIpPort);
-			if (existingFingerprint != null
-					&& existingFingerprint.getFingerprintValue() != null) {
-				if (fingerprint.equalsIgnoreCase(existingFingerprint
-						.getFingerprintValue())) {
-					return true;
-				}
+		// Loaded once, rather than checking that it exists first, as each
+		// load reads the trust file.
+		Fingerprint existingFingerprint = rpcServer
+				.loadFingerprint(serverIpPort);
+		if (existingFingerprint != null
+				&& existingFingerprint.getFingerprintValue() != null) {
+			if (fingerprint.equalsIgnoreCase(existingFingerprint
+					.getFingerprintValue())) {
+				return true;
 			}
 		}
 		return false;
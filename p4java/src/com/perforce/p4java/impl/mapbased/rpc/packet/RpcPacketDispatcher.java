@@ -126,6 +126,10 @@ public class RpcPacketDispatcher {
 			
 			while ((packet = rpcConnection.getRpcPacket(cmdEnv.getFieldRule(), cmdEnv.getFilterCallback())) != null) {
 
+				if (cmdEnv.getFirstPacketNanos() == 0) {
+					cmdEnv.setFirstPacketNanos(System.nanoTime());
+				}
+
 				// User cancelled command
 				if (cmdEnv.isUserCanceled()) {
 					return resultMaps;
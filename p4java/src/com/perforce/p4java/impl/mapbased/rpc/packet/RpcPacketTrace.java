@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.impl.mapbased.rpc.packet;
+
+/**
+ * A fixed size ring buffer of the headers (time, direction, length and
+ * function name) of the most recent RPC packets sent and received on a
+ * connection. Recording a packet only stores a few primitive values into
+ * pre-allocated arrays, so it can stay enabled in production and be dumped
+ * to the log when a connection fails.<p>
+ *
+ * Like the connection it belongs to, this is not thread-safe; it's
+ * expected to be used by one command at a time.
+ */
+
+public class RpcPacketTrace {
+
+	private final long[] nanos;
+	private final int[] lengths;		// negative for received packets
+	private final String[] funcNames;
+	private int next = 0;
+	private long recorded = 0;
+
+	/**
+	 * @param size number of packet headers to retain; must be positive.
+	 */
+	public RpcPacketTrace(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("packet trace size must be positive: " + size);
+		}
+		this.nanos = new long[size];
+		this.lengths = new int[size];
+		this.funcNames = new String[size];
+	}
+
+	public void sent(String funcName, int length) {
+		record(funcName, length);
+	}
+
+	public void received(String funcName, int length) {
+		record(funcName, -length);
+	}
+
+	private void record(String funcName, int signedLength) {
+		int pos = this.next;
+		this.nanos[pos] = System.nanoTime();
+		this.lengths[pos] = signedLength;
+		this.funcNames[pos] = funcName;
+		this.next = (pos + 1 == this.nanos.length ? 0 : pos + 1);
+		this.recorded++;
+	}
+
+	/**
+	 * Return the total number of packets recorded, including those that
+	 * have since been overwritten.
+	 */
+	public long getRecordedCount() {
+		return this.recorded;
+	}
+
+	/**
+	 * Format the retained packet headers, oldest first. Times are shown
+	 * in microseconds relative to the newest packet.
+	 */
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		int count = (int) Math.min(this.recorded, this.nanos.length);
+		sb.append("last ").append(count).append(" of ").append(this.recorded).append(" RPC packets:");
+		if (count == 0) {
+			return sb.toString();
+		}
+		int newest = (this.next == 0 ? this.nanos.length - 1 : this.next - 1);
+		int pos = (this.next - count + this.nanos.length) % this.nanos.length;
+		for (int i = 0; i < count; i++) {
+			int length = this.lengths[pos];
+			sb.append("\n  ")
+				.append((this.nanos[pos] - this.nanos[newest]) / 1000L).append("us ")
+				.append(length < 0 ? "recv " : "send ")
+				.append(this.funcNames[pos])
+				.append(" (").append(Math.abs(length)).append(" bytes)");
+			pos = (pos + 1 == this.nanos.length ? 0 : pos + 1);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.impl.mapbased.rpc.packet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.perforce.p4java.Log;
+
+/**
+ * Records the raw RPC packets sent and received on one connection into a
+ * session file, so that the conversation can later be replayed by a
+ * stand-in server without a real Perforce server.<p>
+ *
+ * Each connection records into its own file in the record directory; the
+ * files are numbered in the order the connections were opened. A session
+ * file is a sequence of records, each a type byte followed, for packets,
+ * by a big-endian int length and the complete packet bytes (preamble
+ * included). Packets are recorded as they look above any connection
+ * compression, and a COMPRESS record marks the point where both sides
+ * switched to compressed streams.<p>
+ *
+ * Recording is a diagnostic and benchmarking aid; an I/O error while
+ * recording is logged and stops the recording, but never fails the
+ * connection. Like the connection it belongs to, this is not thread-safe.
+ */
+
+public class RpcSessionRecorder {
+
+	public static final String FILE_PREFIX = "rpc-session-";
+	public static final String FILE_SUFFIX = ".p4rs";
+
+	/** A packet sent by the client. */
+	public static final byte SENT = 'S';
+
+	/** A packet received by the client. */
+	public static final byte RECEIVED = 'R';
+
+	/** Both sides switched to compressed streams. */
+	public static final byte COMPRESS = 'Z';
+
+	private static final AtomicInteger nextSequence = new AtomicInteger(0);
+
+	private final File file;
+	private DataOutputStream out;
+
+	/**
+	 * Create a recorder writing to the next unused session file in the
+	 * given directory, creating the directory if needed.
+	 */
+	public static RpcSessionRecorder create(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("could not create session record directory " + dir);
+		}
+		while (true) {
+			File file = new File(dir, String.format("%s%05d%s",
+					FILE_PREFIX, nextSequence.incrementAndGet(), FILE_SUFFIX));
+			if (file.createNewFile()) {
+				return new RpcSessionRecorder(file);
+			}
+		}
+	}
+
+	/**
+	 * Return the session files in the given directory, in the order their
+	 * connections were opened.
+	 */
+	public static List<File> listSessions(File dir) {
+		File[] files = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File parent, String name) {
+				return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return new ArrayList<File>();
+		}
+		Arrays.sort(files);
+		return new ArrayList<File>(Arrays.asList(files));
+	}
+
+	/**
+	 * Read all the records of a session file.
+	 */
+	public static List<Record> read(File file) throws IOException {
+		List<Record> records = new ArrayList<Record>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			int type;
+			while ((type = in.read()) >= 0) {
+				if (type == COMPRESS) {
+					records.add(new Record(COMPRESS, null));
+				} else if (type == SENT || type == RECEIVED) {
+					int length = in.readInt();
+					if (length < RpcPacketPreamble.RPC_PREAMBLE_SIZE) {
+						throw new IOException("bad packet length " + length + " in " + file);
+					}
+					byte[] bytes = new byte[length];
+					in.readFully(bytes);
+					records.add(new Record((byte) type, bytes));
+				} else {
+					throw new IOException("bad record type " + type + " in " + file);
+				}
+			}
+		} catch (EOFException exc) {
+			throw new IOException("truncated session file " + file, exc);
+		} finally {
+			in.close();
+		}
+		return records;
+	}
+
+	private RpcSessionRecorder(File file) throws IOException {
+		this.file = file;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	public void sent(byte[] bytes, int offset, int length) {
+		if (this.out != null) {
+			try {
+				this.out.write(SENT);
+				this.out.writeInt(length);
+				this.out.write(bytes, offset, length);
+			} catch (IOException exc) {
+				fail(exc);
+			}
+		}
+	}
+
+	public void received(byte[] preambleBytes, byte[] payloadBytes) {
+		if (this.out != null) {
+			try {
+				this.out.write(RECEIVED);
+				this.out.writeInt(preambleBytes.length + payloadBytes.length);
+				this.out.write(preambleBytes);
+				this.out.write(payloadBytes);
+			} catch (IOException exc) {
+				fail(exc);
+			}
+		}
+	}
+
+	public void compressed() {
+		if (this.out != null) {
+			try {
+				this.out.write(COMPRESS);
+			} catch (IOException exc) {
+				fail(exc);
+			}
+		}
+	}
+
+	public void close() {
+		if (this.out != null) {
+			try {
+				this.out.close();
+			} catch (IOException exc) {
+				Log.error("could not close RPC session record " + this.file + ": "
+						+ exc.getLocalizedMessage());
+			}
+			this.out = null;
+		}
+	}
+
+	private void fail(IOException exc) {
+		Log.error("RPC session recording to " + this.file + " stopped: " + exc.getLocalizedMessage());
+		Log.exception(exc);
+		close();
+	}
+
+	/**
+	 * One record of a session file.
+	 */
+	public static class Record {
+		private final byte type;
+		private final byte[] bytes;
+
+		public Record(byte type, byte[] bytes) {
+			this.type = type;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * One of SENT, RECEIVED or COMPRESS.
+		 */
+		public byte getType() {
+			return this.type;
+		}
+
+		/**
+		 * The complete packet bytes, preamble included; null for COMPRESS records.
+		 */
+		public byte[] getBytes() {
+			return this.bytes;
+		}
+	}
+}
@@ -10,9 +10,12 @@ import java.net.UnknownHostException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -23,12 +26,29 @@ import com.perforce.p4java.exception.P4JavaError;
 import com.perforce.p4java.impl.mapbased.rpc.RpcPropertyDefs;
 
 /**
- * A factory for creating SSL socket objects.
+ * A factory for creating SSL socket objects.<p>
+ * 
+ * There is one factory, with one SSL context, for each distinct set of SSL
+ * properties, shared by the whole process. The context's client session
+ * cache lets a new connection to a server resume an earlier SSL session
+ * instead of running the full handshake, which saves several round trips
+ * on each reconnect.
  */
 public class RpcSSLSocketFactory extends SSLSocketFactory {
 
-    /** The ssl socket factory. */
-    static private RpcSSLSocketFactory sslSocketFactory = null;
+	/** The SSL properties that make up a factory's configuration. */
+	private static final String[] CONFIGURATION_NICKS = {
+		RpcPropertyDefs.RPC_SECURE_SOCKET_PROTOCOL_NICK,
+		RpcPropertyDefs.RPC_SECURE_SOCKET_TRUST_ALL_NICK,
+		RpcPropertyDefs.RPC_SECURE_SOCKET_SET_ENABLED_PROTOCOLS_NICK,
+		RpcPropertyDefs.RPC_SECURE_SOCKET_ENABLED_PROTOCOLS_NICK,
+		RpcPropertyDefs.RPC_SECURE_SOCKET_SESSION_CACHE_SIZE_NICK,
+		RpcPropertyDefs.RPC_SECURE_SOCKET_SESSION_TIMEOUT_NICK
+	};
+
+    /** The ssl socket factories, keyed by their configuration. */
+    static private final Map<String, RpcSSLSocketFactory> sslSocketFactories =
+    		new HashMap<String, RpcSSLSocketFactory>();
 
     /** The ssl context. */
     private SSLContext sslContext = null;
@@ -45,13 +65,27 @@ public class RpcSSLSocketFactory extends SSLSocketFactory {
 	}
 	
 	/**
-	 * Gets the single instance of RpcSSLSocketFactory.
+	 * Gets the shared instance of RpcSSLSocketFactory for the SSL settings
+	 * in the properties.
 	 * 
-	 * @return single instance of RpcSSLSocketFactory
+	 * @return shared instance of RpcSSLSocketFactory
 	 */
 	public static synchronized RpcSSLSocketFactory getInstance(Properties properties) {
+		// Only the SSL settings are kept, rather than the caller's
+		// properties, as the factory lives as long as the process.
+		Properties sslProperties = new Properties();
+		StringBuilder key = new StringBuilder();
+		for (String nick : CONFIGURATION_NICKS) {
+			String value = RpcPropertyDefs.getProperty(properties, nick);
+			if (value != null) {
+				sslProperties.setProperty(nick, value);
+			}
+			key.append(value).append('\n');
+		}
+		RpcSSLSocketFactory sslSocketFactory = sslSocketFactories.get(key.toString());
 		if (sslSocketFactory == null) {
-			sslSocketFactory = new RpcSSLSocketFactory(properties);
+			sslSocketFactory = new RpcSSLSocketFactory(sslProperties);
+			sslSocketFactories.put(key.toString(), sslSocketFactory);
 		}
 		return sslSocketFactory;
 	}
@@ -76,6 +110,15 @@ public class RpcSSLSocketFactory extends SSLSocketFactory {
 					new TrustManager[] { new TrustAllTrustManager() } : null;
 			SSLContext context = SSLContext.getInstance(protocol);
 			context.init(null, trustManager, null);
+			SSLSessionContext sessionContext = context.getClientSessionContext();
+			if (sessionContext != null) {
+				sessionContext.setSessionCacheSize(RpcPropertyDefs.getPropertyAsInt(properties,
+						RpcPropertyDefs.RPC_SECURE_SOCKET_SESSION_CACHE_SIZE_NICK,
+						RpcPropertyDefs.RPC_DEFAULT_SECURE_SOCKET_SESSION_CACHE_SIZE));
+				sessionContext.setSessionTimeout(RpcPropertyDefs.getPropertyAsInt(properties,
+						RpcPropertyDefs.RPC_SECURE_SOCKET_SESSION_TIMEOUT_NICK,
+						RpcPropertyDefs.RPC_DEFAULT_SECURE_SOCKET_SESSION_TIMEOUT));
+			}
 			return context;
 		} catch (NoSuchAlgorithmException e) {
 			Log.error("Error occurred in RpcSSLSocketFactory constructor: "
@@ -99,7 +142,7 @@ public class RpcSSLSocketFactory extends SSLSocketFactory {
 	 * 
 	 * @return the sSL context
 	 */
-	private SSLContext getSSLContext() {
+	private synchronized SSLContext getSSLContext() {
 		if (this.sslContext == null) {
 			this.sslContext = createSSLContext();
 		}
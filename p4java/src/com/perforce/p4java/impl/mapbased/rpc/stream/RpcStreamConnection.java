@@ -369,6 +369,10 @@ public class RpcStreamConnection extends RpcConnection {
 		} catch (IOException exc) {
 			throw new ConnectionException(
 					"RPC disconnection error: " + exc.getLocalizedMessage(), exc);
+		} finally {
+			if (this.sessionRecorder != null) {
+				this.sessionRecorder.close();
+			}
 		}
 	}
 	
@@ -391,6 +395,9 @@ public class RpcStreamConnection extends RpcConnection {
 				this.topOutputStream.flush();
 				this.topOutputStream = new RpcGZIPOutputStream(this.sockOutputStream);
 				this.topInputStream = new RpcGZIPInputStream(this.sockInputStream);
+				if (this.sessionRecorder != null) {
+					this.sessionRecorder.compressed();
+				}
 			} catch (IOException exc) {
 				Log.error("I/O exception encountered while setting up GZIP streaming: "
 						+ exc.getLocalizedMessage());
@@ -506,14 +513,24 @@ public class RpcStreamConnection extends RpcConnection {
 			
 			this.stats.packetsRecv.incrementAndGet();
 			this.stats.largestRpcPacketRecv.set(Math.max(this.stats.largestRpcPacketRecv.get(),	packet.getPacketLength()));
+			if (this.packetTrace != null) {
+				this.packetTrace.received(packet.getFuncNameString(),
+						RpcPacketPreamble.RPC_PREAMBLE_SIZE + payloadLength);
+			}
+			if (this.sessionRecorder != null) {
+				this.sessionRecorder.received(preambleBytes, packetBytes);
+			}
 
 		} catch (IOException exc) {
+			logPacketTrace("RPC packet read failed");
 			throw new ConnectionException(exc);
 		} catch (ConnectionException p4jexc) {
 			// Just passing through...
+			logPacketTrace("RPC packet read failed");
 			throw p4jexc;
 		} catch (P4JavaError p4je) {
 			// Just passing through...
+			logPacketTrace("RPC packet read failed");
 			throw p4je;
 		} catch (Throwable thr) {
 			// Never a good sign; typically a buffer overflow or positioning
@@ -521,6 +538,7 @@ public class RpcStreamConnection extends RpcConnection {
 			
 			Log.error("Unexpected exception: " + thr.getLocalizedMessage());
 			Log.exception(thr);
+			logPacketTrace("RPC packet read failed");
 			throw new P4JavaError(thr.getLocalizedMessage(), thr);
 		}
 		
@@ -643,8 +661,15 @@ public class RpcStreamConnection extends RpcConnection {
 			if (this.stats.largestRpcPacketSent.get() < sendPos) {
 				this.stats.largestRpcPacketSent.set(sendPos);
 			}
+			if (this.packetTrace != null) {
+				this.packetTrace.sent(packet.getFuncNameString(), sendPos);
+			}
+			if (this.sessionRecorder != null) {
+				this.sessionRecorder.sent(sendBytes, 0, sendPos);
+			}
 		} catch (IOException exc) {
 			Log.exception(exc);
+			logPacketTrace("RPC packet send failed");
 			StringBuilder message = new StringBuilder();
 			if (exc instanceof SocketTimeoutException && this.secure) {
 				message.append(
@@ -10,6 +10,7 @@ import com.perforce.p4java.impl.mapbased.rpc.stream.RpcSSLSocketFactory;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.Properties;
 
 /**
@@ -93,18 +94,54 @@ public class RpcSocketHelper {
 	public static Socket createSocket(String host, int port, Properties properties, boolean secure) throws IOException {
 		Socket socket = null;
 
-		if (secure) {
-			socket = RpcSSLSocketFactory.getInstance(properties).createSocket();
-		} else {
-			socket = new Socket();
+		if (!secure && useSocketChannel(properties)) {
+			return createSocketChannel(host, port, properties).socket();
 		}
+		socket = new Socket();
 		
 		configureSocket(socket, properties);
 
 		socket.bind(new InetSocketAddress(0));
 		socket.connect(new InetSocketAddress(host, port));
 
+		if (secure) {
+			// Layering SSL over the connected socket gives the SSL context
+			// the host and port to look up a cached session to resume.
+			try {
+				socket = RpcSSLSocketFactory.getInstance(properties).createSocket(socket, host, port, true);
+			} catch (IOException exc) {
+				socket.close();
+				throw exc;
+			}
+		}
 		
 		return socket;
 	}
+
+	/**
+	 * Open a (blocking) socket channel configured with the specified properties
+	 * and connect it to the specified host and port.
+	 */
+	public static SocketChannel createSocketChannel(String host, int port, Properties properties) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			Socket socket = channel.socket();
+			configureSocket(socket, properties);
+			socket.bind(new InetSocketAddress(0));
+			socket.connect(new InetSocketAddress(host, port));
+		} catch (IOException exc) {
+			channel.close();
+			throw exc;
+		}
+		return channel;
+	}
+
+	/**
+	 * Whether the properties select the socket channel RPC connection.
+	 */
+	public static boolean useSocketChannel(Properties properties) {
+		return RpcPropertyDefs.getPropertyAsBoolean(properties,
+				RpcPropertyDefs.RPC_USE_SOCKET_CHANNEL_NICK,
+				RpcPropertyDefs.RPC_USE_SOCKET_CHANNEL_DEFAULT);
+	}
 }
@@ -3,14 +3,13 @@
  */
 package com.perforce.p4java.impl.mapbased.rpc.sys;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.Map;
 import java.util.zip.CheckedInputStream;
@@ -19,11 +18,10 @@ import java.util.zip.Checksum;
 import java.util.zip.Inflater;
 
 import com.perforce.p4java.CharsetDefs;
-import com.perforce.p4java.CharsetConverter;
 import com.perforce.p4java.exception.P4JavaError;
 import com.perforce.p4java.exception.NullPointerError;
 import com.perforce.p4java.impl.generic.client.ClientLineEnding;
-import com.perforce.p4java.impl.mapbased.rpc.RpcPropertyDefs;
+import com.perforce.p4java.impl.mapbased.rpc.channel.RpcDirectBufferPool;
 import com.perforce.p4java.impl.mapbased.rpc.func.RpcFunctionMapKey;
 import com.perforce.p4java.impl.mapbased.rpc.func.helper.MD5Digester;
 
@@ -47,6 +45,12 @@ import com.perforce.p4java.impl.mapbased.rpc.func.helper.MD5Digester;
  * form of the file) unless the incoming file type is compressed binary, in which case
  * we have to hash the uncompressed version. The non-binary hashing is done here; the
  * compressed stuff is done in RpcInflaterOutputStream.<p>
+ * 
+ * Everything written goes through a pooled direct buffer and out to the file's
+ * channel whenever the buffer fills up, so a file smaller than WRITE_BUFFER_SIZE
+ * is written in a single call on flush() or close(), and larger ones in
+ * buffer-sized blocks rather than one call per RPC packet. Callers must flush or
+ * close the stream before looking at the file.<p>
  */
 
 public class RpcOutputStream extends FileOutputStream {
@@ -68,6 +72,14 @@ public class RpcOutputStream extends FileOutputStream {
 
 	private static final int TRAILER_SIZE = 8; // bytes
 
+	/**
+	 * Size of the write buffer; see the class comment.
+	 */
+	public static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private static final RpcDirectBufferPool writeBufferPool
+									= new RpcDirectBufferPool(WRITE_BUFFER_SIZE, 16);
+
 	private RpcPerforceFile file = null;
 	private RpcPerforceFileType fileType = null;
 	private RpcInflaterOutputStream outStream = null;
@@ -78,14 +90,15 @@ public class RpcOutputStream extends FileOutputStream {
 	private byte[] footerBytes = null;
 	private boolean closed = false;
 	private ClientLineEnding lineEnding = null;
-	private RpcLineEndFilterOutputStream lineEndStream = null;
 	private Charset charset = null;
-	private CharsetConverter converter;
+	private RpcTextTranscoder transcoder = null;	// Line end and charset conversion
+													// for text files, if needed.
 	private String serverDigest = null;	// If given, the server-side MD5 digest
 										// for this file. Used in the 10.2+ sync (etc.)
 										// transfer integrity checks.
 	private MD5Digester localDigester = null;	// Also used in the 10.2+ transfer
 												// integrity checks.
+	private ByteBuffer writeBuffer = null;	// Null once the stream is closed.
 
 	public RpcOutputStream(RpcPerforceFile file) throws IOException {
 		this(file, null, false, false);
@@ -117,19 +130,22 @@ public class RpcOutputStream extends FileOutputStream {
 		this.lineEnding = file.getLineEnding();
 
 		if (this.fileType != null) {
+			Charset toCharset = null;
 			switch	(this.fileType) {
 				case FST_UTF16:
 					this.charset = CharsetDefs.UTF16;
 				case FST_UNICODE:
 					if ((this.charset != null) &&
 								(isUnicodeServer || (this.charset == CharsetDefs.UTF16))) {
-						this.converter = new CharsetConverter(CharsetDefs.UTF8, this.charset);
+						toCharset = this.charset;
 					}
 				case FST_TEXT:
 				case FST_XTEXT:
-					if (ClientLineEnding.needsLineEndFiltering(lineEnding)) {
-						this.lineEndStream = new RpcLineEndFilterOutputStream(
-														this, this.lineEnding);
+					RpcTextTranscoder textTranscoder = new RpcTextTranscoder(toCharset,
+											ClientLineEnding.needsLineEndFiltering(lineEnding)
+													? this.lineEnding : null);
+					if (textTranscoder.isConverting()) {
+						this.transcoder = textTranscoder;
 					}
 					
 					break;
@@ -138,7 +154,7 @@ public class RpcOutputStream extends FileOutputStream {
 				case FST_XGUNZIP:
 					this.inflater = new Inflater(true);
 					this.crc = new RpcCRC32Checksum();
-					this.checkedOutStream = new CheckedOutputStream(new BufferedOutputStream(this), this.crc);
+					this.checkedOutStream = new CheckedOutputStream(this, this.crc);
 					this.outStream = new RpcInflaterOutputStream(this.checkedOutStream, this.inflater,
 															this.localDigester);
 					this.headerRead = false;
@@ -148,6 +164,7 @@ public class RpcOutputStream extends FileOutputStream {
 		} else {
 			this.fileType = RpcPerforceFileType.FST_TEXT;
 		}
+		this.writeBuffer = writeBufferPool.acquire();
 	}
 
 	@Override
@@ -155,10 +172,12 @@ public class RpcOutputStream extends FileOutputStream {
 		if (!closed) {
 			closed = true;
 			switch (this.fileType) {
+				case FST_UNICODE:
+				case FST_UTF16:
 				case FST_TEXT:
 				case FST_XTEXT:
-					if (this.lineEndStream != null) {
-						this.lineEndStream.close();
+					if (this.transcoder != null) {
+						this.transcoder.finish(this);
 					}
 					break;
 				
@@ -169,7 +188,13 @@ public class RpcOutputStream extends FileOutputStream {
 					this.checkedOutStream.close();
 					break;
 			}
-			super.close();
+			try {
+				drainWriteBuffer();
+			} finally {
+				writeBufferPool.release(this.writeBuffer);
+				this.writeBuffer = null;
+				super.close();
+			}
 		}
 	}
 
@@ -177,14 +202,13 @@ public class RpcOutputStream extends FileOutputStream {
 	 * @see java.io.OutputStream#flush()
 	 */
 	public void flush() throws IOException {
-		super.flush();
-		// Flush unicode chars
-		if (this.converter != null) {
-			byte[] underflow = this.converter.clearUnderflow();
-			if( underflow != null) {
-				writeConverted(underflow);
-			}
+		// Write out anything the transcoder held back (e.g. a trailing partial
+		// unicode sequence) -- this is only called once the file is complete.
+		if ((this.transcoder != null) && !this.closed) {
+			this.transcoder.finish(this);
 		}
+		drainWriteBuffer();
+		super.flush();
 	}
 	
 	/**
@@ -221,7 +245,20 @@ public class RpcOutputStream extends FileOutputStream {
 		if (len < 0) {
 			throw new P4JavaError("Negative length in RpcOutputStream.write()");
 		}
-		super.write(sourceBytes, off, len);
+		if (this.writeBuffer == null) {
+			// Closed; let the superclass complain.
+			super.write(sourceBytes, off, len);
+			return;
+		}
+		while (len > 0) {
+			if (!this.writeBuffer.hasRemaining()) {
+				drainWriteBuffer();
+			}
+			int count = Math.min(len, this.writeBuffer.remaining());
+			this.writeBuffer.put(sourceBytes, off, count);
+			off += count;
+			len -= count;
+		}
 	}
 
 	@Override
@@ -230,7 +267,7 @@ public class RpcOutputStream extends FileOutputStream {
 			throw new NullPointerError(
 					"Null bytes passed to RpcOutputStream.write()");
 		}
-		super.write(b, 0, b.length);
+		this.write(b, 0, b.length);
 	}
 	
 	/**
@@ -255,51 +292,16 @@ public class RpcOutputStream extends FileOutputStream {
 		switch (this.fileType) {
 			case FST_UNICODE:
 			case FST_UTF16:
-				
-				// Convert to local charset if set
-				if (this.converter != null) {
-					if (this.localDigester != null) {
-						this.localDigester.update(sourceBytes);
-					}
-					//Convert line endings before converting to unicode
-					if (this.lineEndStream != null) {
-						// Use intermediate buffer to hold line ending converted
-						// source bytes
-						ByteArrayOutputStream out = new ByteArrayOutputStream(
-								RpcPropertyDefs.RPC_DEFAULT_FILE_BUF_SIZE);
-						this.lineEndStream.write(out, sourceBytes, start, len);
-	
-						sourceBytes = out.toByteArray();
-						len = sourceBytes.length;
-						start = 0;
-					}
-				
-					ByteBuffer sourceBuffer = ByteBuffer.wrap(sourceBytes);
-					ByteBuffer converted = this.converter.convert(sourceBuffer);
-					if (converted != null) {
-						sourceBytes = converted.array();
-						start = converted.position();
-						len = converted.limit();
-					} else {
-						len = 0;
-					}
-	
-					if (len <= 0) {
-						return 0;
-					}
-					
-					this.write(sourceBytes, start, len);
-					bytesWritten = len - start;
-					break;
-				}
-			
 			case FST_TEXT:
 			case FST_XTEXT:
+				// The digest is always over the server form of the file; the
+				// line end and charset conversion (if any) come after. The
+				// count is also of server bytes, to match the server file size.
 				if (this.localDigester != null) {
 					this.localDigester.update(sourceBytes, start, len);
 				}
-				if (this.lineEndStream != null) {
-					this.lineEndStream.write(sourceBytes, start, len);
+				if (this.transcoder != null) {
+					this.transcoder.write(this, sourceBytes, start, len);
 				} else {
 					this.write(sourceBytes, start, len);
 				}
@@ -397,8 +399,32 @@ public class RpcOutputStream extends FileOutputStream {
 	}
 
 	@Override
-	public void write(int b) throws IOException {		
-		super.write(b);
+	public void write(int b) throws IOException {
+		if (this.writeBuffer == null) {
+			super.write(b);
+			return;
+		}
+		if (!this.writeBuffer.hasRemaining()) {
+			drainWriteBuffer();
+		}
+		this.writeBuffer.put((byte) b);
+	}
+
+	/**
+	 * Write out whatever is in the write buffer.
+	 */
+	private void drainWriteBuffer() throws IOException {
+		if ((this.writeBuffer != null) && (this.writeBuffer.position() > 0)) {
+			this.writeBuffer.flip();
+			try {
+				FileChannel channel = getChannel();
+				while (this.writeBuffer.hasRemaining()) {
+					channel.write(this.writeBuffer);
+				}
+			} finally {
+				this.writeBuffer.clear();
+			}
+		}
 	}
 
 	public RpcPerforceFile getFile() {
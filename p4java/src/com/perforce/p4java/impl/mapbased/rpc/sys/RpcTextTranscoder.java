@@ -0,0 +1,245 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.impl.mapbased.rpc.sys;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import com.perforce.p4java.CharsetDefs;
+import com.perforce.p4java.exception.NullPointerError;
+import com.perforce.p4java.exception.P4JavaError;
+import com.perforce.p4java.impl.generic.client.ClientLineEnding;
+import com.perforce.p4java.impl.mapbased.rpc.RpcPropertyDefs;
+
+/**
+ * Converts text file contents as sent by the Perforce server (UTF-8 on
+ * unicode servers, "\n" line ends) into the client form, one packet at a
+ * time, with all the state and buffers kept from one packet to the next.<p>
+ *
+ * Line ends are found by scanning each packet for the server separator and
+ * copying the runs in between as blocks. Charset conversion uses a single
+ * decoder / encoder pair for the whole file; a multi-byte sequence or
+ * surrogate pair split across packets simply stays in the (compacted)
+ * input buffers until the next packet arrives. The converted bytes are
+ * collected in an output buffer and written to the target stream once per
+ * packet.<p>
+ *
+ * Call finish() after the last packet; invalid or unmappable input is
+ * reported as a CharacterCodingException. Not thread-safe.
+ */
+
+public class RpcTextTranscoder {
+
+	private final byte[] newlineBytes;
+	private final CharsetDecoder decoder;
+	private final CharsetEncoder encoder;
+	private final ByteBuffer inBuffer;
+	private final CharBuffer charBuffer;
+	private final byte[] outBytes;
+	private final ByteBuffer outBuffer;
+	private boolean finished = false;
+
+	/**
+	 * @param toCharset if not null, the client charset to convert the
+	 * 			server's UTF-8 into.
+	 * @param lineEnding if not null, the client line ending to use instead
+	 * 			of the server's "\n".
+	 */
+	public RpcTextTranscoder(Charset toCharset, ClientLineEnding lineEnding) {
+		this.newlineBytes = getNewlineBytes(lineEnding);
+		this.outBytes = new byte[2 * RpcPropertyDefs.RPC_DEFAULT_FILE_BUF_SIZE];
+		this.outBuffer = ByteBuffer.wrap(this.outBytes);
+		if (toCharset != null) {
+			this.decoder = CharsetDefs.UTF8.newDecoder();
+			this.decoder.onMalformedInput(CodingErrorAction.REPORT);
+			this.decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+			this.encoder = toCharset.newEncoder();
+			this.encoder.onMalformedInput(CodingErrorAction.REPORT);
+			this.encoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+			this.inBuffer = ByteBuffer.allocate(RpcPropertyDefs.RPC_DEFAULT_FILE_BUF_SIZE);
+			this.charBuffer = CharBuffer.allocate(RpcPropertyDefs.RPC_DEFAULT_FILE_BUF_SIZE);
+		} else {
+			this.decoder = null;
+			this.encoder = null;
+			this.inBuffer = null;
+			this.charBuffer = null;
+		}
+	}
+
+	/**
+	 * Return the bytes to write for each server line end, or null if the
+	 * line ends are written as they are. Matches the translations done by
+	 * RpcLineEndFilterOutputStream.
+	 */
+	public static byte[] getNewlineBytes(ClientLineEnding lineEnding) {
+		if (lineEnding != null) {
+			switch (lineEnding) {
+				case FST_L_LOCAL:
+					return (ClientLineEnding.CONVERT_TEXT ? ClientLineEnding.FST_L_LOCAL_BYTES : null);
+				case FST_L_CRLF:
+					return ClientLineEnding.FST_L_CRLF_BYTES;
+				case FST_L_CR:
+					return ClientLineEnding.FST_L_CR_BYTES;
+				default:
+					break;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Whether this transcoder changes anything at all.
+	 */
+	public boolean isConverting() {
+		return (this.newlineBytes != null) || (this.decoder != null);
+	}
+
+	/**
+	 * Convert one packet's worth of server bytes and write the result to
+	 * the stream. Bytes that don't yet form a complete character are held
+	 * back until the next call.
+	 */
+	public void write(OutputStream out, byte[] bytes, int off, int len) throws IOException {
+		if (bytes == null) {
+			throw new NullPointerError("Null bytes passed to RpcTextTranscoder.write()");
+		}
+		if ((off < 0) || (len < 0) || (off + len > bytes.length)) {
+			throw new P4JavaError("Bad offset or length in RpcTextTranscoder.write()");
+		}
+		if (this.finished) {
+			restart();
+		}
+
+		if (this.newlineBytes == null) {
+			transcode(out, bytes, off, len);
+		} else {
+			int end = off + len;
+			int runStart = off;
+			for (int i = off; i < end; i++) {
+				if (bytes[i] == RpcLineEndFilterOutputStream.P4SERVER_LINSEP_BYTE) {
+					transcode(out, bytes, runStart, i - runStart);
+					transcode(out, this.newlineBytes, 0, this.newlineBytes.length);
+					runStart = i + 1;
+				}
+			}
+			transcode(out, bytes, runStart, end - runStart);
+		}
+		flushOutput(out);
+	}
+
+	/**
+	 * Convert and write anything still held back; fails if the held back
+	 * bytes aren't a complete character. Further calls do nothing until
+	 * the next write().
+	 */
+	public void finish(OutputStream out) throws IOException {
+		if (this.finished) {
+			return;
+		}
+		this.finished = true;
+		if (this.decoder != null) {
+			this.inBuffer.flip();
+			decode(out, true);
+			this.inBuffer.compact();
+			CoderResult result;
+			while ((result = this.decoder.flush(this.charBuffer)).isOverflow()) {
+				encode(out, false);
+			}
+			encode(out, true);
+			while ((result = this.encoder.flush(this.outBuffer)).isOverflow()) {
+				flushOutput(out);
+			}
+			if (result.isError()) {
+				result.throwException();
+			}
+		}
+		flushOutput(out);
+	}
+
+	private void restart() {
+		this.finished = false;
+		if (this.decoder != null) {
+			this.decoder.reset();
+			this.encoder.reset();
+			this.inBuffer.clear();
+			this.charBuffer.clear();
+		}
+	}
+
+	private void transcode(OutputStream out, byte[] bytes, int off, int len) throws IOException {
+		if (this.decoder == null) {
+			copyOutput(out, bytes, off, len);
+			return;
+		}
+		while (len > 0) {
+			int count = Math.min(len, this.inBuffer.remaining());
+			this.inBuffer.put(bytes, off, count);
+			off += count;
+			len -= count;
+			this.inBuffer.flip();
+			decode(out, false);
+			this.inBuffer.compact();
+		}
+	}
+
+	/**
+	 * Decode as much of the input buffer as possible, encoding the chars as
+	 * they come. An incomplete sequence at the end is left in the buffer.
+	 */
+	private void decode(OutputStream out, boolean endOfInput) throws IOException {
+		while (true) {
+			CoderResult result = this.decoder.decode(this.inBuffer, this.charBuffer, endOfInput);
+			encode(out, false);
+			if (result.isUnderflow()) {
+				return;
+			} else if (result.isError()) {
+				result.throwException();
+			}
+		}
+	}
+
+	private void encode(OutputStream out, boolean endOfInput) throws IOException {
+		this.charBuffer.flip();
+		try {
+			while (true) {
+				CoderResult result = this.encoder.encode(this.charBuffer, this.outBuffer, endOfInput);
+				if (result.isOverflow()) {
+					flushOutput(out);
+				} else if (result.isError()) {
+					result.throwException();
+				} else {
+					return;
+				}
+			}
+		} finally {
+			// Keeps the high half of a surrogate pair split across packets.
+			this.charBuffer.compact();
+		}
+	}
+
+	private void copyOutput(OutputStream out, byte[] bytes, int off, int len) throws IOException {
+		if (len > this.outBuffer.remaining()) {
+			flushOutput(out);
+			if (len > this.outBuffer.remaining()) {
+				out.write(bytes, off, len);
+				return;
+			}
+		}
+		this.outBuffer.put(bytes, off, len);
+	}
+
+	private void flushOutput(OutputStream out) throws IOException {
+		if (this.outBuffer.position() > 0) {
+			out.write(this.outBytes, 0, this.outBuffer.position());
+			this.outBuffer.clear();
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.impl.mapbased.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.perforce.p4java.core.file.FileSpecOpStatus;
+import com.perforce.p4java.core.file.IFileSpec;
+import com.perforce.p4java.exception.P4JavaException;
+import com.perforce.p4java.server.callback.IStreamingCallback;
+
+/**
+ * Splits long file spec argument lists into batches, so that a command over
+ * tens of thousands of files is sent as a series of commands, one after the
+ * other, that each stay well within the server's argument and packet limits
+ * and start returning results early. The callers simply run the command once
+ * per batch and append the results, which keeps them in input order.<p>
+ * 
+ * A batch holds at most maxFiles file arguments and (roughly) maxBytes of
+ * argument data; see PropertyDefs.FILE_BATCH_SIZE_KEY and
+ * PropertyDefs.FILE_BATCH_BYTES_KEY. Only the methods documented there use
+ * batching; everything else sends its file list as given.<p>
+ * 
+ * This class is not intended for general use by developers or users, but is
+ * documented anyway as it's a public class due to package constraints.
+ */
+
+public class FileSpecBatcher {
+	
+	/**
+	 * Approximate marshalled size of an argument beyond the path itself:
+	 * the "argN" field name, its terminator and the value length.
+	 */
+	private static final int ARG_OVERHEAD_BYTES = 10;
+
+	private final int maxFiles;
+	private final int maxBytes;
+
+	/**
+	 * @param maxFiles maximum number of file arguments in a batch; zero or
+	 * 			less means no batching at all.
+	 * @param maxBytes maximum size of a batch's file arguments in bytes;
+	 * 			zero or less means no limit. A single larger argument still
+	 * 			gets a batch of its own.
+	 */
+	public FileSpecBatcher(int maxFiles, int maxBytes) {
+		this.maxFiles = maxFiles;
+		this.maxBytes = maxBytes;
+	}
+
+	public int getMaxFiles() {
+		return this.maxFiles;
+	}
+
+	public int getMaxBytes() {
+		return this.maxBytes;
+	}
+
+	/**
+	 * Split fileSpecs into batches, in order. A null, empty or short list is
+	 * returned as the only batch, as is any list when batching is off; for
+	 * most commands no file arguments means something quite different from
+	 * no command at all.<p>
+	 * 
+	 * Specs that aren't valid (and so aren't sent as arguments) stay with the
+	 * batch of the valid spec before them; batches are only ever started at a
+	 * valid spec, so a batch never ends up without file arguments.
+	 */
+	public List<List<IFileSpec>> split(List<IFileSpec> fileSpecs) {
+		if ((fileSpecs == null) || (this.maxFiles <= 0) || (fileSpecs.size() <= 1)) {
+			return Collections.singletonList(fileSpecs);
+		}
+		
+		List<List<IFileSpec>> batches = null;
+		int start = 0;
+		int count = 0;
+		int bytes = 0;
+		for (int i = 0; i < fileSpecs.size(); i++) {
+			IFileSpec fileSpec = fileSpecs.get(i);
+			if ((fileSpec == null) || (fileSpec.getOpStatus() != FileSpecOpStatus.VALID)) {
+				continue;
+			}
+			int argBytes = getArgBytes(fileSpec);
+			if ((count > 0) && ((count >= this.maxFiles)
+					|| ((this.maxBytes > 0) && (bytes + argBytes > this.maxBytes)))) {
+				if (batches == null) {
+					batches = new ArrayList<List<IFileSpec>>();
+				}
+				batches.add(fileSpecs.subList(start, i));
+				start = i;
+				count = 0;
+				bytes = 0;
+			}
+			count++;
+			bytes += argBytes;
+		}
+		
+		if (batches == null) {
+			return Collections.singletonList(fileSpecs);
+		}
+		batches.add(fileSpecs.subList(start, fileSpecs.size()));
+		return batches;
+	}
+
+	/**
+	 * Estimate the marshalled size of the spec's argument. Non-ASCII
+	 * characters are counted as three bytes, the most a UTF-16 char
+	 * takes in UTF-8.
+	 */
+	private static int getArgBytes(IFileSpec fileSpec) {
+		String path = fileSpec.getAnnotatedPreferredPathString();
+		int bytes = ARG_OVERHEAD_BYTES;
+		if (path != null) {
+			for (int i = 0; i < path.length(); i++) {
+				bytes += (path.charAt(i) < 0x80 ? 1 : 3);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Wraps the caller's streaming callback for a command run over several
+	 * batches, so the caller still sees a single startResults / endResults
+	 * pair, and so the remaining batches can be skipped once the callback
+	 * has asked to stop.
+	 */
+	public static class BatchedStreamingCallback implements IStreamingCallback {
+		private final IStreamingCallback callback;
+		private final int batchCount;
+		private int batchesEnded = 0;
+		private boolean started = false;
+		private boolean stopped = false;
+
+		public BatchedStreamingCallback(IStreamingCallback callback, int batchCount) {
+			this.callback = callback;
+			this.batchCount = batchCount;
+		}
+
+		/**
+		 * True once the callback returned false from handleResult.
+		 */
+		public boolean isStopped() {
+			return this.stopped;
+		}
+
+		/**
+		 * @see com.perforce.p4java.server.callback.IStreamingCallback#startResults(int)
+		 */
+		public boolean startResults(int key) throws P4JavaException {
+			if (this.started) {
+				return true;
+			}
+			this.started = true;
+			return this.callback.startResults(key);
+		}
+
+		/**
+		 * @see com.perforce.p4java.server.callback.IStreamingCallback#endResults(int)
+		 */
+		public boolean endResults(int key) throws P4JavaException {
+			this.batchesEnded++;
+			if (this.stopped || (this.batchesEnded >= this.batchCount)) {
+				return this.callback.endResults(key);
+			}
+			return true;
+		}
+
+		/**
+		 * @see com.perforce.p4java.server.callback.IStreamingCallback#handleResult(java.util.Map, int)
+		 */
+		public boolean handleResult(Map<String, Object> resultMap, int key) throws P4JavaException {
+			if (!this.callback.handleResult(resultMap, key)) {
+				this.stopped = true;
+				return false;
+			}
+			return true;
+		}
+	}
+}
@@ -197,6 +197,9 @@ public abstract class Server implements IServerControl, IOptionsServer {
 
 	protected String ignoreFileName = null;
 	
+	protected FileSpecBatcher fileSpecBatcher = new FileSpecBatcher(
+			PropertyDefs.FILE_BATCH_SIZE_DEFAULT, PropertyDefs.FILE_BATCH_BYTES_DEFAULT);
+	
     /**
      * Useful source of random integers, etc.
      */
@@ -427,6 +430,14 @@ public abstract class Server implements IServerControl, IOptionsServer {
 							this.props.getProperty(PropertyDefs.IGNORE_FILE_NAME_KEY,
 									System.getenv(P4IGNORE_ENV_VAR) != null ?
 											System.getenv(P4IGNORE_ENV_VAR) : null));
+		
+		this.fileSpecBatcher = new FileSpecBatcher(
+				RpcPropertyDefs.getPropertyAsInt(this.props, PropertyDefs.FILE_BATCH_SIZE_SHORT_FORM,
+						RpcPropertyDefs.getPropertyAsInt(this.props, PropertyDefs.FILE_BATCH_SIZE_KEY,
+								PropertyDefs.FILE_BATCH_SIZE_DEFAULT)),
+				RpcPropertyDefs.getPropertyAsInt(this.props, PropertyDefs.FILE_BATCH_BYTES_SHORT_FORM,
+						RpcPropertyDefs.getPropertyAsInt(this.props, PropertyDefs.FILE_BATCH_BYTES_KEY,
+								PropertyDefs.FILE_BATCH_BYTES_DEFAULT)));
 
 		return this.status; // Which is UNKNOWN at this point...
 	}
@@ -439,7 +450,7 @@ public abstract class Server implements IServerControl, IOptionsServer {
 		this.connected = true;
 		this.status = ServerStatus.READY;
 		
-		Log.info("connected to Perforce server at " + this.serverHost + ":" + this.serverPort);
+		Log.info("connected to Perforce server at %s:%d", this.serverHost, this.serverPort);
 		
 		// Try to get and then verify the server version:
 		
@@ -502,7 +513,7 @@ public abstract class Server implements IServerControl, IOptionsServer {
 	public void disconnect() throws ConnectionException, AccessException {
 		this.connected = false;
 		this.status = ServerStatus.DISCONNECTED;
-		Log.info("disconnected from Perforce server at " + this.serverHost + ":" + this.serverPort);
+		Log.info("disconnected from Perforce server at %s:%d", this.serverHost, this.serverPort);
 	}
 	
 	/**
@@ -3214,6 +3225,57 @@ public abstract class Server implements IServerControl, IOptionsServer {
 		return this.execStreamCmd(CmdSpec.PRINT, Parameters.processParameters(opts, fileSpecs, null, annotateFiles, this));
 	}
 	
+	/**
+	 * @see com.perforce.p4java.server.IOptionsServer#getFileContents(List, com.perforce.p4java.option.server.GetFileContentsOptions, com.perforce.p4java.server.callback.IFileContentsCallback, int)
+	 */
+	public void getFileContents(List<IFileSpec> fileSpecs, GetFileContentsOptions opts,
+			final IFileContentsCallback callback, int key) throws P4JavaException {
+		if (fileSpecs == null) {
+			throw new NullPointerError(
+				"Null file specification list passed to IOptionsServer.getFileContents");
+		}
+		
+		if (callback == null) {
+			throw new NullPointerError("Null callback passed to getFileContents");
+		}
+		
+		boolean annotateFiles = !(opts != null ?  opts.isDontAnnotateFiles() : false);
+		
+		// As with the streaming getExtendedFiles, the first exception is kept
+		// and rethrown once the command stops.
+		final P4JavaException[] failure = new P4JavaException[1];
+		execStreamingMapCommand(CmdSpec.PRINT.toString(),
+					Parameters.processParameters(opts, fileSpecs, null, annotateFiles, this), null,
+					new IStreamingCallback() {
+						public boolean startResults(int key) {
+							return true;
+						}
+						
+						public boolean endResults(int key) {
+							return true;
+						}
+						
+						public boolean handleResult(Map<String, Object> resultMap, int key) {
+							try {
+								// The RPC layer passes each block of file data
+								// on as a map holding just the data.
+								if ((resultMap.size() == 1)
+										&& (resultMap.get(RpcFunctionMapKey.DATA) instanceof byte[])) {
+									return callback.handleData(
+											(byte[]) resultMap.get(RpcFunctionMapKey.DATA), key);
+								}
+								return callback.startFile(handleFileReturn(resultMap), key);
+							} catch (P4JavaException exc) {
+								failure[0] = exc;
+								return false;
+							}
+						}
+					}, key);
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+	
 	/**
 	 * @see com.perforce.p4java.server.IServer#getDirectories(List, boolean, boolean, boolean)
 	 */
@@ -3438,39 +3500,184 @@ public abstract class Server implements IServerControl, IOptionsServer {
 	public List<IExtendedFileSpec> getExtendedFiles(List<IFileSpec> fileSpecs,
 						GetExtendedFilesOptions opts) throws P4JavaException {
 		
-		List<Map<String, Object>> resultMaps = execMapCmdList(CmdSpec.FSTAT,
-					Parameters.processParameters(opts, fileSpecs, this), null);
-
 		List<IExtendedFileSpec> specList = new ArrayList<IExtendedFileSpec>();
 		
-		if (resultMaps != null) {
-			for (Map<String, Object> map : resultMaps) {
-				// We do this by hand for the statFiles case; this may be
-				// included in the generic handler later -- HR.
-				
-				// Note: as of 10.1 or so, fstats on shelved files may return
-				// a "special" fstat info message (usually the last message) that
-				// contains only the description  field of the associated changelist
-				// (see fstat -e documentation for this); therefore we carefully weed
-				// out any return map here that has no depot path and a "desc" field
-				// -- HR (see also job040680).
-
-				final IServerMessage err = handleFileErrorStr(map);
-				ExtendedFileSpec eSpec = null;
-				if (err == null) {
-					if (map.containsKey("depotFile") && !map.containsKey("desc")) {
-						eSpec = new ExtendedFileSpec(map, this, -1);
+		for (List<IFileSpec> batch : getExtendedFilesBatches(fileSpecs, opts)) {
+			List<Map<String, Object>> resultMaps = execMapCmdList(CmdSpec.FSTAT,
+						Parameters.processParameters(opts, batch, this), null);
+			
+			if (resultMaps != null) {
+				for (Map<String, Object> map : resultMaps) {
+					ExtendedFileSpec eSpec = toExtendedFileSpec(map);
+					if (eSpec != null) {
+						specList.add(eSpec);
 					}
-				} else {
-					eSpec = new ExtendedFileSpec(err);
-				}
-				if (eSpec != null) {
-					specList.add(eSpec);
 				}
 			}
 		}
 		return specList;
 	}
+	
+	/**
+	 * A maximum number of results applies to each command, so fstat is only
+	 * split into batches without one.
+	 */
+	private List<List<IFileSpec>> getExtendedFilesBatches(List<IFileSpec> fileSpecs,
+						GetExtendedFilesOptions opts) {
+		if ((opts != null) && (opts.getMaxResults() > 0)) {
+			return Collections.singletonList(fileSpecs);
+		}
+		return this.fileSpecBatcher.split(fileSpecs);
+	}
+
+	/**
+	 * @see com.perforce.p4java.server.IOptionsServer#getExtendedFiles(List, com.perforce.p4java.option.server.GetExtendedFilesOptions, com.perforce.p4java.server.callback.IExtendedFileSpecCallback, int)
+	 */
+	public void getExtendedFiles(List<IFileSpec> fileSpecs, GetExtendedFilesOptions opts,
+						final IExtendedFileSpecCallback callback, int key) throws P4JavaException {
+		if (callback == null) {
+			throw new NullPointerError("Null callback passed to getExtendedFiles");
+		}
+		
+		// The RPC layer only logs exceptions thrown by a streaming callback,
+		// so the first one is kept here and rethrown once the command stops.
+		final P4JavaException[] failure = new P4JavaException[1];
+		final boolean[] stopped = new boolean[1];
+		for (List<IFileSpec> batch : getExtendedFilesBatches(fileSpecs, opts)) {
+			execStreamingMapCommand(CmdSpec.FSTAT.toString(),
+						Parameters.processParameters(opts, batch, this), null,
+						new IStreamingCallback() {
+							public boolean startResults(int key) {
+								return true;
+							}
+							
+							public boolean endResults(int key) {
+								return true;
+							}
+							
+							public boolean handleResult(Map<String, Object> resultMap, int key) {
+								try {
+									ExtendedFileSpec eSpec = toExtendedFileSpec(resultMap);
+									if ((eSpec != null) && !callback.handleSpec(eSpec, key)) {
+										stopped[0] = true;
+										return false;
+									}
+									return true;
+								} catch (P4JavaException exc) {
+									failure[0] = exc;
+									return false;
+								}
+							}
+						}, key);
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+			if (stopped[0]) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * @see com.perforce.p4java.server.IOptionsServer#getExtendedFiles(List, com.perforce.p4java.option.server.GetExtendedFilesOptions, com.perforce.p4java.impl.generic.core.file.ExtendedFileSpecColumns)
+	 */
+	public void getExtendedFiles(List<IFileSpec> fileSpecs, GetExtendedFilesOptions opts,
+						ExtendedFileSpecColumns columns) throws P4JavaException {
+		getExtendedFiles(fileSpecs, opts, columns, null, 0);
+	}
+	
+	/**
+	 * @see com.perforce.p4java.server.IOptionsServer#getExtendedFiles(List, com.perforce.p4java.option.server.GetExtendedFilesOptions, com.perforce.p4java.impl.generic.core.file.ExtendedFileSpecColumns, com.perforce.p4java.server.callback.IExtendedFileSpecCallback, int)
+	 */
+	public void getExtendedFiles(List<IFileSpec> fileSpecs, GetExtendedFilesOptions opts,
+						final ExtendedFileSpecColumns columns, final IExtendedFileSpecCallback callback,
+						int key) throws P4JavaException {
+		if (columns == null) {
+			throw new NullPointerError("Null columns passed to getExtendedFiles");
+		}
+		
+		final P4JavaException[] failure = new P4JavaException[1];
+		final boolean[] stopped = new boolean[1];
+		IStreamingCallback columnsCallback = new IStreamingCallback() {
+			public boolean startResults(int key) {
+				return true;
+			}
+			
+			public boolean endResults(int key) {
+				return true;
+			}
+			
+			public boolean handleResult(Map<String, Object> resultMap, int key) {
+				if (resultMap == null) {
+					return true;
+				}
+				try {
+					int row = -1;
+					final IServerMessage err = handleFileErrorStr(resultMap);
+					if (err != null) {
+						row = columns.addMessage(new ExtendedFileSpec(err));
+					} else if (!resultMap.isEmpty() && !resultMap.containsKey("desc")) {
+						// See toExtendedFileSpec for the "desc" record; with
+						// a field filter it may also arrive empty.
+						row = columns.add(resultMap);
+					}
+					if ((row >= 0) && (callback != null)) {
+						// The columns only buffer the one row.
+						try {
+							if (!callback.handleSpec(columns.get(row), key)) {
+								stopped[0] = true;
+								return false;
+							}
+						} finally {
+							columns.clear();
+						}
+					}
+					return true;
+				} catch (P4JavaException exc) {
+					failure[0] = exc;
+					return false;
+				}
+			}
+		};
+		for (List<IFileSpec> batch : getExtendedFilesBatches(fileSpecs, opts)) {
+			execStreamingMapCommand(CmdSpec.FSTAT.toString(),
+						Parameters.processParameters(opts, batch,
+								new String[] {"-T", columns.getFieldFilter()}, this),
+						null, columnsCallback, key);
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+			if (stopped[0]) {
+				break;
+			}
+		}
+	}
+	
+	private ExtendedFileSpec toExtendedFileSpec(Map<String, Object> map)
+						throws ConnectionException, AccessException {
+		if (map == null) {
+			return null;
+		}
+		
+		// We do this by hand for the statFiles case; this may be
+		// included in the generic handler later -- HR.
+		
+		// Note: as of 10.1 or so, fstats on shelved files may return
+		// a "special" fstat info message (usually the last message) that
+		// contains only the description  field of the associated changelist
+		// (see fstat -e documentation for this); therefore we carefully weed
+		// out any return map here that has no depot path and a "desc" field
+		// -- HR (see also job040680).
+
+		final IServerMessage err = handleFileErrorStr(map);
+		if (err != null) {
+			return new ExtendedFileSpec(err);
+		}
+		if (map.containsKey("depotFile") && !map.containsKey("desc")) {
+			return new ExtendedFileSpec(map, this, -1);
+		}
+		return null;
+	}
 
 	/**
 	 * @see com.perforce.p4java.server.IOptionsServer#searchJobs(String, com.perforce.p4java.option.server.SearchJobsOptions)
@@ -5534,6 +5741,61 @@ public abstract class Server implements IServerControl, IOptionsServer {
 		return specList;
 	}
 
+	/**
+	 * @see com.perforce.p4java.server.IOptionsServer#getMatchingLines(List, String, com.perforce.p4java.option.server.MatchingLinesOptions, com.perforce.p4java.server.callback.IFileLineMatchCallback, int)
+	 */
+	public void getMatchingLines(List<IFileSpec> fileSpecs, String pattern, MatchingLinesOptions options,
+			final IFileLineMatchCallback callback, int key) throws P4JavaException {
+		if (fileSpecs == null) {
+			throw new NullPointerError(
+				"Null file specification list passed to IOptionsServer.getMatchingLines");
+		}
+		
+		if (pattern == null) {
+			throw new NullPointerError(
+				"Null pattern string passed to IOptionsServer.getMatchingLines");
+		}
+		
+		if (callback == null) {
+			throw new NullPointerError("Null callback passed to getMatchingLines");
+		}
+		
+		// As with the streaming getExtendedFiles, the first exception is kept
+		// and rethrown once the command stops.
+		final P4JavaException[] failure = new P4JavaException[1];
+		execStreamingMapCommand(CmdSpec.GREP.toString(),
+					Parameters.processParameters(options, fileSpecs, "-e" + pattern, this), null,
+					new IStreamingCallback() {
+						public boolean startResults(int key) {
+							return true;
+						}
+						
+						public boolean endResults(int key) {
+							return true;
+						}
+						
+						public boolean handleResult(Map<String, Object> resultMap, int key) {
+							try {
+								IServerMessage message = getErrorStr(resultMap);
+								if (message != null) {
+									throw new RequestException(message);
+								}
+								message = getErrorOrInfoStr(resultMap);
+								if (message != null) {
+									return callback.handleInfo(message, key);
+								}
+								return callback.handleMatch(new FileLineMatch(resultMap), key);
+							} catch (P4JavaException exc) {
+								failure[0] = exc;
+								return false;
+							}
+						}
+					}, key);
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
 	/**
 	 * @see com.perforce.p4java.server.IOptionsServer#obliterateFiles(List, com.perforce.p4java.option.server.ObliterateFilesOptions)
 	 */
@@ -6096,4 +6358,12 @@ public abstract class Server implements IServerControl, IOptionsServer {
 	public void setIgnoreFileName(String ignoreFileName) {
 		this.ignoreFileName = ignoreFileName;
 	}
+	
+	public FileSpecBatcher getFileSpecBatcher() {
+		return fileSpecBatcher;
+	}
+	
+	public void setFileSpecBatcher(FileSpecBatcher fileSpecBatcher) {
+		this.fileSpecBatcher = fileSpecBatcher;
+	}
 }
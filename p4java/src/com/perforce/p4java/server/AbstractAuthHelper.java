@@ -12,6 +12,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,15 +40,15 @@ public abstract class AbstractAuthHelper {
 	 * @param authMap
 	 * @return - list of auth entries found in the specified auth map
 	 */
-	protected static synchronized Map<String, String> getMemoryEntry(String userName, String serverAddress, Map<String, String> authMap) {
+	protected static Map<String, String> getMemoryEntry(String userName, String serverAddress, Map<String, String> authMap) {
 		Map<String, String> entryMap = null;
 		if (userName != null && serverAddress != null && authMap != null) {
 			if (serverAddress.lastIndexOf(':') == -1) {
 				serverAddress += "localhost:" + serverAddress;
 			}
 			String prefix = serverAddress + "=" + userName;
-			if (authMap.containsKey(prefix)) {
-				String authValue = authMap.get(prefix);
+			String authValue = authMap.get(prefix);
+			if (authValue != null) {
 				entryMap = new HashMap<String,String>();
 				entryMap.put(SERVER_ADDRESS_MAP_KEY, serverAddress);
 				entryMap.put(USER_NAME_MAP_KEY, userName);
@@ -63,10 +64,14 @@ public abstract class AbstractAuthHelper {
 	 * @param authMap
 	 * @return - list of auth entries found in the specified auth map
 	 */
-	protected static synchronized List<Map<String, String>> getMemoryEntries(Map<String, String> authMap) {
+	protected static List<Map<String, String>> getMemoryEntries(Map<String, String> authMap) {
 		List<Map<String, String>> authList = new ArrayList<Map<String, String>>();
 		if (authMap != null) {
-			for (Map.Entry<String, String> entry : authMap.entrySet()) {
+			List<Map.Entry<String, String>> entries;
+			synchronized (authMap) {
+				entries = new ArrayList<Map.Entry<String, String>>(authMap.entrySet());
+			}
+			for (Map.Entry<String, String> entry : entries) {
 			    String line = entry.getKey() + ":" + entry.getValue();
 				// Auth entry pattern is:
 				// server_address=user_name:auth_value
@@ -107,7 +112,7 @@ public abstract class AbstractAuthHelper {
 	 * @param authMap
 	 *            - non-null auth map
 	 */
-	protected static synchronized void saveMemoryEntry(String userName, String serverAddress,
+	protected static void saveMemoryEntry(String userName, String serverAddress,
 			String authValue, Map<String, String> authMap) {
 		if (userName != null && serverAddress != null && authMap != null) {
 			if (serverAddress.lastIndexOf(':') == -1) {
@@ -116,56 +121,52 @@ public abstract class AbstractAuthHelper {
 			String prefix = serverAddress + "=" + userName;
 			if (authValue != null) { // save entry
 				authMap.put(prefix, authValue);
-			} else {
-				if (authMap.containsKey(prefix)) { // delete entry
-					authMap.remove(prefix);
-				}
+			} else { // delete entry
+				authMap.remove(prefix);
 			}
 		}
 	}
 	
 	/**
-	 * Get all the auth entries found in the specified auth file.
+	 * Get all the auth entries found in the specified auth file. The file is
+	 * only parsed again when its size or time stamp has changed since it was
+	 * last read.
 	 * 
 	 * @param authFile
-	 * @return - list of auth entries found in the specified auth file
+	 * @return - unmodifiable list of auth entries found in the specified auth
+	 *           file
 	 * @throws IOException
 	 *             - io exception from reading auth file
 	 */
-	protected static synchronized List<Map<String, String>> getFileEntries(File authFile) throws IOException {
-		List<Map<String, String>> authList = new ArrayList<Map<String, String>>();
-		if (authFile != null && authFile.exists()) {
-			BufferedReader reader = new BufferedReader(new FileReader(
-					authFile));
-			try {
-				String line = reader.readLine();
-				while (line != null) {
-					// Auth entry pattern is:
-					// server_address=user_name:auth_value
-					int equals = line.indexOf('=');
-					if (equals != -1) {
-						int colon = line.indexOf(':', equals);
-						if (colon != -1 && colon + 1 < line.length()) {
-							String serverAddress = line.substring(0,
-									equals);
-							String userName = line.substring(equals + 1,
-									colon);
-							String authValue = line
-									.substring(colon + 1);
-							Map<String,String> map = new HashMap<String,String>();
-							map.put(SERVER_ADDRESS_MAP_KEY, serverAddress);
-							map.put(USER_NAME_MAP_KEY, userName);
-							map.put(AUTH_VALUE_MAP_KEY, authValue);
-							authList.add(map);
-						}
-					}
-					line = reader.readLine();
-				}
-			} finally {
-				reader.close();
-			}
+	protected static List<Map<String, String>> getFileEntries(File authFile) throws IOException {
+		if (authFile == null) {
+			return Collections.emptyList();
 		}
-		return authList;
+		return AuthFileCache.getEntries(authFile);
+	}
+
+	/**
+	 * Get the first auth entry in the specified auth file that matches the
+	 * specified user name and server address, without going through all the
+	 * entries in the file.
+	 * 
+	 * @param userName
+	 *            - possibly null user name; if null, the first entry for the
+	 *            server address is returned
+	 * @param serverAddress
+	 *            - non-null server address of the form server:port
+	 * @param authFile
+	 *            - non-null file
+	 * @return - unmodifiable auth entry, or null if not found
+	 * @throws IOException
+	 *             - io exception from reading auth file
+	 */
+	protected static Map<String, String> findFileEntry(String userName, String serverAddress,
+			File authFile) throws IOException {
+		if (serverAddress == null || authFile == null) {
+			return null;
+		}
+		return AuthFileCache.findEntry(userName, serverAddress, authFile);
 	}
 
 	/**
@@ -174,7 +175,11 @@ public abstract class AbstractAuthHelper {
 	 * server address in the auth file. If a current entry is not found then
 	 * the specified entry will be appended to the file. If the specified auth
 	 * value is null then the current entry in the specified file will be
-	 * removed if found.
+	 * removed if found.<p>
+	 * 
+	 * The new contents are written to a temp file next to the auth file and
+	 * renamed over it, so that readers never see a partly written file.
+	 * Saves to the same file are serialized; saves to different files are not.
 	 * 
 	 * @param userName
 	 *            - non-null user name
@@ -186,95 +191,121 @@ public abstract class AbstractAuthHelper {
 	 *            - non-null file
 	 * @throws IOException
 	 */
-	protected static synchronized void saveFileEntry(String userName, String serverAddress,
+	protected static void saveFileEntry(String userName, String serverAddress,
 			String authValue, File authFile) throws IOException {
 		if (userName != null && serverAddress != null && authFile != null) {
-			if (serverAddress.lastIndexOf(':') == -1) {
-				serverAddress += "localhost:" + serverAddress;
-			}
-			String prefix = serverAddress + "=" + userName + ":";
-			String value = null;
-			if (authValue != null) {
-				value = prefix + authValue;
-			}
-			BufferedReader reader = null;
-			try {
-				reader = new BufferedReader(new FileReader(authFile));
-			} catch (FileNotFoundException fnfe) {
-				// File is non-existent or not readable so ignored contents
-				reader = null;
+			synchronized (AuthFileCache.getLock(authFile)) {
+				try {
+					writeFileEntry(userName, serverAddress, authValue, authFile);
+				} finally {
+					AuthFileCache.invalidate(authFile);
+				}
 			}
+		}
+	}
 
-			// Put contents in temp file
-			File tempAuth = File.createTempFile("p4auth", ".txt");
-			PrintWriter writer = new PrintWriter(tempAuth, "utf-8");
-			boolean renamed = false;
+	private static void writeFileEntry(String userName, String serverAddress,
+			String authValue, File authFile) throws IOException {
+		if (serverAddress.lastIndexOf(':') == -1) {
+			serverAddress += "localhost:" + serverAddress;
+		}
+		String prefix = serverAddress + "=" + userName + ":";
+		String value = null;
+		if (authValue != null) {
+			value = prefix + authValue;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(authFile));
+		} catch (FileNotFoundException fnfe) {
+			// File is non-existent or not readable so ignored contents
+			reader = null;
+		}
 
-			try {
-				boolean processed = false;
+		// Put contents in temp file
+		File tempAuth = createTempFile(authFile);
+		PrintWriter writer = new PrintWriter(tempAuth, "utf-8");
+		boolean renamed = false;
 
-				// Only add current auth file content if a reader was
-				// successfully created
-				if (reader != null) {
-					String line = reader.readLine();
-					while (line != null) {
-						// Replace existing entry in the auth file
-						if (!processed && line.startsWith(prefix)) {
-							// value being null means that the entry should be
-							// removed
-							if (value != null) {
-								writer.println(value);
-							}
-							processed = true;
-						} else {
-							writer.println(line);
+		try {
+			boolean processed = false;
+
+			// Only add current auth file content if a reader was
+			// successfully created
+			if (reader != null) {
+				String line = reader.readLine();
+				while (line != null) {
+					// Replace existing entry in the auth file
+					if (!processed && line.startsWith(prefix)) {
+						// value being null means that the entry should be
+						// removed
+						if (value != null) {
+							writer.println(value);
 						}
-						line = reader.readLine();
+						processed = true;
+					} else {
+						writer.println(line);
 					}
+					line = reader.readLine();
 				}
-				if (!processed && value != null) {
-					writer.println(value);
+			}
+			if (!processed && value != null) {
+				writer.println(value);
+			}
+		} finally {
+			writer.flush();
+			writer.close();
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					// ignore
 				}
-			} finally {
-				writer.flush();
-				writer.close();
-				if (reader != null) {
-					try {
-						reader.close();
-					} catch (IOException e) {
-						// ignore
-					}
+			}
+			try {
+				// Rename to original auth file if no exceptions occur
+				renamed = tempAuth.renameTo(authFile);
+				if (!renamed) {
+					// If a straight up rename fails then try to copy the new
+					// auth file into the current p4 auth file. This seems to
+					// happen on windows.
+					renamed = copy(tempAuth, authFile);
 				}
-				try {
-					// Rename to original auth file if no exceptions occur
-					renamed = tempAuth.renameTo(authFile);
-					if (!renamed) {
-						// If a straight up rename fails then try to copy the new
-						// auth file into the current p4 auth file. This seems to
-						// happen on windows.
-						renamed = copy(tempAuth, authFile);
-					}
-				} finally {
-					if (tempAuth.exists()) {
-						if (!tempAuth.delete()) {
-							Log.warn("Unable to delete temp auth file '"
-									+ tempAuth.getPath()
-									+ "' in AbstractAuthHelper.saveFileEntry() -- unknown cause");
-						}
+			} finally {
+				if (tempAuth.exists()) {
+					if (!tempAuth.delete()) {
+						Log.warn("Unable to delete temp auth file '"
+								+ tempAuth.getPath()
+								+ "' in AbstractAuthHelper.saveFileEntry() -- unknown cause");
 					}
 				}
 			}
+		}
 
-			// Update read bit of actual auth file
-			updateReadBit(authFile);
+		// Update read bit of actual auth file
+		updateReadBit(authFile);
 
-			if (!renamed) {
-				throw new IOException("P4 auth file: "
-						+ authFile.getAbsolutePath()
-						+ " could not be overwritten.");
-			}
+		if (!renamed) {
+			throw new IOException("P4 auth file: "
+					+ authFile.getAbsolutePath()
+					+ " could not be overwritten.");
+		}
 
+	}
+
+	private static File createTempFile(File authFile) throws IOException {
+		// A rename is only atomic within the same file system, so prefer
+		// the auth file's own directory.
+		File dir = authFile.getAbsoluteFile().getParentFile();
+		if (dir != null && dir.canWrite()) {
+			try {
+				return File.createTempFile("p4auth", ".txt", dir);
+			} catch (IOException e) {
+				Log.warn("Unable to create temp auth file in '" + dir.getPath()
+						+ "'; using the system temp directory: " + e.getLocalizedMessage());
+			}
 		}
+		return File.createTempFile("p4auth", ".txt");
 	}
 
 	private static boolean copy(File source, File destination)
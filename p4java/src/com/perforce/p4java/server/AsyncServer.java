@@ -0,0 +1,299 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.server;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.perforce.p4java.client.IClient;
+import com.perforce.p4java.core.file.IExtendedFileSpec;
+import com.perforce.p4java.core.file.IFileRevisionData;
+import com.perforce.p4java.core.file.IFileSpec;
+import com.perforce.p4java.exception.NullPointerError;
+import com.perforce.p4java.exception.P4JavaException;
+import com.perforce.p4java.exception.RequestException;
+import com.perforce.p4java.option.client.SyncOptions;
+import com.perforce.p4java.option.server.GetExtendedFilesOptions;
+import com.perforce.p4java.option.server.GetFileContentsOptions;
+import com.perforce.p4java.option.server.GetRevisionHistoryOptions;
+import com.perforce.p4java.server.callback.IProgressCallback;
+import com.perforce.p4java.server.callback.IStreamingCallback;
+
+/**
+ * Default IAsyncServer implementation, usable with any IOptionsServer.<p>
+ *
+ * The commands run on a single daemon thread. Cancellation is signalled to
+ * the RPC layer through a progress callback that this object registers on
+ * the server (chaining to any callback that was already registered), and
+ * through the streaming callbacks it passes on; the command thread is never
+ * interrupted, as an interrupt would close any file channel the command
+ * is writing to.
+ *
+ * @since 2014.1
+ */
+
+public class AsyncServer implements IAsyncServer {
+
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	private final IOptionsServer server;
+	private final IProgressCallback originalProgressCallback;
+	private final ThreadPoolExecutor executor;
+	private volatile CommandTask<?> running = null;
+
+	/**
+	 * Create a new async wrapper around the server. The server should
+	 * already be connected (and logged in, if necessary); connection setup
+	 * can itself be run through submit().
+	 *
+	 * @param server non-null server to run the commands against.
+	 */
+	public AsyncServer(IOptionsServer server) {
+		if (server == null) {
+			throw new NullPointerError("null server passed to AsyncServer constructor");
+		}
+		this.server = server;
+		this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "p4java async command " + THREAD_COUNT.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		// registerProgressCallback is the only way to get the current callback.
+		this.originalProgressCallback = server.registerProgressCallback(null);
+		server.registerProgressCallback(new CancelProgressCallback(this.originalProgressCallback));
+	}
+
+	/**
+	 * @see com.perforce.p4java.server.IAsyncServer#getServer()
+	 */
+	public IOptionsServer getServer() {
+		return this.server;
+	}
+
+	/**
+	 * @see com.perforce.p4java.server.IAsyncServer#submit(com.perforce.p4java.server.IServerOperation)
+	 */
+	public <T> Future<T> submit(final IServerOperation<T> operation) {
+		if (operation == null) {
+			throw new NullPointerError("null operation passed to AsyncServer.submit");
+		}
+		CommandTask<T> task = new CommandTask<T>(new Callable<T>() {
+			public T call() throws P4JavaException {
+				return operation.run(server);
+			}
+		});
+		this.executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * @see com.perforce.p4java.server.IAsyncServer#execMapCmdList(java.lang.String, java.lang.String[], java.util.Map)
+	 */
+	public Future<List<Map<String, Object>>> execMapCmdList(final String cmdName, final String[] cmdArgs,
+			final Map<String, Object> inMap) {
+		return submit(new IServerOperation<List<Map<String, Object>>>() {
+			public List<Map<String, Object>> run(IOptionsServer server) throws P4JavaException {
+				return server.execMapCmdList(cmdName, cmdArgs, inMap);
+			}
+		});
+	}
+
+	/**
+	 * @see com.perforce.p4java.server.IAsyncServer#execStreamingMapCommand(java.lang.String, java.lang.String[], java.util.Map, com.perforce.p4java.server.callback.IStreamingCallback, int)
+	 */
+	public Future<Void> execStreamingMapCommand(final String cmdName, final String[] cmdArgs,
+			final Map<String, Object> inMap, final IStreamingCallback callback, final int key) {
+		if (callback == null) {
+			throw new NullPointerError("null streaming callback passed to AsyncServer.execStreamingMapCommand");
+		}
+		return submit(new IServerOperation<Void>() {
+			public Void run(IOptionsServer server) throws P4JavaException {
+				server.execStreamingMapCommand(cmdName, cmdArgs, inMap,
+						new CancelStreamingCallback(callback), key);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @see com.perforce.p4java.server.IAsyncServer#getExtendedFiles(java.util.List, com.perforce.p4java.option.server.GetExtendedFilesOptions)
+	 */
+	public Future<List<IExtendedFileSpec>> getExtendedFiles(final List<IFileSpec> fileSpecs,
+			final GetExtendedFilesOptions opts) {
+		return submit(new IServerOperation<List<IExtendedFileSpec>>() {
+			public List<IExtendedFileSpec> run(IOptionsServer server) throws P4JavaException {
+				return server.getExtendedFiles(fileSpecs, opts);
+			}
+		});
+	}
+
+	/**
+	 * @see com.perforce.p4java.server.IAsyncServer#getRevisionHistory(java.util.List, com.perforce.p4java.option.server.GetRevisionHistoryOptions)
+	 */
+	public Future<Map<IFileSpec, List<IFileRevisionData>>> getRevisionHistory(final List<IFileSpec> fileSpecs,
+			final GetRevisionHistoryOptions opts) {
+		return submit(new IServerOperation<Map<IFileSpec, List<IFileRevisionData>>>() {
+			public Map<IFileSpec, List<IFileRevisionData>> run(IOptionsServer server) throws P4JavaException {
+				return server.getRevisionHistory(fileSpecs, opts);
+			}
+		});
+	}
+
+	/**
+	 * @see com.perforce.p4java.server.IAsyncServer#getFileContents(java.util.List, com.perforce.p4java.option.server.GetFileContentsOptions)
+	 */
+	public Future<InputStream> getFileContents(final List<IFileSpec> fileSpecs,
+			final GetFileContentsOptions opts) {
+		return submit(new IServerOperation<InputStream>() {
+			public InputStream run(IOptionsServer server) throws P4JavaException {
+				return server.getFileContents(fileSpecs, opts);
+			}
+		});
+	}
+
+	/**
+	 * @see com.perforce.p4java.server.IAsyncServer#sync(java.util.List, com.perforce.p4java.option.client.SyncOptions)
+	 */
+	public Future<List<IFileSpec>> sync(final List<IFileSpec> fileSpecs, final SyncOptions syncOpts) {
+		return submit(new IServerOperation<List<IFileSpec>>() {
+			public List<IFileSpec> run(IOptionsServer server) throws P4JavaException {
+				IClient client = server.getCurrentClient();
+				if (client == null) {
+					throw new RequestException("no current client set for AsyncServer.sync");
+				}
+				return client.sync(fileSpecs, syncOpts);
+			}
+		});
+	}
+
+	/**
+	 * @see com.perforce.p4java.server.IAsyncServer#shutdown()
+	 */
+	public void shutdown() {
+		// Not shutdownNow(): that interrupts the command thread, which would
+		// close any file channel the running command is writing to.
+		this.executor.shutdown();
+		List<Runnable> queued = new ArrayList<Runnable>();
+		this.executor.getQueue().drainTo(queued);
+		for (Runnable task : queued) {
+			if (task instanceof Future<?>) {
+				((Future<?>) task).cancel(false);
+			}
+		}
+		CommandTask<?> current = this.running;
+		if (current != null) {
+			current.cancel(false);
+		}
+		try {
+			// Let the running command notice the cancel before the
+			// callback is taken away.
+			this.executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.server.registerProgressCallback(this.originalProgressCallback);
+	}
+
+	/**
+	 * @see com.perforce.p4java.server.IAsyncServer#isShutdown()
+	 */
+	public boolean isShutdown() {
+		return this.executor.isShutdown();
+	}
+
+	private boolean isRunningCanceled() {
+		CommandTask<?> current = this.running;
+		return current != null && current.isCancelled();
+	}
+
+	/**
+	 * Tracks the running command, so the callbacks can tell whether it
+	 * has been cancelled.
+	 */
+	private class CommandTask<T> extends FutureTask<T> {
+
+		CommandTask(Callable<T> callable) {
+			super(callable);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			// Never interrupt; see the class comment.
+			return super.cancel(false);
+		}
+
+		@Override
+		public void run() {
+			running = this;
+			try {
+				super.run();
+			} finally {
+				running = null;
+			}
+		}
+	}
+
+	private class CancelProgressCallback implements IProgressCallback {
+
+		private final IProgressCallback delegate;
+
+		CancelProgressCallback(IProgressCallback delegate) {
+			this.delegate = delegate;
+		}
+
+		public void start(int key) {
+			if (this.delegate != null) {
+				this.delegate.start(key);
+			}
+		}
+
+		public boolean tick(int key, String tickMarker) {
+			boolean keepGoing = (this.delegate == null || this.delegate.tick(key, tickMarker));
+			return keepGoing && !isRunningCanceled();
+		}
+
+		public void stop(int key) {
+			if (this.delegate != null) {
+				this.delegate.stop(key);
+			}
+		}
+	}
+
+	private class CancelStreamingCallback implements IStreamingCallback {
+
+		private final IStreamingCallback delegate;
+
+		CancelStreamingCallback(IStreamingCallback delegate) {
+			this.delegate = delegate;
+		}
+
+		public boolean startResults(int key) throws P4JavaException {
+			return this.delegate.startResults(key);
+		}
+
+		public boolean endResults(int key) throws P4JavaException {
+			return this.delegate.endResults(key);
+		}
+
+		public boolean handleResult(Map<String, Object> resultMap, int key) throws P4JavaException {
+			if (isRunningCanceled()) {
+				return false;
+			}
+			return this.delegate.handleResult(resultMap, key);
+		}
+	}
+}
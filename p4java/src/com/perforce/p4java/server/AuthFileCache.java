@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package com.perforce.p4java.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the parsed entries of each tickets and trust file, so that looking
+ * up a ticket or fingerprint doesn't read and parse the whole file again.<p>
+ *
+ * A file is parsed again only when its size or time stamp changes, such as
+ * when the p4 command line client logs in. Lookups don't lock; each file
+ * has its own lock for loading and saving, rather than one lock for all of
+ * them.
+ */
+class AuthFileCache {
+
+	/**
+	 * A file modified this recently may be changed again within the same
+	 * time stamp tick and keep its size, so its contents aren't trusted.
+	 */
+	static final long RACY_MILLIS = 2000L;
+
+	private static final ConcurrentMap<String, AuthFile> files =
+			new ConcurrentHashMap<String, AuthFile>();
+
+	/**
+	 * @return the entries of the file, in file order; the list and its maps
+	 * 		must not be changed.
+	 */
+	static List<Map<String, String>> getEntries(File authFile) throws IOException {
+		return getAuthFile(authFile).getContents().entries;
+	}
+
+	/**
+	 * @return the first entry for the server address and, if not null, user
+	 * 		name; null if there is none.
+	 */
+	static Map<String, String> findEntry(String userName, String serverAddress, File authFile)
+			throws IOException {
+		List<Map<String, String>> serverEntries =
+				getAuthFile(authFile).getContents().byServer.get(serverAddress);
+		if (serverEntries != null) {
+			for (Map<String, String> entry : serverEntries) {
+				if (userName == null
+						|| userName.equals(entry.get(AbstractAuthHelper.USER_NAME_MAP_KEY))) {
+					return entry;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the lock to hold while changing the file.
+	 */
+	static Object getLock(File authFile) {
+		return getAuthFile(authFile);
+	}
+
+	/**
+	 * Forget the file's contents, after it was changed.
+	 */
+	static void invalidate(File authFile) {
+		getAuthFile(authFile).contents = null;
+	}
+
+	private static AuthFile getAuthFile(File authFile) {
+		String key = authFile.getAbsolutePath();
+		AuthFile ret = files.get(key);
+		if (ret == null) {
+			AuthFile created = new AuthFile(new File(key));
+			ret = files.putIfAbsent(key, created);
+			if (ret == null) {
+				ret = created;
+			}
+		}
+		return ret;
+	}
+
+
+	private static class AuthFile {
+		private final File file;
+		private volatile Contents contents;
+
+		AuthFile(File file) {
+			this.file = file;
+		}
+
+		Contents getContents() throws IOException {
+			Contents current = this.contents;
+			if (current != null && current.isCurrent(file)) {
+				return current;
+			}
+			synchronized (this) {
+				current = this.contents;
+				if (current != null && current.isCurrent(file)) {
+					return current;
+				}
+				current = Contents.load(file);
+				this.contents = current;
+				return current;
+			}
+		}
+	}
+
+
+	private static class Contents {
+		private final long lastModified;
+		private final long length;
+		private final boolean racy;
+		private final List<Map<String, String>> entries;
+		private final Map<String, List<Map<String, String>>> byServer;
+
+		private Contents(long lastModified, long length, boolean racy,
+				List<Map<String, String>> entries) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.racy = racy;
+			this.entries = entries;
+			this.byServer = new HashMap<String, List<Map<String, String>>>();
+			for (Map<String, String> entry : entries) {
+				String serverAddress = entry.get(AbstractAuthHelper.SERVER_ADDRESS_MAP_KEY);
+				List<Map<String, String>> serverEntries = this.byServer.get(serverAddress);
+				if (serverEntries == null) {
+					serverEntries = new ArrayList<Map<String, String>>(1);
+					this.byServer.put(serverAddress, serverEntries);
+				}
+				serverEntries.add(entry);
+			}
+		}
+
+		boolean isCurrent(File file) {
+			return !racy && file.lastModified() == lastModified && file.length() == length;
+		}
+
+		static Contents load(File file) throws IOException {
+			// Stat before reading, so that a change made while reading is
+			// seen as a change on the next lookup.
+			long lastModified = file.lastModified();
+			long length = file.length();
+			boolean racy = System.currentTimeMillis() - lastModified < RACY_MILLIS;
+			List<Map<String, String>> entries = new ArrayList<Map<String, String>>();
+			if (file.exists()) {
+				BufferedReader reader = new BufferedReader(new FileReader(file));
+				try {
+					String line = reader.readLine();
+					while (line != null) {
+						// Auth entry pattern is:
+						// server_address=user_name:auth_value
+						int equals = line.indexOf('=');
+						if (equals != -1) {
+							int colon = line.indexOf(':', equals);
+							if (colon != -1 && colon + 1 < line.length()) {
+								Map<String, String> map = new HashMap<String, String>();
+								map.put(AbstractAuthHelper.SERVER_ADDRESS_MAP_KEY,
+										line.substring(0, equals));
+								map.put(AbstractAuthHelper.USER_NAME_MAP_KEY,
+										line.substring(equals + 1, colon));
+								map.put(AbstractAuthHelper.AUTH_VALUE_MAP_KEY,
+										line.substring(colon + 1));
+								entries.add(Collections.unmodifiableMap(map));
+							}
+						}
+						line = reader.readLine();
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			return new Contents(lastModified, length, racy,
+					Collections.unmodifiableList(entries));
+		}
+	}
+}
@@ -67,7 +67,7 @@ public class AuthTicketsHelper extends AbstractAuthHelper {
 	 * @throws IOException
 	 *             - io exception from reading tickets file
 	 */
-	public static synchronized AuthTicket[] getTickets(File ticketsFile)
+	public static AuthTicket[] getTickets(File ticketsFile)
 			throws IOException {
 		AuthTicket[] tickets = EMPTY;
 		List<Map<String, String>> authList = ticketsFile != null ? 
@@ -113,12 +113,21 @@ public class AuthTicketsHelper extends AbstractAuthHelper {
 			if (serverAddress.indexOf(':') == -1) {
 				serverAddress += "localhost:" + serverAddress;
 			}
-			for (AuthTicket ticket : getTickets(ticketsFilePath)) {
-				if (serverAddress.equals(ticket.getServerAddress())
-						&& (userName == null || userName.equals(ticket
-								.getUserName()))) {
-					foundTicket = ticket;
-					break;
+			if (ticketsFilePath != null) {
+				Map<String, String> entry = findFileEntry(userName, serverAddress,
+						new File(ticketsFilePath));
+				if (entry != null) {
+					foundTicket = new AuthTicket(entry.get(SERVER_ADDRESS_MAP_KEY),
+							entry.get(USER_NAME_MAP_KEY), entry.get(AUTH_VALUE_MAP_KEY));
+				}
+			} else {
+				for (AuthTicket ticket : getTickets(ticketsFilePath)) {
+					if (serverAddress.equals(ticket.getServerAddress())
+							&& (userName == null || userName.equals(ticket
+									.getUserName()))) {
+						foundTicket = ticket;
+						break;
+					}
 				}
 			}
 		}
@@ -221,7 +230,7 @@ public class AuthTicketsHelper extends AbstractAuthHelper {
 	 *            - non-null file
 	 * @throws IOException
 	 */
-	public static synchronized void saveTicket(String userName, String serverAddress,
+	public static void saveTicket(String userName, String serverAddress,
 			String ticketValue, File ticketsFile) throws IOException {
 		if (ticketsFile != null) {
 			saveFileEntry(userName, serverAddress, ticketValue, ticketsFile);
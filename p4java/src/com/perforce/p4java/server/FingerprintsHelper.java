@@ -21,6 +21,89 @@ public class FingerprintsHelper extends AbstractAuthHelper {
 	private static Map<String, String> fingerprintsMap = 
 			Collections.synchronizedMap(new HashMap<String, String>());
 
+	/**
+	 * The fingerprints already checked against a trust file (or the in-memory
+	 * map), keyed by the trust file path and server address. An entry only
+	 * holds while the trust file keeps the same size and time stamp, and all
+	 * entries are dropped when a fingerprint is saved. A trust file modified
+	 * too recently to trust its time stamp is never cached.
+	 */
+	private static Map<String, VerifiedFingerprint> verifiedFingerprints =
+			Collections.synchronizedMap(new HashMap<String, VerifiedFingerprint>());
+
+	/**
+	 * Check whether the fingerprint was already found to match the trust
+	 * file's entry for the server, without reading the trust file.
+	 * 
+	 * @param serverAddress
+	 *            - non-null server address
+	 * @param fingerprintValue
+	 *            - non-null fingerprint value
+	 * @param trustFilePath
+	 *            - path to the trust file; null for the in-memory map
+	 * @return - true if the fingerprint is known to be trusted
+	 */
+	public static boolean isVerified(String serverAddress, String fingerprintValue,
+			String trustFilePath) {
+		VerifiedFingerprint verified = verifiedFingerprints.get(
+				getVerifiedKey(serverAddress, trustFilePath));
+		return verified != null
+				&& verified.fingerprintValue.equalsIgnoreCase(fingerprintValue)
+				&& verified.isCurrent(trustFilePath);
+	}
+
+	/**
+	 * Remember that the fingerprint matches the trust file's entry for the
+	 * server, so that later connections can skip reading the trust file.
+	 * Nothing is remembered if the trust file was modified within the last
+	 * few seconds, as it may change again without a new time stamp.
+	 * 
+	 * @param serverAddress
+	 *            - non-null server address
+	 * @param fingerprintValue
+	 *            - non-null fingerprint value
+	 * @param trustFilePath
+	 *            - path to the trust file; null for the in-memory map
+	 */
+	public static void setVerified(String serverAddress, String fingerprintValue,
+			String trustFilePath) {
+		VerifiedFingerprint verified = new VerifiedFingerprint(fingerprintValue, trustFilePath);
+		String key = getVerifiedKey(serverAddress, trustFilePath);
+		if (verified.racy) {
+			verifiedFingerprints.remove(key);
+		} else {
+			verifiedFingerprints.put(key, verified);
+		}
+	}
+
+	private static String getVerifiedKey(String serverAddress, String trustFilePath) {
+		return (trustFilePath == null ? "" : trustFilePath) + '\n' + serverAddress;
+	}
+
+	private static class VerifiedFingerprint {
+		private final String fingerprintValue;
+		private final long lastModified;
+		private final long length;
+		private final boolean racy;
+
+		VerifiedFingerprint(String fingerprintValue, String trustFilePath) {
+			this.fingerprintValue = fingerprintValue;
+			File file = trustFilePath == null ? null : new File(trustFilePath);
+			this.lastModified = file == null ? 0 : file.lastModified();
+			this.length = file == null ? 0 : file.length();
+			this.racy = file != null
+					&& System.currentTimeMillis() - lastModified < AuthFileCache.RACY_MILLIS;
+		}
+
+		boolean isCurrent(String trustFilePath) {
+			if (trustFilePath == null) {
+				return true;
+			}
+			File file = new File(trustFilePath);
+			return file.lastModified() == lastModified && file.length() == length;
+		}
+	}
+
 	/**
 	 * Get the first found fingerprint value that matches the specified user name
 	 * and server address. The user name be non-null and the server address must
@@ -67,7 +150,7 @@ public class FingerprintsHelper extends AbstractAuthHelper {
 	 * @throws IOException
 	 *             - io exception from reading trust file
 	 */
-	public static synchronized Fingerprint[] getFingerprints(File trustFile) throws IOException {
+	public static Fingerprint[] getFingerprints(File trustFile) throws IOException {
 		Fingerprint[] fingerprints = EMPTY;
 		List<Map<String, String>> authList = trustFile != null ? 
 				getFileEntries(trustFile) : getMemoryEntries(fingerprintsMap);
@@ -112,12 +195,21 @@ public class FingerprintsHelper extends AbstractAuthHelper {
 			if (serverAddress.indexOf(':') == -1) {
 				serverAddress += "localhost:" + serverAddress;
 			}
-			for (Fingerprint fingerprint : getFingerprints(trustFilePath)) {
-				if (serverAddress.equals(fingerprint.getServerAddress())
-						&& (userName == null || userName.equals(fingerprint
-								.getUserName()))) {
-					foundFingerprint = fingerprint;
-					break;
+			if (trustFilePath != null) {
+				Map<String, String> entry = findFileEntry(userName, serverAddress,
+						new File(trustFilePath));
+				if (entry != null) {
+					foundFingerprint = new Fingerprint(entry.get(SERVER_ADDRESS_MAP_KEY),
+							entry.get(USER_NAME_MAP_KEY), entry.get(AUTH_VALUE_MAP_KEY));
+				}
+			} else {
+				for (Fingerprint fingerprint : getFingerprints(trustFilePath)) {
+					if (serverAddress.equals(fingerprint.getServerAddress())
+							&& (userName == null || userName.equals(fingerprint
+									.getUserName()))) {
+						foundFingerprint = fingerprint;
+						break;
+					}
 				}
 			}
 		}
@@ -220,8 +312,9 @@ public class FingerprintsHelper extends AbstractAuthHelper {
 	 *            - non-null file
 	 * @throws IOException
 	 */
-	public static synchronized void saveFingerprint(String userName, String serverAddress,
+	public static void saveFingerprint(String userName, String serverAddress,
 			String fingerprintValue, File trustFile) throws IOException {
+		verifiedFingerprints.clear();
 		if (trustFile != null) {
 			saveFileEntry(userName, serverAddress, fingerprintValue, trustFile);
 		} else {
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.server;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import com.perforce.p4java.core.file.IExtendedFileSpec;
+import com.perforce.p4java.core.file.IFileRevisionData;
+import com.perforce.p4java.core.file.IFileSpec;
+import com.perforce.p4java.option.client.SyncOptions;
+import com.perforce.p4java.option.server.GetExtendedFilesOptions;
+import com.perforce.p4java.option.server.GetFileContentsOptions;
+import com.perforce.p4java.option.server.GetRevisionHistoryOptions;
+import com.perforce.p4java.server.callback.IStreamingCallback;
+
+/**
+ * Runs commands against a single Perforce server without blocking the
+ * calling thread.<p>
+ *
+ * A Perforce connection only processes one command at a time, so the
+ * commands are queued and run in submission order on a thread owned by
+ * this object; callers can overlap their own work with the commands
+ * without dedicating a thread to each of them. While commands are being
+ * submitted through this interface, the underlying server must not be
+ * used directly from other threads.<p>
+ *
+ * Cancelling a returned Future before its command starts simply removes
+ * it from the queue. Cancelling a running command stops it at the next
+ * result or progress tick, using the same mechanism as an
+ * IProgressCallback or IStreamingCallback returning false. The protocol
+ * has no in-band abort, so the RPC implementation then drops the
+ * connection and reconnects before running the next command; cancelling
+ * a running command therefore costs a reconnect, and any state set up on
+ * the old connection (e.g. a non-ticket login) must be re-established.
+ * Results already delivered to a streaming callback are not retracted.
+ *
+ * @since 2014.1
+ */
+
+public interface IAsyncServer {
+
+	/**
+	 * Get the server the commands run against.
+	 */
+	IOptionsServer getServer();
+
+	/**
+	 * Queue an arbitrary operation against the server.
+	 *
+	 * @param operation non-null operation to run.
+	 * @return a future for the operation's result; a P4JavaException thrown by
+	 * 			the operation is wrapped in the ExecutionException thrown by get().
+	 */
+	<T> Future<T> submit(IServerOperation<T> operation);
+
+	/**
+	 * Queue an IOptionsServer.execMapCmdList call.
+	 *
+	 * @return a future for the command's result maps.
+	 */
+	Future<List<Map<String, Object>>> execMapCmdList(String cmdName, String[] cmdArgs,
+			Map<String, Object> inMap);
+
+	/**
+	 * Queue an IServer.execStreamingMapCommand call. The callback is called
+	 * on the server's command thread as each result arrives, so callers
+	 * can process partial results long before the future completes.
+	 *
+	 * @param callback non-null streaming callback; see IStreamingCallback
+	 * 			for the restrictions on its implementation.
+	 * @return a future which completes once the command has finished.
+	 */
+	Future<Void> execStreamingMapCommand(String cmdName, String[] cmdArgs,
+			Map<String, Object> inMap, IStreamingCallback callback, int key);
+
+	/**
+	 * Queue an IOptionsServer.getExtendedFiles call.
+	 */
+	Future<List<IExtendedFileSpec>> getExtendedFiles(List<IFileSpec> fileSpecs,
+			GetExtendedFilesOptions opts);
+
+	/**
+	 * Queue an IOptionsServer.getRevisionHistory call.
+	 */
+	Future<Map<IFileSpec, List<IFileRevisionData>>> getRevisionHistory(List<IFileSpec> fileSpecs,
+			GetRevisionHistoryOptions opts);
+
+	/**
+	 * Queue an IOptionsServer.getFileContents call. The returned stream
+	 * holds the complete contents, so it can be read on any thread.
+	 */
+	Future<InputStream> getFileContents(List<IFileSpec> fileSpecs, GetFileContentsOptions opts);
+
+	/**
+	 * Queue an IClient.sync call against the server's current client, as
+	 * set when the command runs.
+	 *
+	 * @return a future for the sync results; if the server has no current
+	 * 			client, get() throws an ExecutionException wrapping a
+	 * 			RequestException.
+	 */
+	Future<List<IFileSpec>> sync(List<IFileSpec> fileSpecs, SyncOptions syncOpts);
+
+	/**
+	 * Cancel all queued and running commands, stop the command thread and
+	 * restore the server's original progress callback. The server itself
+	 * is left connected.
+	 */
+	void shutdown();
+
+	/**
+	 * Return true if shutdown() has been called.
+	 */
+	boolean isShutdown();
+}
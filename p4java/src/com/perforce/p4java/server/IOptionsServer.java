@@ -12,8 +12,12 @@ import com.perforce.p4java.exception.AccessException;
 import com.perforce.p4java.exception.ConnectionException;
 import com.perforce.p4java.exception.P4JavaException;
 import com.perforce.p4java.exception.RequestException;
+import com.perforce.p4java.impl.generic.core.file.ExtendedFileSpecColumns;
 import com.perforce.p4java.option.UsageOptions;
 import com.perforce.p4java.option.server.*;
+import com.perforce.p4java.server.callback.IExtendedFileSpecCallback;
+import com.perforce.p4java.server.callback.IFileContentsCallback;
+import com.perforce.p4java.server.callback.IFileLineMatchCallback;
 import com.perforce.p4java.server.callback.IFilterCallback;
 import com.perforce.p4java.server.callback.IStreamingCallback;
 
@@ -642,6 +646,29 @@ public interface IOptionsServer extends IServer {
 	List<IFileLineMatch> getMatchingLines(List<IFileSpec> fileSpecs, String pattern,
 				List<IServerMessage> infoLines, MatchingLinesOptions options) throws P4JavaException;
 	
+	/**
+	 * Streaming version of getMatchingLines: each matching line is passed to
+	 * the callback as soon as it arrives from the server, so that a search
+	 * over a large number of files can show its first results before the
+	 * whole command completes.<p>
+	 * 
+	 * Stopping the command early (by returning false or throwing an exception
+	 * from the callback) is handled the same way as a cancelled streaming
+	 * command, and so may reset the server connection.
+	 * 
+	 * @since 2014.1
+	 * @param fileSpecs non-null list of file specs to search for matching lines
+	 * @param pattern non-null string pattern to be passed to the grep command
+	 * @param options - Options to grep command; if null, no options are set.
+	 * @param callback non-null callback to receive the results.
+	 * @param key an opaque integer key that is passed to the callback.
+	 * @throws P4JavaException if an error occurs processing this method and its parameters,
+	 * 				the server reported an error, or the callback threw an exception.
+	 */
+	
+	void getMatchingLines(List<IFileSpec> fileSpecs, String pattern, MatchingLinesOptions options,
+				IFileLineMatchCallback callback, int key) throws P4JavaException;
+	
 	/**
 	 * Create a new Perforce user on the Perforce server.
 	 * 
@@ -1196,6 +1223,29 @@ public interface IOptionsServer extends IServer {
 	InputStream getFileContents(List<IFileSpec> fileSpecs, GetFileContentsOptions opts)
 												throws P4JavaException;
 	
+	/**
+	 * Streaming version of getFileContents: the files are printed with a
+	 * single tagged command, and each file's header and contents are passed
+	 * to the callback as they arrive from the server, rather than being
+	 * written to a temporary file.<p>
+	 * 
+	 * Stopping the command early (by returning false or throwing an exception
+	 * from the callback) is handled the same way as a cancelled streaming
+	 * command, and so may reset the server connection.
+	 * 
+	 * @since 2014.1
+	 * @param fileSpecs non-null list of depot or client file specs defining files to be printed
+	 * @param opts GetFileContentsOptions object describing optional parameters; if null, no
+	 * 				options are set.
+	 * @param callback non-null callback to receive the results.
+	 * @param key an opaque integer key that is passed to the callback.
+	 * @throws P4JavaException if an error occurs processing this method and its parameters,
+	 * 				the server reported an error, or the callback threw an exception.
+	 */
+	
+	void getFileContents(List<IFileSpec> fileSpecs, GetFileContentsOptions opts,
+				IFileContentsCallback callback, int key) throws P4JavaException;
+	
 	/**
 	 * Get the revision history data for one or more Perforce files.<p>
 	 * 
@@ -1291,6 +1341,77 @@ public interface IOptionsServer extends IServer {
 	List<IExtendedFileSpec> getExtendedFiles(List<IFileSpec> fileSpecs, GetExtendedFilesOptions opts)
 							throws P4JavaException;
 	
+	/**
+	 * Streaming version of getExtendedFiles: each file's stat info is passed to
+	 * the callback as soon as it arrives from the server, rather than being
+	 * collected into a list, so the memory used does not grow with the number
+	 * of files returned.<p>
+	 * 
+	 * Stopping the command early (by returning false or throwing an exception
+	 * from the callback) is handled the same way as a cancelled streaming
+	 * command, and so may reset the server connection.
+	 * 
+	 * @since 2014.1
+	 * @param fileSpecs non-null list of Perforce file specification(s).
+	 * @param opts GetExtendedFilesOptions object describing optional parameters; if null, no
+	 * 				options are set.
+	 * @param callback non-null callback to receive the results.
+	 * @param key an opaque integer key that is passed to the callback.
+	 * @throws P4JavaException if an error occurs processing this method and its parameters,
+	 * 				or the callback threw an exception.
+	 */
+	
+	void getExtendedFiles(List<IFileSpec> fileSpecs, GetExtendedFilesOptions opts,
+							IExtendedFileSpecCallback callback, int key) throws P4JavaException;
+	
+	/**
+	 * Columnar version of getExtendedFiles: only the fields held by the passed-in
+	 * columns are requested from the server (using fstat's "-T" option), and each
+	 * file's stat info is added to the columns as it arrives, rather than being
+	 * made into a full IExtendedFileSpec. This is intended for bulk queries over
+	 * many files that only need a few fields from each.<p>
+	 * 
+	 * Error and info messages are added to the columns as message rows. The
+	 * columns are not cleared first.
+	 * 
+	 * @since 2014.1
+	 * @param fileSpecs non-null list of Perforce file specification(s).
+	 * @param opts GetExtendedFilesOptions object describing optional parameters; if null, no
+	 * 				options are set. This must not itself set a field filter.
+	 * @param columns non-null columns to add the results to.
+	 * @throws P4JavaException if an error occurs processing this method and its parameters.
+	 */
+	
+	void getExtendedFiles(List<IFileSpec> fileSpecs, GetExtendedFilesOptions opts,
+							ExtendedFileSpecColumns columns) throws P4JavaException;
+	
+	/**
+	 * Streaming columnar version of getExtendedFiles: only the fields held by the
+	 * passed-in columns are requested from the server, and each file's stat info
+	 * is passed to the callback as it arrives, as a view onto a row of the
+	 * columns. The columns only ever hold that one row, so the memory used does
+	 * not grow with the number of results.<p>
+	 * 
+	 * The spec passed to the callback is only valid until the callback returns;
+	 * a callback that keeps a result must copy the fields it needs. Error and
+	 * info messages are passed as specs with a non-VALID op status.
+	 * 
+	 * @since 2014.1
+	 * @param fileSpecs non-null list of Perforce file specification(s).
+	 * @param opts GetExtendedFilesOptions object describing optional parameters; if null, no
+	 * 				options are set. This must not itself set a field filter.
+	 * @param columns non-null, empty columns that name the fields to request; they are
+	 * 				left empty.
+	 * @param callback non-null callback to receive the results.
+	 * @param key an opaque integer key that is passed to the callback.
+	 * @throws P4JavaException if an error occurs processing this method and its parameters,
+	 * 				or the callback threw an exception.
+	 */
+	
+	void getExtendedFiles(List<IFileSpec> fileSpecs, GetExtendedFilesOptions opts,
+							ExtendedFileSpecColumns columns, IExtendedFileSpecCallback callback,
+							int key) throws P4JavaException;
+	
 	/**
 	 * Get a list of submitted integrations for the passed-in filespecs
 	 * 
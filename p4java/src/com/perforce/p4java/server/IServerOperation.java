@@ -0,0 +1,29 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.server;
+
+import com.perforce.p4java.exception.P4JavaException;
+
+/**
+ * A unit of work run against a server by an {@link IAsyncServer}, on the
+ * thread that owns the server's connection.<p>
+ *
+ * The operation may issue any number of commands through the passed-in
+ * server, but must not keep a reference to it once it returns.
+ *
+ * @since 2014.1
+ */
+
+public interface IServerOperation<T> {
+
+	/**
+	 * Run the operation.
+	 *
+	 * @param server the server to run the commands against; never null.
+	 * @return the operation's result, as returned by the associated Future.
+	 * @throws P4JavaException if any problem occurs; it will be wrapped in
+	 * 			the ExecutionException thrown by the associated Future.
+	 */
+	T run(IOptionsServer server) throws P4JavaException;
+}
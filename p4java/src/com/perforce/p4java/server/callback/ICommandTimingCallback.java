@@ -0,0 +1,36 @@
+/**
+ *
+ */
+package com.perforce.p4java.server.callback;
+
+/**
+ * Provides a wire-level timing breakdown of each command issued through
+ * an RPC server implementation.<p>
+ *
+ * Each command's elapsed time is split into the time spent marshaling and
+ * sending the command packets, the time waiting for the first packet of the
+ * server's response, and the time spent receiving and dispatching the rest
+ * of the response. The byte counts are the socket bytes moved while the
+ * command ran.<p>
+ *
+ * NOTE: this is called in the thread context of the protocol handler at the
+ * end of every command; implementations must be cheap and must not block.
+ */
+
+public interface ICommandTimingCallback {
+
+	/**
+	 * Report the timing of a completed (or failed) command.
+	 *
+	 * @param cmdName the command name, as passed to the server.
+	 * @param sendNanos nanoseconds spent setting up and sending the command.
+	 * @param serverNanos nanoseconds between the send completing and the first
+	 * 			response packet arriving; 0 if no packet arrived.
+	 * @param receiveNanos nanoseconds spent receiving and dispatching the
+	 * 			response packets.
+	 * @param bytesSent socket bytes sent for the command.
+	 * @param bytesReceived socket bytes received for the command.
+	 */
+	void commandTimed(String cmdName, long sendNanos, long serverNanos, long receiveNanos,
+			long bytesSent, long bytesReceived);
+}
@@ -0,0 +1,36 @@
+/**
+ * 
+ */
+package com.perforce.p4java.server.callback;
+
+import com.perforce.p4java.core.file.IExtendedFileSpec;
+import com.perforce.p4java.exception.P4JavaException;
+
+/**
+ * Receives the results of a streaming fstat command one file at a time, as
+ * they arrive from the Perforce server; see IOptionsServer.getExtendedFiles
+ * with a callback parameter.<p>
+ * 
+ * This is called from within the RPC protocol handler, with the same
+ * restrictions as IStreamingCallback: implementations should return as
+ * quickly as possible and must not call back into the server. Unlike
+ * IStreamingCallback, a P4JavaException thrown from the callback stops the
+ * command and is rethrown from the originating method.
+ * 
+ * @since 2014.1
+ */
+
+public interface IExtendedFileSpecCallback {
+	
+	/**
+	 * Handle the next fstat result.
+	 * 
+	 * @param spec non-null extended file spec; error and info messages are
+	 * 				passed as specs with a non-VALID op status, as with the
+	 * 				list version of getExtendedFiles.
+	 * @param key opaque integer key as passed to the originating method.
+	 * @return true to continue receiving results; false to stop the command.
+	 * @throws P4JavaException if any problem that should stop the command.
+	 */
+	boolean handleSpec(IExtendedFileSpec spec, int key) throws P4JavaException;
+}
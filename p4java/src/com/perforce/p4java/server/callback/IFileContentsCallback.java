@@ -0,0 +1,50 @@
+/**
+ * 
+ */
+package com.perforce.p4java.server.callback;
+
+import com.perforce.p4java.core.file.IFileSpec;
+import com.perforce.p4java.exception.P4JavaException;
+
+/**
+ * Receives the results of a streaming print command as they arrive from the
+ * Perforce server; see IOptionsServer.getFileContents with a callback
+ * parameter. Each printed file is announced with startFile, followed by
+ * handleData for each block of its contents.<p>
+ * 
+ * This is called from within the RPC protocol handler, with the same
+ * restrictions as IExtendedFileSpecCallback: implementations should return
+ * as quickly as possible and must not call back into the server. A
+ * P4JavaException thrown from the callback stops the command and is
+ * rethrown from the originating method.
+ * 
+ * @since 2014.1
+ */
+
+public interface IFileContentsCallback {
+	
+	/**
+	 * Handle the start of the next printed file.
+	 * 
+	 * @param spec non-null file spec holding the file's depot path, revision
+	 * 				and type; a file that can't be printed is passed as a
+	 * 				spec with a non-VALID op status, and no data follows it.
+	 * @param key opaque integer key as passed to the originating method.
+	 * @return true to continue receiving results; false to stop the command.
+	 * @throws P4JavaException if any problem that should stop the command.
+	 */
+	boolean startFile(IFileSpec spec, int key) throws P4JavaException;
+	
+	/**
+	 * Handle the next block of the current file's contents. The bytes are
+	 * passed exactly as the server sent them: there is no line ending or
+	 * charset conversion, so text is UTF-8 on a unicode server. The block
+	 * may be empty.
+	 * 
+	 * @param data non-null contents block; it is not reused by the caller.
+	 * @param key opaque integer key as passed to the originating method.
+	 * @return true to continue receiving results; false to stop the command.
+	 * @throws P4JavaException if any problem that should stop the command.
+	 */
+	boolean handleData(byte[] data, int key) throws P4JavaException;
+}
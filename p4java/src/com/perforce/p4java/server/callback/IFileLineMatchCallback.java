@@ -0,0 +1,46 @@
+/**
+ * 
+ */
+package com.perforce.p4java.server.callback;
+
+import com.perforce.p4java.core.IFileLineMatch;
+import com.perforce.p4java.exception.P4JavaException;
+import com.perforce.p4java.server.IServerMessage;
+
+/**
+ * Receives the results of a streaming grep command one line at a time, as
+ * they arrive from the Perforce server; see IOptionsServer.getMatchingLines
+ * with a callback parameter.<p>
+ * 
+ * This is called from within the RPC protocol handler, with the same
+ * restrictions as IExtendedFileSpecCallback: implementations should return
+ * as quickly as possible and must not call back into the server. A
+ * P4JavaException thrown from the callback stops the command and is
+ * rethrown from the originating method.
+ * 
+ * @since 2014.1
+ */
+
+public interface IFileLineMatchCallback {
+	
+	/**
+	 * Handle the next matched (or context) line.
+	 * 
+	 * @param match non-null file line match.
+	 * @param key opaque integer key as passed to the originating method.
+	 * @return true to continue receiving results; false to stop the command.
+	 * @throws P4JavaException if any problem that should stop the command.
+	 */
+	boolean handleMatch(IFileLineMatch match, int key) throws P4JavaException;
+	
+	/**
+	 * Handle an info or warning message from the server, such as a
+	 * too-long line or a file that could not be searched.
+	 * 
+	 * @param message non-null server message.
+	 * @param key opaque integer key as passed to the originating method.
+	 * @return true to continue receiving results; false to stop the command.
+	 * @throws P4JavaException if any problem that should stop the command.
+	 */
+	boolean handleInfo(IServerMessage message, int key) throws P4JavaException;
+}
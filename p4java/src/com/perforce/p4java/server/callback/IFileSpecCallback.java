@@ -0,0 +1,36 @@
+/**
+ * 
+ */
+package com.perforce.p4java.server.callback;
+
+import com.perforce.p4java.core.file.IFileSpec;
+import com.perforce.p4java.exception.P4JavaException;
+
+/**
+ * Receives the per-file results of a streaming command one file at a time,
+ * as they arrive from the Perforce server; see IClient.sync with a callback
+ * parameter.<p>
+ * 
+ * This is called from within the RPC protocol handler, with the same
+ * restrictions as IExtendedFileSpecCallback: implementations should return
+ * as quickly as possible and must not call back into the server. A
+ * P4JavaException thrown from the callback stops the command and is
+ * rethrown from the originating method.
+ * 
+ * @since 2014.1
+ */
+
+public interface IFileSpecCallback {
+	
+	/**
+	 * Handle the next file result.
+	 * 
+	 * @param spec non-null file spec; error and info messages are passed as
+	 * 				specs with a non-VALID op status, as with the list
+	 * 				version of the originating method.
+	 * @param key opaque integer key as passed to the originating method.
+	 * @return true to continue receiving results; false to stop the command.
+	 * @throws P4JavaException if any problem that should stop the command.
+	 */
+	boolean handleSpec(IFileSpec spec, int key) throws P4JavaException;
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.impl.generic.core.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.perforce.p4java.core.IChangelist;
+import com.perforce.p4java.core.file.FileAction;
+import com.perforce.p4java.core.file.FileSpecOpStatus;
+import com.perforce.p4java.core.file.IExtendedFileSpec;
+import com.perforce.p4java.core.file.IFileSpec;
+import com.perforce.p4java.impl.generic.core.file.ExtendedFileSpecColumns.Field;
+import com.perforce.p4java.impl.mapbased.rpc.msg.ServerMessage;
+import com.perforce.p4java.server.ISingleServerMessage;
+
+/**
+ * Checks that the column views report the same values as an ExtendedFileSpec
+ * made from the same fstat result.
+ */
+public class ExtendedFileSpecColumnsTest {
+
+	@Test
+	public void testAllFieldsMatchExtendedFileSpec() {
+		ExtendedFileSpecColumns columns = new ExtendedFileSpecColumns(EnumSet.allOf(Field.class));
+		Map<String, Object> map = fstat("//depot/a.txt", "edit", "12");
+		map.put("type", "text");
+		map.put("haveRev", "3");
+		map.put("headChange", "10");
+		map.put("headRev", "4");
+		map.put("headType", "ktext");
+
+		IExtendedFileSpec expected = new ExtendedFileSpec(map, null, -1);
+		IExtendedFileSpec row = columns.get(columns.add(map));
+
+		assertSame(FileSpecOpStatus.VALID, row.getOpStatus());
+		assertEquals(expected.getDepotPathString(), row.getDepotPathString());
+		assertEquals(expected.getClientPathString(), row.getClientPathString());
+		assertEquals(expected.getAction(), row.getAction());
+		assertEquals(expected.getChangelistId(), row.getChangelistId());
+		assertEquals(expected.getFileType(), row.getFileType());
+		assertEquals(expected.getHaveRev(), row.getHaveRev());
+		assertEquals(expected.getEndRevision(), row.getEndRevision());
+		assertEquals(expected.getHeadAction(), row.getHeadAction());
+		assertEquals(expected.getHeadChange(), row.getHeadChange());
+		assertEquals(expected.getHeadRev(), row.getHeadRev());
+		assertEquals(expected.getHeadType(), row.getHeadType());
+	}
+
+	@Test
+	public void testChangeParsing() {
+		ExtendedFileSpecColumns columns = new ExtendedFileSpecColumns(EnumSet.of(Field.CHANGE));
+		assertEquals(IChangelist.DEFAULT, columns.get(columns.add(fstat("//a", "add", "default"))).getChangelistId());
+		assertEquals(IChangelist.DEFAULT,
+				columns.get(columns.add(fstat("//a", "add", "default change"))).getChangelistId());
+		assertEquals(123, columns.get(columns.add(fstat("//a", "add", "change 123"))).getChangelistId());
+		assertEquals(IChangelist.UNKNOWN, columns.get(columns.add(fstat("//a", "add", null))).getChangelistId());
+	}
+
+	@Test
+	public void testFieldsNotHeld() {
+		ExtendedFileSpecColumns columns = new ExtendedFileSpecColumns(
+				EnumSet.of(Field.DEPOT_FILE, Field.ACTION));
+		Map<String, Object> map = fstat("//depot/a.txt", "edit", "12");
+		map.put("headRev", "4");
+		map.put("headType", "ktext");
+		IExtendedFileSpec expected = new ExtendedFileSpec(Collections.<String, Object>emptyMap(), null, -1);
+		IExtendedFileSpec row = columns.get(columns.add(map));
+
+		// Not requested, so reported as if the server hadn't sent them.
+		assertNull(row.getClientPathString());
+		assertEquals(expected.getChangelistId(), row.getChangelistId());
+		assertEquals(expected.getHeadRev(), row.getHeadRev());
+		assertEquals(expected.getHeadType(), row.getHeadType());
+		assertEquals(expected.getHaveRev(), row.getHaveRev());
+		assertEquals(IFileSpec.NO_FILE_REVISION, row.getHaveRev());
+		assertNull(row.getStatusMessage());
+
+		// Setters for held fields write through to the columns.
+		row.setAction(FileAction.ADD);
+		row.setDepotPath("//depot/b.txt");
+		assertEquals(FileAction.ADD, columns.get(0).getAction());
+		assertEquals("//depot/b.txt", columns.get(0).getDepotPathString());
+
+		// Setters for anything else can't be kept.
+		try {
+			row.setClientPath("//client/a.txt");
+			fail("client path is not held");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			row.setHeadRev(5);
+			fail("headRev is not held");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			row.setUserName("user");
+			fail("user is never held");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMessageRows() {
+		ExtendedFileSpecColumns columns = new ExtendedFileSpecColumns(EnumSet.of(Field.DEPOT_FILE));
+		IExtendedFileSpec message = new ExtendedFileSpec(new ServerMessage(
+				Collections.<ISingleServerMessage>singletonList(
+						new ServerMessage.SingleServerMessage("//depot/x - no such file(s).")),
+				new HashMap<String, Object>()));
+		assertFalse(message.getOpStatus() == FileSpecOpStatus.VALID);
+
+		columns.add(fstat("//depot/a.txt", "edit", "1"));
+		assertEquals(1, columns.addMessage(message));
+		columns.add(fstat("//depot/b.txt", "edit", "1"));
+
+		assertEquals(3, columns.size());
+		assertEquals("//depot/a.txt", columns.get(0).getDepotPathString());
+		assertSame(message, columns.get(1));
+		assertEquals("//depot/b.txt", columns.get(2).getDepotPathString());
+
+		columns.clear();
+		assertEquals(0, columns.size());
+		assertEquals(0, columns.add(fstat("//depot/c.txt", "edit", "1")));
+		assertEquals("//depot/c.txt", columns.get(0).getDepotPathString());
+	}
+
+	@Test
+	public void testGrows() {
+		ExtendedFileSpecColumns columns = new ExtendedFileSpecColumns(EnumSet.of(Field.DEPOT_FILE, Field.CHANGE));
+		for (int i = 0; i < 1000; i++) {
+			columns.add(fstat("//depot/" + i, "edit", Integer.toString(i)));
+		}
+		assertEquals(1000, columns.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("//depot/" + i, columns.get(i).getDepotPathString());
+			assertEquals(i, columns.get(i).getChangelistId());
+		}
+		try {
+			columns.get(1000);
+			fail("past the last row");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testFieldFilter() {
+		assertEquals("depotFile,action,headAction", new ExtendedFileSpecColumns(
+				EnumSet.of(Field.HEAD_ACTION, Field.DEPOT_FILE, Field.ACTION)).getFieldFilter());
+	}
+
+	private static Map<String, Object> fstat(String depotFile, String action, String change) {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("depotFile", depotFile);
+		map.put("clientFile", "/ws" + depotFile.substring(1));
+		map.put("action", action);
+		map.put("headAction", "edit");
+		if (change != null) {
+			map.put("change", change);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.impl.mapbased.rpc.func.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.perforce.p4java.CharsetDefs;
+import com.perforce.p4java.exception.ConnectionException;
+import com.perforce.p4java.impl.mapbased.MapKeys;
+import com.perforce.p4java.impl.mapbased.rpc.CommandEnv;
+import com.perforce.p4java.impl.mapbased.rpc.CommandEnv.RpcHandler;
+import com.perforce.p4java.impl.mapbased.rpc.RpcPropertyDefs;
+import com.perforce.p4java.impl.mapbased.rpc.RpcServer;
+import com.perforce.p4java.impl.mapbased.rpc.connection.RpcConnection;
+import com.perforce.p4java.impl.mapbased.rpc.func.RpcFunctionMapKey;
+import com.perforce.p4java.impl.mapbased.rpc.func.proto.ProtocolCommand;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacket;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacketDispatcher;
+import com.perforce.p4java.impl.mapbased.rpc.packet.helper.RpcPacketFieldRule;
+import com.perforce.p4java.impl.mapbased.rpc.sys.RpcOutputStream;
+import com.perforce.p4java.impl.mapbased.rpc.sys.RpcPerforceFile;
+import com.perforce.p4java.impl.mapbased.rpc.sys.RpcPerforceFileType;
+import com.perforce.p4java.server.callback.IFilterCallback;
+import com.perforce.p4java.server.callback.IStreamingCallback;
+
+/**
+ * Checks that each file printed by one command is written with its own
+ * translation, and that a streaming map command gets the data instead.
+ * Also checks how a synced file is written to its target.
+ */
+public class ClientSystemFileCommandsTest {
+
+	private File tmpFile;
+	private RpcOutputStream outStream;
+	private CommandEnv cmdEnv;
+	private ClientSystemFileCommands commands;
+	private RpcConnection connection;
+	private File syncDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tmpFile = File.createTempFile("p4java", ".tmp");
+		syncDir = File.createTempFile("p4java", ".dir");
+		syncDir.delete();
+		syncDir.mkdir();
+		outStream = new RpcOutputStream(new RpcPerforceFile(tmpFile.getPath(),
+				RpcPerforceFileType.FST_BINARY));
+		connection = new FakeConnection(CharsetDefs.UTF8);
+		cmdEnv = new CommandEnv(null, connection, new ProtocolCommand(), null, null, 0, false, false);
+		cmdEnv.setResultMaps(new ArrayList<Map<String, Object>>());
+		cmdEnv.getStateMap().put(RpcServer.RPC_TMP_OUTFILE_STREAM_KEY, outStream);
+		commands = new ClientSystemFileCommands(new Properties(), null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		outStream.close();
+		tmpFile.delete();
+		for (File file : syncDir.listFiles()) {
+			file.delete();
+		}
+		syncDir.delete();
+	}
+
+	@Test
+	public void testUtf8ThenBinaryThenUtf16() throws Exception {
+		byte[] binary = new byte[] { (byte) 0xff, (byte) 0xfe, 0, (byte) 0xc3 };
+
+		printText("text", "h\u00e9llo\n", 3);
+		printBinary(binary);
+		printText("utf16", "w\u00f6rld\n", 2);
+
+		assertArrayEquals(concat(
+				"h\u00e9llo\n".getBytes("UTF-8"),
+				binary,
+				"w\u00f6rld\n".getBytes(CharsetDefs.UTF16.name())),
+				readOutput());
+	}
+
+	@Test
+	public void testUtf16ThenBinaryThenUtf8() throws Exception {
+		byte[] binary = new byte[] { (byte) 0xc3, 0x28, (byte) 0xa0, (byte) 0xa1 };
+
+		printText("utf16", "w\u00f6rld\n", 2);
+		printBinary(binary);
+		printText("text", "h\u00e9llo\n", 2);
+
+		assertArrayEquals(concat(
+				"w\u00f6rld\n".getBytes(CharsetDefs.UTF16.name()),
+				binary,
+				"h\u00e9llo\n".getBytes("UTF-8")),
+				readOutput());
+	}
+
+	@Test
+	public void testStreamingCommandGetsDataUnconverted() throws Exception {
+		final List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+		cmdEnv.getStateMap().remove(RpcServer.RPC_TMP_OUTFILE_STREAM_KEY);
+		cmdEnv.setStreamingCallback(new IStreamingCallback() {
+			public boolean startResults(int key) {
+				return true;
+			}
+
+			public boolean endResults(int key) {
+				return true;
+			}
+
+			public boolean handleResult(Map<String, Object> resultMap, int key) {
+				results.add(resultMap);
+				return true;
+			}
+		});
+		byte[] binary = new byte[] { (byte) 0xff, (byte) 0xfe, 0, (byte) 0xc3 };
+		Map<String, Object> binaryMap = new HashMap<String, Object>();
+		binaryMap.put(RpcFunctionMapKey.DATA, binary);
+		binaryMap.put("func", "client-OutputBinary");
+
+		printText("utf16", "w\u00f6rld\n", 100);
+		commands.writeBinary(connection, cmdEnv, binaryMap);
+
+		assertEquals(3, results.size());
+		assertArrayEquals("w\u00f6rld\n".getBytes("UTF-8"), (byte[]) results.get(0).get(RpcFunctionMapKey.DATA));
+		assertArrayEquals(new byte[0], (byte[]) results.get(1).get(RpcFunctionMapKey.DATA));
+		assertEquals(1, results.get(2).size());
+		assertArrayEquals(binary, (byte[]) results.get(2).get(RpcFunctionMapKey.DATA));
+		assertArrayEquals(new byte[0], readOutput());
+	}
+
+	@Test
+	public void testSyncNewFileDirect() throws Exception {
+		File target = new File(syncDir, "new.bin");
+
+		RpcHandler handler = openFile(commands, target, "rw");
+		assertNull(handler.getMap().get(ClientSystemFileCommands.FILE_OPEN_TMP_FILE_KEY));
+		writeFile("new contents\n");
+		closeFile();
+
+		assertFalse(handler.isError());
+		assertEquals("new contents\n", read(target));
+		assertArrayEquals(new String[] { target.getName() }, syncDir.list());
+	}
+
+	@Test
+	public void testSyncNewFileThroughTmpFile() throws Exception {
+		Properties props = new Properties();
+		props.setProperty(RpcPropertyDefs.RPC_SYNC_NEW_FILES_DIRECT_NICK, "false");
+		ClientSystemFileCommands tmpCommands = new ClientSystemFileCommands(props, null);
+		File target = new File(syncDir, "new.bin");
+
+		RpcHandler handler = openFile(tmpCommands, target, "rw");
+		assertNotNull(handler.getMap().get(ClientSystemFileCommands.FILE_OPEN_TMP_FILE_KEY));
+		assertFalse(target.exists());
+		writeFile(tmpCommands, "new contents\n");
+		closeFile(tmpCommands);
+
+		assertFalse(handler.isError());
+		assertEquals("new contents\n", read(target));
+		assertArrayEquals(new String[] { target.getName() }, syncDir.list());
+	}
+
+	@Test
+	public void testSyncExistingFile() throws Exception {
+		File target = new File(syncDir, "existing.bin");
+		write(target, "old contents\n");
+
+		RpcHandler handler = openFile(commands, target, "rw");
+		assertNotNull(handler.getMap().get(ClientSystemFileCommands.FILE_OPEN_TMP_FILE_KEY));
+		writeFile("new contents, longer\n");
+		assertEquals("old contents\n", read(target));
+		closeFile();
+
+		assertFalse(handler.isError());
+		assertEquals("new contents, longer\n", read(target));
+		assertTrue(isOwnerWritable(target));
+		assertArrayEquals(new String[] { target.getName() }, syncDir.list());
+	}
+
+	@Test
+	public void testSyncReadOnlyFile() throws Exception {
+		File target = new File(syncDir, "readonly.bin");
+		write(target, "old contents\n");
+		assertTrue(target.setWritable(false));
+
+		RpcHandler handler = openFile(commands, target, "ro");
+		writeFile("new contents\n");
+		closeFile();
+
+		assertFalse(handler.isError());
+		assertEquals("new contents\n", read(target));
+		assertFalse(isOwnerWritable(target));
+		assertArrayEquals(new String[] { target.getName() }, syncDir.list());
+	}
+
+	@Test
+	public void testSyncFailedFlushKeepsTarget() throws Exception {
+		File target = new File(syncDir, "existing.bin");
+		write(target, "old contents\n");
+
+		RpcHandler handler = openFile(commands, target, "rw");
+		RpcPerforceFile syncTmpFile = (RpcPerforceFile) handler.getMap().get(
+				ClientSystemFileCommands.FILE_OPEN_TMP_FILE_KEY);
+		((RpcOutputStream) handler.getMap().get(
+				ClientSystemFileCommands.FILE_OPEN_TMP_STREAM_KEY)).close();
+		handler.getMap().put(ClientSystemFileCommands.FILE_OPEN_TMP_STREAM_KEY,
+				new FailingOutputStream(syncTmpFile));
+		writeFile("new contents\n");
+		closeFile();
+
+		assertTrue(handler.isError());
+		assertEquals(1, cmdEnv.getResultMaps().size());
+		assertEquals("old contents\n", read(target));
+		assertArrayEquals(new String[] { target.getName() }, syncDir.list());
+	}
+
+	private RpcHandler openFile(ClientSystemFileCommands cmds, File target, String perms)
+			throws Exception {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(RpcFunctionMapKey.PATH, target.getPath());
+		map.put(RpcFunctionMapKey.HANDLE, "sync");
+		map.put(RpcFunctionMapKey.PERMS, perms);
+		map.put(RpcFunctionMapKey.TYPE, "1");	// binary
+		cmds.openFile(connection, cmdEnv, map);
+		return cmdEnv.getHandler("sync");
+	}
+
+	private void writeFile(String contents) throws Exception {
+		writeFile(commands, contents);
+	}
+
+	private void writeFile(ClientSystemFileCommands cmds, String contents) throws Exception {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(RpcFunctionMapKey.HANDLE, "sync");
+		map.put(RpcFunctionMapKey.DATA, contents.getBytes("UTF-8"));
+		cmds.writeFile(connection, cmdEnv, map);
+	}
+
+	private void closeFile() throws Exception {
+		closeFile(commands);
+	}
+
+	private void closeFile(ClientSystemFileCommands cmds) throws Exception {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(RpcFunctionMapKey.HANDLE, "sync");
+		map.put(RpcFunctionMapKey.COMMIT, "");
+		cmds.closeFile(connection, cmdEnv, map);
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(readBytes(file), "UTF-8");
+	}
+
+	/**
+	 * The write permission itself, which still shows when running as root.
+	 */
+	private static boolean isOwnerWritable(File file) throws IOException {
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			return Files.getPosixFilePermissions(file.toPath())
+					.contains(PosixFilePermission.OWNER_WRITE);
+		}
+		return file.canWrite();
+	}
+
+	/**
+	 * Send the text as the server would: the file's info message, the UTF-8
+	 * bytes in packets of the given size, then the empty end packet.
+	 */
+	private void printText(String type, String text, int packetSize) throws Exception {
+		fileInfo(type);
+		byte[] bytes = text.getBytes("UTF-8");
+		for (int i = 0; i < bytes.length; i += packetSize) {
+			byte[] packet = new byte[Math.min(packetSize, bytes.length - i)];
+			System.arraycopy(bytes, i, packet, 0, packet.length);
+			writeText(packet, null);
+		}
+		writeText(new byte[0], null);
+	}
+
+	private void printBinary(byte[] bytes) throws Exception {
+		fileInfo("binary");
+		writeText(bytes, "no");
+		writeText(new byte[0], "no");
+	}
+
+	private void fileInfo(String type) {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(MapKeys.TYPE_LC_KEY, type);
+		cmdEnv.getResultMaps().add(map);
+	}
+
+	private void writeText(byte[] bytes, String trans) throws Exception {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(RpcFunctionMapKey.DATA, bytes);
+		if (trans != null) {
+			map.put(RpcFunctionMapKey.TRANS, trans);
+		}
+		commands.writeText(connection, cmdEnv, map);
+	}
+
+	private byte[] readOutput() throws IOException {
+		outStream.flush();
+		return readBytes(tmpFile);
+	}
+
+	private static byte[] readBytes(File file) throws IOException {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[1024];
+			int len;
+			while ((len = in.read(buf)) > 0) {
+				ret.write(buf, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+		return ret.toByteArray();
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		for (byte[] part : parts) {
+			ret.write(part, 0, part.length);
+		}
+		return ret.toByteArray();
+	}
+
+
+	/**
+	 * Writes to a channel that is already closed, as a stand-in for a
+	 * full disk.
+	 */
+	private static class FailingOutputStream extends RpcOutputStream {
+		private final FileChannel channel;
+
+		FailingOutputStream(RpcPerforceFile file) throws IOException {
+			super(file);
+			this.channel = new RandomAccessFile(file, "rw").getChannel();
+			this.channel.close();
+		}
+
+		@Override
+		public FileChannel getChannel() {
+			return channel;
+		}
+	}
+
+
+	private static class FakeConnection extends RpcConnection {
+		FakeConnection(Charset clientCharset) throws ConnectionException {
+			super("localhost", 1666, null, null, clientCharset);
+		}
+
+		@Override
+		public String getServerIpPort() {
+			return "localhost:1666";
+		}
+
+		@Override
+		public void disconnect(RpcPacketDispatcher dispatcher) {
+		}
+
+		@Override
+		public long putRpcPacket(RpcPacket rpcPacket) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long putRpcPackets(RpcPacket[] rpcPackets) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public RpcPacket getRpcPacket() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public RpcPacket getRpcPacket(RpcPacketFieldRule fieldRule, IFilterCallback filterCallback) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int getSystemSendBufferSize() {
+			return 0;
+		}
+
+		@Override
+		public int getSystemRecvBufferSize() {
+			return 0;
+		}
+	}
+}
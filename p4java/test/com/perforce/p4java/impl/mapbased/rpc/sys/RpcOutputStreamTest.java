@@ -0,0 +1,146 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.impl.mapbased.rpc.sys;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that writes through the pooled write buffer reach the file, and
+ * only once the stream is flushed or the buffer fills up.
+ */
+public class RpcOutputStreamTest {
+
+	private File tmpFile;
+	private RpcOutputStream outStream;
+
+	@Before
+	public void setUp() throws Exception {
+		tmpFile = File.createTempFile("p4java", ".tmp");
+		outStream = new RpcOutputStream(new RpcPerforceFile(tmpFile.getPath(),
+				RpcPerforceFileType.FST_BINARY));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		outStream.close();
+		tmpFile.delete();
+	}
+
+	@Test
+	public void testSmallWriteIsBufferedUntilFlush() throws Exception {
+		byte[] bytes = bytes(100);
+		outStream.write(bytes);
+		outStream.write(7);
+		assertEquals(0, tmpFile.length());
+
+		outStream.flush();
+		assertArrayEquals(concat(bytes, new byte[] { 7 }), readFile());
+	}
+
+	@Test
+	public void testWritesLargerThanBuffer() throws Exception {
+		// Several packet sized writes, then one write larger than the buffer.
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < 40; i++) {
+			byte[] packet = bytes(4093 + i);
+			outStream.write(packet, 0, packet.length);
+			expected.write(packet, 0, packet.length);
+		}
+		byte[] large = bytes(RpcOutputStream.WRITE_BUFFER_SIZE * 2 + 17);
+		outStream.write(large, 0, large.length);
+		expected.write(large, 0, large.length);
+		outStream.close();
+
+		assertArrayEquals(expected.toByteArray(), readFile());
+	}
+
+	@Test
+	public void testFailedFlush() throws Exception {
+		outStream.close();
+		outStream = new FailingOutputStream(tmpFile);
+		outStream.write(bytes(100));
+		try {
+			outStream.flush();
+			fail("flush to a closed channel");
+		} catch (IOException e) {
+			// expected
+		}
+		// The failed data is dropped, so closing doesn't fail again.
+		outStream.close();
+		assertEquals(0, tmpFile.length());
+	}
+
+	@Test
+	public void testWriteAfterClose() throws Exception {
+		outStream.close();
+		try {
+			outStream.write(bytes(10));
+			fail("write after close");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Writes to a channel that is already closed, as a stand-in for a
+	 * full disk.
+	 */
+	private static class FailingOutputStream extends RpcOutputStream {
+		private final FileChannel channel;
+
+		FailingOutputStream(File file) throws IOException {
+			super(new RpcPerforceFile(file.getPath(), RpcPerforceFileType.FST_BINARY));
+			this.channel = new RandomAccessFile(file, "rw").getChannel();
+			this.channel.close();
+		}
+
+		@Override
+		public FileChannel getChannel() {
+			return channel;
+		}
+	}
+
+	private static byte[] bytes(int len) {
+		byte[] ret = new byte[len];
+		for (int i = 0; i < len; i++) {
+			ret[i] = (byte) (i * 31 + len);
+		}
+		return ret;
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] ret = new byte[a.length + b.length];
+		System.arraycopy(a, 0, ret, 0, a.length);
+		System.arraycopy(b, 0, ret, a.length, b.length);
+		return ret;
+	}
+
+	private byte[] readFile() throws IOException {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		FileInputStream in = new FileInputStream(tmpFile);
+		try {
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = in.read(buf)) > 0) {
+				ret.write(buf, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+		return ret.toByteArray();
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.perforce.p4java.core.file.IFileSpec;
+import com.perforce.p4java.exception.P4JavaException;
+import com.perforce.p4java.exception.RequestException;
+import com.perforce.p4java.server.callback.IProgressCallback;
+import com.perforce.p4java.server.callback.IStreamingCallback;
+
+/**
+ * Checks the command ordering, cancellation and shutdown of AsyncServer
+ * against a fake server. The "block" command waits until released, and
+ * the "stream" command keeps delivering results until its callback
+ * returns false.
+ */
+public class AsyncServerTest {
+
+	private FakeServer fake;
+	private IOptionsServer server;
+	private AsyncServer async;
+
+	@Before
+	public void setUp() {
+		this.fake = new FakeServer();
+		this.server = (IOptionsServer) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { IOptionsServer.class }, this.fake);
+		this.server.registerProgressCallback(this.fake.original);
+		this.async = new AsyncServer(this.server);
+	}
+
+	@After
+	public void tearDown() {
+		this.fake.release.countDown();
+		if (!this.async.isShutdown()) {
+			this.async.shutdown();
+		}
+	}
+
+	@Test
+	public void testCommandsRunInSubmissionOrder() throws Exception {
+		Future<List<Map<String, Object>>> a = this.async.execMapCmdList("a", null, null);
+		Future<List<Map<String, Object>>> b = this.async.execMapCmdList("b", null, null);
+		Future<List<Map<String, Object>>> c = this.async.execMapCmdList("c", null, null);
+
+		assertEquals("c", c.get().get(0).get("cmd"));
+		assertEquals("b", b.get().get(0).get("cmd"));
+		assertEquals("a", a.get().get(0).get("cmd"));
+		assertEquals(Arrays.asList("a", "b", "c"), this.fake.ran);
+	}
+
+	@Test
+	public void testCancelQueuedCommand() throws Exception {
+		Future<List<Map<String, Object>>> block = this.async.execMapCmdList("block", null, null);
+		assertTrue(this.fake.started.await(10, TimeUnit.SECONDS));
+		Future<List<Map<String, Object>>> queued = this.async.execMapCmdList("queued", null, null);
+
+		assertTrue(queued.cancel(true));
+		this.fake.release.countDown();
+		block.get();
+		this.async.execMapCmdList("after", null, null).get();
+
+		assertTrue(queued.isCancelled());
+		assertEquals(Arrays.asList("block", "after"), this.fake.ran);
+	}
+
+	@Test
+	public void testCancelRunningStreamingCommand() throws Exception {
+		Future<Void> stream = this.async.execStreamingMapCommand("stream", null, null,
+				new CountingCallback(), 0);
+		assertTrue(this.fake.started.await(10, TimeUnit.SECONDS));
+
+		assertTrue(stream.cancel(true));
+		assertTrue(this.fake.finished.await(10, TimeUnit.SECONDS));
+		assertTrue(this.fake.stoppedByCallback);
+		assertFalse(this.fake.interrupted);
+
+		// The queue keeps working after a cancel.
+		assertEquals("next", this.async.execMapCmdList("next", null, null).get().get(0).get("cmd"));
+	}
+
+	@Test
+	public void testShutdown() throws Exception {
+		assertNotSame(this.fake.original, this.fake.progressCallback);
+		Future<Void> stream = this.async.execStreamingMapCommand("stream", null, null,
+				new CountingCallback(), 0);
+		assertTrue(this.fake.started.await(10, TimeUnit.SECONDS));
+		Future<List<Map<String, Object>>> queued = this.async.execMapCmdList("queued", null, null);
+
+		this.async.shutdown();
+
+		assertTrue(this.async.isShutdown());
+		assertTrue(stream.isCancelled());
+		assertTrue(queued.isCancelled());
+		assertTrue(this.fake.stoppedByCallback);
+		assertFalse(this.fake.interrupted);
+		assertEquals(Collections.singletonList("stream"), this.fake.ran);
+		assertSame(this.fake.original, this.fake.progressCallback);
+	}
+
+	@Test
+	public void testSyncWithoutClient() throws Exception {
+		Future<List<IFileSpec>> sync = this.async.sync(null, null);
+		try {
+			sync.get();
+			fail("sync without a client succeeded");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RequestException);
+		}
+	}
+
+	private static class CountingCallback implements IStreamingCallback {
+
+		public boolean startResults(int key) {
+			return true;
+		}
+
+		public boolean endResults(int key) {
+			return true;
+		}
+
+		public boolean handleResult(Map<String, Object> resultMap, int key) {
+			return true;
+		}
+	}
+
+	private static class FakeServer implements InvocationHandler {
+
+		final IProgressCallback original = new IProgressCallback() {
+			public void start(int key) {
+			}
+
+			public boolean tick(int key, String tickMarker) {
+				return true;
+			}
+
+			public void stop(int key) {
+			}
+		};
+		final List<String> ran = new CopyOnWriteArrayList<String>();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(1);
+		volatile IProgressCallback progressCallback;
+		volatile boolean stoppedByCallback;
+		volatile boolean interrupted;
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("registerProgressCallback")) {
+				IProgressCallback previous = this.progressCallback;
+				this.progressCallback = (IProgressCallback) args[0];
+				return previous;
+			} else if (name.equals("getCurrentClient")) {
+				return null;
+			} else if (name.equals("execMapCmdList")) {
+				String cmdName = (String) args[0];
+				this.ran.add(cmdName);
+				if (cmdName.equals("block")) {
+					this.started.countDown();
+					this.release.await(10, TimeUnit.SECONDS);
+				}
+				Map<String, Object> result = new HashMap<String, Object>();
+				result.put("cmd", cmdName);
+				return Collections.singletonList(result);
+			} else if (name.equals("execStreamingMapCommand")) {
+				this.ran.add((String) args[0]);
+				stream((IStreamingCallback) args[3], (Integer) args[4]);
+				return null;
+			}
+			throw new UnsupportedOperationException(name);
+		}
+
+		private void stream(IStreamingCallback callback, int key) throws P4JavaException {
+			this.started.countDown();
+			try {
+				for (int i = 0; i < 10000; i++) {
+					Map<String, Object> result = new HashMap<String, Object>();
+					result.put("row", i);
+					if (!callback.handleResult(result, key)
+							|| !this.progressCallback.tick(key, null)) {
+						this.stoppedByCallback = true;
+						return;
+					}
+					Thread.sleep(1);
+				}
+			} catch (InterruptedException e) {
+				this.interrupted = true;
+			} finally {
+				this.interrupted |= Thread.currentThread().isInterrupted();
+				this.finished.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2009 Perforce Software Inc., All Rights Reserved.
+ */
+package com.perforce.p4java.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks when the cached contents of a tickets or trust file are reused,
+ * and when the file is read again.
+ */
+public class AuthFileCacheTest {
+
+	private File authFile;
+
+	@Before
+	public void setUp() throws Exception {
+		authFile = File.createTempFile("p4java", ".tickets");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		authFile.delete();
+	}
+
+	@Test
+	public void testUnchangedFileIsNotReadAgain() throws Exception {
+		long lastModified = writeOld("localhost:1666=bob:AAAA\n");
+		assertEquals("AAAA", findValue("bob", "localhost:1666"));
+
+		// Same size and time stamp, outside the racy window.
+		write("localhost:1666=bob:BBBB\n", lastModified);
+		assertEquals("AAAA", findValue("bob", "localhost:1666"));
+	}
+
+	@Test
+	public void testRacyFileIsReadAgain() throws Exception {
+		write("localhost:1666=bob:AAAA\n", System.currentTimeMillis());
+		long lastModified = authFile.lastModified();
+		assertEquals("AAAA", findValue("bob", "localhost:1666"));
+
+		// Same size and time stamp, but the file was loaded while it could
+		// still change within the time stamp tick.
+		write("localhost:1666=bob:BBBB\n", lastModified);
+		assertEquals(lastModified, authFile.lastModified());
+		assertEquals("BBBB", findValue("bob", "localhost:1666"));
+	}
+
+	@Test
+	public void testSaveFileEntryInvalidates() throws Exception {
+		long lastModified = writeOld("localhost:1666=bob:AAAA\n");
+		long length = authFile.length();
+		assertEquals("AAAA", findValue("bob", "localhost:1666"));
+
+		AbstractAuthHelper.saveFileEntry("bob", "localhost:1666", "BBBB", authFile);
+		// Put back the old time stamp, so only the invalidation shows the change.
+		assertTrue(authFile.setLastModified(lastModified));
+		assertEquals(length, authFile.length());
+		assertEquals("BBBB", findValue("bob", "localhost:1666"));
+	}
+
+	@Test
+	public void testFindEntryForServer() throws Exception {
+		writeOld("localhost:1666=bob:AAAA\n"
+				+ "other:1666=bob:CCCC\n"
+				+ "localhost:1666=alice:BBBB\n");
+
+		assertEquals("AAAA", findValue(null, "localhost:1666"));
+		assertEquals("BBBB", findValue("alice", "localhost:1666"));
+		assertEquals("CCCC", findValue(null, "other:1666"));
+		assertNull(AuthFileCache.findEntry("carol", "localhost:1666", authFile));
+		assertNull(AuthFileCache.findEntry(null, "missing:1666", authFile));
+		assertEquals(3, AuthFileCache.getEntries(authFile).size());
+	}
+
+	private String findValue(String userName, String serverAddress) throws IOException {
+		Map<String, String> entry = AuthFileCache.findEntry(userName, serverAddress, authFile);
+		assertTrue(entry != null);
+		return entry.get(AbstractAuthHelper.AUTH_VALUE_MAP_KEY);
+	}
+
+	/**
+	 * Write the contents with a time stamp well outside the racy window.
+	 *
+	 * @return the file's time stamp
+	 */
+	private long writeOld(String contents) throws IOException {
+		write(contents, (System.currentTimeMillis() - 60000L) / 1000L * 1000L);
+		return authFile.lastModified();
+	}
+
+	private void write(String contents, long lastModified) throws IOException {
+		FileWriter writer = new FileWriter(authFile);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+		assertTrue(authFile.setLastModified(lastModified));
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.groboclown.idea.p4ic.changes;
+
+import com.intellij.openapi.vcs.changes.ui.ChangesListView;
+import com.intellij.openapi.vcs.changes.ui.ChangesViewContentManager;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowManager;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentManager;
+import com.intellij.ui.content.ContentManagerAdapter;
+import com.intellij.ui.content.ContentManagerEvent;
+import com.intellij.util.ui.UIUtil;
+import net.groboclown.idea.p4ic.extension.P4Vcs;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.event.TreeSelectionEvent;
+import javax.swing.event.TreeSelectionListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Starts loading the have revisions of the changes selected in the changes
+ * view, so that by the time the user opens their diffs, the "before" side
+ * is usually already loaded.  Must only be used from the EDT.
+ */
+public class P4ChangesViewSelectionListener implements TreeSelectionListener {
+    private final P4Vcs vcs;
+    private final List<ChangesListView> views = new ArrayList<ChangesListView>();
+    private final ContentManagerAdapter contentListener = new ContentManagerAdapter() {
+        @Override
+        public void contentAdded(ContentManagerEvent event) {
+            attachTo(event.getContent());
+        }
+    };
+    @Nullable
+    private ContentManager contentManager;
+
+
+    public P4ChangesViewSelectionListener(@NotNull P4Vcs vcs) {
+        this.vcs = vcs;
+    }
+
+
+    public void attach() {
+        if (contentManager != null || vcs.getProject().isDisposed()) {
+            return;
+        }
+        final ToolWindow toolWindow = ToolWindowManager.getInstance(vcs.getProject())
+                .getToolWindow(ChangesViewContentManager.TOOLWINDOW_ID);
+        if (toolWindow == null) {
+            return;
+        }
+        contentManager = toolWindow.getContentManager();
+        contentManager.addContentManagerListener(contentListener);
+        for (Content content : contentManager.getContents()) {
+            attachTo(content);
+        }
+    }
+
+
+    public void detach() {
+        if (contentManager != null) {
+            contentManager.removeContentManagerListener(contentListener);
+            contentManager = null;
+        }
+        for (ChangesListView view : views) {
+            view.removeTreeSelectionListener(this);
+        }
+        views.clear();
+    }
+
+
+    @Override
+    public void valueChanged(TreeSelectionEvent e) {
+        if (e.getSource() instanceof ChangesListView) {
+            vcs.prefetchHaveRevisions(Arrays.asList(((ChangesListView) e.getSource()).getSelectedChanges()));
+        }
+    }
+
+
+    private void attachTo(@NotNull Content content) {
+        final ChangesListView view = UIUtil.findComponentOfType(content.getComponent(), ChangesListView.class);
+        if (view != null && ! views.contains(view)) {
+            view.addTreeSelectionListener(this);
+            views.add(view);
+        }
+    }
+}
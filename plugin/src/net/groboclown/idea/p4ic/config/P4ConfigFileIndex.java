@@ -0,0 +1,298 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.config;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Remembers which directories hold a relative P4CONFIG file, so that finding
+ * the config files for the VCS roots doesn't walk the whole tree every time
+ * the configuration is reloaded.
+ * <p/>
+ * Each root is walked once.  After that, the index is kept current with the
+ * file changes passed to it by {@link P4ConfigFileWatcher}; directories that
+ * are added under a walked root are walked on the next lookup.  Paths use
+ * '/' separators, as with {@link com.intellij.openapi.vfs.VirtualFile#getPath()}.
+ */
+public class P4ConfigFileIndex {
+    /**
+     * Looks for the config files on disk.
+     */
+    public interface Scanner {
+        /**
+         * @return every directory at or under the root that contains the
+         *      config file.
+         */
+        @NotNull
+        Collection<String> findConfigDirs(@NotNull String rootPath, @NotNull String configFileName);
+
+        boolean hasConfigFile(@NotNull String dirPath, @NotNull String configFileName);
+    }
+
+
+    public static class Result {
+        private final List<String> configDirs;
+        private final List<String> parentConfigDirs;
+
+        Result(@NotNull List<String> configDirs, @NotNull List<String> parentConfigDirs) {
+            this.configDirs = Collections.unmodifiableList(configDirs);
+            this.parentConfigDirs = Collections.unmodifiableList(parentConfigDirs);
+        }
+
+        /**
+         * @return the directories at or under the root with a config file,
+         *      sorted by path.
+         */
+        @NotNull
+        public List<String> getConfigDirs() {
+            return configDirs;
+        }
+
+        /**
+         * @return the parent directories of the root with a config file,
+         *      nearest first.
+         */
+        @NotNull
+        public List<String> getParentConfigDirs() {
+            return parentConfigDirs;
+        }
+    }
+
+
+    private final Scanner scanner;
+
+    // All guarded by names.
+    private final Map<String, NameIndex> names = new HashMap<String, NameIndex>();
+    private int changeCount = 0;
+
+
+    public P4ConfigFileIndex(@NotNull Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+
+    /**
+     * Find the config files for the root.  Only the parts of the tree that
+     * are not yet indexed are scanned.
+     *
+     * @param rootPath VCS root directory
+     * @param parentPaths the parent directories of the root, nearest first
+     * @param configFileName name of the P4CONFIG file
+     */
+    @NotNull
+    public Result find(@NotNull String rootPath, @NotNull List<String> parentPaths,
+            @NotNull String configFileName) {
+        final List<String> toScan = new ArrayList<String>();
+        final List<String> toCheck = new ArrayList<String>();
+        final int startCount;
+        synchronized (names) {
+            final NameIndex index = getNameIndex(configFileName);
+            if (index.isScanned(rootPath)) {
+                for (String pending : index.pendingDirs) {
+                    if (isUnder(pending, rootPath)) {
+                        toScan.add(pending);
+                    }
+                }
+            } else {
+                toScan.add(rootPath);
+            }
+            for (String parentPath : parentPaths) {
+                if (! index.checkedDirs.contains(parentPath) && ! index.isScanned(parentPath)) {
+                    toCheck.add(parentPath);
+                }
+            }
+            startCount = changeCount;
+        }
+
+        // Look at the disk without holding the lock, so that the file
+        // changes reported meanwhile aren't held up.
+        final Map<String, Collection<String>> scanned = new HashMap<String, Collection<String>>();
+        for (String dir : toScan) {
+            scanned.put(dir, scanner.findConfigDirs(dir, configFileName));
+        }
+        final Map<String, Boolean> checked = new HashMap<String, Boolean>();
+        for (String dir : toCheck) {
+            checked.put(dir, scanner.hasConfigFile(dir, configFileName));
+        }
+
+        synchronized (names) {
+            final NameIndex index = getNameIndex(configFileName);
+
+            // If something changed while scanning, the results may already
+            // be out of date, so they're used but scanned again next time.
+            final boolean current = startCount == changeCount;
+            for (Map.Entry<String, Collection<String>> entry : scanned.entrySet()) {
+                removeUnder(index.configDirs, entry.getKey());
+                index.configDirs.addAll(entry.getValue());
+                if (current) {
+                    removeUnder(index.pendingDirs, entry.getKey());
+                    if (! index.isScanned(entry.getKey())) {
+                        index.scannedRoots.add(entry.getKey());
+                    }
+                }
+            }
+            for (Map.Entry<String, Boolean> entry : checked.entrySet()) {
+                if (entry.getValue()) {
+                    index.configDirs.add(entry.getKey());
+                } else {
+                    index.configDirs.remove(entry.getKey());
+                }
+                if (current) {
+                    index.checkedDirs.add(entry.getKey());
+                }
+            }
+
+            final List<String> configDirs = new ArrayList<String>();
+            for (String dir : index.configDirs) {
+                if (isUnder(dir, rootPath)) {
+                    configDirs.add(dir);
+                }
+            }
+            Collections.sort(configDirs);
+            final List<String> parentConfigDirs = new ArrayList<String>();
+            for (String parentPath : parentPaths) {
+                if (index.configDirs.contains(parentPath)) {
+                    parentConfigDirs.add(parentPath);
+                }
+            }
+            return new Result(configDirs, parentConfigDirs);
+        }
+    }
+
+
+    /**
+     * A file or directory was created, or moved or renamed to this name.
+     */
+    public void fileAdded(@NotNull String parentPath, @NotNull String name, boolean isDirectory) {
+        synchronized (names) {
+            changeCount++;
+            final String path = join(parentPath, name);
+            for (NameIndex index : names.values()) {
+                if (isDirectory) {
+                    // Its contents were never seen, so it must be scanned.
+                    if (index.isScanned(path) && ! isUnderAny(path, index.pendingDirs)) {
+                        index.pendingDirs.add(path);
+                    }
+                } else if (index.configFileName.equals(name)) {
+                    index.configDirs.add(parentPath);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A file or directory was deleted, or moved or renamed away from this name.
+     */
+    public void fileRemoved(@NotNull String parentPath, @NotNull String name, boolean isDirectory) {
+        synchronized (names) {
+            changeCount++;
+            final String path = join(parentPath, name);
+            for (NameIndex index : names.values()) {
+                if (isDirectory) {
+                    removeUnder(index.configDirs, path);
+                    removeUnder(index.checkedDirs, path);
+                    removeUnder(index.scannedRoots, path);
+                    removeUnder(index.pendingDirs, path);
+                } else if (index.configFileName.equals(name)) {
+                    index.configDirs.remove(parentPath);
+                }
+            }
+        }
+    }
+
+
+    public void clear() {
+        synchronized (names) {
+            changeCount++;
+            names.clear();
+        }
+    }
+
+
+    @NotNull
+    private NameIndex getNameIndex(@NotNull String configFileName) {
+        NameIndex ret = names.get(configFileName);
+        if (ret == null) {
+            ret = new NameIndex(configFileName);
+            names.put(configFileName, ret);
+        }
+        return ret;
+    }
+
+
+    static boolean isUnder(@NotNull String path, @NotNull String dir) {
+        if (path.equals(dir)) {
+            return true;
+        }
+        if (dir.endsWith("/")) {
+            return path.startsWith(dir);
+        }
+        return path.length() > dir.length() && path.charAt(dir.length()) == '/' && path.startsWith(dir);
+    }
+
+
+    private static boolean isUnderAny(@NotNull String path, @NotNull Collection<String> dirs) {
+        for (String dir : dirs) {
+            if (isUnder(path, dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static void removeUnder(@NotNull Collection<String> paths, @NotNull String dir) {
+        final Iterator<String> iter = paths.iterator();
+        while (iter.hasNext()) {
+            if (isUnder(iter.next(), dir)) {
+                iter.remove();
+            }
+        }
+    }
+
+
+    @NotNull
+    private static String join(@NotNull String parentPath, @NotNull String name) {
+        return parentPath.endsWith("/") ? parentPath + name : parentPath + '/' + name;
+    }
+
+
+    private static class NameIndex {
+        final String configFileName;
+
+        // directories known to contain the config file
+        final Set<String> configDirs = new HashSet<String>();
+
+        // directories whose whole tree is in configDirs
+        final Set<String> scannedRoots = new HashSet<String>();
+
+        // directories outside of the scanned roots whose own files are in configDirs
+        final Set<String> checkedDirs = new HashSet<String>();
+
+        // directories added under the scanned roots, which haven't been scanned yet
+        final Set<String> pendingDirs = new HashSet<String>();
+
+        NameIndex(@NotNull String configFileName) {
+            this.configFileName = configFileName;
+        }
+
+        boolean isScanned(@NotNull String path) {
+            return isUnderAny(path, scannedRoots);
+        }
+    }
+}
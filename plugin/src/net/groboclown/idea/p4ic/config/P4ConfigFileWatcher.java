@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.config;
+
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ApplicationComponent;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.*;
+import com.intellij.util.messages.MessageBusConnection;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Keeps the application's {@link P4ConfigFileIndex} current with the
+ * file system changes that the IDE sees.
+ */
+public class P4ConfigFileWatcher implements ApplicationComponent {
+    private final P4ConfigFileIndex index = new P4ConfigFileIndex(new VfsScanner());
+    private MessageBusConnection messageBus;
+
+
+    /**
+     * @return the shared index, or, outside of a running application, an
+     *      index that just scans the disk.
+     */
+    @NotNull
+    public static P4ConfigFileIndex getIndex() {
+        final Application application = ApplicationManager.getApplication();
+        final P4ConfigFileWatcher watcher =
+                application == null ? null : application.getComponent(P4ConfigFileWatcher.class);
+        if (watcher == null) {
+            return new P4ConfigFileIndex(new VfsScanner());
+        }
+        return watcher.index;
+    }
+
+
+    @Override
+    public void initComponent() {
+        messageBus = ApplicationManager.getApplication().getMessageBus().connect();
+        messageBus.subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void before(@NotNull final List<? extends VFileEvent> events) {
+                for (VFileEvent event : events) {
+                    if (event.getFileSystem() instanceof LocalFileSystem) {
+                        removed(event);
+                    }
+                }
+            }
+
+            @Override
+            public void after(@NotNull final List<? extends VFileEvent> events) {
+                for (VFileEvent event : events) {
+                    if (event.getFileSystem() instanceof LocalFileSystem) {
+                        added(event);
+                    }
+                }
+            }
+        });
+    }
+
+
+    @Override
+    public void disposeComponent() {
+        if (messageBus != null) {
+            messageBus.disconnect();
+            messageBus = null;
+        }
+        index.clear();
+    }
+
+
+    @NotNull
+    @Override
+    public String getComponentName() {
+        return "P4ConfigFileWatcher";
+    }
+
+
+    // Called before the change, while the old file is still valid.
+    private void removed(@NotNull VFileEvent event) {
+        if (event instanceof VFileDeleteEvent) {
+            final VirtualFile file = ((VFileDeleteEvent) event).getFile();
+            final VirtualFile parent = file.getParent();
+            if (parent != null) {
+                index.fileRemoved(parent.getPath(), file.getName(), file.isDirectory());
+            }
+        } else if (event instanceof VFileMoveEvent) {
+            final VFileMoveEvent move = (VFileMoveEvent) event;
+            index.fileRemoved(move.getOldParent().getPath(), move.getFile().getName(),
+                    move.getFile().isDirectory());
+        } else if (isRename(event)) {
+            final VFilePropertyChangeEvent rename = (VFilePropertyChangeEvent) event;
+            final VirtualFile parent = rename.getFile().getParent();
+            if (parent != null) {
+                index.fileRemoved(parent.getPath(), (String) rename.getOldValue(),
+                        rename.getFile().isDirectory());
+            }
+        }
+    }
+
+
+    private void added(@NotNull VFileEvent event) {
+        if (event instanceof VFileCreateEvent) {
+            final VFileCreateEvent create = (VFileCreateEvent) event;
+            index.fileAdded(create.getParent().getPath(), create.getChildName(), create.isDirectory());
+        } else if (event instanceof VFileCopyEvent) {
+            final VFileCopyEvent copy = (VFileCopyEvent) event;
+            index.fileAdded(copy.getNewParent().getPath(), copy.getNewChildName(),
+                    copy.getFile().isDirectory());
+        } else if (event instanceof VFileMoveEvent) {
+            final VFileMoveEvent move = (VFileMoveEvent) event;
+            index.fileAdded(move.getNewParent().getPath(), move.getFile().getName(),
+                    move.getFile().isDirectory());
+        } else if (isRename(event)) {
+            final VFilePropertyChangeEvent rename = (VFilePropertyChangeEvent) event;
+            final VirtualFile parent = rename.getFile().getParent();
+            if (parent != null) {
+                index.fileAdded(parent.getPath(), (String) rename.getNewValue(),
+                        rename.getFile().isDirectory());
+            }
+        }
+    }
+
+
+    private static boolean isRename(@NotNull VFileEvent event) {
+        return event instanceof VFilePropertyChangeEvent &&
+                VirtualFile.PROP_NAME.equals(((VFilePropertyChangeEvent) event).getPropertyName());
+    }
+
+
+    /**
+     * Walks the IDE's view of the file system, which also makes sure the IDE
+     * reports later changes to the walked directories.
+     */
+    static class VfsScanner implements P4ConfigFileIndex.Scanner {
+        @NotNull
+        @Override
+        public Collection<String> findConfigDirs(@NotNull final String rootPath,
+                @NotNull final String configFileName) {
+            final List<String> ret = new ArrayList<String>();
+            final VirtualFile root = LocalFileSystem.getInstance().findFileByPath(rootPath);
+            if (root == null || ! root.isDirectory()) {
+                return ret;
+            }
+            final List<VirtualFile> stack = new ArrayList<VirtualFile>();
+            stack.add(root);
+            while (! stack.isEmpty()) {
+                final VirtualFile dir = stack.remove(stack.size() - 1);
+                for (VirtualFile child : dir.getChildren()) {
+                    if (child.isDirectory()) {
+                        stack.add(child);
+                    } else if (child.getName().equals(configFileName) && isFile(child)) {
+                        ret.add(dir.getPath());
+                    }
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public boolean hasConfigFile(@NotNull final String dirPath, @NotNull final String configFileName) {
+            final VirtualFile dir = LocalFileSystem.getInstance().findFileByPath(dirPath);
+            if (dir == null) {
+                return false;
+            }
+            final VirtualFile configFile = dir.findChild(configFileName);
+            return configFile != null && isFile(configFile);
+        }
+
+        private static boolean isFile(@NotNull VirtualFile file) {
+            // Make sure we use the actual I/O file in order to avoid some
+            // IDEA refresh issues.
+            return new File(file.getPath()).isFile();
+        }
+    }
+}
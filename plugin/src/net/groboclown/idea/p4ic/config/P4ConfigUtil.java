@@ -15,6 +15,7 @@ package net.groboclown.idea.p4ic.config;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.perforce.p4java.env.PerforceEnvironment;
 import com.perforce.p4java.server.IServerAddress;
@@ -311,68 +312,36 @@ public class P4ConfigUtil {
         if (! rootSearchPath.isDirectory() || ! rootSearchPath.exists()) {
             throw new IllegalArgumentException(P4Bundle.message("error.roots.not-directory", rootSearchPath));
         }
-        List<Iterator<VirtualFile>> depthStack = new ArrayList<Iterator<VirtualFile>>();
-        depthStack.add(Arrays.asList(rootSearchPath.getChildren()).iterator());
-        // bug #32 - make sure to add in the root directory, too.
-        depthStack.add(Collections.singleton(rootSearchPath).iterator());
-        while (! depthStack.isEmpty()) {
-            Iterator<VirtualFile> iter = depthStack.remove(depthStack.size() - 1);
-            if (iter.hasNext()) {
-                VirtualFile vFile = iter.next();
-                if (iter.hasNext()) {
-                    depthStack.add(iter);
-                }
-                if (vFile != null) {
-                    // Make sure we use the actual I/O file in order to avoid some
-                    // IDEA refresh issues.
-                    File file = new File(vFile.getPath());
-                    if (file.isDirectory()) {
-                        depthStack.add(Arrays.asList(vFile.getChildren()).iterator());
-                    } else if (! file.exists()) {
-                        LOG.info("Discovered non-existent file in IDEA cache: " + file);
-                    } else if (file.getName().equals(configFileName)) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Found config file " + file);
-                        }
-                        ManualP4Config config = new ManualP4Config();
-                        config.setConfigFile(file.getAbsolutePath());
-                        try {
-                            final P4Config loadedConfig = loadCmdP4Config(config);
-                            ret.put(vFile.getParent(), loadedConfig);
-                        } catch (IOException e) {
-                            LOG.error("Could not find or read config file " + file.getPath(), e);
-                        }
-                    }
-                }
+        final P4ConfigFileIndex.Result found = findConfigDirs(rootSearchPath, configFileName);
+        for (String dirPath : found.getConfigDirs()) {
+            final VirtualFile dir = LocalFileSystem.getInstance().findFileByPath(dirPath);
+            if (dir == null) {
+                LOG.info("Discovered non-existent directory in IDEA cache: " + dirPath);
+                continue;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Found config file in " + dirPath);
+            }
+            final P4Config loadedConfig = loadConfigFile(new File(dirPath, configFileName));
+            if (loadedConfig != null) {
+                ret.put(dir, loadedConfig);
             }
         }
 
         if (searchRootParents && ! ret.containsKey(rootSearchPath)) {
-            VirtualFile parent = rootSearchPath.getParent();
-            while (parent != null) {
-                VirtualFile configFile = parent.findChild(configFileName);
-                if (configFile != null) {
-                    File file = new File(configFile.getPath());
-                    if (file.exists() && file.isFile()) {
-                        LOG.info("Found config file " + configFile.getPath() +
-                                ", but registering it as root of " + rootSearchPath);
-                        ManualP4Config config = new ManualP4Config();
-                        config.setConfigFile(file.getAbsolutePath());
-
-                        // Set the rootSearchPath as the owner for this
-                        // config, even though technically it's at a
-                        // higher position.
-                        try {
-                            final P4Config loadedConfig = loadCmdP4Config(config);
-                            ret.put(rootSearchPath, loadedConfig);
-                            break;
-                        } catch (IOException e) {
-                            LOG.error("Could not find or read config file " + configFile.getPath(), e);
-                            // keep going up the tree
-                        }
-                    }
+            for (String dirPath : found.getParentConfigDirs()) {
+                final File file = new File(dirPath, configFileName);
+                LOG.info("Found config file " + file + ", but registering it as root of " + rootSearchPath);
+
+                // Set the rootSearchPath as the owner for this
+                // config, even though technically it's at a
+                // higher position.
+                final P4Config loadedConfig = loadConfigFile(file);
+                if (loadedConfig != null) {
+                    ret.put(rootSearchPath, loadedConfig);
+                    break;
                 }
-                parent = parent.getParent();
+                // else keep going up the tree
             }
         }
         return ret;
@@ -397,89 +366,80 @@ public class P4ConfigUtil {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Finding root directory for " + rootSearchPath + ", named " + configFileName);
         }
-        List<Iterator<VirtualFile>> depthStack = new ArrayList<Iterator<VirtualFile>>();
-        depthStack.add(Arrays.asList(rootSearchPath.getChildren()).iterator());
-        // bug #32 - make sure to add in the root directory, too.
-        depthStack.add(Collections.singleton(rootSearchPath).iterator());
-        while (!depthStack.isEmpty()) {
-            Iterator<VirtualFile> iter = depthStack.remove(depthStack.size() - 1);
-            if (iter.hasNext()) {
-                VirtualFile vFile = iter.next();
-                // put our current directory scanner back into our depth stack
-                // for continued future searching.  Whether it has another
-                // item or not will be checked when it is pulled the next time.
-                depthStack.add(iter);
-                if (vFile != null) {
-                    // Make sure we use the actual I/O file in order to avoid some
-                    // IDEA refresh issues.
-                    File file = new File(vFile.getPath());
-                    if (file.isDirectory()) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("-- added scan for " + file);
-                        }
-                        depthStack.add(Arrays.asList(vFile.getChildren()).iterator());
-                    } else if (mapping.containsKey(vFile.getParent())) {
-                        // ignore, because this specific directory has a mapping
-                        // already; don't perform the config file loading again.
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("-- already loaded config for " + vFile.getParent());
-                        }
-                    } else if (!file.exists()) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("-- discovered non-existent file in IDEA cache: " + file);
-                        }
-                    } else if (file.getName().equals(configFileName)) {
-                        ManualP4Config config = new ManualP4Config();
-                        config.setConfigFile(file.getAbsolutePath());
-                        try {
-                            if (LOG.isDebugEnabled()) {
-                                LOG.debug("-- loading config file " + file.getAbsolutePath() + " -> " + vFile
-                                        .getParent());
-                            }
-                            final P4Config loadedConfig = loadCmdP4Config(config);
-                            mapping.put(vFile.getParent(), loadedConfig);
-                            if (LOG.isDebugEnabled()) {
-                                LOG.debug("-/\\- " + loadedConfig.toString());
-                            }
-                        } catch (IOException e) {
-                            LOG.warn("Could not find or read config file " + file.getPath(), e);
-                        }
+        final P4ConfigFileIndex.Result found = findConfigDirs(rootSearchPath, configFileName);
+        for (String dirPath : found.getConfigDirs()) {
+            final VirtualFile dir = LocalFileSystem.getInstance().findFileByPath(dirPath);
+            if (dir == null) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("-- discovered non-existent directory in IDEA cache: " + dirPath);
+                }
+            } else if (mapping.containsKey(dir)) {
+                // ignore, because this specific directory has a mapping
+                // already; don't perform the config file loading again.
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("-- already loaded config for " + dir);
+                }
+            } else {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("-- loading config file in " + dirPath);
+                }
+                final P4Config loadedConfig = loadConfigFile(new File(dirPath, configFileName));
+                if (loadedConfig != null) {
+                    mapping.put(dir, loadedConfig);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("-/\\- " + loadedConfig.toString());
                     }
                 }
             }
         }
 
-        // No matter what, search up the tree to see if there's some parent config
-        // file at a higher level.  This may be a bit inefficient, in so much as
-        // multiple calls will do this, but it guarantees results, and looking up
-        // a tree isn't too bad performance-wise.
-        VirtualFile parent = rootSearchPath.getParent();
-        while (parent != null) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("-- checking parent " + parent);
-            }
-            VirtualFile configFile = parent.findChild(configFileName);
-            if (configFile != null && !mapping.containsKey(parent)) {
-                File file = new File(configFile.getPath());
-                if (file.exists() && file.isFile()) {
-                    LOG.info("Found config file " + configFile.getPath() +
-                            ", but registering it as root of " + rootSearchPath);
-                    ManualP4Config config = new ManualP4Config();
-                    config.setConfigFile(file.getAbsolutePath());
-
-                    try {
-                        final P4Config loadedConfig = loadCmdP4Config(config);
-                        mapping.put(parent, loadedConfig);
-                        // Found the first config file before the root, so stop.
-                        break;
-                    } catch (IOException e) {
-                        LOG.error("Could not find or read config file " + configFile.getPath(), e);
-                        // keep going up the tree
-                    }
+        // No matter what, look up the tree to see if there's some parent config
+        // file at a higher level.  The index remembers the parent directories
+        // it has checked, so this doesn't touch the disk each time.
+        for (String dirPath : found.getParentConfigDirs()) {
+            final VirtualFile parent = LocalFileSystem.getInstance().findFileByPath(dirPath);
+            if (parent != null && !mapping.containsKey(parent)) {
+                final File file = new File(dirPath, configFileName);
+                LOG.info("Found config file " + file + ", but registering it as root of " + rootSearchPath);
+                final P4Config loadedConfig = loadConfigFile(file);
+                if (loadedConfig != null) {
+                    mapping.put(parent, loadedConfig);
+                    // Found the first config file before the root, so stop.
+                    break;
                 }
+                // else keep going up the tree
             }
+        }
+    }
+
+
+    /**
+     * Find the directories with the config file at or under the root, and the
+     * root's parent directories with the config file.  This uses the index of
+     * config files, rather than walking the tree each time.
+     */
+    @NotNull
+    private static P4ConfigFileIndex.Result findConfigDirs(@NotNull VirtualFile root, @NotNull String configFileName) {
+        List<String> parentPaths = new ArrayList<String>();
+        VirtualFile parent = root.getParent();
+        while (parent != null) {
+            parentPaths.add(parent.getPath());
             parent = parent.getParent();
         }
+        return P4ConfigFileWatcher.getIndex().find(root.getPath(), parentPaths, configFileName);
+    }
+
+
+    @Nullable
+    private static P4Config loadConfigFile(@NotNull File file) {
+        ManualP4Config config = new ManualP4Config();
+        config.setConfigFile(file.getAbsolutePath());
+        try {
+            return loadCmdP4Config(config);
+        } catch (IOException e) {
+            LOG.warn("Could not find or read config file " + file.getPath(), e);
+            return null;
+        }
     }
 
 
@@ -18,6 +18,7 @@ import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationInfo;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
@@ -25,8 +26,10 @@ import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.vcs.*;
 import com.intellij.openapi.vcs.annotate.AnnotationProvider;
+import com.intellij.openapi.vcs.changes.Change;
 import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vcs.changes.ChangeProvider;
+import com.intellij.openapi.vcs.changes.ContentRevision;
 import com.intellij.openapi.vcs.checkin.CheckinEnvironment;
 import com.intellij.openapi.vcs.diff.DiffProvider;
 import com.intellij.openapi.vcs.diff.RevisionSelector;
@@ -37,11 +40,13 @@ import com.intellij.openapi.vcs.rollback.RollbackEnvironment;
 import com.intellij.openapi.vcs.update.UpdateEnvironment;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.StatusBar;
+import com.intellij.openapi.wm.ToolWindowManager;
 import com.intellij.openapi.wm.WindowManager;
 import com.intellij.util.messages.MessageBusConnection;
 import net.groboclown.idea.p4ic.P4Bundle;
 import net.groboclown.idea.p4ic.background.TempFileWatchDog;
 import net.groboclown.idea.p4ic.compat.CompatFactoryLoader;
+import net.groboclown.idea.p4ic.changes.P4ChangesViewSelectionListener;
 import net.groboclown.idea.p4ic.compat.VcsCompat;
 import net.groboclown.idea.p4ic.config.UserProjectPreferences;
 import net.groboclown.idea.p4ic.ui.P4MultipleConnectionWidget;
@@ -49,6 +54,7 @@ import net.groboclown.idea.p4ic.ui.config.P4ProjectConfigurable;
 import net.groboclown.idea.p4ic.v2.changes.P4ChangeProvider;
 import net.groboclown.idea.p4ic.v2.changes.P4ChangelistListener;
 import net.groboclown.idea.p4ic.v2.changes.P4CommittedChangeList;
+import net.groboclown.idea.p4ic.v2.changes.P4CurrentContentRevision;
 import net.groboclown.idea.p4ic.v2.extension.P4StatusUpdateEnvironment;
 import net.groboclown.idea.p4ic.v2.extension.P4SyncUpdateEnvironment;
 import net.groboclown.idea.p4ic.v2.file.FileExtensions;
@@ -72,6 +78,8 @@ import java.io.File;
 import java.util.*;
 
 public class P4Vcs extends AbstractVcs<P4CommittedChangeList> {
+    private static final Logger LOG = Logger.getInstance(P4Vcs.class);
+
     public static final FileStatus ADDED_OFFLINE =
             FileStatusFactory.getInstance().createFileStatus(
                     "ADDED_OFFLINE",
@@ -136,6 +144,8 @@ public class P4Vcs extends AbstractVcs<P4CommittedChangeList> {
     //private P4ConnectionWidget connectionWidget;
     private P4MultipleConnectionWidget connectionWidget;
 
+    private P4ChangesViewSelectionListener changesViewSelectionListener;
+
     private P4VFSListener myVFSListener;
 
     private P4EditFileProvider editProvider;
@@ -290,6 +300,16 @@ public class P4Vcs extends AbstractVcs<P4CommittedChangeList> {
                     }
                 }, ModalityState.NON_MODAL);
             }
+
+            // The changes view's tool window may not be set up yet.
+            changesViewSelectionListener = new P4ChangesViewSelectionListener(this);
+            final P4ChangesViewSelectionListener selectionListener = changesViewSelectionListener;
+            ToolWindowManager.getInstance(myProject).invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    selectionListener.attach();
+                }
+            });
         }
 
         projectMessageBusConnection = myProject.getMessageBus().connect();
@@ -345,6 +365,16 @@ public class P4Vcs extends AbstractVcs<P4CommittedChangeList> {
                 }, ModalityState.NON_MODAL);
             }
         }
+        if (changesViewSelectionListener != null) {
+            final P4ChangesViewSelectionListener selectionListener = changesViewSelectionListener;
+            changesViewSelectionListener = null;
+            ApplicationManager.getApplication().invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    selectionListener.detach();
+                }
+            });
+        }
 
         if (myVFSListener != null) {
             Disposer.dispose(myVFSListener);
@@ -620,6 +650,41 @@ public class P4Vcs extends AbstractVcs<P4CommittedChangeList> {
     }
 
 
+    /**
+     * Start loading the "before" side of the diffs the user is about to
+     * review, so that each diff doesn't wait on its own server call.
+     * Finding the servers can block, so this returns right away.
+     *
+     * @param changes changes whose opened files' have revisions should be loaded
+     */
+    public void prefetchHaveRevisions(@NotNull Collection<Change> changes) {
+        final List<FilePath> files = new ArrayList<FilePath>(changes.size());
+        for (Change change : changes) {
+            final ContentRevision before = change.getBeforeRevision();
+            if (before instanceof P4CurrentContentRevision) {
+                files.add(before.getFile());
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (Map.Entry<P4Server, List<FilePath>> entry : mapFilePathsToP4Server(files).entrySet()) {
+                        if (entry.getKey() != null) {
+                            entry.getKey().prefetchHaveRevisions(entry.getValue());
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    LOG.info("Prefetch of the have revisions interrupted", e);
+                }
+            }
+        });
+    }
+
+
     /**
      * @param files files
      * @return the matched mapping of files to the servers.  There might be a "null" server entry, which
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.groboclown.idea.p4ic.ui;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * One of several slices of a progress range, for work that runs in parallel.
+ * Each slice reports its own fraction, and the range shows the average of
+ * all the slices.
+ */
+public class SliceProgressIndicator extends SubProgressIndicator {
+    private final double[] fractions;
+    private final int index;
+
+
+    @NotNull
+    public static SliceProgressIndicator[] split(@NotNull ProgressIndicator indicator,
+            double startFraction, double endFraction, int count) {
+        final double[] fractions = new double[count];
+        final SliceProgressIndicator[] ret = new SliceProgressIndicator[count];
+        for (int i = 0; i < count; i++) {
+            ret[i] = new SliceProgressIndicator(indicator, startFraction, endFraction, fractions, i);
+        }
+        return ret;
+    }
+
+
+    private SliceProgressIndicator(@NotNull ProgressIndicator indicator,
+            double startFraction, double endFraction, @NotNull double[] fractions, int index) {
+        super(indicator, startFraction, endFraction);
+        this.fractions = fractions;
+        this.index = index;
+    }
+
+
+    @Override
+    public void setFraction(final double fraction) {
+        assert fraction >= 0.0;
+        assert fraction <= 1.0;
+        double total = 0.0;
+        synchronized (fractions) {
+            fractions[index] = fraction;
+            for (double f : fractions) {
+                total += f;
+            }
+        }
+        super.setFraction(total / fractions.length);
+    }
+}
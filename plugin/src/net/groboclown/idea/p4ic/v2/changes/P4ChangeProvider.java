@@ -30,6 +30,8 @@ import net.groboclown.idea.p4ic.v2.server.P4FileAction;
 import net.groboclown.idea.p4ic.v2.server.P4Server;
 import net.groboclown.idea.p4ic.v2.server.cache.P4ChangeListValue;
 import net.groboclown.idea.p4ic.v2.server.connection.AlertManager;
+import net.groboclown.idea.p4ic.v2.server.util.PerServerExecutor;
+import net.groboclown.idea.p4ic.v2.server.util.PerServerExecutor.Result;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -123,11 +125,21 @@ public class P4ChangeProvider implements ChangeProvider {
         try {
             // As part of the execution, we'll include an integrity check, to ensure the
             // local cache matches up with the remaining actions.
-            for (P4Server server : vcs.getP4Servers()) {
-                server.checkLocalIntegrity();
-                if (dirtyFiles == null && server.isWorkingOnline()) {
-                    server.flushCache(true, false);
-                }
+            final Map<P4Server, Result<Void>> checked = PerServerExecutor.run(vcs.getP4Servers(), progress, 0.0, 0.2,
+                    new PerServerExecutor.Task<P4Server, Void>() {
+                        @Override
+                        public Void run(@NotNull P4Server server, @NotNull ProgressIndicator progress)
+                                throws InterruptedException {
+                            server.checkLocalIntegrity();
+                            if (dirtyFiles == null && server.isWorkingOnline()) {
+                                server.flushCache(true, false);
+                            }
+                            progress.setFraction(1.0);
+                            return null;
+                        }
+                    });
+            for (Result<Void> result : checked.values()) {
+                result.get();
             }
 
             syncChanges(dirtyFiles, builder, addGate, progress);
@@ -139,7 +151,7 @@ public class P4ChangeProvider implements ChangeProvider {
     private void syncChanges(@Nullable final Set<FilePath> dirtyFiles,
             @NotNull final ChangelistBuilder builder,
             @NotNull final ChangeListManagerGate addGate,
-            final ProgressIndicator progress) throws InterruptedException {
+            final ProgressIndicator progress) throws InterruptedException, VcsException {
         MappedOpenFiles mapped = getOpenedFiles(dirtyFiles, progress);
         progress.setFraction(0.80);
 
@@ -175,8 +187,8 @@ public class P4ChangeProvider implements ChangeProvider {
         }
         progress.setFraction(0.84);
 
-        Map<P4Server, List<VirtualFile>> notCheckedOutServerFiles =
-                new HashMap<P4Server, List<VirtualFile>>();
+        final Map<P4Server, List<VirtualFile>> notCheckedOutServerFiles =
+                new LinkedHashMap<P4Server, List<VirtualFile>>();
         for (FilePath file : mapped.notEditedDirtyFiles.keySet()) {
             VirtualFile virt = file.getVirtualFile();
             if (virt == null) {
@@ -187,8 +199,8 @@ public class P4ChangeProvider implements ChangeProvider {
                 // file isn't different than the server version.
 
                 // This needs to be verified by comparing against the
-                // server version, but that can only happen if we're
-                // online.
+                // server version, or, when offline, against the
+                // workspace snapshot taken at sync time.
 
                 final P4Server server = mapped.notEditedDirtyFiles.get(file);
                 List<VirtualFile> filesToDiff = notCheckedOutServerFiles.get(server);
@@ -199,20 +211,28 @@ public class P4ChangeProvider implements ChangeProvider {
                 filesToDiff.add(virt);
             }
         }
-        for (Entry<P4Server, List<VirtualFile>> serverToFiles : notCheckedOutServerFiles.entrySet()) {
-            final List<VirtualFile> differentThanServerHaveVersion;
-            if (serverToFiles.getKey().isWorkingOnline() &&
-                    UserProjectPreferences.getEditedWithoutCheckoutVerify(project)) {
-                // This can be a big performance hog for environments where the IDE
-                // thinks many files are edited, but actually aren't edited.
-                // So we wrap it in a user preference check.
-                differentThanServerHaveVersion = serverToFiles.getKey().
-                        getVirtualFilesDifferentThanServerHaveVersionOnline(serverToFiles.getValue());
-            } else {
-                // can't tell, so just mark it as different
-                differentThanServerHaveVersion = serverToFiles.getValue();
-            }
-            for (VirtualFile file : differentThanServerHaveVersion) {
+        final boolean verifyEdited = UserProjectPreferences.getEditedWithoutCheckoutVerify(project);
+        final Map<P4Server, Result<List<VirtualFile>>> differentThanServer = PerServerExecutor.run(
+                notCheckedOutServerFiles.keySet(), progress, 0.84, 0.85,
+                new PerServerExecutor.Task<P4Server, List<VirtualFile>>() {
+                    @Override
+                    public List<VirtualFile> run(@NotNull P4Server server, @NotNull ProgressIndicator progress)
+                            throws InterruptedException {
+                        if (server.isWorkingOnline() && verifyEdited) {
+                            // This can be a big performance hog for environments where the IDE
+                            // thinks many files are edited, but actually aren't edited.
+                            // So we wrap it in a user preference check.
+                            return server.getVirtualFilesDifferentThanServerHaveVersionOnline(
+                                    notCheckedOutServerFiles.get(server));
+                        }
+                        // Use the local record of the last sync; anything it
+                        // can't tell about is marked as different.
+                        return server.getVirtualFilesDifferentThanSnapshot(
+                                notCheckedOutServerFiles.get(server));
+                    }
+                });
+        for (Result<List<VirtualFile>> differentThanServerHaveVersion : differentThanServer.values()) {
+            for (VirtualFile file : differentThanServerHaveVersion.get()) {
                 builder.processModifiedWithoutCheckout(file);
             }
         }
@@ -266,7 +286,7 @@ public class P4ChangeProvider implements ChangeProvider {
     @NotNull
     private MappedOpenFiles getOpenedFiles(@Nullable final Set<FilePath> dirtyFiles,
             @NotNull final ProgressIndicator progress)
-            throws InterruptedException {
+            throws InterruptedException, VcsException {
         if (dirtyFiles != null) {
             return new MappedOpenFiles(vcs, alerts, dirtyFiles, progress);
         } else {
@@ -299,7 +319,7 @@ public class P4ChangeProvider implements ChangeProvider {
 
         MappedOpenFiles(@NotNull P4Vcs vcs, @NotNull AlertManager alerts,
                 @NotNull Set<FilePath> scopedDirtyFiles, @NotNull final ProgressIndicator progress)
-                throws InterruptedException {
+                throws InterruptedException, VcsException {
             this.scopedDirtyFiles = scopedDirtyFiles;
 
             // We could just discover the open state for the dirty files,
@@ -312,8 +332,11 @@ public class P4ChangeProvider implements ChangeProvider {
 
             this.affectedServers = new HashSet<P4Server>(vcs.getP4Servers());
 
-            for (P4Server server: affectedServers) {
-                final Collection<P4FileAction> opened = server.getOpenFiles();
+            final Map<P4Server, Collection<P4FileAction>> openedByServer =
+                    loadOpenFiles(vcs.getP4Servers(), progress, 0.2, 0.6);
+            for (Entry<P4Server, Collection<P4FileAction>> openedEntry : openedByServer.entrySet()) {
+                final P4Server server = openedEntry.getKey();
+                final Collection<P4FileAction> opened = openedEntry.getValue();
                 if (! opened.isEmpty()) {
                     affectedServers.add(server);
                 }
@@ -364,6 +387,7 @@ public class P4ChangeProvider implements ChangeProvider {
             this.notEditedDirtyFiles = new HashMap<FilePath, P4Server>();
             this.notAddedDirtyFiles = new HashMap<FilePath, P4Server>();
             final Map<P4Server, List<FilePath>> unknownMap = vcs.mapFilePathsToP4Server(unknownDirties);
+            final List<P4Server> unknownServers = new ArrayList<P4Server>(unknownMap.size());
             for (Entry<P4Server, List<FilePath>> serverListEntry : unknownMap.entrySet()) {
                 P4Server server = serverListEntry.getKey();
                 if (server == null) {
@@ -372,24 +396,37 @@ public class P4ChangeProvider implements ChangeProvider {
                     }
                 } else if (! serverListEntry.getValue().isEmpty()) {
                     affectedServers.add(server);
-                    final Map<FilePath, IExtendedFileSpec> status =
-                            server.getFileStatus(serverListEntry.getValue());
-                    if (status == null) {
-                        // Mapped to the server, but we're disconnected, so we can't tell
-                        // if they've actually been added or not.
-                        // Just assume that they're on the server.
-                        for (FilePath filePath : serverListEntry.getValue()) {
-                            notEditedDirtyFiles.put(filePath, server);
+                    unknownServers.add(server);
+                }
+            }
+            final Map<P4Server, Result<Map<FilePath, IExtendedFileSpec>>> statuses = PerServerExecutor.run(
+                    unknownServers, progress, 0.6, 0.8,
+                    new PerServerExecutor.Task<P4Server, Map<FilePath, IExtendedFileSpec>>() {
+                        @Override
+                        public Map<FilePath, IExtendedFileSpec> run(@NotNull P4Server server,
+                                @NotNull ProgressIndicator progress) throws InterruptedException {
+                            return server.getFileStatus(unknownMap.get(server));
                         }
-                    } else {
-                        // Mapped to the server, and we can tell if they've been
-                        // added or not.
-                        for (Entry<FilePath, IExtendedFileSpec> entry: status.entrySet()) {
-                            if (isStoredOnServer(entry.getValue())) {
-                                notEditedDirtyFiles.put(entry.getKey(), server);
-                            } else {
-                                notAddedDirtyFiles.put(entry.getKey(), server);
-                            }
+                    });
+            for (Entry<P4Server, Result<Map<FilePath, IExtendedFileSpec>>> statusEntry : statuses.entrySet()) {
+                final P4Server server = statusEntry.getKey();
+                final List<FilePath> serverFiles = unknownMap.get(server);
+                final Map<FilePath, IExtendedFileSpec> status = statusEntry.getValue().get();
+                if (status == null) {
+                    // Mapped to the server, but we're disconnected, so we can't tell
+                    // if they've actually been added or not.
+                    // Just assume that they're on the server.
+                    for (FilePath filePath : serverFiles) {
+                        notEditedDirtyFiles.put(filePath, server);
+                    }
+                } else {
+                    // Mapped to the server, and we can tell if they've been
+                    // added or not.
+                    for (Entry<FilePath, IExtendedFileSpec> entry: status.entrySet()) {
+                        if (isStoredOnServer(entry.getValue())) {
+                            notEditedDirtyFiles.put(entry.getKey(), server);
+                        } else {
+                            notAddedDirtyFiles.put(entry.getKey(), server);
                         }
                     }
                 }
@@ -398,7 +435,7 @@ public class P4ChangeProvider implements ChangeProvider {
 
         MappedOpenFiles(@NotNull P4Vcs vcs, @NotNull AlertManager alerts,
                 @NotNull final ProgressIndicator progress)
-                throws InterruptedException {
+                throws InterruptedException, VcsException {
             // Discover everything that is dirty as known by the server.
             // Nothing is not-dirty, and nothing is locally changed.
 
@@ -414,9 +451,11 @@ public class P4ChangeProvider implements ChangeProvider {
 
             LOG.debug("Performing 'all dirty' refresh");
 
-            for (P4Server server : affectedServers) {
-                final Collection<P4FileAction> opened = server.getOpenFiles();
-                for (P4FileAction file : opened) {
+            final Map<P4Server, Collection<P4FileAction>> openedByServer =
+                    loadOpenFiles(vcs.getP4Servers(), progress, 0.2, 0.8);
+            for (Entry<P4Server, Collection<P4FileAction>> openedEntry : openedByServer.entrySet()) {
+                final P4Server server = openedEntry.getKey();
+                for (P4FileAction file : openedEntry.getValue()) {
                     final FilePath fp = file.getFile();
                     if (fp == null) {
                         alerts.addNotice(vcs.getProject(),
@@ -434,6 +473,32 @@ public class P4ChangeProvider implements ChangeProvider {
             }
         }
 
+        /**
+         * Load the opened files from all the servers at once.
+         *
+         * @return the opened files for each server, in the order of the servers.
+         */
+        @NotNull
+        private static Map<P4Server, Collection<P4FileAction>> loadOpenFiles(@NotNull List<P4Server> servers,
+                @NotNull ProgressIndicator progress, double startFraction, double endFraction)
+                throws InterruptedException, VcsException {
+            final Map<P4Server, Result<Collection<P4FileAction>>> results = PerServerExecutor.run(
+                    servers, progress, startFraction, endFraction,
+                    new PerServerExecutor.Task<P4Server, Collection<P4FileAction>>() {
+                        @Override
+                        public Collection<P4FileAction> run(@NotNull P4Server server,
+                                @NotNull ProgressIndicator progress) throws InterruptedException {
+                            return server.getOpenFiles();
+                        }
+                    });
+            final Map<P4Server, Collection<P4FileAction>> ret =
+                    new LinkedHashMap<P4Server, Collection<P4FileAction>>();
+            for (Entry<P4Server, Result<Collection<P4FileAction>>> entry : results.entrySet()) {
+                ret.put(entry.getKey(), entry.getValue().get());
+            }
+            return ret;
+        }
+
         private boolean isStoredOnServer(@Nullable final IExtendedFileSpec spec) {
             if (spec == null) {
                 return false;
@@ -68,8 +68,9 @@ public class P4CurrentContentRevision implements ContentRevision {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Extracting content for " + filePath + " from " + server.getClientServerId());
                 }
-                // Note: have revision, rather than head revision
-                return server.loadFileAsStringOnline(filePath, IFileSpec.HAVE_REVISION);
+                // Note: have revision, rather than head revision.  It's
+                // usually already prefetched for the commit dialog.
+                return server.loadHaveRevisionAsStringOnline(filePath);
             } else {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("No server found for " + filePath + "; cannot load contents");
@@ -27,10 +27,11 @@ import net.groboclown.idea.p4ic.P4Bundle;
 import net.groboclown.idea.p4ic.extension.P4Vcs;
 import net.groboclown.idea.p4ic.server.exceptions.P4InvalidConfigException;
 import net.groboclown.idea.p4ic.server.exceptions.VcsInterruptedException;
-import net.groboclown.idea.p4ic.ui.SubProgressIndicator;
 import net.groboclown.idea.p4ic.v2.history.P4RevisionNumber;
 import net.groboclown.idea.p4ic.v2.history.P4RevisionNumber.RevType;
 import net.groboclown.idea.p4ic.v2.server.P4Server;
+import net.groboclown.idea.p4ic.v2.server.util.PerServerExecutor;
+import net.groboclown.idea.p4ic.v2.server.util.PerServerExecutor.Result;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -84,7 +85,7 @@ public class P4StatusUpdateEnvironment implements UpdateEnvironment {
             return session;
         }
         P4Vcs vcs = P4Vcs.getInstance(project);
-        Map<P4Server, List<FilePath>> mappedRoots;
+        final Map<P4Server, List<FilePath>> mappedRoots;
         try {
             mappedRoots = vcs.mapFilePathsToP4Server(Arrays.asList(contentRoots));
         } catch (InterruptedException e) {
@@ -92,21 +93,30 @@ public class P4StatusUpdateEnvironment implements UpdateEnvironment {
             return session;
         }
 
+        // Ask all the servers at once, then fill in the groups here, one
+        // server at a time.  Roots not under any client have no server.
+        final Set<P4Server> servers = new LinkedHashSet<P4Server>(mappedRoots.keySet());
+        servers.remove(null);
+        final Map<P4Server, Result<Map<FilePath, IExtendedFileSpec>>> statuses = PerServerExecutor.run(
+                servers, progressIndicator, 0.1, 0.7,
+                new PerServerExecutor.Task<P4Server, Map<FilePath, IExtendedFileSpec>>() {
+                    @Override
+                    public Map<FilePath, IExtendedFileSpec> run(@NotNull P4Server server,
+                            @NotNull ProgressIndicator progress) throws InterruptedException {
+                        final Map<FilePath, IExtendedFileSpec> ret = server.getFileStatus(mappedRoots.get(server));
+                        progress.setFraction(1.0);
+                        return ret;
+                    }
+                });
+
         double serverConfigPos = 0.0;
-        for (Map.Entry<P4Server, List<FilePath>> en: mappedRoots.entrySet()) {
-            SubProgressIndicator procIndConfig = new SubProgressIndicator(progressIndicator,
-                    0.1 + (0.6 * (serverConfigPos / (double) mappedRoots.size())),
-                    0.1 + (0.6 * ((serverConfigPos + 1.0) / (double) mappedRoots.size())));
+        for (Map.Entry<P4Server, Result<Map<FilePath, IExtendedFileSpec>>> en: statuses.entrySet()) {
+            progressIndicator.setFraction(0.7 + (0.3 * (serverConfigPos / (double) statuses.size())));
             serverConfigPos += 1.0;
             try {
-                P4Server server = en.getKey();
-                final Map<FilePath, IExtendedFileSpec> infos =
-                        server.getFileStatus(en.getValue());
+                final Map<FilePath, IExtendedFileSpec> infos = en.getValue().get();
                 if (infos != null) {
-                    double filePos = 0.0;
                     for (Map.Entry<FilePath, IExtendedFileSpec> infoEntry: infos.entrySet()) {
-                        procIndConfig.setFraction(filePos / (double) infos.size());
-                        filePos += 1.0;
                         final IExtendedFileSpec spec = infoEntry.getValue();
                         FileGroup group = updatedFiles.getGroupById(getGroupId(spec));
                         group.add(infoEntry.getKey().getIOFile().getAbsolutePath(), P4Vcs.getKey(),
@@ -117,7 +127,7 @@ public class P4StatusUpdateEnvironment implements UpdateEnvironment {
                     }
                 } else {
                     FileGroup group = updatedFiles.getGroupById(OFFLINE_GROUP_ID);
-                    for (FilePath filePath: en.getValue()) {
+                    for (FilePath filePath: mappedRoots.get(en.getKey())) {
                         // TODO get cached known state
                         group.add(filePath.getIOFile().getAbsolutePath(),
                                 P4Vcs.getKey(),
@@ -127,9 +137,11 @@ public class P4StatusUpdateEnvironment implements UpdateEnvironment {
                 // TODO else mark them w/ offline status
             } catch (InterruptedException ex) {
                 session.exceptions.add(new VcsInterruptedException(ex));
+            } catch (VcsException ex) {
+                session.exceptions.add(ex);
             }
-            procIndConfig.setFraction(1.0);
         }
+        progressIndicator.setFraction(1.0);
 
 
         return session;
@@ -22,22 +22,33 @@ import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.update.*;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import net.groboclown.idea.p4ic.P4Bundle;
 import net.groboclown.idea.p4ic.extension.P4Vcs;
-import net.groboclown.idea.p4ic.server.exceptions.P4DisconnectedException;
 import net.groboclown.idea.p4ic.server.exceptions.VcsInterruptedException;
 import net.groboclown.idea.p4ic.ui.sync.SyncOptionConfigurable;
+import net.groboclown.idea.p4ic.v2.server.FileSyncListener;
 import net.groboclown.idea.p4ic.v2.server.FileSyncResult;
 import net.groboclown.idea.p4ic.v2.server.P4Server;
 import net.groboclown.idea.p4ic.v2.server.connection.MessageResult;
+import net.groboclown.idea.p4ic.v2.server.util.PerServerExecutor;
+import net.groboclown.idea.p4ic.v2.server.util.PerServerExecutor.Result;
+import net.groboclown.idea.p4ic.v2.server.util.ThrottledBatch;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.util.*;
 import java.util.Map.Entry;
 
 public class P4SyncUpdateEnvironment implements UpdateEnvironment {
     private static final Logger LOG = Logger.getInstance(P4SyncUpdateEnvironment.class);
 
+    // The synchronized files are refreshed and added to the update groups
+    // in batches while the sync runs, rather than all at once at the end.
+    private static final int SYNC_BATCH_SIZE = 200;
+    private static final long SYNC_BATCH_DELAY_MILLIS = 1000L;
+
     private final P4Vcs vcs;
 
     private final SyncOptionConfigurable syncOptions = new SyncOptionConfigurable();
@@ -56,8 +67,9 @@ public class P4SyncUpdateEnvironment implements UpdateEnvironment {
     public UpdateSession updateDirectories(@NotNull final FilePath[] contentRoots, final UpdatedFiles updatedFiles,
             final ProgressIndicator progressIndicator, @NotNull final Ref<SequentialUpdatesContext> context)
             throws ProcessCanceledException {
-        // Run the Perforce operation in the current thread, because that's the context in which this operation
-        // is expected to run.
+        // The Perforce operations run in parallel for each server.  The synchronized files are added to the
+        // groups in batches as they arrive, so the groups are only touched while holding their lock; the
+        // messages are merged in the current thread once all the servers finish.
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("updateDirectories: sync options are " + syncOptions.getCurrentOptions());
@@ -67,25 +79,43 @@ public class P4SyncUpdateEnvironment implements UpdateEnvironment {
         final Map<String, FileGroup> groups = sortByFileGroupId(updatedFiles.getTopLevelGroups(), null);
         final Map<P4Server, List<FilePath>> clientRoots = findClientRoots(contentRoots, session);
 
-        for (Entry<P4Server, List<FilePath>> entry : clientRoots.entrySet()) {
-            P4Server server = entry.getKey();
-            // Get the revision or changelist from the Configurable that the user wants to sync to.
-
-            final MessageResult<Collection<FileSyncResult>> results;
+        // Get the revision or changelist from the Configurable that the user wants to sync to.
+        final int revision = syncOptions.getRevision();
+        final String changelist = syncOptions.getChangelist();
+        final boolean force = syncOptions.isForceSync();
+        final SyncedFileBatch synced = new SyncedFileBatch(groups);
+
+        final Map<P4Server, Result<MessageResult<Collection<FileSyncResult>>>> serverResults = PerServerExecutor.run(
+                clientRoots.keySet(), progressIndicator,
+                new PerServerExecutor.Task<P4Server, MessageResult<Collection<FileSyncResult>>>() {
+                    @Override
+                    public MessageResult<Collection<FileSyncResult>> run(@NotNull P4Server server,
+                            @NotNull final ProgressIndicator progress) throws InterruptedException, VcsException {
+                        final MessageResult<Collection<FileSyncResult>> ret = server.synchronizeFilesOnline(
+                                clientRoots.get(server), revision, changelist, force, new FileSyncListener() {
+                                    private int count = 0;
+
+                                    @Override
+                                    public void fileSynced(@NotNull FileSyncResult result) {
+                                        count++;
+                                        progress.setText2(P4Bundle.message("sync.progress", count,
+                                                result.getFilePath().getPresentableUrl()));
+                                        synced.add(result);
+                                    }
+                                });
+                        progress.setFraction(1.0);
+                        return ret;
+                    }
+                });
+        synced.flush();
+
+        for (Entry<P4Server, Result<MessageResult<Collection<FileSyncResult>>>> entry : serverResults.entrySet()) {
             try {
-                results = server.synchronizeFilesOnline(
-                        entry.getValue(),
-                        syncOptions.getRevision(),
-                        syncOptions.getChangelist(),
-                        syncOptions.isForceSync());
-                for (FileSyncResult file : results.getResult()) {
-                    updateFileInfo(file);
-                    addToGroup(file, groups);
-                }
+                final MessageResult<Collection<FileSyncResult>> results = entry.getValue().get();
                 session.exceptions.addAll(results.messagesAsExceptions());
             } catch (InterruptedException e) {
                 throw new ProcessCanceledException(e);
-            } catch (P4DisconnectedException e) {
+            } catch (VcsException e) {
                 session.exceptions.add(e);
             }
         }
@@ -94,19 +124,6 @@ public class P4SyncUpdateEnvironment implements UpdateEnvironment {
     }
 
 
-    /**
-     * File was synchronized, so we need to inform Idea that the file state
-     * needs to be refreshed.
-     *
-     * @param file p4 file information
-     */
-    private void updateFileInfo(@Nullable final FileSyncResult file) {
-        if (file != null) {
-            final FilePath path = file.getFilePath();
-            path.hardRefresh();
-        }
-    }
-
     private void addToGroup(@Nullable final FileSyncResult file,
             @NotNull final Map<String, FileGroup> groups) {
         final String groupId = getGroupIdFor(file);
@@ -176,11 +193,16 @@ public class P4SyncUpdateEnvironment implements UpdateEnvironment {
      */
     private Map<P4Server, List<FilePath>> findClientRoots(final FilePath[] contentRoots,
             final SyncUpdateSession session) {
-        Map<P4Server, List<FilePath>> ret = new HashMap<P4Server, List<FilePath>>();
+        // Keeps the content root order, so the results are merged in a predictable order.
+        Map<P4Server, List<FilePath>> ret = new LinkedHashMap<P4Server, List<FilePath>>();
 
         for (FilePath root: contentRoots) {
             try {
                 final P4Server server = vcs.getP4ServerFor(root);
+                if (server == null) {
+                    LOG.info("Not under a Perforce client: " + root);
+                    continue;
+                }
                 List<FilePath> paths = ret.get(server);
                 if (paths == null) {
                     paths = new ArrayList<FilePath>();
@@ -199,6 +221,33 @@ public class P4SyncUpdateEnvironment implements UpdateEnvironment {
         return ret;
     }
 
+    /**
+     * Adds the synchronized files to the update groups, and tells Idea that
+     * their state needs to be refreshed.
+     */
+    private class SyncedFileBatch extends ThrottledBatch<FileSyncResult> {
+        private final Map<String, FileGroup> groups;
+
+        private SyncedFileBatch(@NotNull Map<String, FileGroup> groups) {
+            super(SYNC_BATCH_SIZE, SYNC_BATCH_DELAY_MILLIS);
+            this.groups = groups;
+        }
+
+        @Override
+        protected void process(@NotNull List<FileSyncResult> batch) {
+            final List<File> files = new ArrayList<File>(batch.size());
+            // Each server's sync fills the batch from its own thread.
+            synchronized (groups) {
+                for (FileSyncResult file : batch) {
+                    addToGroup(file, groups);
+                    files.add(file.getFilePath().getIOFile());
+                }
+            }
+            // Asynchronous, so the sync doesn't wait on the refresh.
+            LocalFileSystem.getInstance().refreshIoFiles(files, true, false, null);
+        }
+    }
+
     static class SyncUpdateSession implements UpdateSession {
         private boolean cancelled = false;
         private List<VcsException> exceptions = new ArrayList<VcsException>();
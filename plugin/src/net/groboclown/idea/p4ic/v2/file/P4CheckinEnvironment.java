@@ -14,6 +14,8 @@
 package net.groboclown.idea.p4ic.v2.file;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.vcs.CheckinProjectPanel;
 import com.intellij.openapi.vcs.FilePath;
@@ -44,6 +46,8 @@ import net.groboclown.idea.p4ic.v2.changes.P4ChangeListJob;
 import net.groboclown.idea.p4ic.v2.changes.P4ChangeListMapping;
 import net.groboclown.idea.p4ic.v2.server.P4Server;
 import net.groboclown.idea.p4ic.v2.server.util.FilePathUtil;
+import net.groboclown.idea.p4ic.v2.server.util.PerServerExecutor;
+import net.groboclown.idea.p4ic.v2.server.util.PerServerExecutor.Result;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -124,7 +128,7 @@ public class P4CheckinEnvironment implements CheckinEnvironment {
         // The server end deals with filtering out the files that
         // aren't requested to submit.
         final ChangeListManager clm = ChangeListManager.getInstance(vcs.getProject());
-        final Map<P4Server, Map<P4ChangeListId, List<FilePath>>> pathsPerChangeList = new HashMap<P4Server, Map<P4ChangeListId, List<FilePath>>>();
+        final Map<P4Server, Map<P4ChangeListId, List<FilePath>>> pathsPerChangeList = new LinkedHashMap<P4Server, Map<P4ChangeListId, List<FilePath>>>();
         for (Change change: changes) {
             if (change != null) {
                 LocalChangeList cl = clm.getChangeList(change);
@@ -144,31 +148,29 @@ public class P4CheckinEnvironment implements CheckinEnvironment {
         // with the rest of the changelists below.
 
         LOG.info("changes in a changelist: " + pathsPerChangeList);
-        for (Entry<P4Server, Map<P4ChangeListId, List<FilePath>>> en: pathsPerChangeList.entrySet()) {
-            final P4Server server = en.getKey();
-            for (Entry<P4ChangeListId, List<FilePath>> clEn: en.getValue().entrySet()) {
-                LOG.info("Submit to " + server + " cl " + clEn.getValue() + " files " +
-                    clEn.getValue());
-                try {
-                    Ref<VcsException> problem = new Ref<VcsException>();
-                    Ref<List<P4StatusMessage>> results = new Ref<List<P4StatusMessage>>();
-                    server.submitChangelistOnline(clEn.getValue(),
-                            getJobs(parametersHolder),
-                            getSubmitStatus(parametersHolder),
-                            clEn.getKey().getChangeListId(),
-                            preparedComment,
-                            results, problem);
-                    if (! problem.isNull()) {
-                        errors.add(problem.get());
+
+        // Each server submits its changelists in order, but the servers
+        // submit at the same time.
+        final List<P4ChangeListJob> jobs = getJobs(parametersHolder);
+        final String submitStatus = getSubmitStatus(parametersHolder);
+        final ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
+        final Map<P4Server, Result<List<VcsException>>> serverErrors = PerServerExecutor.run(
+                pathsPerChangeList.keySet(), progress,
+                new PerServerExecutor.Task<P4Server, List<VcsException>>() {
+                    @Override
+                    public List<VcsException> run(@NotNull P4Server server, @NotNull ProgressIndicator progress) {
+                        return submit(server, pathsPerChangeList.get(server), jobs, submitStatus,
+                                preparedComment);
                     }
-                    errors.addAll(P4StatusMessage.getErrorsAndWarningsAsExceptions(results.get(), false));
-                } catch (P4DisconnectedException e) {
-                    LOG.warn(e);
-                    errors.add(e);
-                } catch (InterruptedException e) {
-                    LOG.warn(e);
-                    errors.add(new VcsInterruptedException(e));
-                }
+                });
+        for (Result<List<VcsException>> result : serverErrors.values()) {
+            try {
+                errors.addAll(result.get());
+            } catch (VcsException e) {
+                errors.add(e);
+            } catch (InterruptedException e) {
+                LOG.warn(e);
+                errors.add(new VcsInterruptedException(e));
             }
         }
 
@@ -179,6 +181,39 @@ public class P4CheckinEnvironment implements CheckinEnvironment {
         return errors;
     }
 
+    @NotNull
+    private List<VcsException> submit(@NotNull P4Server server,
+            @NotNull Map<P4ChangeListId, List<FilePath>> pathsPerChangeList,
+            @NotNull List<P4ChangeListJob> jobs, @Nullable String submitStatus,
+            @NotNull String preparedComment) {
+        final List<VcsException> errors = new ArrayList<VcsException>();
+        for (Entry<P4ChangeListId, List<FilePath>> clEn: pathsPerChangeList.entrySet()) {
+            LOG.info("Submit to " + server + " cl " + clEn.getValue() + " files " +
+                clEn.getValue());
+            try {
+                Ref<VcsException> problem = new Ref<VcsException>();
+                Ref<List<P4StatusMessage>> results = new Ref<List<P4StatusMessage>>();
+                server.submitChangelistOnline(clEn.getValue(),
+                        jobs,
+                        submitStatus,
+                        clEn.getKey().getChangeListId(),
+                        preparedComment,
+                        results, problem);
+                if (! problem.isNull()) {
+                    errors.add(problem.get());
+                }
+                errors.addAll(P4StatusMessage.getErrorsAndWarningsAsExceptions(results.get(), false));
+            } catch (P4DisconnectedException e) {
+                LOG.warn(e);
+                errors.add(e);
+            } catch (InterruptedException e) {
+                LOG.warn(e);
+                errors.add(new VcsInterruptedException(e));
+            }
+        }
+        return errors;
+    }
+
     private void splitChanges(@NotNull Change change, @Nullable LocalChangeList lcl,
             @NotNull Map<P4Server, Map<P4ChangeListId, List<FilePath>>> clientPathsPerChangeList)
             throws InterruptedException {
@@ -323,6 +358,7 @@ public class P4CheckinEnvironment implements CheckinEnvironment {
 
 
     private static class P4OnCheckinPanel implements CheckinChangeListSpecificComponent {
+        private final P4Vcs vcs;
         private final CheckinProjectPanel parentPanel;
         private final PairConsumer<Object, Object> dataConsumer;
         private final SubmitContext context;
@@ -331,11 +367,13 @@ public class P4CheckinEnvironment implements CheckinEnvironment {
 
 
         P4OnCheckinPanel(@NotNull P4Vcs vcs, @NotNull CheckinProjectPanel panel, final PairConsumer<Object, Object> additionalDataConsumer) {
+            this.vcs = vcs;
             this.parentPanel = panel;
             this.dataConsumer = additionalDataConsumer;
             this.context = new SubmitContext(vcs, panel.getSelectedChanges());
             this.panel = new P4SubmitPanel(context);
             this.root = new JBScrollPane(this.panel.getRootPanel());
+            vcs.prefetchHaveRevisions(panel.getSelectedChanges());
 
 
             // TODO set the ok action as enabled/disabled depending upon
@@ -349,6 +387,7 @@ public class P4CheckinEnvironment implements CheckinEnvironment {
         public void onChangeListSelected(LocalChangeList list) {
             context.setSelectedCurrentChanges(list.getChanges());
             panel.updateStatus();
+            vcs.prefetchHaveRevisions(list.getChanges());
         }
 
         @Override
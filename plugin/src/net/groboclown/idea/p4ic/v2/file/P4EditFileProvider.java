@@ -28,6 +28,7 @@ import net.groboclown.idea.p4ic.v2.server.connection.AlertManager;
 import net.groboclown.idea.p4ic.v2.server.util.FilePathUtil;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -136,11 +137,33 @@ public class P4EditFileProvider implements EditFileProvider {
                     final int changelist = changeListMapping.
                             getProjectDefaultPerforceChangelist(server).getChangeListId();
 
+                    // Skip the files that are already open in the changelist; these
+                    // don't need the lock or an update.  The IDE only calls this for
+                    // read-only files, so those still need to be made writable.
+                    final List<VirtualFile> toOpen = new ArrayList<VirtualFile>(entry.getValue().size());
+                    final List<VirtualFile> alreadyOpen = new ArrayList<VirtualFile>();
+                    for (VirtualFile file : entry.getValue()) {
+                        if (server.isOpenedForEdit(file, changelist)) {
+                            alreadyOpen.add(file);
+                        } else {
+                            toOpen.add(file);
+                        }
+                    }
+                    if (! alreadyOpen.isEmpty()) {
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Already open on changelist " + changelist + ": " + alreadyOpen);
+                        }
+                        makeWritable(alreadyOpen.toArray(new VirtualFile[alreadyOpen.size()]));
+                    }
+                    if (toOpen.isEmpty()) {
+                        continue;
+                    }
+
                     long addOrEditTimeStart = 0L;
                     long addOrEditTimeEnd = 0L;
 
                     if (LOG.isDebugEnabled()) {
-                        LOG.debug("Open for edit/add on changelist " + changelist + ": " + entry.getValue());
+                        LOG.debug("Open for edit/add on changelist " + changelist + ": " + toOpen);
 
                         serverCount++;
                         addOrEditTimeStart = System.nanoTime();
@@ -150,7 +173,7 @@ public class P4EditFileProvider implements EditFileProvider {
                     // (answer: it's not)
                     vfsLock.lock();
                     try {
-                        server.addOrEditFiles(entry.getValue(), changelist);
+                        server.addOrEditFiles(toOpen, changelist);
                     } finally {
                         vfsLock.unlock();
                     }
@@ -13,7 +13,9 @@
  */
 package net.groboclown.idea.p4ic.v2.file;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.Change;
@@ -33,6 +35,8 @@ import net.groboclown.idea.p4ic.v2.server.FileSyncResult;
 import net.groboclown.idea.p4ic.v2.server.P4Server;
 import net.groboclown.idea.p4ic.v2.server.connection.MessageResult;
 import net.groboclown.idea.p4ic.v2.server.util.FilePathUtil;
+import net.groboclown.idea.p4ic.v2.server.util.PerServerExecutor;
+import net.groboclown.idea.p4ic.v2.server.util.PerServerExecutor.Result;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
@@ -54,6 +58,13 @@ public class P4RollbackEnvironment implements RollbackEnvironment {
      */
     private final Lock vfsLock;
 
+    // The IDE asks for one file at a time in rollbackIfUnchanged.  The files
+    // that pile up while one batch is with the server are reverted together
+    // in the next batch.
+    private final Object pendingUnchangedSync = new Object();
+    private final Set<FilePath> pendingUnchanged = new LinkedHashSet<FilePath>();
+    private boolean unchangedRevertRunning = false;
+
     P4RollbackEnvironment(@NotNull P4Vcs vcs, @NotNull Lock vfsLock) {
         this.vcs = vcs;
         this.vfsLock = vfsLock;
@@ -93,17 +104,36 @@ public class P4RollbackEnvironment implements RollbackEnvironment {
             LOG.warn(e);
             return;
         }
+        final List<P4Server> servers = new ArrayList<P4Server>(mapping.size());
+        for (Entry<P4Server, List<FilePath>> entry : mapping.entrySet()) {
+            if (entry.getKey() != null && ! entry.getValue().isEmpty()) {
+                servers.add(entry.getKey());
+            }
+        }
         vfsLock.lock();
         try {
-            for (Entry<P4Server, List<FilePath>> entry : mapping.entrySet()) {
-                final P4Server server = entry.getKey();
-                final List<FilePath> files = entry.getValue();
-                if (server != null && ! files.isEmpty()) {
-                    hasRefreshedFiles = true;
-                    LOG.info("Reverting in client " + server + ": " + files);
-
-                    server.revertFiles(files, vcsExceptions);
-               }
+            // Each server gets its own exception list, so the errors are
+            // reported in the server order.
+            final Map<P4Server, Result<List<VcsException>>> results = PerServerExecutor.run(servers, null,
+                    new PerServerExecutor.Task<P4Server, List<VcsException>>() {
+                        @Override
+                        public List<VcsException> run(@NotNull P4Server server, @NotNull ProgressIndicator progress) {
+                            final List<FilePath> files = mapping.get(server);
+                            LOG.info("Reverting in client " + server + ": " + files);
+                            final List<VcsException> exceptions = new ArrayList<VcsException>();
+                            server.revertFiles(files, exceptions);
+                            return exceptions;
+                        }
+                    });
+            for (Result<List<VcsException>> result : results.values()) {
+                hasRefreshedFiles = true;
+                try {
+                    vcsExceptions.addAll(result.get());
+                } catch (VcsException e) {
+                    vcsExceptions.add(e);
+                } catch (InterruptedException e) {
+                    vcsExceptions.add(new VcsInterruptedException(e));
+                }
             }
         } finally {
             vfsLock.unlock();
@@ -163,14 +193,23 @@ public class P4RollbackEnvironment implements RollbackEnvironment {
             exceptions.add(new VcsInterruptedException(e));
             return;
         }
-        for (Entry<P4Server, List<FilePath>> entry : mapping.entrySet()) {
-            listener.checkCanceled();
-            listener.accept(entry.getValue());
-            final MessageResult<Collection<FileSyncResult>> results;
+        listener.checkCanceled();
+        final List<P4Server> servers = new ArrayList<P4Server>(mapping.keySet());
+        servers.remove(null);
+        final Map<P4Server, Result<MessageResult<Collection<FileSyncResult>>>> results = PerServerExecutor.run(
+                servers, null,
+                new PerServerExecutor.Task<P4Server, MessageResult<Collection<FileSyncResult>>>() {
+                    @Override
+                    public MessageResult<Collection<FileSyncResult>> run(@NotNull P4Server server,
+                            @NotNull ProgressIndicator progress) throws InterruptedException, VcsException {
+                        return server.synchronizeFilesOnline(mapping.get(server), -1, null, true, null);
+                    }
+                });
+        for (Entry<P4Server, Result<MessageResult<Collection<FileSyncResult>>>> entry : results.entrySet()) {
+            listener.accept(mapping.get(entry.getKey()));
             try {
-                results = entry.getKey().synchronizeFilesOnline(entry.getValue(), -1, null, true);
-                exceptions.addAll(results.messagesAsExceptions());
-            } catch (P4DisconnectedException e) {
+                exceptions.addAll(entry.getValue().get().messagesAsExceptions());
+            } catch (VcsException e) {
                 LOG.warn(e);
                 exceptions.add(e);
             } catch (InterruptedException e) {
@@ -187,40 +226,121 @@ public class P4RollbackEnvironment implements RollbackEnvironment {
             return;
         }
 
-        FilePath fp = FilePathUtil.getFilePath(file);
-        final P4Server server;
+        synchronized (pendingUnchangedSync) {
+            pendingUnchanged.add(FilePathUtil.getFilePath(file));
+            if (unchangedRevertRunning) {
+                return;
+            }
+            unchangedRevertRunning = true;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                revertPendingUnchanged();
+            }
+        });
+    }
+
+
+    private void revertPendingUnchanged() {
+        boolean finished = false;
         try {
-            server = vcs.getP4ServerFor(fp);
-        } catch (InterruptedException e) {
-            LOG.warn(e);
-            return;
+            List<FilePath> files;
+            while (! (files = drainPendingUnchanged()).isEmpty()) {
+                if (! revertUnchanged(files)) {
+                    // The files went back in the queue.  They're tried again
+                    // with the next file the IDE passes in, rather than in a
+                    // loop against a server that just failed.
+                    return;
+                }
+            }
+            finished = true;
+        } finally {
+            if (! finished) {
+                synchronized (pendingUnchangedSync) {
+                    unchangedRevertRunning = false;
+                }
+            }
         }
-        if (server == null) {
-            LOG.debug("No client for file " + file);
-            return;
+    }
+
+
+    @NotNull
+    private List<FilePath> drainPendingUnchanged() {
+        synchronized (pendingUnchangedSync) {
+            if (vcs.getProject().isDisposed()) {
+                pendingUnchanged.clear();
+            }
+            final List<FilePath> ret = new ArrayList<FilePath>(pendingUnchanged);
+            pendingUnchanged.clear();
+            if (ret.isEmpty()) {
+                unchangedRevertRunning = false;
+            }
+            return ret;
         }
-        boolean reverted = true;
-        vfsLock.lock();
+    }
+
+
+    /**
+     * @return false if the revert failed, in which case the files that were
+     *      not reverted are put back in the queue.
+     */
+    private boolean revertUnchanged(@NotNull List<FilePath> files) {
+        boolean reverted = false;
+        boolean finished = false;
+        final Set<FilePath> remaining = new LinkedHashSet<FilePath>(files);
         try {
-            try {
-                // The changelist doesn't matter, so pass in a
-                // negative number which will mean it doesn't use
-                // the "-c" argument.
-                server.revertUnchangedFilesOnline(Collections.singletonList(fp),
-                        P4ChangeListId.P4_UNKNOWN);
-            } catch (InterruptedException e) {
-                LOG.warn(e);
-                reverted = false;
-            } catch (P4DisconnectedException e) {
-                LOG.warn(e);
-                reverted = false;
+            final Map<P4Server, List<FilePath>> mapping = vcs.mapFilePathsToP4Server(files);
+            for (Entry<P4Server, List<FilePath>> entry : mapping.entrySet()) {
+                final P4Server server = entry.getKey();
+                if (server == null) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("No client for files " + entry.getValue());
+                    }
+                    remaining.removeAll(entry.getValue());
+                    continue;
+                }
+
+                // Don't bother the server with files that are obviously
+                // still changed.
+                final List<FilePath> candidates = new ArrayList<FilePath>(entry.getValue());
+                candidates.removeAll(new HashSet<FilePath>(server.getCachedChangedFiles(candidates)));
+                if (candidates.isEmpty()) {
+                    remaining.removeAll(entry.getValue());
+                    continue;
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Reverting if unchanged in " + server + ": " + candidates);
+                }
+
+                vfsLock.lock();
+                try {
+                    // The changelist doesn't matter, so pass in a
+                    // negative number which will mean it doesn't use
+                    // the "-c" argument.
+                    server.revertUnchangedFilesOnline(candidates, P4ChangeListId.P4_UNKNOWN);
+                    reverted = true;
+                } finally {
+                    vfsLock.unlock();
+                }
+                remaining.removeAll(entry.getValue());
             }
+            finished = true;
+        } catch (InterruptedException e) {
+            LOG.warn(e);
+        } catch (P4DisconnectedException e) {
+            LOG.warn(e);
         } finally {
-            vfsLock.unlock();
+            if (! finished) {
+                synchronized (pendingUnchangedSync) {
+                    pendingUnchanged.addAll(remaining);
+                }
+            }
         }
 
         if (reverted) {
             P4ChangesViewRefresher.refreshLater(vcs.getProject());
         }
+        return finished;
     }
 }
@@ -15,7 +15,10 @@ package net.groboclown.idea.p4ic.v2.file;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.VcsVFSListener;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileEvent;
 import com.intellij.vcsUtil.VcsFileUtil;
@@ -229,9 +232,25 @@ public class P4VFSListener extends VcsVFSListener {
     protected void beforeContentsChange(@NotNull VirtualFileEvent event, @NotNull final VirtualFile file) {
         // check that the file is considered "under my vcs"
         if (event.isFromSave()) {
+            // Saves happen all the time; most of them are on files that are
+            // already open, so check that before finding the server.
+            if (isKnownOpened(file)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("already open for edit: " + file);
+                }
+                return;
+            }
             try {
                 final P4Server server = vcs.getP4ServerFor(file);
                 if (server != null) {
+                    final int changelist = changeListMapping.
+                            getProjectDefaultPerforceChangelist(server).getChangeListId();
+                    if (server.isOpenedForEdit(file, changelist)) {
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("already open for edit in " + changelist + ": " + file);
+                        }
+                        return;
+                    }
                     LOG.info("edit request on " + file);
 
                     // Bug #6
@@ -243,8 +262,7 @@ public class P4VFSListener extends VcsVFSListener {
                     // still be called.  This method should never *add* a file
                     // into Perforce - only open for edit.
 
-                    server.onlyEditFile(file, changeListMapping.
-                            getProjectDefaultPerforceChangelist(server).getChangeListId());
+                    server.onlyEditFile(file, changelist);
                 }
             } catch (InterruptedException e) {
                 alerts.addNotice(vcs.getProject(),
@@ -253,6 +271,17 @@ public class P4VFSListener extends VcsVFSListener {
         }
     }
 
+    /**
+     * The change provider only reports the files that are open on the
+     * server, so the IDE's cached change for the file means it's already
+     * open.  This is a memory lookup, unlike the server and default
+     * changelist lookups.
+     */
+    private boolean isKnownOpened(@NotNull VirtualFile file) {
+        final Change change = ChangeListManager.getInstance(vcs.getProject()).getChange(file);
+        return change != null && change.getFileStatus() != FileStatus.DELETED;
+    }
+
     @Override
     protected String getAddTitle() {
         return P4Bundle.message("vfs.add.files");
@@ -14,7 +14,9 @@
 
 package net.groboclown.idea.p4ic.v2.server;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.Ref;
@@ -41,12 +43,15 @@ import net.groboclown.idea.p4ic.v2.history.P4AnnotatedLine;
 import net.groboclown.idea.p4ic.v2.history.P4FileRevision;
 import net.groboclown.idea.p4ic.v2.server.cache.ClientServerId;
 import net.groboclown.idea.p4ic.v2.server.cache.P4ChangeListValue;
+import net.groboclown.idea.p4ic.v2.server.cache.local.WorkspaceSnapshot;
 import net.groboclown.idea.p4ic.v2.server.cache.state.P4FileSyncState;
 import net.groboclown.idea.p4ic.v2.server.cache.state.PendingUpdateState;
 import net.groboclown.idea.p4ic.v2.server.cache.sync.ClientCacheManager;
 import net.groboclown.idea.p4ic.v2.server.connection.*;
 import net.groboclown.idea.p4ic.v2.server.connection.ServerConnection.CacheQuery;
 import net.groboclown.idea.p4ic.v2.server.connection.ServerConnection.CreateUpdate;
+import net.groboclown.idea.p4ic.v2.server.util.BaseRevisionPrefetcher;
+import net.groboclown.idea.p4ic.v2.server.util.DepotSearch;
 import net.groboclown.idea.p4ic.v2.server.util.FilePathUtil;
 import net.groboclown.idea.p4ic.v2.server.util.RemoteFileReader;
 import net.groboclown.idea.p4ic.v2.server.util.RootDiscoveryUtil;
@@ -60,6 +65,7 @@ import java.io.InputStream;
 import java.io.Serializable;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Executor;
 
 /**
  * Top-level manager for handling communication with the Perforce server
@@ -77,10 +83,18 @@ import java.util.Map.Entry;
 public class P4Server {
     private static final Logger LOG = Logger.getInstance(P4Server.class);
 
+    private static final Executor POOLED_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NotNull final Runnable command) {
+            ApplicationManager.getApplication().executeOnPooledThread(command);
+        }
+    };
+
     private final Project project;
     private final ServerConnection connection;
     private final AlertManager alertManager;
     private final ProjectConfigSource source;
+    private final BaseRevisionPrefetcher baseRevisions;
 
     private boolean valid = true;
     private boolean disposed = false;
@@ -143,8 +157,23 @@ public class P4Server {
         this.source = source;
         //this.clientState = AllClientsState.getInstance().getStateForClient(clientServerId);
         this.connection = ServerConnectionManager.getInstance().getConnectionFor(
-                source.getClientServerId(), source.getServerConfig());
+                source.getClientServerId(), source.getServerConfig(), project);
         connection.postSetup(project);
+        this.baseRevisions = new BaseRevisionPrefetcher(new BaseRevisionPrefetcher.Loader() {
+            @NotNull
+            @Override
+            public Map<FilePath, String> load(@NotNull final List<FilePath> files) throws InterruptedException {
+                if (isWorkingOffline()) {
+                    return Collections.emptyMap();
+                }
+                // Run on a connection of its own, so that a long batch
+                // doesn't hold up the other server work, such as the diff
+                // the user asked for.
+                final Map<FilePath, String> ret = connection.searchQuery(project,
+                        RemoteFileReader.createHaveRevisionStringReader(files));
+                return ret == null ? Collections.<FilePath, String>emptyMap() : ret;
+            }
+        }, POOLED_EXECUTOR);
 
         // Do not reload the caches early.
     }
@@ -399,6 +428,27 @@ public class P4Server {
         });
     }
 
+    /**
+     * Check whether the file is already known to be open for add or edit in
+     * the changelist, either from the last opened refresh or from a local
+     * action.  This neither contacts the server nor queues an update, so the
+     * save and edit handlers can call it on every event and skip the update
+     * when it's not needed.
+     *
+     * @param file         file to check
+     * @param changelistId changelist the file should be open in
+     * @return true if the file is known to be open in the changelist.
+     */
+    public boolean isOpenedForEdit(@NotNull final VirtualFile file, final int changelistId)
+            throws InterruptedException {
+        return connection.cacheQuery(new CacheQuery<Boolean>() {
+            @Override
+            public Boolean query(@NotNull final ClientCacheManager mgr) throws InterruptedException {
+                return mgr.isCachedOpenedForEdit(FilePathUtil.getFilePath(file), changelistId);
+            }
+        });
+    }
+
     /**
      * Needs to be run immediately.
      *
@@ -651,9 +701,56 @@ public class P4Server {
     }
 
 
+    /**
+     * Find the files which are obviously changed, by comparing their contents
+     * against the cached digest of their have revision.  This never contacts
+     * the server; files without a cached digest are never reported as changed.
+     *
+     * @param files local files to check
+     * @return the files which are known to differ from their have revision.
+     */
+    @NotNull
+    public Collection<FilePath> getCachedChangedFiles(@NotNull final Collection<FilePath> files)
+            throws InterruptedException {
+        final Map<VirtualFile, FilePath> virtualFiles = new HashMap<VirtualFile, FilePath>();
+        for (FilePath file : files) {
+            final VirtualFile vf = file.getVirtualFile();
+            if (vf != null && ! vf.isDirectory()) {
+                virtualFiles.put(vf, file);
+            }
+        }
+        if (virtualFiles.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final Map<VirtualFile, String> md5s = connection.cacheQuery(new CacheQuery<Map<VirtualFile, String>>() {
+            @Override
+            public Map<VirtualFile, String> query(@NotNull final ClientCacheManager mgr) throws InterruptedException {
+                return mgr.getCachedHaveMd5s(virtualFiles.keySet());
+            }
+        });
+        final List<FilePath> ret = new ArrayList<FilePath>();
+        for (Entry<VirtualFile, String> entry : md5s.entrySet()) {
+            try {
+                if (! entry.getValue().equalsIgnoreCase(readMd5(entry.getKey()))) {
+                    ret.add(virtualFiles.get(entry.getKey()));
+                }
+            } catch (IOException e) {
+                // Leave it for the server to decide.
+                LOG.info("Could not read " + entry.getKey(), e);
+            }
+        }
+        return ret;
+    }
+
+
+    /**
+     * @param listener if not null, receives each file as it's synchronized,
+     *                 while the sync is still running.
+     */
     @NotNull
     public MessageResult<Collection<FileSyncResult>> synchronizeFilesOnline(@NotNull final Collection<FilePath> files,
-            final int revisionNumber, @Nullable final String syncSpec, final boolean force)
+            final int revisionNumber, @Nullable final String syncSpec, final boolean force,
+            @Nullable final FileSyncListener listener)
             throws InterruptedException, P4DisconnectedException {
         if (files.isEmpty()) {
             return new MessageResult<Collection<FileSyncResult>>(
@@ -666,9 +763,12 @@ public class P4Server {
             public MessageResult<Collection<FileSyncResult>> query(@NotNull final ClientCacheManager mgr)
                     throws InterruptedException {
                 Ref<MessageResult<Collection<FileSyncResult>>> ref = new Ref<MessageResult<Collection<FileSyncResult>>>();
-                final ServerUpdateAction update = mgr.synchronizeFilesOnline(files, revisionNumber, syncSpec, force, ref);
+                final ServerUpdateAction update = mgr.synchronizeFilesOnline(files, revisionNumber, syncSpec, force,
+                        listener, ref);
                 if (update != null) {
                     connection.runImmediately(project, update);
+                    // The have revisions moved.
+                    baseRevisions.invalidateAll();
                 }
                 if (ref.isNull()) {
                     return new MessageResult<Collection<FileSyncResult>>(
@@ -804,8 +904,18 @@ public class P4Server {
     }
 
 
+    /**
+     * Release the shared server connection.  The connection is only closed
+     * once no other project uses it.
+     */
     public void dispose() {
-        disposed = true;
+        synchronized (this) {
+            if (disposed) {
+                return;
+            }
+            disposed = true;
+        }
+        ServerConnectionManager.getInstance().releaseConnection(source.getServerConfig(), connection, project);
     }
 
     @NotNull
@@ -877,6 +987,69 @@ public class P4Server {
         }
     }
 
+    /**
+     * Start loading the have revisions of the files in the background, so
+     * that {@link #loadHaveRevisionAsStringOnline(FilePath)} doesn't need
+     * to go to the server for them.  Does nothing when working offline.
+     *
+     * @param files opened files whose diffs are about to be shown
+     */
+    public void prefetchHaveRevisions(@NotNull Collection<FilePath> files) {
+        if (isWorkingOnline() && ! files.isEmpty()) {
+            baseRevisions.prefetch(files);
+        }
+    }
+
+    /**
+     * Fetch the have revision contents of the file, from the prefetched
+     * contents if they're loaded.
+     *
+     * @return the file contents, or null if the file has no have revision.
+     */
+    @Nullable
+    public String loadHaveRevisionAsStringOnline(@NotNull final FilePath file)
+            throws P4DisconnectedException, InterruptedException {
+        validateOnline();
+        return baseRevisions.get(file);
+    }
+
+    /**
+     * Search the depot with "p4 grep", passing the matches to the listener
+     * as they arrive.  The search runs on its own connections, so it doesn't
+     * hold up the other server work.
+     */
+    public void searchDepotOnline(@NotNull final DepotSearch search, @NotNull DepotSearch.Listener listener,
+            @Nullable ProgressIndicator progress)
+            throws InterruptedException, VcsException {
+        validateOnline();
+        search.run(getClientServerId().toString(), new DepotSearch.Searcher() {
+            @Override
+            public void search(@NotNull final List<String> depotPaths,
+                    @NotNull final P4Exec2.FileLineMatchConsumer consumer)
+                    throws InterruptedException, VcsException {
+                final VcsException[] failure = new VcsException[1];
+                connection.searchQuery(project, new ServerQuery<Void>() {
+                    @Nullable
+                    @Override
+                    public Void query(@NotNull final P4Exec2 exec, @NotNull final ClientCacheManager cacheManager,
+                            @NotNull final ServerConnection connection, @NotNull final AlertManager alerts)
+                            throws InterruptedException {
+                        try {
+                            exec.streamMatchingLines(FileSpecUtil.getAlreadyEscapedSpecs(depotPaths),
+                                    search.getPattern(), search.createOptions(), consumer);
+                        } catch (VcsException e) {
+                            failure[0] = e;
+                        }
+                        return null;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+        }, listener, progress);
+    }
+
     @Nullable
     public byte[] loadFileAsBytesOnline(@NotNull final FilePath file, @NotNull final IFileSpec spec)
             throws P4DisconnectedException, InterruptedException {
@@ -1195,7 +1368,9 @@ public class P4Server {
      * have version.  If we're working online, we first check what the
      * "have" version is, otherwise we assume the P4FileSyncState is
      * correct.  If we have a P4FileSyncState, then that is used to
-     * determine the MD5.
+     * determine the MD5.  Files that the workspace snapshot knows to be
+     * unchanged are not checked against the server; a change it finds may
+     * still be a sync done outside the IDE, so that needs the server.
      *
      * @param files
      * @return
@@ -1203,19 +1378,60 @@ public class P4Server {
     @NotNull
     public List<VirtualFile> getVirtualFilesDifferentThanServerHaveVersionOnline(
             @NotNull final List<VirtualFile> files) throws InterruptedException {
+        final WorkspaceSnapshot snapshot = getWorkspaceSnapshot();
+        final List<VirtualFile> toCheck = new ArrayList<VirtualFile>(files.size());
+        for (VirtualFile file : files) {
+            if (snapshot.getStatus(new File(file.getPath())) != WorkspaceSnapshot.Status.UNCHANGED) {
+                toCheck.add(file);
+            }
+        }
+        if (toCheck.isEmpty()) {
+            return Collections.emptyList();
+        }
         final Map<VirtualFile, P4FileSyncState> syncState =
                 connection.cacheQuery(new CacheQuery<Map<VirtualFile, P4FileSyncState>>() {
                 @Override
                 public Map<VirtualFile, P4FileSyncState> query(@NotNull final ClientCacheManager mgr)
                         throws InterruptedException {
                     if (isWorkingOnline()) {
-                        return connection.query(project, mgr.createHaveFileRefreshQuery(files));
+                        return connection.query(project, mgr.createHaveFileRefreshQuery(toCheck));
                     } else {
-                        return mgr.getCachedHaveVersions(files);
+                        return mgr.getCachedHaveVersions(toCheck);
                     }
                 }
             });
-        return getFilesDifferentThanServerOnline(syncState);
+        return getFilesDifferentThanServerOnline(syncState, snapshot);
+    }
+
+
+    /**
+     * Find the virtual files that are different than their have version,
+     * as far as the workspace snapshot knows, without contacting the
+     * server.  Files the snapshot knows nothing about are assumed to be
+     * different.
+     */
+    @NotNull
+    public List<VirtualFile> getVirtualFilesDifferentThanSnapshot(@NotNull final List<VirtualFile> files)
+            throws InterruptedException {
+        final WorkspaceSnapshot snapshot = getWorkspaceSnapshot();
+        final List<VirtualFile> ret = new ArrayList<VirtualFile>(files.size());
+        for (VirtualFile file : files) {
+            if (snapshot.getStatus(new File(file.getPath())) != WorkspaceSnapshot.Status.UNCHANGED) {
+                ret.add(file);
+            }
+        }
+        return ret;
+    }
+
+
+    @NotNull
+    private WorkspaceSnapshot getWorkspaceSnapshot() throws InterruptedException {
+        return connection.cacheQuery(new CacheQuery<WorkspaceSnapshot>() {
+            @Override
+            public WorkspaceSnapshot query(@NotNull final ClientCacheManager mgr) throws InterruptedException {
+                return mgr.getWorkspaceSnapshot();
+            }
+        });
     }
 
     @Override
@@ -1293,13 +1509,17 @@ public class P4Server {
     }
 
     @NotNull
-    private List<VirtualFile> getFilesDifferentThanServerOnline(@NotNull final Map<VirtualFile, P4FileSyncState> syncState)
-            throws InterruptedException {
+    private List<VirtualFile> getFilesDifferentThanServerOnline(@NotNull final Map<VirtualFile, P4FileSyncState> syncState,
+            @NotNull final WorkspaceSnapshot snapshot) throws InterruptedException {
         // Check the virtual files' MD5 against the cached server MD5.
 
         List<VirtualFile> ret = new ArrayList<VirtualFile>(syncState.size());
         for (Entry<VirtualFile, P4FileSyncState> entry : syncState.entrySet()) {
             final VirtualFile vf = entry.getKey();
+            final File ioFile = new File(vf.getPath());
+            // Stat before the digest, so a change during the read is noticed.
+            final long size = ioFile.length();
+            final long lastModified = ioFile.lastModified();
             String vfMd5 = null;
             try {
                 vfMd5 = readMd5(entry.getKey());
@@ -1348,6 +1568,10 @@ public class P4Server {
             // Includes null check
             if (! vfMd5.equals(fsMd5)) {
                 ret.add(entry.getKey());
+            } else {
+                snapshot.recordVerified(ioFile,
+                        entry.getValue().getFileMapping().getDepotPath(), entry.getValue().getRev(), vfMd5,
+                        size, lastModified);
             }
         }
         return ret;
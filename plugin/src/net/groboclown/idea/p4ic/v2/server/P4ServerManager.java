@@ -139,6 +139,8 @@ public class P4ServerManager implements ProjectComponent {
                     removed.add(server.getClientServerId());
                 }
             }
+            // Release the old server's reference to its connection.
+            server.dispose();
         }
 
         serverLock.lock();
@@ -259,10 +261,19 @@ public class P4ServerManager implements ProjectComponent {
         // The servers need to be loaded initially, but they can't be loaded
         // at this point in time, because the file system isn't fully
         // initialized yet.  So, register a post-startup action.
+        // The loading itself involves restoring the cached client state and
+        // contacting the servers, so it runs in the background.
         StartupManager.getInstance(project).registerPostStartupActivity(new Runnable() {
             @Override
             public void run() {
-                initializeServers();
+                ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (! project.isDisposed()) {
+                            initializeServers();
+                        }
+                    }
+                });
             }
         });
 
@@ -282,7 +293,6 @@ public class P4ServerManager implements ProjectComponent {
                     final List<P4Server> serverCopy = new ArrayList<P4Server>(servers.values());
                     for (P4Server server : serverCopy) {
                         if (server.getProject().equals(project)) {
-                            server.dispose();
                             boolean foundSource = false;
                             for (ProjectConfigSource source : sources) {
                                 if (server.isSameSource(source)) {
@@ -302,6 +312,9 @@ public class P4ServerManager implements ProjectComponent {
                             if (! foundSource) {
                                 servers.remove(server.getClientServerId());
                             }
+                            // Only released after the new server was created, so a
+                            // connection still shared with the new server stays open.
+                            server.dispose();
                         }
                     }
                     hasServers = ! servers.isEmpty();
@@ -350,7 +363,7 @@ public class P4ServerManager implements ProjectComponent {
                 p4Server.dispose();
             }
         } finally {
-            serverLock.lock();
+            serverLock.unlock();
         }
         if (appMessageBus != null) {
             appMessageBus.disconnect();
@@ -391,20 +404,25 @@ public class P4ServerManager implements ProjectComponent {
 
 
     private void initializeServers() {
+        long phaseStart = System.currentTimeMillis();
         P4ConfigProject cp = P4ConfigProject.getInstance(project);
         final List<ProjectConfigSource> sources;
         try {
             sources = cp.loadProjectConfigSources();
         } catch (P4InvalidConfigException e) {
             LOG.info("source load caused error", e);
-            serverLock.lock();
-            try {
-                servers.clear();
-            } finally {
-                serverLock.unlock();
-            }
+            replaceServers(Collections.<ClientServerId, P4Server>emptyMap());
             return;
         }
+        phaseStart = logStartupPhase("config source load", phaseStart);
+
+        // Only restore the cached state for the clients this project uses.
+        List<ClientServerId> clientServerIds = new ArrayList<ClientServerId>(sources.size());
+        for (ProjectConfigSource source : sources) {
+            clientServerIds.add(source.getClientServerId());
+        }
+        AllClientsState.getInstance().restoreClientStates(clientServerIds);
+        phaseStart = logStartupPhase("client cache restore", phaseStart);
 
         // If this was inside the lock, it could cause a deadlock if waiting on
         // IDE master password
@@ -420,13 +438,31 @@ public class P4ServerManager implements ProjectComponent {
                         e, new FilePath[0]);
             }
         }
+        logStartupPhase("server connection setup", phaseStart);
+        replaceServers(newServers);
+    }
+
+    private void replaceServers(@NotNull Map<ClientServerId, P4Server> newServers) {
+        final List<P4Server> oldServers;
         serverLock.lock();
         try {
+            oldServers = new ArrayList<P4Server>(servers.values());
             servers.clear();
             servers.putAll(newServers);
         } finally {
             serverLock.unlock();
         }
+        // Released after the new servers were created, so that their
+        // shared connections stay open.
+        for (P4Server server : oldServers) {
+            server.dispose();
+        }
+    }
+
+    private long logStartupPhase(@NotNull String phase, long phaseStart) {
+        final long now = System.currentTimeMillis();
+        LOG.info("Project " + project.getName() + " " + phase + " took " + (now - phaseStart) + " ms");
+        return now;
     }
 
     private static class Warning {
@@ -15,6 +15,7 @@
 package net.groboclown.idea.p4ic.v2.server.cache;
 
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.VcsConnectionProblem;
@@ -25,25 +26,38 @@ import net.groboclown.idea.p4ic.server.exceptions.P4InvalidClientException;
 import net.groboclown.idea.p4ic.v2.events.BaseConfigUpdatedListener;
 import net.groboclown.idea.p4ic.v2.events.ConfigInvalidListener;
 import net.groboclown.idea.p4ic.v2.events.Events;
+import net.groboclown.idea.p4ic.v2.server.cache.local.WorkspaceSnapshot;
 import net.groboclown.idea.p4ic.v2.server.cache.state.AllClientsState;
 import net.groboclown.idea.p4ic.v2.server.cache.state.ClientLocalServerState;
 import net.groboclown.idea.p4ic.v2.server.cache.sync.ClientCacheManager;
 import net.groboclown.idea.p4ic.v2.server.connection.ProjectConfigSource;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class CentralCacheManager {
     private static final Logger LOG = Logger.getInstance(CentralCacheManager.class);
 
+    private static final Executor SNAPSHOT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NotNull final Runnable command) {
+            ApplicationManager.getApplication().executeOnPooledThread(command);
+        }
+    };
+
     private final AllClientsState allClientState;
     private final MessageBusConnection messageBus;
     private final Map<ClientServerId, ClientCacheManager> clientManagers = new HashMap<ClientServerId, ClientCacheManager>();
+    // The snapshots outlive the client managers, which are dropped on every
+    // configuration change.
+    private final Map<ClientServerId, WorkspaceSnapshot> snapshots = new HashMap<ClientServerId, WorkspaceSnapshot>();
     private final Lock cacheLock = new ReentrantLock();
     private boolean disposed = false;
 
@@ -64,6 +78,7 @@ public class CentralCacheManager {
                 cacheLock.lock();
                 try {
                     clientManagers.clear();
+                    saveSnapshots();
                     // Don't create the new ones until we need it
                     // Also, don't remove existing cache objects.
                 } finally {
@@ -93,6 +108,12 @@ public class CentralCacheManager {
     public void dispose() {
         messageBus.disconnect();
         disposed = true;
+        cacheLock.lock();
+        try {
+            saveSnapshots();
+        } finally {
+            cacheLock.unlock();
+        }
     }
 
 
@@ -117,6 +138,9 @@ public class CentralCacheManager {
                 return;
             }
             state.flush(includeLocal, force);
+            if (includeLocal) {
+                getSnapshot(clientServerId).clear();
+            }
         } finally {
             cacheLock.unlock();
         }
@@ -151,7 +175,7 @@ public class CentralCacheManager {
             if (cacheManager == null) {
                 final ClientLocalServerState state = allClientState.getStateForClient(clientServerId,
                         isServerCaseInsensitiveCallable);
-                cacheManager = new ClientCacheManager(config, state);
+                cacheManager = new ClientCacheManager(config, state, getSnapshot(clientServerId));
                 clientManagers.put(clientServerId, cacheManager);
             }
         } finally {
@@ -162,6 +186,40 @@ public class CentralCacheManager {
 
 
 
+    // must be called with the cache lock held
+    @NotNull
+    private WorkspaceSnapshot getSnapshot(@NotNull ClientServerId clientServerId) {
+        WorkspaceSnapshot ret = snapshots.get(clientServerId);
+        if (ret == null) {
+            ret = new WorkspaceSnapshot(getSnapshotFile(clientServerId), SNAPSHOT_EXECUTOR);
+            snapshots.put(clientServerId, ret);
+        }
+        return ret;
+    }
+
+
+    // must be called with the cache lock held
+    private void saveSnapshots() {
+        for (WorkspaceSnapshot snapshot : snapshots.values()) {
+            snapshot.save();
+        }
+    }
+
+
+    @NotNull
+    private static File getSnapshotFile(@NotNull ClientServerId clientServerId) {
+        final String name = clientServerId.getServerConfigId() + '-' + clientServerId.getClientId();
+        final StringBuilder fileName = new StringBuilder(name.length() + 16);
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            fileName.append(Character.isLetterOrDigit(c) || c == '-' || c == '.' ? c : '_');
+        }
+        // The replaced characters could make two names the same.
+        fileName.append('-').append(Integer.toHexString(name.hashCode())).append(".snapshot");
+        return new File(new File(PathManager.getSystemPath(), "p4ic-snapshots"), fileName.toString());
+    }
+
+
     private void removeCache(@NotNull ClientServerId id) {
         if (disposed) {
             // Coding error; no bundled message
@@ -171,6 +229,10 @@ public class CentralCacheManager {
         try {
             clientManagers.remove(id);
             allClientState.removeClientState(id);
+            final WorkspaceSnapshot snapshot = snapshots.remove(id);
+            if (snapshot != null) {
+                snapshot.save();
+            }
         } finally {
             cacheLock.unlock();
         }
@@ -0,0 +1,586 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.cache.local;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.perforce.p4java.impl.mapbased.rpc.func.helper.MD5Digester;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The local record of what each workspace file looked like when it was
+ * last known to match its have revision: the depot path, have revision,
+ * file type, size, modification time, and the MD5 of the local contents.
+ * It's kept per client in its own file (outside the IDE's XML state,
+ * because it can hold hundreds of thousands of files), and is filled in
+ * from sync results and from the online comparisons against the server.
+ * <p/>
+ * {@link #getStatus(File)} answers whether a file changed since then
+ * without the server: a matching size and modification time means the
+ * file is unchanged, otherwise the contents are digested and compared.
+ * A file modified in the same couple of seconds as it was recorded can't
+ * be trusted by its modification time, so such a recording always goes
+ * to the digest on the next check.
+ * <p/>
+ * The store is loaded on first use, and only written by {@link #save()}
+ * if something changed.  Recording a sync only writes the store if it
+ * wasn't written in the last {@link #SAVE_INTERVAL_MILLIS}; the owner
+ * saves the rest when it's disposed.
+ */
+public class WorkspaceSnapshot {
+    private static final Logger LOG = Logger.getInstance(WorkspaceSnapshot.class);
+
+    private static final int FILE_MAGIC = 0x50345753;
+    private static final int FILE_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long UNKNOWN = -1L;
+
+    // File systems with coarse timestamps (FAT, HFS+) can't tell apart two
+    // writes in this interval.
+    static final long RACY_INTERVAL_MILLIS = 2000L;
+
+    static final long SAVE_INTERVAL_MILLIS = 60L * 1000L;
+
+    public enum Status {
+        /** The file matches the recorded have revision. */
+        UNCHANGED,
+
+        /** The file differs from the recorded have revision, or was removed. */
+        CHANGED,
+
+        /** Nothing (usable) is recorded for the file. */
+        UNKNOWN
+    }
+
+    /**
+     * A file written (or removed) by a sync, with its size and modification
+     * time as of the end of the sync.
+     */
+    public static final class SyncedFile {
+        private final File file;
+        @Nullable
+        private final String depotPath;
+        private final int rev;
+        @Nullable
+        private final String fileType;
+        private final long size;
+        private final long lastModified;
+
+        /**
+         * @param rev the synced revision, or 0 if the sync removed the file.
+         */
+        public SyncedFile(@NotNull File file, @Nullable String depotPath, int rev, @Nullable String fileType) {
+            this.file = file;
+            this.depotPath = depotPath;
+            this.rev = rev;
+            this.fileType = fileType;
+            this.size = file.length();
+            this.lastModified = file.lastModified();
+        }
+    }
+
+
+    private final File store;
+    private final Executor executor;
+    private final Map<String, SnapshotEntry> entries = new HashMap<String, SnapshotEntry>();
+    private boolean loaded = false;
+    private boolean dirty = false;
+    private final Object syncedLock = new Object();
+    private final List<SyncedFile> syncedQueue = new ArrayList<SyncedFile>();
+    private boolean recordingSynced = false;
+    private volatile long lastSaved = 0L;
+
+
+    public WorkspaceSnapshot(@NotNull File store) {
+        this(store, new Executor() {
+            @Override
+            public void execute(@NotNull Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+
+    /**
+     * @param executor runs the digests of synced files, so that reading
+     *                 them doesn't hold up the thread that ran the sync.
+     */
+    public WorkspaceSnapshot(@NotNull File store, @NotNull Executor executor) {
+        this.store = store;
+        this.executor = executor;
+    }
+
+
+    @NotNull
+    public File getStore() {
+        return store;
+    }
+
+
+    /**
+     * Check whether the file changed since it was recorded.  This reads the
+     * file contents only when its size or modification time differ from
+     * the recorded ones.
+     */
+    @NotNull
+    public Status getStatus(@NotNull File file) {
+        final String key = getKey(file);
+        final SnapshotEntry entry;
+        synchronized (entries) {
+            ensureLoaded();
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            return Status.UNKNOWN;
+        }
+        if (! file.isFile()) {
+            return Status.CHANGED;
+        }
+        final long size = file.length();
+        final long lastModified = file.lastModified();
+        if (entry.lastModified != UNKNOWN && entry.size == size && entry.lastModified == lastModified) {
+            return Status.UNCHANGED;
+        }
+        if (entry.digest == null) {
+            return Status.UNKNOWN;
+        }
+        if (entry.size != UNKNOWN && entry.size != size) {
+            return Status.CHANGED;
+        }
+
+        final byte[] digest;
+        try {
+            digest = digest(file);
+        } catch (IOException e) {
+            LOG.info("Could not read " + file, e);
+            return Status.UNKNOWN;
+        }
+        if (! Arrays.equals(digest, entry.digest)) {
+            return Status.CHANGED;
+        }
+
+        // Same contents; remember the new stat so the next check is fast.
+        record(key, new SnapshotEntry(entry.depotPath, entry.rev, entry.fileType,
+                size, verifiedTime(lastModified), entry.digest), entry);
+        return Status.UNCHANGED;
+    }
+
+
+    /**
+     * Record a file just written by a sync as its have revision.  The file
+     * is read to compute its digest.  A file that a sync removed (or that
+     * isn't there anymore) is dropped from the snapshot.
+     */
+    public void recordSynced(@NotNull File file, @Nullable String depotPath, int rev,
+            @Nullable String fileType) {
+        final String key = getKey(file);
+        if (rev <= 0 || ! file.isFile()) {
+            remove(file);
+            return;
+        }
+        final long size = file.length();
+        final long lastModified = file.lastModified();
+        final byte[] digest;
+        try {
+            digest = digest(file);
+        } catch (IOException e) {
+            LOG.info("Could not read synced file " + file, e);
+            remove(file);
+            return;
+        }
+        // A change in between the stat and the digest would be recorded as
+        // unchanged, unless the time stamp changed too.
+        if (file.length() != size || file.lastModified() != lastModified) {
+            remove(file);
+            return;
+        }
+        record(key, new SnapshotEntry(depotPath, rev, fileType, size, verifiedTime(lastModified), digest), null);
+    }
+
+
+    /**
+     * Record the files written by a sync as their have revisions.  Only
+     * their sizes and modification times are read by the caller; the
+     * contents are digested on the snapshot's executor, in the order the
+     * syncs were recorded.  A file whose size or modification time changed
+     * since the end of the sync was changed by someone else, so it's
+     * dropped rather than recorded.
+     */
+    public void recordSynced(@NotNull Collection<SyncedFile> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        synchronized (syncedLock) {
+            syncedQueue.addAll(files);
+            if (recordingSynced) {
+                return;
+            }
+            recordingSynced = true;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                recordSyncedQueue();
+            }
+        });
+    }
+
+
+    /**
+     * Record a file whose local contents were found to match the have
+     * revision by asking the server.
+     *
+     * @param md5 hex MD5 of the local file contents.
+     * @param size the file's size, read before its contents were digested
+     * @param lastModified the file's modification time, read before its
+     *                     contents were digested
+     */
+    public void recordVerified(@NotNull File file, @Nullable String depotPath, int rev, @NotNull String md5,
+            long size, long lastModified) {
+        final byte[] digest = fromHex(md5);
+        if (rev <= 0 || digest == null || ! file.isFile()) {
+            return;
+        }
+        // A change while it was being digested means the digest may not
+        // match the recorded stat.
+        if (file.length() != size || file.lastModified() != lastModified) {
+            remove(file);
+            return;
+        }
+        final String key = getKey(file);
+        final SnapshotEntry old;
+        synchronized (entries) {
+            ensureLoaded();
+            old = entries.get(key);
+        }
+        record(key, new SnapshotEntry(depotPath, rev,
+                old == null ? null : old.fileType,
+                size, verifiedTime(lastModified), digest), null);
+    }
+
+
+    /**
+     * Keep the snapshot in line with the have list.  If the server reports
+     * a different have revision than the recorded one, the recorded
+     * contents are no longer the have revision, so the file is dropped.
+     *
+     * @param rev have revision, or a value less than 1 if the file isn't
+     *            on the client.
+     */
+    public void updateHaveRevision(@NotNull File file, int rev) {
+        final String key = getKey(file);
+        synchronized (entries) {
+            ensureLoaded();
+            final SnapshotEntry entry = entries.get(key);
+            if (entry != null && entry.rev != rev) {
+                entries.remove(key);
+                dirty = true;
+            }
+        }
+    }
+
+
+    public void remove(@NotNull File file) {
+        final String key = getKey(file);
+        synchronized (entries) {
+            ensureLoaded();
+            if (entries.remove(key) != null) {
+                dirty = true;
+            }
+        }
+    }
+
+
+    public int size() {
+        synchronized (entries) {
+            ensureLoaded();
+            return entries.size();
+        }
+    }
+
+
+    public void clear() {
+        synchronized (entries) {
+            loaded = true;
+            if (! entries.isEmpty()) {
+                entries.clear();
+                dirty = true;
+            }
+        }
+    }
+
+
+    /**
+     * Write the snapshot to its store if it changed since it was loaded.
+     * The new contents are written next to the store and then moved over
+     * it, so that a failed write leaves the old snapshot in place.
+     *
+     * @return false if the write failed.
+     */
+    public boolean save() {
+        final List<Entry<String, SnapshotEntry>> toWrite;
+        synchronized (entries) {
+            if (! dirty) {
+                return true;
+            }
+            toWrite = new ArrayList<Entry<String, SnapshotEntry>>(entries.entrySet());
+            dirty = false;
+        }
+        try {
+            write(toWrite);
+            lastSaved = System.currentTimeMillis();
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Could not write the workspace snapshot " + store, e);
+            synchronized (entries) {
+                dirty = true;
+            }
+            return false;
+        }
+    }
+
+
+    private void recordSyncedQueue() {
+        while (true) {
+            final List<SyncedFile> files;
+            synchronized (syncedLock) {
+                if (syncedQueue.isEmpty()) {
+                    recordingSynced = false;
+                    break;
+                }
+                files = new ArrayList<SyncedFile>(syncedQueue);
+                syncedQueue.clear();
+            }
+            for (SyncedFile synced : files) {
+                try {
+                    if (synced.rev > 0 && (synced.file.length() != synced.size
+                            || synced.file.lastModified() != synced.lastModified)) {
+                        remove(synced.file);
+                    } else {
+                        recordSynced(synced.file, synced.depotPath, synced.rev, synced.fileType);
+                    }
+                } catch (RuntimeException e) {
+                    LOG.warn("Could not record synced file " + synced.file, e);
+                    remove(synced.file);
+                }
+            }
+        }
+        if (System.currentTimeMillis() - lastSaved >= SAVE_INTERVAL_MILLIS) {
+            save();
+        }
+    }
+
+
+    private void record(@NotNull String key, @NotNull SnapshotEntry entry, @Nullable SnapshotEntry expected) {
+        synchronized (entries) {
+            ensureLoaded();
+            if (expected != null && entries.get(key) != expected) {
+                // updated by someone else in the meantime
+                return;
+            }
+            entries.put(key, entry);
+            dirty = true;
+        }
+    }
+
+
+    // must be called with the entries lock held
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (! store.isFile()) {
+            return;
+        }
+        try {
+            read();
+        } catch (IOException e) {
+            LOG.info("Ignoring unreadable workspace snapshot " + store, e);
+            entries.clear();
+            dirty = true;
+        }
+    }
+
+
+    private void read() throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(store), BUFFER_SIZE), BUFFER_SIZE));
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("not a version " + FILE_VERSION + " snapshot");
+            }
+            final int count = in.readInt();
+            // File types repeat a lot, so share the strings.
+            final Map<String, String> fileTypes = new HashMap<String, String>();
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                final String depotPath = readOptional(in);
+                final int rev = in.readInt();
+                String fileType = readOptional(in);
+                if (fileType != null) {
+                    final String shared = fileTypes.get(fileType);
+                    if (shared == null) {
+                        fileTypes.put(fileType, fileType);
+                    } else {
+                        fileType = shared;
+                    }
+                }
+                final long size = in.readLong();
+                final long lastModified = in.readLong();
+                final int digestLength = in.readUnsignedByte();
+                byte[] digest = null;
+                if (digestLength > 0) {
+                    digest = new byte[digestLength];
+                    in.readFully(digest);
+                }
+                entries.put(key, new SnapshotEntry(depotPath, rev, fileType, size, lastModified, digest));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+
+    private void write(@NotNull List<Entry<String, SnapshotEntry>> toWrite) throws IOException {
+        final File dir = store.getParentFile();
+        if (dir != null && ! dir.isDirectory() && ! dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+        final File tmp = new File(store.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tmp), BUFFER_SIZE), BUFFER_SIZE));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(toWrite.size());
+            for (Entry<String, SnapshotEntry> e : toWrite) {
+                final SnapshotEntry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                writeOptional(out, entry.depotPath);
+                out.writeInt(entry.rev);
+                writeOptional(out, entry.fileType);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                if (entry.digest == null) {
+                    out.writeByte(0);
+                } else {
+                    out.writeByte(entry.digest.length);
+                    out.write(entry.digest);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        // File.renameTo doesn't replace an existing file on all platforms.
+        if (! tmp.renameTo(store)) {
+            if (! store.delete() || ! tmp.renameTo(store)) {
+                tmp.delete();
+                throw new IOException("could not replace " + store);
+            }
+        }
+    }
+
+
+    @Nullable
+    private static String readOptional(@NotNull DataInputStream in) throws IOException {
+        final String ret = in.readUTF();
+        return ret.length() <= 0 ? null : ret;
+    }
+
+
+    private static void writeOptional(@NotNull DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeUTF(value == null ? "" : value);
+    }
+
+
+    @NotNull
+    private static String getKey(@NotNull File file) {
+        return file.getAbsolutePath();
+    }
+
+
+    private static long verifiedTime(long lastModified) {
+        if (lastModified <= 0 || System.currentTimeMillis() - lastModified < RACY_INTERVAL_MILLIS) {
+            return UNKNOWN;
+        }
+        return lastModified;
+    }
+
+
+    @NotNull
+    static byte[] digest(@NotNull File file) throws IOException {
+        final MD5Digester digester = new MD5Digester();
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buff = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buff, 0, BUFFER_SIZE)) > 0) {
+                digester.update(buff, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return digester.digestAsBytes();
+    }
+
+
+    @Nullable
+    static byte[] fromHex(@NotNull String hex) {
+        if (hex.length() % 2 != 0) {
+            return null;
+        }
+        final byte[] ret = new byte[hex.length() / 2];
+        for (int i = 0; i < ret.length; i++) {
+            final int hi = Character.digit(hex.charAt(i * 2), 16);
+            final int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            ret[i] = (byte) ((hi << 4) | lo);
+        }
+        return ret;
+    }
+
+
+    private static final class SnapshotEntry {
+        @Nullable
+        final String depotPath;
+        final int rev;
+        @Nullable
+        final String fileType;
+        final long size;
+        final long lastModified;
+        @Nullable
+        final byte[] digest;
+
+        SnapshotEntry(@Nullable String depotPath, int rev, @Nullable String fileType,
+                long size, long lastModified, @Nullable byte[] digest) {
+            this.depotPath = depotPath;
+            this.rev = rev;
+            this.fileType = fileType;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
@@ -32,10 +32,7 @@ import org.jdom.Element;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 
@@ -46,6 +43,11 @@ import java.util.concurrent.Callable;
  * The plugin should work fine under these circumstances, but it may have to do
  * more work than necessary.  To alleviate some of this, we can have application-wide
  * messaging of the objects for when the state changes.
+ * <p/>
+ * Loading the persisted state only indexes the stored clients; each client state
+ * is deserialized when it's first requested (usually by
+ * {@link #restoreClientStates(Collection)} for the clients of an opening project).
+ * Client states that are never requested are written back out untouched.
  */
 @State(
         name = "PerforceCachedClientServerState",
@@ -58,6 +60,10 @@ public class AllClientsState implements ApplicationComponent, PersistentStateCom
 
     private final Map<ClientServerId, ClientLocalServerState> clientStates =
             new HashMap<ClientServerId, ClientLocalServerState>();
+
+    // Persisted client states which have not been deserialized yet.
+    private final Map<ClientServerId, DeferredClientState> deferredStates =
+            new HashMap<ClientServerId, DeferredClientState>();
     private MessageBusConnection messageBus;
 
     @NotNull
@@ -68,18 +74,60 @@ public class AllClientsState implements ApplicationComponent, PersistentStateCom
 
     @Nullable
     public ClientLocalServerState getCachedStateForClient(@NotNull ClientServerId clientServerId) {
+        final DeferredClientState deferred;
+        synchronized (clientStates) {
+            ClientLocalServerState ret = clientStates.get(clientServerId);
+            if (ret != null) {
+                return ret;
+            }
+            deferred = deferredStates.get(clientServerId);
+            if (deferred == null) {
+                return null;
+            }
+        }
+
+        // Deserialize outside the general lock, so that restoring one
+        // client doesn't block access to the others.
+        final ClientLocalServerState restored = deferred.restore();
         synchronized (clientStates) {
+            if (deferredStates.get(clientServerId) == deferred) {
+                deferredStates.remove(clientServerId);
+                if (restored != null) {
+                    clientStates.put(clientServerId, restored);
+                }
+            }
             return clientStates.get(clientServerId);
         }
     }
 
 
+    /**
+     * Deserialize the persisted state for the given clients, if it hasn't
+     * been loaded yet.  This is intended to be called from a background
+     * thread when a project opens, before its server connections need the
+     * cached state.
+     *
+     * @param clientServerIds clients to restore.
+     */
+    public void restoreClientStates(@NotNull Collection<ClientServerId> clientServerIds) {
+        for (ClientServerId clientServerId : clientServerIds) {
+            if (clientServerId.getClientId() != null) {
+                getCachedStateForClient(clientServerId);
+            }
+        }
+    }
+
+
     @NotNull
     public ClientLocalServerState getStateForClient(@NotNull ClientServerId clientServerId,
             Callable<Boolean> isServerCaseInsensitiveCallable) throws P4InvalidClientException {
         if (clientServerId.getClientId() == null) {
             throw new P4InvalidClientException(clientServerId);
         }
+        final ClientLocalServerState cached = getCachedStateForClient(clientServerId);
+        if (cached != null) {
+            return cached;
+        }
         synchronized (clientStates) {
             ClientLocalServerState ret = clientStates.get(clientServerId);
             if (ret == null) {
@@ -116,6 +164,7 @@ public class AllClientsState implements ApplicationComponent, PersistentStateCom
             LOG.debug("Removing client cache " + client);
         }
         synchronized (clientStates) {
+            deferredStates.remove(client);
             final ClientLocalServerState state = clientStates.get(client);
             if (state != null) {
                 clientStates.remove(client);
@@ -136,25 +185,50 @@ public class AllClientsState implements ApplicationComponent, PersistentStateCom
                 ret.addContent(child);
                 entry.getKey().serialize(child);
                 entry.getValue().serialize(child, refs);
+                // The state has registered all the mappings it uses, so
+                // its repo can drop the others.
+                entry.getValue().releaseUnusedFileMappings(refs);
             }
             refs.serialize(ret);
+
+            // Client states that were never restored are written back the
+            // way they were read, each group along with the references it uses.
+            Map<DecodeReferences, Element> deferredGroups = new HashMap<DecodeReferences, Element>();
+            for (DeferredClientState deferred : deferredStates.values()) {
+                Element group = deferredGroups.get(deferred.refs);
+                if (group == null) {
+                    group = new Element("deferred");
+                    ret.addContent(group);
+                    deferred.refs.copyTo(group);
+                    deferredGroups.put(deferred.refs, group);
+                }
+                group.addContent((Element) deferred.element.clone());
+            }
             return ret;
         }
     }
 
     @Override
     public void loadState(@NotNull final Element state) {
+        final long start = System.currentTimeMillis();
         synchronized (clientStates) {
             clientStates.clear();
-            DecodeReferences refs = DecodeReferences.deserialize(state);
-            for (Element child : state.getChildren("client-state")) {
-                ClientServerId id = ClientServerId.deserialize(child);
-                if (id != null) {
-                    ClientLocalServerState localServerState = ClientLocalServerState.deserialize(child, refs);
-                    if (localServerState != null) {
-                        clientStates.put(id, localServerState);
-                    }
-                }
+            deferredStates.clear();
+            deferClientStates(state);
+            for (Element group : state.getChildren("deferred")) {
+                deferClientStates(group);
+            }
+            LOG.info("Indexed " + deferredStates.size() + " cached client states in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    private void deferClientStates(@NotNull Element parent) {
+        DecodeReferences refs = DecodeReferences.deserialize(parent);
+        for (Element child : parent.getChildren("client-state")) {
+            ClientServerId id = ClientServerId.deserialize(child);
+            if (id != null) {
+                deferredStates.put(id, new DeferredClientState(id, child, refs));
             }
         }
     }
@@ -202,4 +276,32 @@ public class AllClientsState implements ApplicationComponent, PersistentStateCom
     public String getComponentName() {
         return "PerforceCachedClientServerState";
     }
+
+
+    private static class DeferredClientState {
+        private final ClientServerId clientServerId;
+        private final Element element;
+        private final DecodeReferences refs;
+        private boolean restored = false;
+        private ClientLocalServerState state;
+
+        private DeferredClientState(@NotNull ClientServerId clientServerId, @NotNull Element element,
+                @NotNull DecodeReferences refs) {
+            this.clientServerId = clientServerId;
+            this.element = element;
+            this.refs = refs;
+        }
+
+        @Nullable
+        synchronized ClientLocalServerState restore() {
+            if (! restored) {
+                final long start = System.currentTimeMillis();
+                state = ClientLocalServerState.deserialize(element, refs.forClient());
+                restored = true;
+                LOG.info("Restored cached state for " + clientServerId + " in " +
+                        (System.currentTimeMillis() - start) + " ms");
+            }
+            return state;
+        }
+    }
 }
@@ -150,8 +150,17 @@ public class ClientLocalServerState {
             wrapper.addContent(update);
             pendingUpdate.serialize(update, refs);
         }
+    }
 
-        for (P4ClientFileMapping file : fileRepo.getAllFiles()) {
+    /**
+     * Drop the file mappings which this state doesn't use and which haven't
+     * been used recently, as part of persisting the state.  The mappings
+     * still held are added to the references, so they're written with it.
+     *
+     * @param refs references filled in by {@link #serialize(Element, EncodeReferences)}
+     */
+    void releaseUnusedFileMappings(@NotNull final EncodeReferences refs) {
+        for (P4ClientFileMapping file : fileRepo.releaseUnused(refs)) {
             refs.getFileMappingId(file);
         }
     }
@@ -18,56 +18,124 @@ import org.jdom.Element;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 import static net.groboclown.idea.p4ic.v2.server.cache.state.CachedState.getAttribute;
 
+/**
+ * Decodes the references written by {@link EncodeReferences}.  The referenced
+ * elements are only indexed when loaded; each one is deserialized the first time
+ * a client state asks for it, so clients which are never restored don't pay for
+ * their file mappings.
+ * <p/>
+ * Each client state should be decoded through its own {@link #forClient()} view,
+ * so that only the file mappings it actually uses end up in its file repository.
+ */
 public class DecodeReferences {
+    private final SharedReferences shared;
+
+    // Each view decodes its own mapping objects, because a mapping is owned
+    // by a single client's FileMappingRepo.
     private final Map<String, P4ClientFileMapping> fileMappings = new HashMap<String, P4ClientFileMapping>();
-    private final Map<String, P4JobState> jobs = new HashMap<String, P4JobState>();
+
+    public DecodeReferences() {
+        this(new SharedReferences(new Element("refs")));
+    }
+
+    private DecodeReferences(@NotNull SharedReferences shared) {
+        this.shared = shared;
+    }
 
     @Nullable
     public P4ClientFileMapping getFileMapping(@Nullable String id) {
-        return fileMappings.get(id);
+        if (id == null) {
+            return null;
+        }
+        P4ClientFileMapping ret = fileMappings.get(id);
+        if (ret == null) {
+            final Element el = shared.fileMappingElements.get(id);
+            if (el != null) {
+                ret = P4ClientFileMapping.deserialize(el);
+                if (ret != null) {
+                    fileMappings.put(id, ret);
+                }
+            }
+        }
+        return ret;
     }
 
     @Nullable
     public P4JobState getJob(@Nullable String id) {
-        return jobs.get(id);
+        return shared.getJobs(this).get(id);
     }
 
     @NotNull
     public JobStateList getJobStateList() {
-        return new JobStateList(jobs.values());
+        return new JobStateList(shared.getJobs(this).values());
+    }
+
+    /**
+     * @return a view on the same references, which tracks its own used file mappings.
+     */
+    @NotNull
+    DecodeReferences forClient() {
+        return new DecodeReferences(shared);
     }
 
     Collection<P4ClientFileMapping> getFileMappings() {
         return Collections.unmodifiableCollection(fileMappings.values());
     }
 
+    /**
+     * Write the original, undecoded reference elements into the parent, so
+     * that client states which were never restored can be stored again
+     * as-is.
+     *
+     * @param parent element to add the reference copies into.
+     */
+    void copyTo(@NotNull Element parent) {
+        // NOTE: order is very important here; it matches the serialize.
+        for (Element el : shared.jobElements) {
+            parent.addContent((Element) el.clone());
+        }
+        for (Element el : shared.fileMappingElements.values()) {
+            parent.addContent((Element) el.clone());
+        }
+    }
+
     static DecodeReferences deserialize(@NotNull Element parent) {
-        // NOTE: order is very important here.  It is the opposite of the serialize
-        DecodeReferences ret = new DecodeReferences();
+        return new DecodeReferences(new SharedReferences(parent));
+    }
 
-        for (Element el : parent.getChildren("m")) {
+
+    private static class SharedReferences {
+        private final Map<String, Element> fileMappingElements = new HashMap<String, Element>();
+        private final List<Element> jobElements;
+        private Map<String, P4JobState> jobs;
+
+        SharedReferences(@NotNull Element parent) {
+            for (Element el : parent.getChildren("m")) {
                 String key = getAttribute(el, "k");
                 if (key != null) {
-                        P4ClientFileMapping val = P4ClientFileMapping.deserialize(el);
-                        ret.fileMappings.put(key, val);
+                    fileMappingElements.put(key, el);
                 }
+            }
+            jobElements = new ArrayList<Element>(parent.getChildren("j"));
         }
 
-        for (Element el : parent.getChildren("j")) {
-                String key = getAttribute(el, "k");
-                if (key != null) {
-                        P4JobState val = P4JobState.deserialize(el, ret);
-                        ret.jobs.put(key, val);
+        @NotNull
+        synchronized Map<String, P4JobState> getJobs(@NotNull DecodeReferences refs) {
+            if (jobs == null) {
+                jobs = new HashMap<String, P4JobState>();
+                for (Element el : jobElements) {
+                    String key = getAttribute(el, "k");
+                    if (key != null) {
+                        P4JobState val = P4JobState.deserialize(el, refs);
+                        jobs.put(key, val);
+                    }
                 }
+            }
+            return jobs;
         }
-
-        return ret;
     }
 }
@@ -58,6 +58,10 @@ public class EncodeReferences {
         return ret;
     }
 
+    boolean isFileMappingReferenced(@NotNull P4ClientFileMapping file) {
+        return fileMappings.containsKey(file);
+    }
+
     void serialize(@NotNull Element parent) {
         // NOTE: order is very important here.
         for (Entry<P4JobState, String> entry : jobs.entrySet()) {
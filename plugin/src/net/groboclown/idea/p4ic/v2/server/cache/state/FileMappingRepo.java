@@ -14,15 +14,16 @@
 
 package net.groboclown.idea.p4ic.v2.server.cache.state;
 
+import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.vcs.FilePath;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.lang.ref.Reference;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.WeakReference;
-import java.util.*;
-import java.util.Map.Entry;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -32,58 +33,50 @@ import java.util.concurrent.locks.ReentrantLock;
  * be updated via this class.  The primary concern of this class is to keep track
  * of the {@link P4ClientFileMapping} instances so that they can be correctly updated if
  * a client mapping changes.
+ * <p/>
+ * The depot and local paths are interned in {@link PathTree}s, so common
+ * directory prefixes are only stored once, and case insensitive lookups don't
+ * need to fold the path.  Finding an existing mapping takes no lock.
+ * <p/>
+ * The repository holds its mappings directly, rather than through weak
+ * references.  Instead, {@link #releaseUnused(EncodeReferences)} is called
+ * right after the client state is serialized for persisting, and it drops the
+ * mappings which the state no longer references and which weren't looked up
+ * since the previous release.
  */
 public class FileMappingRepo {
-    private static final int CACHE_MISS_THRESHOLD = 100;
-
-    private final boolean serverIsCaseInsensitive;
-
+    // Guards all modifications; lookups of existing mappings don't need it.
     private final Lock lock = new ReentrantLock();
 
-    private final ReferenceQueue<P4ClientFileMapping> queue;
-    private final Set<WeakReference<P4ClientFileMapping>> files = new HashSet<WeakReference<P4ClientFileMapping>>();
-    private final Map<FilePath, WeakReference<P4ClientFileMapping>> filesByLocal = new HashMap<FilePath, WeakReference<P4ClientFileMapping>>();
+    private final PathTree filesByDepot;
+    private final PathTree filesByLocal;
 
-    // Because of the case sensitivity of the server, access to this map should
-    // go through the specialized functions below.
-    private final Map<String, WeakReference<P4ClientFileMapping>> filesByDepot = new HashMap<String, WeakReference<P4ClientFileMapping>>();
+    // All the registered mappings, indexed by their repoId.  Slots of released
+    // mappings are reused.
+    private volatile P4ClientFileMapping[] files = new P4ClientFileMapping[16];
+    private int fileSlotCount = 0;
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount = 0;
 
-    private int cacheMissCount = 0;
+    private volatile int generation = 0;
 
     public FileMappingRepo(final boolean serverIsCaseInsensitive) {
-        this(serverIsCaseInsensitive, new ReferenceQueue<P4ClientFileMapping>());
-    }
-
-    FileMappingRepo(final boolean serverIsCaseInsensitive, @NotNull ReferenceQueue<P4ClientFileMapping> queue) {
-        this.serverIsCaseInsensitive = serverIsCaseInsensitive;
-        this.queue = queue;
+        this.filesByDepot = new PathTree(serverIsCaseInsensitive, '/');
+        this.filesByLocal = new PathTree(! SystemInfo.isFileSystemCaseSensitive, File.separatorChar);
     }
 
     @NotNull
     public Iterable<P4ClientFileMapping> getAllFiles() {
-        lock.lock();
-        try {
-            return new WeakIterable(files);
-        } finally {
-            lock.unlock();
+        final P4ClientFileMapping[] snapshot = files;
+        List<P4ClientFileMapping> ret = new ArrayList<P4ClientFileMapping>(snapshot.length);
+        for (P4ClientFileMapping file : snapshot) {
+            if (file != null) {
+                ret.add(file);
+            }
         }
+        return ret;
     }
 
-    /*
-    @Nullable
-    public P4ClientFileMapping getByDepot(@NotNull String depot) {
-        // go directly through the filesByDepot, so we must explicitly get the internal
-        // path name
-        return cacheGet(filesByDepot, internalDepotPath(depot));
-
-    }
-
-    @Nullable
-    public P4ClientFileMapping getByLocalFilePath(@NotNull FilePath path) {
-        return cacheGet(filesByLocal, path);
-    }
-    */
-
     /**
      * Called when the callee cannot map the location to the depot.  If the
      * location is already registered, that registered version is returned.
@@ -97,31 +90,24 @@ public class FileMappingRepo {
      */
     @NotNull
     public P4ClientFileMapping getByLocation(@NotNull FilePath location) {
-        // Discover if the location is already registered.  This includes possible cache missing
-        // computations.
-        P4ClientFileMapping map = null;
+        P4ClientFileMapping map = findMapping(filesByLocal, location.getPath());
+        if (map != null) {
+            // Because we don't know the new state of the depot path,
+            // we can ignore any possible updates that it requires.
+            return map;
+        }
 
         lock.lock();
         try {
-            WeakReference<P4ClientFileMapping> ref = filesByLocal.get(location);
-            if (ref != null) {
-                map = ref.get();
-                if (map == null) {
-                    // cache miss logic and cleanup
-                    filesByLocal.remove(location);
-                    onCacheMiss();
-                }
-                // else: the mapping still exists for this location.
-                // Because we don't know the new state of the depot path,
-                // we can ignore any possible updates that it requires.
-            }
+            final PathTree.Node node = filesByLocal.intern(location.getPath());
+            map = node.mapping;
             if (map == null) {
                 map = new P4ClientFileMapping(null, location);
-                ref = createRef(map);
-                files.add(ref);
-                filesByLocal.put(location, ref);
+                register(map);
+                node.mapping = map;
                 // no depot associated with this mapping.
             }
+            map.usedGeneration = generation;
         } finally {
             lock.unlock();
         }
@@ -140,81 +126,52 @@ public class FileMappingRepo {
      */
     @NotNull
     public P4ClientFileMapping getByDepotLocation(@NotNull String depot, @Nullable FilePath location) {
-        // Discover if the location is already registered.  This includes possible cache missing
-        // computations.
-        P4ClientFileMapping map = null;
+        P4ClientFileMapping map = findMapping(filesByDepot, depot);
+        if (map != null && depot.equals(map.getDepotPath()) &&
+                (location == null || location.equals(map.getLocalFilePath()))) {
+            // Nothing to update.
+            return map;
+        }
 
         lock.lock();
         try {
-            final String internalDepotPath = internalDepotPath(depot);
-            WeakReference<P4ClientFileMapping> ref = filesByDepot.get(internalDepotPath);
-            if (ref == null && location != null) {
-                ref = filesByLocal.get(location);
+            map = getIndexed(filesByDepot, depot);
+            if (map == null && location != null) {
+                map = getIndexed(filesByLocal, location.getPath());
             }
-            if (ref != null) {
-                map = ref.get();
-                if (map == null) {
-                    // cache miss logic and cleanup
-                    filesByDepot.remove(internalDepotPath);
-                    filesByLocal.remove(location);
-                    onCacheMiss();
-                } else if (location != null && !location.equals(map.getLocalFilePath())) {
+            if (map != null) {
+                if (location != null && !location.equals(map.getLocalFilePath())) {
                     // This is a location update.
-                    filesByLocal.remove(map.getLocalFilePath());
-                    filesByLocal.put(location, ref);
+                    unindexLocal(map);
                     map.updateLocalPath(location);
+                    indexLocal(map);
                 } else if (!depot.equals(map.getDepotPath())) {
                     // This is a depot update
-                    // depot is always not-null
-                    if (map.getDepotPath() != null) {
-                        filesByDepot.remove(internalDepotPath(map.getDepotPath()));
-                    }
-                    filesByDepot.put(depot, ref);
+                    unindexDepot(map);
                     map.updateDepot(depot);
+                    indexDepot(map);
                 }
                 // else, either the location is not known by the callee (it might be known
                 // by the cached object), or both the callee and the cache version have
                 // the same location object and depot location.  Either way, there's no need to
                 // touch the map's location or the lookups.
-            }
-            if (map == null) {
+            } else {
                 if (location != null) {
                     map = new P4ClientFileMapping(depot, location);
-                    ref = createRef(map);
-                    filesByLocal.put(location, ref);
                 } else {
                     map = new P4ClientFileMapping(depot);
-                    ref = createRef(map);
-                    // no local assignment
                 }
-                filesByDepot.put(internalDepotPath, ref);
-                files.add(ref);
+                register(map);
+                indexDepot(map);
+                indexLocal(map);
             }
+            map.usedGeneration = generation;
         } finally {
             lock.unlock();
         }
         return map;
     }
 
-    /*
-     *
-     * @param depotToLocation new mappings.  This does not strip out the existing mappings
-     *               that aren't in the passed-in list.
-     * @deprecated because it's not implemented yet
-    public void updateLocations(@NotNull Map<String, FilePath> depotToLocation) {
-        lock.lock();
-        try {
-            // Because we're doing a potentially large operation, clean up the
-            // existing maps for old stuff.
-            flush();
-
-            throw new IllegalStateException("not implemented");
-        } finally {
-            lock.unlock();
-        }
-    }
-    */
-
     public void updateDepotPath(@NotNull P4ClientFileMapping mapping, @NotNull String depotPath) {
         if (depotPath.equals(mapping.getDepotPath())) {
             // nothing to do
@@ -222,24 +179,14 @@ public class FileMappingRepo {
         }
         lock.lock();
         try {
-            WeakReference<P4ClientFileMapping> ref;
-            if (mapping.getLocalFilePath() != null) {
-                ref = filesByLocal.get(mapping.getLocalFilePath());
-            } else if (mapping.getDepotPath() != null) {
-                ref = getWeakRefByDepot(mapping.getDepotPath());
-            } else {
-                throw new IllegalArgumentException("bad mapping: " + mapping);
-            }
-            if (ref == null) {
-                ref = createRef(mapping);
-                files.add(ref);
-                if (mapping.getLocalFilePath() != null) {
-                    filesByLocal.put(mapping.getLocalFilePath(), ref);
-                }
+            if (! isRegistered(mapping)) {
+                register(mapping);
+                indexLocal(mapping);
             }
-            removeByDepot(mapping.getDepotPath());
+            unindexDepot(mapping);
             mapping.updateDepot(depotPath);
-            addByDepot(depotPath, ref);
+            indexDepot(mapping);
+            mapping.usedGeneration = generation;
         } finally {
             lock.unlock();
         }
@@ -252,24 +199,14 @@ public class FileMappingRepo {
         }
         lock.lock();
         try {
-            WeakReference<P4ClientFileMapping> ref;
-            if (mapping.getLocalFilePath() != null) {
-                ref = filesByLocal.get(mapping.getLocalFilePath());
-            } else if (mapping.getDepotPath() != null) {
-                ref = getWeakRefByDepot(mapping.getDepotPath());
-            } else {
-                throw new IllegalArgumentException("bad mapping: " + mapping);
-            }
-            if (ref != null) {
-                filesByLocal.remove(mapping.getLocalFilePath());
-            }
-            if (ref == null) {
-                ref = createRef(mapping);
-                files.add(ref);
-                addByDepot(mapping.getDepotPath(), ref);
+            if (! isRegistered(mapping)) {
+                register(mapping);
+                indexDepot(mapping);
             }
+            unindexLocal(mapping);
             mapping.updateLocalPath(path);
-            filesByLocal.put(path, ref);
+            indexLocal(mapping);
+            mapping.usedGeneration = generation;
         } finally {
             lock.unlock();
         }
@@ -284,11 +221,11 @@ public class FileMappingRepo {
     public void refreshFiles(@NotNull Collection<P4ClientFileMapping> mappings) {
         lock.lock();
         try {
-            files.clear();
             filesByDepot.clear();
             filesByLocal.clear();
-            // this implicitly did a flush, so the cache misses can return to 0.
-            cacheMissCount = 0;
+            files = new P4ClientFileMapping[Math.max(16, mappings.size())];
+            fileSlotCount = 0;
+            freeSlotCount = 0;
 
             for (P4ClientFileMapping mapping : mappings) {
                 addMapping(mapping);
@@ -306,192 +243,158 @@ public class FileMappingRepo {
         lock.lock();
         try {
             filesByLocal.clear();
-            Iterator<WeakReference<P4ClientFileMapping>> iter = files.iterator();
-            while (iter.hasNext()) {
-                WeakReference<P4ClientFileMapping> ref = iter.next();
-                final P4ClientFileMapping map = ref.get();
-                if (map == null) {
-                    iter.remove();
-                    // delay the cache miss check until the end.
-                    cacheMissCount++;
-                } else {
+            for (P4ClientFileMapping map : files) {
+                if (map != null) {
                     map.updateLocalPath(null);
                 }
             }
-            if (cacheMissCount > CACHE_MISS_THRESHOLD) {
-                flush();
-            }
         } finally {
             lock.unlock();
         }
     }
 
-    // Must be run from within a write lock.
-    private void addMapping(@NotNull final P4ClientFileMapping mapping) {
-        final WeakReference<P4ClientFileMapping> originalRef = filesByLocal.remove(mapping.getLocalFilePath());
-        if (originalRef != null) {
-            final P4ClientFileMapping original = originalRef.get();
-            if (original != null) {
-                removeByDepot(original.getDepotPath());
-                filesByLocal.remove(original.getLocalFilePath());
-                files.remove(originalRef);
-            }
-        }
-        final WeakReference<P4ClientFileMapping> mapRef = createRef(mapping);
-        files.add(mapRef);
-        filesByLocal.put(mapping.getLocalFilePath(), mapRef);
-        addByDepot(mapping.getDepotPath(), mapRef);
-    }
-
-
-    // Must be run from within a write lock.
-    private void flush() {
-        Set<Reference<? extends P4ClientFileMapping>> refs = new HashSet<Reference<? extends P4ClientFileMapping>>();
-        Reference<? extends P4ClientFileMapping> ref;
-        while ((ref = queue.poll()) != null) {
-            refs.add(ref);
-            // The type is what was passed into the queue; so it may
-            // not be a correct object, but it should be.
-            //noinspection SuspiciousMethodCalls
-            files.remove(ref);
-        }
 
-
-        {
-            // Careful not to compare by key (depot path) here...
-            Iterator<Entry<String, WeakReference<P4ClientFileMapping>>> iter =
-                    filesByDepot.entrySet().iterator();
-            while (iter.hasNext()) {
-                final Entry<String, WeakReference<P4ClientFileMapping>> next = iter.next();
-                if (refs.contains(next.getValue())) {
-                    iter.remove();
+    /**
+     * Release the mappings which are not referenced by the serialized client
+     * state, and which haven't been used since the previous call.  The one
+     * call grace period keeps mappings that are only held by in-progress
+     * operations from being dropped.
+     *
+     * @param refs references collected while serializing the client state.
+     * @return the mappings which are still held by this repository.
+     */
+    @NotNull
+    Collection<P4ClientFileMapping> releaseUnused(@NotNull EncodeReferences refs) {
+        lock.lock();
+        try {
+            final int previous = generation;
+            generation = previous + 1;
+            final P4ClientFileMapping[] current = files;
+            List<P4ClientFileMapping> retained = new ArrayList<P4ClientFileMapping>(fileSlotCount);
+            for (int i = 0; i < fileSlotCount; i++) {
+                final P4ClientFileMapping map = current[i];
+                if (map == null) {
+                    continue;
                 }
-            }
-        }
-        {
-            final Iterator<Entry<FilePath, WeakReference<P4ClientFileMapping>>> iter =
-                    filesByLocal.entrySet().iterator();
-            while (iter.hasNext()) {
-                final Entry<FilePath, WeakReference<P4ClientFileMapping>> next = iter.next();
-                if (refs.contains(next.getValue())) {
-                    iter.remove();
+                if (map.usedGeneration >= previous || refs.isFileMappingReferenced(map)) {
+                    retained.add(map);
+                } else {
+                    unindexDepot(map);
+                    unindexLocal(map);
+                    unregister(map);
                 }
             }
+            return retained;
+        } finally {
+            lock.unlock();
         }
-
-        cacheMissCount = 0;
     }
 
-
-    @NotNull
-    private String internalDepotPath(@NotNull String depot) {
-        if (serverIsCaseInsensitive) {
-            depot = depot.toLowerCase();
+    // Lock-free lookup of an existing mapping.
+    @Nullable
+    private P4ClientFileMapping findMapping(@NotNull PathTree tree, @NotNull String path) {
+        final PathTree.Node node = tree.find(path);
+        if (node == null) {
+            return null;
         }
-        return depot;
+        final P4ClientFileMapping map = node.mapping;
+        if (map != null) {
+            map.usedGeneration = generation;
+        }
+        return map;
     }
 
-
-    private WeakReference<P4ClientFileMapping> getWeakRefByDepot(@NotNull String depot) {
-        return filesByDepot.get(internalDepotPath(depot));
+    // Must be run from within a write lock.
+    @Nullable
+    private P4ClientFileMapping getIndexed(@NotNull PathTree tree, @NotNull String path) {
+        final PathTree.Node node = tree.find(path);
+        return node == null ? null : node.mapping;
     }
 
     // Must be run from within a write lock.
-    private void addByDepot(@Nullable String depot, @NotNull WeakReference<P4ClientFileMapping> map) {
-        if (depot != null) {
-            filesByDepot.put(internalDepotPath(depot), map);
+    private void addMapping(@NotNull final P4ClientFileMapping mapping) {
+        if (mapping.getLocalFilePath() != null) {
+            final P4ClientFileMapping original = getIndexed(filesByLocal, mapping.getLocalFilePath().getPath());
+            if (original != null) {
+                unindexDepot(original);
+                unindexLocal(original);
+                unregister(original);
+            }
         }
+        register(mapping);
+        indexLocal(mapping);
+        indexDepot(mapping);
     }
 
     // Must be run from within a write lock.
-    private void removeByDepot(@Nullable String depot) {
+    private void indexDepot(@NotNull P4ClientFileMapping mapping) {
+        final String depot = mapping.getDepotPath();
         if (depot != null) {
-            filesByDepot.remove(internalDepotPath(depot));
+            filesByDepot.intern(depot).mapping = mapping;
         }
     }
 
     // Must be run from within a write lock.
-    @Nullable
-    private <T> P4ClientFileMapping cacheGet(@NotNull Map<T, WeakReference<P4ClientFileMapping>> mapper, @NotNull T key) {
-        final WeakReference<P4ClientFileMapping> ref = mapper.get(key);
-        if (ref != null) {
-            final P4ClientFileMapping val = ref.get();
-            if (val != null) {
-                return val;
+    private void unindexDepot(@NotNull P4ClientFileMapping mapping) {
+        final String depot = mapping.getDepotPath();
+        if (depot != null) {
+            final PathTree.Node node = filesByDepot.find(depot);
+            if (node != null && node.mapping == mapping) {
+                filesByDepot.release(node);
             }
-
-            // Clean up our map; there's no more references to this thing.
-            mapper.remove(key);
-
-            onCacheMiss();
         }
-        return null;
     }
 
-    // Check if we need to flush our cache
-    private void onCacheMiss() {
-        if (cacheMissCount++ > CACHE_MISS_THRESHOLD) {
-            cacheMissCount = 0;
-            flush();
+    // Must be run from within a write lock.
+    private void indexLocal(@NotNull P4ClientFileMapping mapping) {
+        final FilePath location = mapping.getLocalFilePath();
+        if (location != null) {
+            filesByLocal.intern(location.getPath()).mapping = mapping;
         }
     }
 
-    @NotNull
-    WeakReference<P4ClientFileMapping> createRef(@NotNull P4ClientFileMapping map) {
-        return new WeakReference<P4ClientFileMapping>(map, queue);
-    }
-
-
-    static class WeakIterable implements Iterable<P4ClientFileMapping> {
-        private final Iterable<WeakReference<P4ClientFileMapping>> proxy;
-
-        WeakIterable(final Collection<WeakReference<P4ClientFileMapping>> proxy) {
-            this.proxy = new ArrayList<WeakReference<P4ClientFileMapping>>(proxy);
-        }
-
-        @Override
-        public Iterator<P4ClientFileMapping> iterator() {
-            return new WeakIterator(proxy.iterator());
+    // Must be run from within a write lock.
+    private void unindexLocal(@NotNull P4ClientFileMapping mapping) {
+        final FilePath location = mapping.getLocalFilePath();
+        if (location != null) {
+            final PathTree.Node node = filesByLocal.find(location.getPath());
+            if (node != null && node.mapping == mapping) {
+                filesByLocal.release(node);
+            }
         }
-
     }
 
-    static class WeakIterator implements Iterator<P4ClientFileMapping> {
-        private final Iterator<WeakReference<P4ClientFileMapping>> iterator;
-        private P4ClientFileMapping next;
-
-        public WeakIterator(@NotNull final Iterator<WeakReference<P4ClientFileMapping>> iterator) {
-            this.iterator = iterator;
-        }
+    // Must be run from within a write lock.
+    private boolean isRegistered(@NotNull P4ClientFileMapping mapping) {
+        final int id = mapping.repoId;
+        return id >= 0 && id < fileSlotCount && files[id] == mapping;
+    }
 
-        @Override
-        public boolean hasNext() {
-            if (next != null) {
-                return true;
-            }
-            next = null;
-            while (next == null && iterator.hasNext()) {
-                final WeakReference<P4ClientFileMapping> ref = iterator.next();
-                next = ref.get();
+    // Must be run from within a write lock.
+    private void register(@NotNull P4ClientFileMapping mapping) {
+        final int id;
+        if (freeSlotCount > 0) {
+            id = freeSlots[--freeSlotCount];
+        } else {
+            id = fileSlotCount++;
+            if (id >= files.length) {
+                files = Arrays.copyOf(files, files.length * 2);
             }
-            return next != null;
         }
+        files[id] = mapping;
+        mapping.repoId = id;
+        mapping.usedGeneration = generation;
+    }
 
-        @Override
-        public P4ClientFileMapping next() {
-            if (next == null) {
-                if (! hasNext()) {
-                    throw new NoSuchElementException();
-                }
+    // Must be run from within a write lock.
+    private void unregister(@NotNull P4ClientFileMapping mapping) {
+        if (isRegistered(mapping)) {
+            files[mapping.repoId] = null;
+            if (freeSlotCount >= freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
             }
-            final P4ClientFileMapping ret = next;
-            next = null;
-            return ret;
-        }
-
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException();
+            freeSlots[freeSlotCount++] = mapping.repoId;
+            mapping.repoId = -1;
         }
     }
 }
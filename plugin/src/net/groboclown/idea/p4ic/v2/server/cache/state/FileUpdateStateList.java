@@ -23,6 +23,8 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 // FIXME this is a source of many problems.  Instead of having a fancy
 // "set" and using the nature of the P4FileUpdateState to have equality
@@ -34,6 +36,12 @@ public class FileUpdateStateList implements Iterable<P4FileUpdateState> {
     private final Set<P4FileUpdateState> updatedFiles;
     private final Object sync = new Object();
 
+    // Index of the states by their local file, for the lookups done on
+    // every save and edit.  Only modified while holding the sync lock, but
+    // read without it.
+    private final ConcurrentMap<FilePath, P4FileUpdateState> byLocalPath =
+            new ConcurrentHashMap<FilePath, P4FileUpdateState>();
+
     public FileUpdateStateList() {
         this.updatedFiles = new HashSet<P4FileUpdateState>();
     }
@@ -51,6 +59,7 @@ public class FileUpdateStateList implements Iterable<P4FileUpdateState> {
     void flush() {
         synchronized (sync) {
             updatedFiles.clear();
+            byLocalPath.clear();
         }
     }
 
@@ -70,6 +79,10 @@ public class FileUpdateStateList implements Iterable<P4FileUpdateState> {
             }
             updatedFiles.clear();
             updatedFiles.addAll(newValues);
+            byLocalPath.clear();
+            for (P4FileUpdateState state : updatedFiles) {
+                index(state);
+            }
         }
     }
 
@@ -78,8 +91,10 @@ public class FileUpdateStateList implements Iterable<P4FileUpdateState> {
         synchronized (sync) {
             // Ensure any existing match is removed, so that we only keep the new state.
             // This is due to how we perform equality checking.
+            unindex(state);
             updatedFiles.remove(state);
             updatedFiles.add(state);
+            index(state);
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Adding state file with " + state + "; now " + updatedFiles);
             }
@@ -89,6 +104,7 @@ public class FileUpdateStateList implements Iterable<P4FileUpdateState> {
 
     public boolean remove(@NotNull P4FileUpdateState state) {
         synchronized (sync) {
+            unindex(state);
             final boolean ret = updatedFiles.remove(state);
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Removing state file " + state + "; now " + updatedFiles);
@@ -100,6 +116,12 @@ public class FileUpdateStateList implements Iterable<P4FileUpdateState> {
 
     @Nullable
     public P4FileUpdateState getUpdateStateFor(@NotNull final FilePath file) {
+        final P4FileUpdateState indexed = getIndexedUpdateStateFor(file);
+        if (indexed != null) {
+            return indexed;
+        }
+        // The file mapping's local path can change after the state was
+        // indexed, so a miss needs the full check.
         for (P4FileUpdateState updatedFile : copy()) {
             if (file.equals(updatedFile.getLocalFilePath())) {
                 return updatedFile;
@@ -109,6 +131,40 @@ public class FileUpdateStateList implements Iterable<P4FileUpdateState> {
     }
 
 
+    /**
+     * Lock-free lookup of the state for the file.  This can miss a state
+     * whose file mapping changed its local path after it was added, so a
+     * null return only means that the caller must take the slow path.
+     *
+     * @param file local file
+     * @return the state for the file, or null if it isn't indexed.
+     */
+    @Nullable
+    public P4FileUpdateState getIndexedUpdateStateFor(@NotNull final FilePath file) {
+        final P4FileUpdateState ret = byLocalPath.get(file);
+        if (ret != null && file.equals(ret.getLocalFilePath())) {
+            return ret;
+        }
+        return null;
+    }
+
+
+    private void index(@NotNull P4FileUpdateState state) {
+        final FilePath path = state.getLocalFilePath();
+        if (path != null) {
+            byLocalPath.put(path, state);
+        }
+    }
+
+
+    private void unindex(@NotNull P4FileUpdateState state) {
+        final FilePath path = state.getLocalFilePath();
+        if (path != null) {
+            byLocalPath.remove(path);
+        }
+    }
+
+
     @Override
     public String toString() {
         return updatedFiles.toString();
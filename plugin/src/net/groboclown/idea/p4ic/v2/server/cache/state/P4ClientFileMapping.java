@@ -46,10 +46,15 @@ public final class P4ClientFileMapping {
 
 
     @Nullable
-    private String depotPath;
+    private volatile String depotPath;
 
     @Nullable
-    private FilePath localFilePath;
+    private volatile FilePath localFilePath;
+
+    // Managed by FileMappingRepo: the compact id of this mapping in the
+    // repository, and the last release generation in which it was used.
+    int repoId = -1;
+    volatile int usedGeneration;
 
     // called by FileMappingRepo
     P4ClientFileMapping(@NotNull String depotPath) {
@@ -15,6 +15,7 @@
 package net.groboclown.idea.p4ic.v2.server.cache.state;
 
 import com.intellij.openapi.vfs.VirtualFile;
+import com.perforce.p4java.core.file.FileAction;
 import com.perforce.p4java.core.file.IFileSpec;
 import net.groboclown.idea.p4ic.server.P4StatusMessage;
 import net.groboclown.idea.p4ic.server.exceptions.P4Exception;
@@ -61,13 +62,18 @@ public final class P4FileSyncState extends CachedState {
         return file.getLocalFilePath().getVirtualFile();
     }
 
+    @NotNull
+    public P4ClientFileMapping getFileMapping() {
+        return file;
+    }
+
     @NotNull
     public IFileSpec getFileSpec() throws P4Exception {
         return file.getFileSpec();
     }
 
     public void update(@NotNull final IFileSpec fileSpec, @NotNull final FileMappingRepo fileMappingRepo) {
-        if (P4StatusMessage.isValid(fileSpec)) {
+        if (P4StatusMessage.isValid(fileSpec) && fileSpec.getAction() != FileAction.DELETED) {
             if (fileSpec.getDepotPathString() != null) {
                 fileMappingRepo.updateDepotPath(file, fileSpec.getDepotPathString());
             }
@@ -87,7 +93,7 @@ public final class P4FileSyncState extends CachedState {
                 md5 = null;
             }
         } else {
-            // not on client
+            // not on client, or removed from it by a sync
             rev = IFileSpec.NONE_REVISION;
             md5 = null;
         }
@@ -0,0 +1,251 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.cache.state;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Interns paths as a tree of path segments, so the directory prefixes shared
+ * by many files are only stored once.  Each node carries a compact integer id,
+ * and the hash of its case-folded segment, so a case insensitive lookup never
+ * needs to create a folded copy of the path.
+ * <p/>
+ * Lookups through {@link #find(String)} take no lock and create no objects.
+ * All the modifying calls must be serialized by the owner.  A lookup that
+ * races with a modification may miss a node that's being added; callers
+ * must then fall back to a locked lookup.
+ */
+final class PathTree {
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final Node REMOVED = new Node(null, "", 0);
+
+    private final boolean caseInsensitive;
+    private final char separator;
+    private final Node root;
+
+
+    /**
+     * @param caseInsensitive true if the segments should match without regard to case.
+     * @param separator the path separator; '/' is always treated as a separator.
+     */
+    PathTree(boolean caseInsensitive, char separator) {
+        this.caseInsensitive = caseInsensitive;
+        this.separator = separator;
+        this.root = new Node(null, "", 0);
+    }
+
+
+    /**
+     * @param path full path to find
+     * @return the node for the path, or null if it was never interned.
+     */
+    @Nullable
+    Node find(@NotNull String path) {
+        Node current = root;
+        final int length = path.length();
+        int start = 0;
+        while (current != null) {
+            final int end = nextSeparator(path, start);
+            current = current.getChild(path, start, end, hash(path, start, end), caseInsensitive);
+            if (end >= length) {
+                return current;
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+
+    /**
+     * Find or create the node for the path.  Must be called from within the
+     * owner's write lock.
+     *
+     * @param path full path to intern
+     * @return the node for the path.
+     */
+    @NotNull
+    Node intern(@NotNull String path) {
+        Node current = root;
+        final int length = path.length();
+        int start = 0;
+        while (true) {
+            final int end = nextSeparator(path, start);
+            final int hash = hash(path, start, end);
+            Node child = current.getChild(path, start, end, hash, caseInsensitive);
+            if (child == null) {
+                child = new Node(current, path.substring(start, end), hash);
+                current.addChild(child);
+            }
+            current = child;
+            if (end >= length) {
+                return current;
+            }
+            start = end + 1;
+        }
+    }
+
+
+    /**
+     * Remove the mapping from the node, and prune the node (and any parents)
+     * that no longer lead to a mapping.  Must be called from within the
+     * owner's write lock.
+     *
+     * @param node node to release
+     */
+    void release(@NotNull Node node) {
+        node.mapping = null;
+        Node current = node;
+        while (current != root && current.mapping == null && current.liveChildren == 0) {
+            current.parent.removeChild(current);
+            current = current.parent;
+        }
+    }
+
+
+    /**
+     * Remove all the nodes.  Must be called from within the owner's write lock.
+     */
+    void clear() {
+        root.children = NO_CHILDREN;
+        root.usedSlots = 0;
+        root.liveChildren = 0;
+        root.mapping = null;
+    }
+
+
+    private int nextSeparator(@NotNull String path, int start) {
+        final int length = path.length();
+        for (int i = start; i < length; i++) {
+            final char c = path.charAt(i);
+            if (c == '/' || c == separator) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+
+    private int hash(@NotNull String path, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            if (caseInsensitive) {
+                // Same folding as String.regionMatches(true, ...)
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+
+
+    /**
+     * A single path segment.  The final fields make the node safe to read
+     * from other threads as soon as it's visible in the parent's child table.
+     */
+    static final class Node {
+        final Node parent;
+        final String segment;
+        final int hash;
+
+        // Open addressing table; always has at least one empty slot, so
+        // readers can't loop forever.  It's replaced, not resized in place.
+        private volatile Node[] children = NO_CHILDREN;
+
+        // guarded by the owner's write lock
+        private int usedSlots = 0;
+        private int liveChildren = 0;
+
+        volatile P4ClientFileMapping mapping;
+
+        private Node(@Nullable Node parent, @NotNull String segment, int hash) {
+            this.parent = parent;
+            this.segment = segment;
+            this.hash = hash;
+        }
+
+        @Nullable
+        private Node getChild(@NotNull String path, int start, int end, int hash, boolean caseInsensitive) {
+            final Node[] table = children;
+            if (table.length == 0) {
+                return null;
+            }
+            final int mask = table.length - 1;
+            final int length = end - start;
+            int i = hash & mask;
+            while (true) {
+                final Node node = table[i];
+                if (node == null) {
+                    return null;
+                }
+                if (node != REMOVED && node.hash == hash && node.segment.length() == length &&
+                        node.segment.regionMatches(caseInsensitive, 0, path, start, length)) {
+                    return node;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        private void addChild(@NotNull Node child) {
+            Node[] table = children;
+            if ((usedSlots + 1) * 2 > table.length) {
+                table = rehash(Math.max(4, Integer.highestOneBit(Math.max(1, liveChildren + 1)) * 4));
+                usedSlots = liveChildren;
+            }
+            insert(table, child);
+            usedSlots++;
+            liveChildren++;
+            // Publish the (possibly new) table.
+            children = table;
+        }
+
+        private void removeChild(@NotNull Node child) {
+            final Node[] table = children;
+            final int mask = table.length - 1;
+            int i = child.hash & mask;
+            while (table[i] != null) {
+                if (table[i] == child) {
+                    // Leave a marker, so that the probe sequence of the other
+                    // children stays intact.
+                    table[i] = REMOVED;
+                    liveChildren--;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        @NotNull
+        private Node[] rehash(int size) {
+            final Node[] table = new Node[size];
+            for (Node node : children) {
+                if (node != null && node != REMOVED) {
+                    insert(table, node);
+                }
+            }
+            return table;
+        }
+
+        private static void insert(@NotNull Node[] table, @NotNull Node node) {
+            final int mask = table.length - 1;
+            int i = node.hash & mask;
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = node;
+        }
+    }
+}
@@ -52,9 +52,9 @@ interface Cache {
     @NotNull
     P4ClientFileMapping getClientMappingFor(@NotNull FilePath file);
 
-    @NotNull
-    Collection<P4FileUpdateState> fromOpenedToAction(@NotNull Project project,
-            @NotNull List<IExtendedFileSpec> validSpecs, @NotNull AlertManager alerts);
+    @Nullable
+    P4FileUpdateState fromOpenedToAction(@NotNull Project project,
+            @NotNull IExtendedFileSpec validSpec, @NotNull AlertManager alerts);
 
     /**
      * Called when the server state is found to be horribly out-of-sync
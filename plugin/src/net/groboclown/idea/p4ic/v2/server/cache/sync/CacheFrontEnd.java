@@ -22,6 +22,7 @@ import net.groboclown.idea.p4ic.v2.server.connection.AlertManager;
 import net.groboclown.idea.p4ic.v2.server.connection.P4Exec2;
 import net.groboclown.idea.p4ic.v2.server.connection.ServerConnection;
 import net.groboclown.idea.p4ic.v2.server.connection.ServerQuery;
+import net.groboclown.idea.p4ic.v2.server.metrics.P4Metrics;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -60,6 +61,7 @@ abstract class CacheFrontEnd {
     private void loadServerCache(@NotNull P4Exec2 exec, @NotNull ClientCacheManager cacheManager,
             @NotNull AlertManager alerts, boolean forceRefresh) {
         if (forceRefresh || needsRefresh()) {
+            P4Metrics.getInstance().cacheMiss(getClass().getSimpleName());
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Refreshing the cache for " +
                         getClass().getSimpleName() + "; last refresh was " +
@@ -73,8 +75,12 @@ abstract class CacheFrontEnd {
                 }
             }
             rectifyCache(exec.getProject(), updates, alerts);
-        } else if (LOG.isDebugEnabled()) {
-            LOG.debug("No need to refresh the cache for " + getClass().getSimpleName() + "; last refresh was " + getLastRefreshDate());
+        } else {
+            P4Metrics.getInstance().cacheHit(getClass().getSimpleName());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("No need to refresh the cache for " + getClass().getSimpleName() + "; last refresh was " +
+                        getLastRefreshDate());
+            }
         }
     }
 
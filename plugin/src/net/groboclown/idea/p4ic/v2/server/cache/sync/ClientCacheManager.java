@@ -25,12 +25,14 @@ import net.groboclown.idea.p4ic.changes.P4ChangeListId;
 import net.groboclown.idea.p4ic.config.ServerConfig;
 import net.groboclown.idea.p4ic.server.P4StatusMessage;
 import net.groboclown.idea.p4ic.v2.changes.P4ChangeListJob;
+import net.groboclown.idea.p4ic.v2.server.FileSyncListener;
 import net.groboclown.idea.p4ic.v2.server.FileSyncResult;
 import net.groboclown.idea.p4ic.v2.server.P4FileAction;
 import net.groboclown.idea.p4ic.v2.server.P4Server.IntegrateFile;
 import net.groboclown.idea.p4ic.v2.server.cache.ClientServerId;
 import net.groboclown.idea.p4ic.v2.server.cache.P4ChangeListValue;
 import net.groboclown.idea.p4ic.v2.server.cache.local.IgnoreFiles;
+import net.groboclown.idea.p4ic.v2.server.cache.local.WorkspaceSnapshot;
 import net.groboclown.idea.p4ic.v2.server.cache.state.*;
 import net.groboclown.idea.p4ic.v2.server.connection.*;
 import net.groboclown.idea.p4ic.v2.server.connection.ServerConnection.CreateUpdate;
@@ -53,14 +55,17 @@ public class ClientCacheManager {
     private final JobServerCacheSync jobs;
     private final KnownHaveStateServerCacheSync haveFiles;
     private final IgnoreFiles ignoreFiles;
+    private final WorkspaceSnapshot snapshot;
 
     // Jobs are only stored in terms of their association with the
     // changelists.  The current design is to have the jobs only
     // be managed in terms of their association with changelists;
     // creation and other actions on jobs is not supported.
 
-    public ClientCacheManager(@NotNull ServerConfig config, @NotNull ClientLocalServerState state) {
+    public ClientCacheManager(@NotNull ServerConfig config, @NotNull ClientLocalServerState state,
+            @NotNull WorkspaceSnapshot snapshot) {
         this.state = state;
+        this.snapshot = snapshot;
 
         final CacheImpl cache = new CacheImpl();
 
@@ -75,7 +80,7 @@ public class ClientCacheManager {
         jobStatusList = new JobStatusListStateServerCacheSync(
                 state.getCachedServerState().getJobStatusList());
         haveFiles = new KnownHaveStateServerCacheSync(
-                state.getCachedServerState().getKnownHave(), state.getFileMappingRepo());
+                state.getCachedServerState().getKnownHave(), state.getFileMappingRepo(), snapshot);
         jobs = new JobServerCacheSync(state.getCachedServerState().getJobs());
         ignoreFiles = new IgnoreFiles(config);
     }
@@ -190,6 +195,10 @@ public class ClientCacheManager {
         return fileActions.getOpenFiles();
     }
 
+    public boolean isCachedOpenedForEdit(@NotNull FilePath file, int changeListId) {
+        return fileActions.isOpenedForEdit(file, changeListId);
+    }
+
     @NotNull
     public Collection<String> getCachedJobStatusList() {
         return jobStatusList.getJobStatusList();
@@ -200,6 +209,20 @@ public class ClientCacheManager {
         return haveFiles.getHaveFiles(haves);
     }
 
+    @NotNull
+    public Map<VirtualFile, String> getCachedHaveMd5s(@NotNull Collection<VirtualFile> haves) {
+        return haveFiles.getCachedMd5s(haves);
+    }
+
+    /**
+     * The local record of the workspace files as of their last sync, for
+     * telling whether a file changed without asking the server.
+     */
+    @NotNull
+    public WorkspaceSnapshot getWorkspaceSnapshot() {
+        return snapshot;
+    }
+
     /**
      * This method only has one use, and that's for initial setup after loading into a ServerConnection.
      */
@@ -268,9 +291,9 @@ public class ClientCacheManager {
 
     @Nullable
     public ServerUpdateAction synchronizeFilesOnline(@NotNull final Collection<FilePath> files, final int revisionNumber,
-            @Nullable final String syncSpec, final boolean force,
+            @Nullable final String syncSpec, final boolean force, @Nullable final FileSyncListener listener,
             final Ref<MessageResult<Collection<FileSyncResult>>> ref) {
-        return fileActions.synchronizeFilesOnline(files, revisionNumber, syncSpec, force, ref);
+        return fileActions.synchronizeFilesOnline(files, revisionNumber, syncSpec, force, haveFiles, listener, ref);
     }
 
     @Nullable
@@ -370,12 +393,12 @@ public class ClientCacheManager {
             return workspace.getClientMappingFor(file);
         }
 
-        @NotNull
+        @Nullable
         @Override
-        public Collection<P4FileUpdateState> fromOpenedToAction(@NotNull Project project,
-                @NotNull final List<IExtendedFileSpec> validSpecs,
+        public P4FileUpdateState fromOpenedToAction(@NotNull Project project,
+                @NotNull final IExtendedFileSpec validSpec,
                 @NotNull final AlertManager alerts) {
-            return workspace.fromOpenedToAction(project, validSpecs, alerts);
+            return workspace.fromOpenedToAction(project, validSpec, alerts);
         }
 
         @Override
@@ -26,12 +26,14 @@ import com.perforce.p4java.core.file.FileSpecOpStatus;
 import com.perforce.p4java.core.file.IExtendedFileSpec;
 import com.perforce.p4java.core.file.IFileSpec;
 import com.perforce.p4java.exception.MessageGenericCode;
+import com.perforce.p4java.impl.generic.core.file.ExtendedFileSpec;
 import net.groboclown.idea.p4ic.P4Bundle;
 import net.groboclown.idea.p4ic.server.FileSpecUtil;
 import net.groboclown.idea.p4ic.server.P4StatusMessage;
 import net.groboclown.idea.p4ic.server.exceptions.P4DisconnectedException;
 import net.groboclown.idea.p4ic.server.exceptions.P4Exception;
 import net.groboclown.idea.p4ic.v2.changes.P4ChangeListJob;
+import net.groboclown.idea.p4ic.v2.server.FileSyncListener;
 import net.groboclown.idea.p4ic.v2.server.FileSyncResult;
 import net.groboclown.idea.p4ic.v2.server.P4FileAction;
 import net.groboclown.idea.p4ic.v2.server.P4Server.IntegrateFile;
@@ -40,6 +42,7 @@ import net.groboclown.idea.p4ic.v2.server.cache.ServerUpdateActionFactory;
 import net.groboclown.idea.p4ic.v2.server.cache.UpdateAction;
 import net.groboclown.idea.p4ic.v2.server.cache.UpdateAction.UpdateParameterNames;
 import net.groboclown.idea.p4ic.v2.server.cache.UpdateGroup;
+import net.groboclown.idea.p4ic.v2.server.cache.local.WorkspaceSnapshot;
 import net.groboclown.idea.p4ic.v2.server.cache.state.*;
 import net.groboclown.idea.p4ic.v2.server.cache.sync.AbstractServerUpdateAction.ExecutionStatus;
 import net.groboclown.idea.p4ic.v2.server.connection.*;
@@ -47,6 +50,7 @@ import net.groboclown.idea.p4ic.v2.server.util.FilePathUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.util.*;
 import java.util.Map.Entry;
 
@@ -97,18 +101,73 @@ public class FileActionsServerCacheSync extends CacheFrontEnd {
     }
 
 
+    /**
+     * Check, without locking and without touching the server, whether the
+     * file is already known to be open for add or edit in the changelist.
+     * The local actions take precedence over the last opened refresh, just
+     * like {@link #getOpenFiles()}.
+     *
+     * @param file local file
+     * @param changeListId P4 changelist the file should be open in
+     * @return true if the file does not need another add or edit action
+     */
+    public boolean isOpenedForEdit(@NotNull FilePath file, int changeListId) {
+        P4FileUpdateState state = localClientUpdatedFiles.getIndexedUpdateStateFor(file);
+        if (state == null) {
+            state = cachedServerUpdatedFiles.getIndexedUpdateStateFor(file);
+        }
+        return state != null &&
+                state.getActiveChangelist() == changeListId &&
+                OPEN_FOR_EDIT_ACTIONS.contains(state.getFileUpdateAction());
+    }
+
+    private static final Set<FileUpdateAction> OPEN_FOR_EDIT_ACTIONS = Collections.unmodifiableSet(EnumSet.of(
+            FileUpdateAction.ADD_EDIT_FILE,
+            FileUpdateAction.ADD_FILE,
+            FileUpdateAction.EDIT_FILE,
+            FileUpdateAction.INTEGRATE_FILE,
+            FileUpdateAction.MOVE_FILE
+    ));
+
+
     @Override
-    protected void innerLoadServerCache(@NotNull P4Exec2 exec, @NotNull AlertManager alerts) {
+    protected void innerLoadServerCache(@NotNull P4Exec2 exec, @NotNull final AlertManager alerts) {
         ServerConnection.assertInServerConnection();
 
         // Load our server cache.  Note that we only load specs that we consider to be in a
-        // "valid" file action state.
+        // "valid" file action state.  The opened files only come back with the few fields
+        // used here, held in compact columns, and each is turned into its update state.
 
-        MessageResult<List<IExtendedFileSpec>> results;
+        final Project project = exec.getProject();
+        final List<P4FileUpdateState> updateStates = new ArrayList<P4FileUpdateState>();
+        final List<IExtendedFileSpec> invalidSpecs = new ArrayList<IExtendedFileSpec>();
+        final List<P4StatusMessage> messages = new ArrayList<P4StatusMessage>();
         try {
-            // This is okay to run with the "-s" argument.
-            results =
-                exec.loadOpenedFiles(getClientRootSpecs(exec.getProject(), alerts), false);
+            exec.streamOpenedFiles(getClientRootSpecs(project, alerts), new P4Exec2.ExtendedFileSpecConsumer() {
+                @Override
+                public void start() {
+                    updateStates.clear();
+                    invalidSpecs.clear();
+                    messages.clear();
+                }
+
+                @Override
+                public void consume(@NotNull final IExtendedFileSpec spec) {
+                    if (! P4StatusMessage.isValid(spec)) {
+                        messages.add(new P4StatusMessage(spec));
+                    } else if (! isValidUpdateAction(spec)) {
+                        logSpec("invalid spec: ", spec);
+                        // The spec is reused for the next file.
+                        invalidSpecs.add(copyInvalidSpec(spec));
+                    } else {
+                        logSpec("valid spec: ", spec);
+                        final P4FileUpdateState state = cache.fromOpenedToAction(project, spec, alerts);
+                        if (state != null) {
+                            updateStates.add(state);
+                        }
+                    }
+                }
+            });
         } catch (VcsException e) {
             alerts.addWarning(
                     exec.getProject(),
@@ -117,17 +176,15 @@ public class FileActionsServerCacheSync extends CacheFrontEnd {
                     e, FilePathUtil.getFilePath(exec.getProject().getBaseDir()));
             return;
         }
-        if (!alerts.addWarnings(exec.getProject(),
-                P4Bundle.message("error.load-opened", cache.getClientName()), results, true)) {
+        if (!alerts.addWarnings(project,
+                P4Bundle.message("error.load-opened", cache.getClientName()), messages, true)) {
             lastRefreshed = new Date();
 
             // Only clear the cache once we know that we have valid results.
 
-            final List<IExtendedFileSpec> validSpecs = new ArrayList<IExtendedFileSpec>(results.getResult());
-            final List<IExtendedFileSpec> invalidSpecs = sortInvalidActions(validSpecs);
-            addInvalidActionAlerts(exec.getProject(), alerts, invalidSpecs);
+            addInvalidActionAlerts(project, alerts, invalidSpecs);
 
-            cachedServerUpdatedFiles.replaceWith(cache.fromOpenedToAction(exec.getProject(), validSpecs, alerts));
+            cachedServerUpdatedFiles.replaceWith(updateStates);
 
             // Local change flush will happen later.
         }
@@ -545,6 +602,8 @@ public class FileActionsServerCacheSync extends CacheFrontEnd {
     public ServerUpdateAction synchronizeFilesOnline(@NotNull Collection<FilePath> files,
             final int revisionNumber,
             @Nullable final String syncSpec, final boolean force,
+            @NotNull final KnownHaveStateServerCacheSync haveFiles,
+            @Nullable final FileSyncListener listener,
             final Ref<MessageResult<Collection<FileSyncResult>>> ref) {
         final List<FilePath> fileList = new ArrayList<FilePath>(files);
         if (LOG.isDebugEnabled()) {
@@ -575,40 +634,65 @@ public class FileActionsServerCacheSync extends CacheFrontEnd {
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("synchronizing " + specs);
                     }
-                    final List<IFileSpec> results = exec.synchronizeFiles(specs, force);
-                    Iterator<FilePath> srcIter = fileList.iterator();
-                    Iterator<IFileSpec> resultIter = results.iterator();
-                    List<FileSyncResult> ret = new ArrayList<FileSyncResult>(fileList.size());
-                    List<P4StatusMessage> messages = new ArrayList<P4StatusMessage>();
-                    while (resultIter.hasNext()) {
-                        final IFileSpec spec = resultIter.next();
-                        if (spec.getOpStatus() == FileSpecOpStatus.VALID) {
-                            FilePath file = srcIter.next();
-                            final P4ClientFileMapping mapping =
-                                    cache.getClientMappingFor(file);
-                            if (spec.getDepotPathString() != null) {
-                                cache.updateDepotPathFor(mapping, spec.getDepotPathString());
-                            }
-                            ret.add(new FileSyncResult(mapping, spec.getAction(),
-                                    // "rev" is turned into end revision
-                                    spec.getEndRevision()));
-                        } else if (P4StatusMessage.isErrorStatus(spec)) {
-                            final P4StatusMessage msg = new P4StatusMessage(spec);
-
-                            // 17 (x11) = "file(s) up-to-date"
-                            if (msg.getErrorCode() != MessageGenericCode.EV_EMPTY) {
-                                LOG.info(msg + ": error code " + msg.getErrorCode());
-                                messages.add(msg);
-                            } else {
-                                LOG.info(msg + ": ignored");
+                    final Iterator<FilePath> srcIter = fileList.iterator();
+                    final List<FileSyncResult> ret = new ArrayList<FileSyncResult>(fileList.size());
+                    final List<P4StatusMessage> messages = new ArrayList<P4StatusMessage>();
+                    final List<IFileSpec> syncedSpecs = new ArrayList<IFileSpec>(fileList.size());
+                    final Map<P4ClientFileMapping, IFileSpec> syncedHaves =
+                            new HashMap<P4ClientFileMapping, IFileSpec>();
+                    // The server reports each file just before sending its
+                    // contents, so a file is only passed on to the listener
+                    // once the next one is reported, or the sync ends.
+                    final Ref<FileSyncResult> inTransfer = new Ref<FileSyncResult>();
+                    exec.synchronizeFiles(specs, force, new P4Exec2.FileSpecConsumer() {
+                        @Override
+                        public void start() {
+                            // A retried sync only reports the files that weren't
+                            // synchronized yet, so everything passed on is still valid.
+                        }
+
+                        @Override
+                        public void consume(@NotNull final IFileSpec spec) {
+                            if (spec.getOpStatus() == FileSpecOpStatus.VALID) {
+                                final FilePath file = getSyncedFile(spec, srcIter);
+                                if (file == null) {
+                                    LOG.info("No local file for sync result " + spec);
+                                    return;
+                                }
+                                final P4ClientFileMapping mapping =
+                                        cache.getClientMappingFor(file);
+                                if (spec.getDepotPathString() != null) {
+                                    cache.updateDepotPathFor(mapping, spec.getDepotPathString());
+                                }
+                                syncedHaves.put(mapping, spec);
+                                final FileSyncResult result = new FileSyncResult(mapping, spec.getAction(),
+                                        // "rev" is turned into end revision
+                                        spec.getEndRevision());
+                                ret.add(result);
+                                syncedSpecs.add(spec);
+                                fireSynced(listener, inTransfer.get());
+                                inTransfer.set(result);
+                            } else if (P4StatusMessage.isErrorStatus(spec)) {
+                                final P4StatusMessage msg = new P4StatusMessage(spec);
+
+                                // 17 (x11) = "file(s) up-to-date"
+                                if (msg.getErrorCode() != MessageGenericCode.EV_EMPTY) {
+                                    LOG.info(msg + ": error code " + msg.getErrorCode());
+                                    messages.add(msg);
+                                } else {
+                                    LOG.info(msg + ": ignored");
+                                }
+                            } else if (spec.getOpStatus() == FileSpecOpStatus.INFO) {
+                                // INFO messages don't have a source, unfortunately.
+                                // So we need to extract the path information.
+                                LOG.info("info message: " + spec.getStatusMessage());
+                                messages.add(new P4StatusMessage(spec));
                             }
-                        } else if (spec.getOpStatus() == FileSpecOpStatus.INFO) {
-                            // INFO messages don't have a source, unfortunately.
-                            // So we need to extract the path information.
-                            LOG.info("info message: " + spec.getStatusMessage());
-                            messages.add(new P4StatusMessage(spec));
                         }
-                    }
+                    });
+                    fireSynced(listener, inTransfer.get());
+                    haveFiles.updateSynced(syncedHaves);
+                    recordSynced(clientCacheManager.getWorkspaceSnapshot(), ret, syncedSpecs);
 
                     ref.set(new MessageResult<Collection<FileSyncResult>>(ret, messages));
                 } catch (VcsException e) {
@@ -616,16 +700,53 @@ public class FileActionsServerCacheSync extends CacheFrontEnd {
                             P4Bundle.message("error.sync.title"),
                             P4Bundle.message("error.sync"),
                             e, fileList);
-                } catch (NoSuchElementException e) {
-                    alerts.addWarning(exec.getProject(),
-                            P4Bundle.message("error.sync.title"),
-                            P4Bundle.message("error.sync"),
-                            e, fileList);
                 }
             }
         };
     }
 
+    /**
+     * The sync results name the local file as the client file; a result
+     * without one can only be for the corresponding requested file.
+     */
+    @Nullable
+    private static FilePath getSyncedFile(@NotNull IFileSpec spec, @NotNull Iterator<FilePath> srcIter) {
+        final String localPath = spec.getClientPathString();
+        if (localPath != null) {
+            return FilePathUtil.getFilePath(localPath);
+        }
+        return srcIter.hasNext() ? srcIter.next() : null;
+    }
+
+    /**
+     * Record the synced files in the workspace snapshot, once they're all
+     * written.  Only the files' stats are read here; the snapshot reads
+     * their contents in the background, so that it doesn't hold up the
+     * server connection.
+     */
+    private static void recordSynced(@NotNull WorkspaceSnapshot snapshot, @NotNull List<FileSyncResult> results,
+            @NotNull List<IFileSpec> specs) {
+        final List<WorkspaceSnapshot.SyncedFile> synced = new ArrayList<WorkspaceSnapshot.SyncedFile>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            final FileSyncResult result = results.get(i);
+            final IFileSpec spec = specs.get(i);
+            final File file = result.getFilePath().getIOFile();
+            if (result.getFileAction() == FileAction.DELETED) {
+                synced.add(new WorkspaceSnapshot.SyncedFile(file, null, 0, null));
+            } else {
+                synced.add(new WorkspaceSnapshot.SyncedFile(file, spec.getDepotPathString(),
+                        spec.getEndRevision(), spec.getFileType()));
+            }
+        }
+        snapshot.recordSynced(synced);
+    }
+
+    private static void fireSynced(@Nullable FileSyncListener listener, @Nullable FileSyncResult result) {
+        if (listener != null && result != null) {
+            listener.fileSynced(result);
+        }
+    }
+
     @Nullable
     public ServerUpdateAction submitChangelistOnline(@NotNull final List<FilePath> files,
             @NotNull final List<P4ChangeListJob> jobs,
@@ -696,38 +817,27 @@ public class FileActionsServerCacheSync extends CacheFrontEnd {
                 files.toArray(new FilePath[files.size()]));
     }
 
+    /**
+     * @return a copy of the fields that {@link #addInvalidActionAlerts} reports.
+     */
     @NotNull
-    private List<IExtendedFileSpec> sortInvalidActions(@NotNull List<IExtendedFileSpec> validSpecs) {
-        List<IExtendedFileSpec> ret = new ArrayList<IExtendedFileSpec>(validSpecs.size());
-        Iterator<IExtendedFileSpec> iter = validSpecs.iterator();
-        while (iter.hasNext()) {
-            final IExtendedFileSpec next = iter.next();
-            if (next != null) {
-                if (! isValidUpdateAction(next)) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("invalid spec: " + next.getDepotPathString() + "; " + next
-                                .getOpStatus() + ": action: " +
-                                next.getAction() + "/" + next.getOtherAction() + "/" +
-                                next.getOpenAction() + "/" + next.getHeadAction() +
-                                "; client path string: " + next.getClientPathString());
-                    }
-                    ret.add(next);
-                    iter.remove();
-                } else {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("valid spec: " + next.getDepotPathString() + "; " + next.getOpStatus() + ": action: " +
-                                next.getAction() + "/" + next.getOtherAction() + "/" +
-                                next.getOpenAction() + "/" + next.getHeadAction() +
-                                "; client path string: " + next.getClientPathString());
-                    }
-                }
-            } else {
-                iter.remove();
-            }
-        }
+    private static IExtendedFileSpec copyInvalidSpec(@NotNull IExtendedFileSpec spec) {
+        final ExtendedFileSpec ret = new ExtendedFileSpec();
+        ret.setDepotPath(spec.getDepotPath());
+        ret.setClientPath(spec.getClientPath());
+        ret.setAction(spec.getAction());
         return ret;
     }
 
+    private static void logSpec(@NotNull String prefix, @NotNull IExtendedFileSpec spec) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(prefix + spec.getDepotPathString() + "; " + spec.getOpStatus() + ": action: " +
+                    spec.getAction() + "/" + spec.getOtherAction() + "/" +
+                    spec.getOpenAction() + "/" + spec.getHeadAction() +
+                    "; client path string: " + spec.getClientPathString());
+        }
+    }
+
     private boolean isValidUpdateAction(IFileSpec spec) {
         final FileAction action = spec.getAction();
         return action != null && UpdateAction.getUpdateActionForOpened(action) != null;
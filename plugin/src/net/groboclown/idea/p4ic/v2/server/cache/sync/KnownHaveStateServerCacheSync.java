@@ -16,12 +16,14 @@ package net.groboclown.idea.p4ic.v2.server.cache.sync;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.perforce.p4java.core.file.IFileSpec;
 import net.groboclown.idea.p4ic.P4Bundle;
 import net.groboclown.idea.p4ic.server.exceptions.P4Exception;
 import net.groboclown.idea.p4ic.v2.server.cache.UpdateGroup;
+import net.groboclown.idea.p4ic.v2.server.cache.local.WorkspaceSnapshot;
 import net.groboclown.idea.p4ic.v2.server.cache.state.FileMappingRepo;
 import net.groboclown.idea.p4ic.v2.server.cache.state.P4ClientFileMapping;
 import net.groboclown.idea.p4ic.v2.server.cache.state.P4FileSyncState;
@@ -50,14 +52,16 @@ class KnownHaveStateServerCacheSync extends CacheFrontEnd {
     private static final Logger LOG = Logger.getInstance(KnownHaveStateServerCacheSync.class);
     private final Set<P4FileSyncState> cachedServerState;
     private final FileMappingRepo fileMappingRepo;
+    private final WorkspaceSnapshot snapshot;
     private final Lock serverStateLock = new ReentrantLock();
     private Date lastRefresh = NEVER_LOADED;
 
 
     KnownHaveStateServerCacheSync(@NotNull final Set<P4FileSyncState> cachedServerState,
-            final FileMappingRepo fileMappingRepo) {
+            final FileMappingRepo fileMappingRepo, @NotNull final WorkspaceSnapshot snapshot) {
         this.cachedServerState = cachedServerState;
         this.fileMappingRepo = fileMappingRepo;
+        this.snapshot = snapshot;
         for (P4FileSyncState syncState : cachedServerState) {
             if (lastRefresh.before(syncState.getLastUpdated())) {
                 lastRefresh = syncState.getLastUpdated();
@@ -88,6 +92,68 @@ class KnownHaveStateServerCacheSync extends CacheFrontEnd {
     }
 
 
+    /**
+     * Return the cached server MD5 of the files whose have version is
+     * already known.  Unlike {@link #getHaveFiles(Collection)}, this does
+     * not start tracking the files that aren't known yet.
+     *
+     * @param haves files to look up
+     * @return the known MD5 for each file that has one.
+     */
+    @NotNull
+    public Map<VirtualFile, String> getCachedMd5s(@NotNull final Collection<VirtualFile> haves) {
+        final Set<VirtualFile> wanted = new HashSet<VirtualFile>(haves);
+        final Map<VirtualFile, String> ret = new HashMap<VirtualFile, String>();
+        serverStateLock.lock();
+        try {
+            for (P4FileSyncState state : cachedServerState) {
+                final String md5 = state.getMd5();
+                if (md5 != null) {
+                    final VirtualFile vf = state.getVirtualFile();
+                    if (vf != null && wanted.contains(vf)) {
+                        ret.put(vf, md5);
+                    }
+                }
+            }
+        } finally {
+            serverStateLock.unlock();
+        }
+        return ret;
+    }
+
+
+    /**
+     * Record the new have revisions of the files that were just
+     * synchronized, for the files that are already tracked, so that a sync
+     * keeps the cache current without asking the server again.  Called once
+     * the sync is done, so the cache is walked once rather than per file.
+     */
+    void updateSynced(@NotNull Map<P4ClientFileMapping, IFileSpec> synced) {
+        if (synced.isEmpty()) {
+            return;
+        }
+        serverStateLock.lock();
+        try {
+            final List<P4FileSyncState> updated = new ArrayList<P4FileSyncState>();
+            final Iterator<P4FileSyncState> iter = cachedServerState.iterator();
+            while (iter.hasNext()) {
+                final P4FileSyncState state = iter.next();
+                final IFileSpec spec = synced.get(state.getFileMapping());
+                if (spec != null) {
+                    // The hash code depends on the revision, so it must be
+                    // re-added after the update.
+                    iter.remove();
+                    state.update(spec, fileMappingRepo);
+                    updated.add(state);
+                }
+            }
+            cachedServerState.addAll(updated);
+        } finally {
+            serverStateLock.unlock();
+        }
+    }
+
+
     @NotNull
     ServerQuery<Map<VirtualFile, P4FileSyncState>> createRefreshQuery(
             final Collection<VirtualFile> haves) {
@@ -200,7 +266,12 @@ class KnownHaveStateServerCacheSync extends CacheFrontEnd {
         }
 
         for (int i = 0; i < syncStates.size(); i++) {
-            syncStates.get(i).update(haveList.get(i), fileMappingRepo);
+            final P4FileSyncState syncState = syncStates.get(i);
+            syncState.update(haveList.get(i), fileMappingRepo);
+            final FilePath local = syncState.getFileMapping().getLocalFilePath();
+            if (local != null) {
+                snapshot.updateHaveRevision(local.getIOFile(), syncState.getRev());
+            }
         }
         lastRefresh = new Date();
     }
@@ -80,21 +80,21 @@ public class WorkspaceServerCacheSync extends CacheFrontEnd {
     }
 
     /**
-     * Translate the valued returned by "opened" into update states.  This only
+     * Translate a value returned by "opened" into an update state.  This only
      * handles the caching of the underlying P4ClientFileMapping, not any of the
      * server state.
      * <p/>
      * Must be run from within the {@link ServerConnection}
      *
      *
-     * @param fileSpecs specs returned by "p4 opened"; non-valid specs are ignored
-     *                  (they should be handled separately).
-     * @return update states
+     * @param spec spec returned by "p4 opened" or "p4 fstat -Ro"; a non-valid
+     *             spec is ignored (it should be handled separately).
+     * @return update state, or null if the spec could not be mapped.
      */
-    @NotNull
-    public Collection<P4FileUpdateState> fromOpenedToAction(
+    @Nullable
+    public P4FileUpdateState fromOpenedToAction(
             @NotNull final Project project,
-            @NotNull final List<IExtendedFileSpec> fileSpecs,
+            @NotNull final IExtendedFileSpec spec,
             @NotNull AlertManager alerts) {
         ServerConnection.assertInServerConnection();
 
@@ -120,33 +120,30 @@ public class WorkspaceServerCacheSync extends CacheFrontEnd {
         // This is slightly faster to run, but still contains the
         // information we want.
 
-        List<P4FileUpdateState> ret = new ArrayList<P4FileUpdateState>(fileSpecs.size());
-        for (IFileSpec spec : fileSpecs) {
-            if (spec != null && P4StatusMessage.isValid(spec)) {
-                String depotPath = spec.getDepotPathString();
-                FilePath clientFilePath = clientSpecToFilePath(project, spec, alerts);
-                if (depotPath == null || clientFilePath == null) {
-                    LOG.error("callee did not remove invalid file specs: " + spec +
-                            ": depot " + depotPath + ", client: " + clientFilePath);
-                } else {
-                    P4ClientFileMapping fileState = fileRepo.getByDepotLocation(depotPath, clientFilePath);
-                    final FileUpdateAction action = FileUpdateAction.getFileUpdateAction(
-                            UpdateAction.getUpdateActionForOpened(spec.getAction()));
-                    if (action == null) {
-                        alerts.addNotice(project, P4Bundle.message("error.spec.unknown-open-action", depotPath, spec.getAction()), null);
-                    } else {
-                        final P4FileUpdateState state =
-                                new P4FileUpdateState(fileState, spec.getChangelistId(), action, true);
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Mapped " + spec + " to " + state + " with action " + action +
-                                " from " + spec.getAction());
-                        }
-                        ret.add(state);
-                    }
-                }
-            }
+        if (! P4StatusMessage.isValid(spec)) {
+            return null;
         }
-        return ret;
+        String depotPath = spec.getDepotPathString();
+        FilePath clientFilePath = clientSpecToFilePath(project, spec, alerts);
+        if (depotPath == null || clientFilePath == null) {
+            LOG.error("callee did not remove invalid file specs: " + spec +
+                    ": depot " + depotPath + ", client: " + clientFilePath);
+            return null;
+        }
+        P4ClientFileMapping fileState = fileRepo.getByDepotLocation(depotPath, clientFilePath);
+        final FileUpdateAction action = FileUpdateAction.getFileUpdateAction(
+                UpdateAction.getUpdateActionForOpened(spec.getAction()));
+        if (action == null) {
+            alerts.addNotice(project, P4Bundle.message("error.spec.unknown-open-action", depotPath, spec.getAction()), null);
+            return null;
+        }
+        final P4FileUpdateState state =
+                new P4FileUpdateState(fileState, spec.getChangelistId(), action, true);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Mapped " + spec + " to " + state + " with action " + action +
+                " from " + spec.getAction());
+        }
+        return state;
     }
 
 
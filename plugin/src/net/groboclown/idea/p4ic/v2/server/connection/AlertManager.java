@@ -52,10 +52,21 @@ public class AlertManager implements ApplicationComponent {
     private static final long POLL_TIMEOUT = 10;
     private static final TimeUnit POLL_TIMEOUT_UNIT = TimeUnit.SECONDS;
 
+    // Bounds on the pending warnings, so that an error storm (say, a
+    // failed edit of thousands of files) only costs a fixed amount of
+    // UI work.
+    static final int MAX_PENDING_WARNINGS = 100;
+    static final int MAX_FILES_PER_WARNING = 200;
+    static final int MAX_DETAILS_PER_WARNING = 10;
+    private static final long MIN_WARNING_INTERVAL_MILLIS = 1000L;
+
     private static ThrowableHandled throwableHandled = new ThrowableHandled();
 
-    // Every error and warning added causes a new event added.
-    private final List<WarningMessage> pendingWarnings = new ArrayList<WarningMessage>();
+    // Warnings are aggregated by project, title and message until they are
+    // shown; guarded by eventLock.
+    private final Map<WarningKey, PendingWarning> pendingWarnings = new LinkedHashMap<WarningKey, PendingWarning>();
+    private int droppedWarnings = 0;
+    private long lastWarningDelivery = 0;
     private final Deque<ErrorMsg> criticalErrorHandlers = new ArrayDeque<ErrorMsg>();
     private final Lock eventLock = new ReentrantLock();
     private final Condition eventPending = eventLock.newCondition();
@@ -104,10 +115,11 @@ public class AlertManager implements ApplicationComponent {
         }
         title = injectReason(title, ex);
         details = injectReason(details, ex);
+        LOG.warn(details, ex);
         eventLock.lock();
         try {
-            LOG.warn(details, ex);
-            pendingWarnings.add(new WarningMessage(project, title, details, ex, affectedFiles));
+            addPendingWarning(new WarningKey(project, title, details), Collections.singleton(details), ex,
+                    Arrays.asList(affectedFiles), 1, 0);
             eventPending.signal();
         } finally {
             eventLock.unlock();
@@ -155,19 +167,50 @@ public class AlertManager implements ApplicationComponent {
     public boolean addWarnings(@NotNull Project project, @Nls @NotNull final String title,
             @NotNull final List<P4StatusMessage> msgs,
             final boolean ignoreFileNotFound) {
-        boolean wasWarning = false;
-
+        // Group the messages by their server message id first, so a bulk
+        // failure turns into one warning with a file list, rather than one
+        // warning per file.  The same id can still carry different
+        // arguments, so each distinct text is kept with the group.
+        final Map<WarningKey, PendingWarning> grouped = new LinkedHashMap<WarningKey, PendingWarning>();
         for (P4StatusMessage msg : msgs) {
             if (msg != null && msg.isError() && (!ignoreFileNotFound ||
                     !msg.isFileNotFoundError())) {
-                addWarning(project, title, msg.toString(), null,
-                        msg.getFilePath() == null
-                                ? FilePathUtil.getFilePath(project.getBaseDir())
-                                : msg.getFilePath());
-                wasWarning = true;
+                final WarningKey key = new WarningKey(project, title, msg.getUniqueCode());
+                PendingWarning warning = grouped.get(key);
+                if (warning == null) {
+                    warning = new PendingWarning(key, null);
+                    grouped.put(key, warning);
+                }
+                final String details = msg.toString();
+                if (warning.addDetails(details)) {
+                    LOG.warn(title + ": " + details);
+                }
+                warning.count++;
+                if (warning.files.size() < MAX_FILES_PER_WARNING) {
+                    final FilePath file = msg.getFilePath();
+                    final VirtualFile vf = file == null ? project.getBaseDir() : file.getVirtualFile();
+                    if (vf != null) {
+                        warning.files.add(vf);
+                    }
+                } else {
+                    warning.omittedFiles++;
+                }
             }
         }
-        return wasWarning;
+        if (grouped.isEmpty()) {
+            return false;
+        }
+        eventLock.lock();
+        try {
+            for (PendingWarning warning : grouped.values()) {
+                addPendingWarning(warning.key, warning.details, null, warning.files, warning.count,
+                        warning.omittedFiles);
+            }
+            eventPending.signal();
+        } finally {
+            eventLock.unlock();
+        }
+        return true;
     }
 
     public void addNotice(@NotNull Project project, @NotNull @Nls final String message, @Nullable final Exception ex,
@@ -256,6 +299,53 @@ public class AlertManager implements ApplicationComponent {
     }
 
 
+    /**
+     * Must be called with the event lock held.
+     */
+    private void addPendingWarning(@NotNull WarningKey key, @NotNull Collection<String> details,
+            @Nullable Throwable ex, @NotNull Collection<VirtualFile> files, int count, int omittedFiles) {
+        PendingWarning warning = pendingWarnings.get(key);
+        if (warning == null) {
+            if (pendingWarnings.size() >= MAX_PENDING_WARNINGS) {
+                droppedWarnings += count;
+                return;
+            }
+            warning = new PendingWarning(key, ex);
+            pendingWarnings.put(key, warning);
+        }
+        for (String text : details) {
+            warning.addDetails(text);
+        }
+        warning.count += count;
+        warning.omittedFiles += omittedFiles;
+        for (VirtualFile file : files) {
+            if (warning.files.size() >= MAX_FILES_PER_WARNING) {
+                warning.omittedFiles++;
+            } else {
+                warning.files.add(file);
+            }
+        }
+    }
+
+
+    /**
+     * Must be called with the event lock held.
+     */
+    @NotNull
+    private List<WarningMessage> drainPendingWarnings() {
+        final List<WarningMessage> ret = new ArrayList<WarningMessage>(pendingWarnings.size());
+        for (PendingWarning warning : pendingWarnings.values()) {
+            ret.add(warning.toWarningMessage());
+        }
+        pendingWarnings.clear();
+        if (droppedWarnings > 0) {
+            LOG.warn("Too many pending warnings; dropped " + droppedWarnings);
+            droppedWarnings = 0;
+        }
+        return ret;
+    }
+
+
     private void handleWarnings(@NotNull final List<WarningMessage> warnings) {
         // See AbstractVcsHelperImpl and AbstractVcsHelper
         // tab name VcsBundle.message("message.title.annotate")
@@ -305,15 +395,24 @@ public class AlertManager implements ApplicationComponent {
                             }
 
                             // Always handle pending critical errors first.
+                            long waitMillis = POLL_TIMEOUT_UNIT.toMillis(POLL_TIMEOUT);
                             if (!criticalErrorHandlers.isEmpty()) {
                                 errorMsg = criticalErrorHandlers.poll();
                             } else if (!pendingWarnings.isEmpty()) {
-                                warningMessages = new ArrayList<WarningMessage>(pendingWarnings);
-                                pendingWarnings.clear();
+                                // Rate limit the warnings, so that the ones that arrive
+                                // close together are shown together.
+                                final long now = System.currentTimeMillis();
+                                final long nextDelivery = lastWarningDelivery + MIN_WARNING_INTERVAL_MILLIS;
+                                if (now >= nextDelivery) {
+                                    warningMessages = drainPendingWarnings();
+                                    lastWarningDelivery = now;
+                                } else {
+                                    waitMillis = nextDelivery - now;
+                                }
                             }
                             if (errorMsg == null && warningMessages == null) {
                                 // wait
-                                eventPending.await(POLL_TIMEOUT, POLL_TIMEOUT_UNIT);
+                                eventPending.await(waitMillis, TimeUnit.MILLISECONDS);
                             }
                         }
                     } finally {
@@ -377,6 +476,97 @@ public class AlertManager implements ApplicationComponent {
     }
 
 
+    /**
+     * Identifies the warnings that are shown as a single grouped warning.
+     */
+    static final class WarningKey {
+        private final Project project;
+        private final String title;
+        private final String messageId;
+
+        WarningKey(@NotNull Project project, @NotNull String title, @NotNull String details) {
+            this.project = project;
+            this.title = title;
+            this.messageId = "text:" + details;
+        }
+
+        WarningKey(@NotNull Project project, @NotNull String title, int uniqueCode) {
+            this.project = project;
+            this.title = title;
+            this.messageId = "code:" + uniqueCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || ! getClass().equals(o.getClass())) {
+                return false;
+            }
+            WarningKey that = (WarningKey) o;
+            return project.equals(that.project) && title.equals(that.title) && messageId.equals(that.messageId);
+        }
+
+        @Override
+        public int hashCode() {
+            return (project.hashCode() * 31 + title.hashCode()) * 31 + messageId.hashCode();
+        }
+    }
+
+
+    /**
+     * A warning that hasn't been shown yet, along with all the other
+     * warnings of the same kind that arrived before it was shown.  Warnings
+     * of the same kind can have different texts (the same server message
+     * with different arguments); each distinct text is kept, up to a limit.
+     */
+    static final class PendingWarning {
+        final WarningKey key;
+        final Set<String> details = new LinkedHashSet<String>();
+        final Throwable ex;
+        final Set<VirtualFile> files = new LinkedHashSet<VirtualFile>();
+        int count = 0;
+        int omittedFiles = 0;
+
+        PendingWarning(@NotNull WarningKey key, @Nullable Throwable ex) {
+            this.key = key;
+            this.ex = ex;
+        }
+
+        /**
+         * @return true if the text was not already part of this warning.
+         */
+        boolean addDetails(@NotNull String text) {
+            return details.size() < MAX_DETAILS_PER_WARNING && details.add(text);
+        }
+
+        @NotNull
+        String getMessage() {
+            final StringBuilder sb = new StringBuilder();
+            for (String text : details) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(text);
+            }
+            String message = sb.toString();
+            if (count > details.size()) {
+                message = P4Bundle.message("warning.grouped", message, count - details.size());
+            }
+            if (omittedFiles > 0) {
+                message = P4Bundle.message("warning.grouped.omitted-files", message, omittedFiles);
+            }
+            return message;
+        }
+
+        @NotNull
+        WarningMessage toWarningMessage() {
+            return new WarningMessage(key.project, key.title, getMessage(), ex, files);
+        }
+    }
+
+
     /**
      * Keeps track of all the throwables that have been handled by this class.
      * It allows duplicates (those that were pushed up the stack but handled
@@ -23,6 +23,8 @@ import com.perforce.p4java.PropertyDefs;
 import com.perforce.p4java.client.IClient;
 import com.perforce.p4java.client.IClientSummary;
 import com.perforce.p4java.exception.*;
+import com.perforce.p4java.impl.mapbased.rpc.RpcPropertyDefs;
+import com.perforce.p4java.impl.mapbased.rpc.RpcServer;
 import com.perforce.p4java.server.IOptionsServer;
 import com.perforce.p4java.server.IServerInfo;
 import com.perforce.p4java.server.callback.ILogCallback;
@@ -34,6 +36,9 @@ import net.groboclown.idea.p4ic.server.ConnectionHandler;
 import net.groboclown.idea.p4ic.server.VcsExceptionUtil;
 import net.groboclown.idea.p4ic.server.exceptions.*;
 import net.groboclown.idea.p4ic.v2.events.Events;
+import net.groboclown.idea.p4ic.v2.server.metrics.P4Metrics;
+import net.groboclown.idea.p4ic.v2.server.metrics.P4Metrics.OperationTimer;
+import net.groboclown.idea.p4ic.v2.server.metrics.P4Metrics.Phase;
 import net.groboclown.idea.p4ic.v2.ui.alerts.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -52,6 +57,14 @@ import java.util.concurrent.TimeoutException;
  */
 public class ClientExec {
     private static final Logger LOG = Logger.getInstance(ClientExec.class);
+
+    // The full p4java trace is very expensive, so it has its own
+    // debug category, separate from the general plugin debugging.
+    private static final Logger P4JAVA_TRACE_LOG = Logger.getInstance("#net.groboclown.idea.p4ic.p4java-trace");
+
+    // Number of recent packet headers each connection keeps, to report
+    // when the connection fails.
+    private static final String PACKET_TRACE_SIZE = "32";
     private static final AllServerCount SERVER_COUNT = new AllServerCount();
 
     private final Object sync = new Object();
@@ -169,23 +182,31 @@ public class ClientExec {
 
 
     /**
+     * Check whether the server is reachable, using this instance's cached
+     * server connection.  On success, the connection is kept open so the
+     * first real query can reuse it rather than connecting again.
      *
-     * @param project
-     * @param config
-     * @param statusController
-     * @deprecated this call creates a new server object, which should instead
-     *      only be done within a ClientExec instance (so that the connection can
-     *      be cached).
-     * @return
+     * @param project project requesting the check
+     * @return true if the server responded.
      */
-    @Deprecated
-    static boolean checkIfOnline(@NotNull Project project, @NotNull ServerConfig config,
-            @NotNull ServerStatusController statusController) {
+    boolean checkIfOnline(@NotNull Project project) {
         Exception exception = null;
         boolean online = false;
         boolean needsAuthentication = false;
         try {
-            final IServerInfo info = getServerInfo(project, config);
+            final IOptionsServer server = connectServer(project, getTempDir(project));
+            IServerInfo info;
+            try {
+                info = server.getServerInfo();
+            } catch (RequestException e) {
+                if (isPasswordProblem(e)) {
+                    info = forceAuthenticationServerInfo(project, connectionHandler, server, config);
+                } else {
+                    throw e;
+                }
+            } catch (AccessException e) {
+                info = forceAuthenticationServerInfo(project, connectionHandler, server, config);
+            }
             if (info != null) {
                 online = true;
             }
@@ -203,10 +224,11 @@ public class ClientExec {
             exception = e;
         }
         if (! online) {
-            statusController.onDisconnected();
+            invalidateCache();
+            connectedController.onDisconnected();
             final CriticalErrorHandler errorHandler;
             if (needsAuthentication) {
-                errorHandler = new LoginFailedHandler(project, statusController, config, exception);
+                errorHandler = new LoginFailedHandler(project, connectedController, config, exception);
             } else {
                 final P4DisconnectedException ex;
                 if (exception == null) {
@@ -215,7 +237,7 @@ public class ClientExec {
                     ex = new P4DisconnectedException(exception);
                 }
                 exception = ex;
-                errorHandler = new DisconnectedHandler(project, statusController, ex);
+                errorHandler = new DisconnectedHandler(project, connectedController, ex);
             }
             AlertManager.getInstance().addCriticalError(errorHandler, exception);
         }
@@ -302,7 +324,13 @@ public class ClientExec {
                 }
 
                 // disconnect happens as a separate activity.
-                return runner.run(server, client, new WithClientCount(config.getServiceName(), clientName));
+                final WithClientCount count = new WithClientCount(config.getServiceName(), clientName);
+                final OperationTimer timer = P4Metrics.getInstance().startOperation();
+                try {
+                    return runner.run(server, client, count);
+                } finally {
+                    timer.finish(count.lastOperation);
+                }
             }
         });
     }
@@ -320,7 +348,14 @@ public class ClientExec {
             @Override
             public T run() throws P4JavaException, IOException, InterruptedException, TimeoutException, URISyntaxException, P4Exception {
                 // disconnect happens as a separate activity.
-                return runner.run(connectServer(project, getTempDir(project)), new WithClientCount(config.getServiceName()));
+                final IOptionsServer server = connectServer(project, getTempDir(project));
+                final WithClientCount count = new WithClientCount(config.getServiceName());
+                final OperationTimer timer = P4Metrics.getInstance().startOperation();
+                try {
+                    return runner.run(server, count);
+                } finally {
+                    timer.finish(count.lastOperation);
+                }
             }
         }, 0, triedLogin ? 1 : 0);
     }
@@ -366,7 +401,9 @@ public class ClientExec {
                 cachedServer = null;
             }
             if (cachedServer == null) {
+                final long connectStart = System.nanoTime();
                 cachedServer = connectTo(project, clientName, connectionHandler, config, tempDir);
+                P4Metrics.getInstance().record(P4Metrics.CONNECT, Phase.CONNECT, System.nanoTime() - connectStart);
             }
         }
 
@@ -403,22 +440,32 @@ public class ClientExec {
 
                 @Override
                 public void internalInfo(final String infoString) {
-                    LOG.debug("p4java info: " + infoString);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("p4java info: " + infoString);
+                    }
                 }
 
                 @Override
                 public void internalStats(final String statsString) {
-                    LOG.debug("p4java stats: " + statsString);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("p4java stats: " + statsString);
+                    }
                 }
 
                 @Override
                 public void internalTrace(final LogTraceLevel traceLevel, final String traceMessage) {
-                    LOG.debug("p4java trace: " + traceMessage);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("p4java trace: " + traceMessage);
+                    }
                 }
 
                 @Override
                 public LogTraceLevel getTraceLevel() {
-                    return LOG.isDebugEnabled() ? LogTraceLevel.ALL : LogTraceLevel.FINE;
+                    // Only ask p4java for the messages that will actually be logged.
+                    if (P4JAVA_TRACE_LOG.isDebugEnabled()) {
+                        return LogTraceLevel.ALL;
+                    }
+                    return LOG.isDebugEnabled() ? LogTraceLevel.FINE : LogTraceLevel.NONE;
                 }
             });
         }
@@ -430,6 +477,9 @@ public class ClientExec {
         final IOptionsServer server;
         properties = connectionHandler.getConnectionProperties(config, clientName);
         properties.setProperty(PropertyDefs.P4JAVA_TMP_DIR_KEY, tempDir.getAbsolutePath());
+        if (! properties.containsKey(RpcPropertyDefs.RPC_PACKET_TRACE_SIZE_NICK)) {
+            properties.setProperty(RpcPropertyDefs.RPC_PACKET_TRACE_SIZE_NICK, PACKET_TRACE_SIZE);
+        }
         url = connectionHandler.createUrl(config);
         LOG.info("Opening connection to " + url + " with " + config.getUsername());
 
@@ -447,6 +497,9 @@ public class ClientExec {
         // These seem to cause issues.
         //server.registerCallback(new LoggingCommandCallback());
         //server.registerProgressCallback(new LoggingProgressCallback());
+        if (server instanceof RpcServer) {
+            ((RpcServer) server).registerTimingCallback(P4Metrics.getInstance().getTimingCallback());
+        }
 
         server.connect();
 
@@ -818,6 +871,7 @@ public class ClientExec {
     private static class WithClientCount implements ServerCount {
         private final String serverId;
         private final String clientId;
+        private String lastOperation;
 
         private WithClientCount(final String serverId) {
             this(serverId, "");
@@ -830,6 +884,7 @@ public class ClientExec {
 
         @Override
         public void invoke(@NotNull final String operation) {
+            lastOperation = operation;
             SERVER_COUNT.invoke(operation, serverId, clientId);
         }
     }
@@ -25,7 +25,7 @@ import com.perforce.p4java.core.file.*;
 import com.perforce.p4java.exception.P4JavaException;
 import com.perforce.p4java.exception.RequestException;
 import com.perforce.p4java.impl.generic.core.Changelist;
-import com.perforce.p4java.impl.generic.core.file.ExtendedFileSpec;
+import com.perforce.p4java.impl.generic.core.file.ExtendedFileSpecColumns;
 import com.perforce.p4java.impl.generic.core.file.FilePath;
 import com.perforce.p4java.impl.generic.core.file.FilePath.PathType;
 import com.perforce.p4java.impl.mapbased.rpc.func.helper.MD5Digester;
@@ -35,6 +35,11 @@ import com.perforce.p4java.option.client.RevertFilesOptions;
 import com.perforce.p4java.option.client.SyncOptions;
 import com.perforce.p4java.option.server.*;
 import com.perforce.p4java.server.IOptionsServer;
+import com.perforce.p4java.server.callback.IExtendedFileSpecCallback;
+import com.perforce.p4java.server.callback.IFileContentsCallback;
+import com.perforce.p4java.server.IServerMessage;
+import com.perforce.p4java.server.callback.IFileLineMatchCallback;
+import com.perforce.p4java.server.callback.IFileSpecCallback;
 import net.groboclown.idea.p4ic.P4Bundle;
 import net.groboclown.idea.p4ic.changes.P4ChangeListId;
 import net.groboclown.idea.p4ic.config.ServerConfig;
@@ -42,7 +47,6 @@ import net.groboclown.idea.p4ic.extension.P4Vcs;
 import net.groboclown.idea.p4ic.server.FileSpecUtil;
 import net.groboclown.idea.p4ic.server.P4StatusMessage;
 import net.groboclown.idea.p4ic.server.exceptions.P4Exception;
-import net.groboclown.idea.p4ic.server.exceptions.P4FileException;
 import net.groboclown.idea.p4ic.v2.changes.P4ChangeListJob;
 import net.groboclown.idea.p4ic.v2.server.cache.state.P4JobState;
 import net.groboclown.idea.p4ic.v2.server.connection.ClientExec.ServerCount;
@@ -71,6 +75,15 @@ public class P4Exec2 {
     private static final Logger LOG = Logger.getInstance(P4Exec2.class);
     private static final int BUFFER_SIZE = 4 * 1024;
 
+    // The only fstat fields used from the opened files; everything else
+    // would be thrown away, so it isn't even requested.
+    static final Set<ExtendedFileSpecColumns.Field> OPENED_FILE_FIELDS = Collections.unmodifiableSet(
+            EnumSet.of(ExtendedFileSpecColumns.Field.DEPOT_FILE,
+                    ExtendedFileSpecColumns.Field.CLIENT_FILE,
+                    ExtendedFileSpecColumns.Field.ACTION,
+                    ExtendedFileSpecColumns.Field.CHANGE,
+                    ExtendedFileSpecColumns.Field.HEAD_ACTION));
+
     private final Project project;
     private final ClientExec exec;
 
@@ -79,6 +92,103 @@ public class P4Exec2 {
     private boolean disposed = false;
 
 
+    /**
+     * Receives each fstat result as it arrives from the server.  Called from
+     * within the server connection, so it must not call back into the server.
+     */
+    public interface ExtendedFileSpecConsumer {
+        /**
+         * Called before the first result is sent.  The command is retried
+         * after connection and login problems, so this can be called again
+         * after results were consumed; everything consumed up to then must
+         * be discarded.
+         */
+        void start();
+
+        /**
+         * @param spec the file's stat info, or a message spec if its
+         *             op status is not valid.  It may only be valid during
+         *             this call; copy what needs to be kept.
+         */
+        void consume(@NotNull IExtendedFileSpec spec);
+    }
+
+
+    /**
+     * Receives each per-file result of a streaming command.  Called from
+     * within the server connection, so it must not call back into the server.
+     */
+    public interface FileSpecConsumer {
+        /**
+         * Called before the first result is sent.  The command is retried
+         * after connection and login problems, so this can be called again
+         * after results were consumed.
+         */
+        void start();
+
+        /**
+         * @param spec the file's result, or a message spec if its op status
+         *             is not valid.
+         */
+        void consume(@NotNull IFileSpec spec);
+    }
+
+
+    /**
+     * Receives each line of a streaming grep.  Called from within the server
+     * connection, so it must not call back into the server.
+     */
+    public interface FileLineMatchConsumer {
+        /**
+         * Called before the first result is sent.  The command is retried
+         * after connection and login problems, so this can be called again
+         * after results were consumed; the retried command sends the same
+         * lines again.
+         */
+        void start();
+
+        /**
+         * @return false to stop the search.
+         */
+        boolean consume(@NotNull IFileLineMatch match);
+
+        /**
+         * @param message a server info message, such as a file that was
+         *                skipped for being too large.
+         * @return false to stop the search.
+         */
+        boolean info(@NotNull String message);
+    }
+
+
+    /**
+     * Receives the files of a streaming print.  Called from within the
+     * server connection, so it must not call back into the server.
+     */
+    public interface FileContentsConsumer {
+        /**
+         * Called before the first result is sent.  The command is retried
+         * after connection and login problems, so this can be called again
+         * after results were consumed; everything consumed up to then must
+         * be discarded.
+         */
+        void start();
+
+        /**
+         * @param spec the printed file's depot path and revision, or a
+         *             message spec if its op status is not valid, in which
+         *             case no data follows.
+         */
+        void startFile(@NotNull IFileSpec spec);
+
+        /**
+         * @param data the next part of the current file's contents, as the
+         *             server sent it (UTF-8 text on a unicode server).
+         */
+        void data(@NotNull byte[] data);
+    }
+
+
     public P4Exec2(@NotNull Project project, @NotNull ClientExec exec) {
         this.project = project;
         this.exec = exec;
@@ -311,35 +421,41 @@ public class P4Exec2 {
 
 
     /**
+     * Pass the depot path, client path, action, changelist and head action
+     * of every file opened in this client under the given specs to the
+     * consumer.  This runs a single "fstat -Ro", rather than an "opened"
+     * followed by an "fstat" on every returned file, and only asks for those
+     * fields.  Each file is passed on as it arrives, as a light view that
+     * only reports those fields and is reused for the next file, so the
+     * memory used doesn't grow with the number of opened files.
      *
      * @param openedSpecs query file specs, expected to be a "..." style.
-     * @param fast runs with the "-s" argument, which means the revision and file type is not returned.
-     * @return messages and results
+     * @param consumer receives each opened file, and each message (such as
+     *                 "file(s) not opened on this client") as a non-valid spec.
      * @throws VcsException
      * @throws CancellationException
      */
-    @NotNull
-    public MessageResult<List<IExtendedFileSpec>> loadOpenedFiles(@NotNull final List<IFileSpec> openedSpecs, final boolean fast)
+    public void streamOpenedFiles(@NotNull final List<IFileSpec> openedSpecs,
+            @NotNull final ExtendedFileSpecConsumer consumer)
             throws VcsException, CancellationException {
         LOG.debug("loading open files " + openedSpecs);
-        return exec.runWithClient(project, new ClientExec.WithClient<MessageResult<List<IExtendedFileSpec>>>() {
+        exec.runWithClient(project, new ClientExec.WithClient<Void>() {
             @Override
-            public MessageResult<List<IExtendedFileSpec>> run(@NotNull final IOptionsServer server, @NotNull final IClient client,
+            public Void run(@NotNull final IOptionsServer server, @NotNull final IClient client,
                     @NotNull final ClientExec.ServerCount count)
                     throws P4JavaException, IOException, InterruptedException, TimeoutException, URISyntaxException,
                     P4Exception {
-                OpenedFilesOptions options = new OpenedFilesOptions(
-                        false, // all clients
-                        client.getName(),
-                        -1,
-                        null,
-                        -1).setShortOutput(fast);
-                final List<IFileSpec> files = client.openedFiles(openedSpecs, options);
-                // We will need to get the full information on these files, so grab that, too.
-                // We keep a list of all the returned specs that were messages, and include the
-                // specs for the fstat results.  The result from the "opened" operation will
-                // only ever return the depot path.
-                return loadFstatForFileResult(server, files, true);
+                count.invoke("streamOpenedFiles");
+                consumer.start();
+                server.getExtendedFiles(openedSpecs, new GetExtendedFilesOptions("-Ro"),
+                        new ExtendedFileSpecColumns(OPENED_FILE_FIELDS), new IExtendedFileSpecCallback() {
+                            @Override
+                            public boolean handleSpec(final IExtendedFileSpec spec, final int key) {
+                                consumer.consume(cleanOpenedFileSpec(spec));
+                                return true;
+                            }
+                        }, 0);
+                return null;
             }
         });
     }
@@ -374,8 +490,11 @@ public class P4Exec2 {
                     throws P4JavaException, IOException, InterruptedException, TimeoutException, URISyntaxException,
                     P4Exception {
                 RevertFilesOptions options = new RevertFilesOptions(false, changeListId, true, false);
+                // Rollback can hand us thousands of files at once; p4java
+                // splits them into reasonably sized commands.
                 count.invoke("revertFiles");
-                return client.revertFiles(fileSpecs, options);
+                final List<IFileSpec> results = client.revertFiles(fileSpecs, options);
+                return results == null ? Collections.<IFileSpec>emptyList() : results;
             }
         });
     }
@@ -708,6 +827,45 @@ public class P4Exec2 {
     }
 
 
+    /**
+     * Print all the files with a single tagged command, passing each file
+     * and its contents to the consumer as they arrive, instead of running
+     * one print per file.  The server reports one file (or message) per
+     * requested spec, in order.
+     */
+    public void streamFileContents(@NotNull final List<IFileSpec> specs,
+            @NotNull final FileContentsConsumer consumer)
+            throws VcsException, CancellationException {
+        if (specs.isEmpty()) {
+            return;
+        }
+        exec.runWithClient(project, new ClientExec.WithClient<Void>() {
+            @Override
+            public Void run(@NotNull IOptionsServer server, @NotNull IClient client,
+                    @NotNull ClientExec.ServerCount count)
+                    throws P4JavaException, IOException, InterruptedException, TimeoutException, URISyntaxException, P4Exception {
+                count.invoke("streamFileContents");
+                consumer.start();
+                server.getFileContents(specs, new GetFileContentsOptions(false, false),
+                        new IFileContentsCallback() {
+                            @Override
+                            public boolean startFile(IFileSpec spec, int key) {
+                                consumer.startFile(spec);
+                                return true;
+                            }
+
+                            @Override
+                            public boolean handleData(byte[] data, int key) {
+                                consumer.data(data);
+                                return true;
+                            }
+                        }, 0);
+                return null;
+            }
+        });
+    }
+
+
     @NotNull
     public Map<IFileSpec, List<IFileRevisionData>> getRevisionHistory(
             @NotNull final List<IFileSpec> depotFiles, final int maxRevisions)
@@ -750,25 +908,67 @@ public class P4Exec2 {
         });
     }
 
-    @NotNull
-    public List<IFileSpec> synchronizeFiles(@NotNull final List<IFileSpec> files,
-            final boolean forceSync)
+    /**
+     * Sync the files, passing each file's result to the consumer as the
+     * server reports it.  A file is reported just before its contents are
+     * transferred, so its contents are only known to be written once the
+     * next result arrives or this returns.
+     */
+    public void synchronizeFiles(@NotNull final List<IFileSpec> files,
+            final boolean forceSync, @NotNull final FileSpecConsumer consumer)
             throws VcsException, CancellationException {
         if (files.isEmpty()) {
-            return Collections.emptyList();
+            return;
         }
-        return exec.runWithClient(project, new ClientExec.WithClient<List<IFileSpec>>() {
+        exec.runWithClient(project, new ClientExec.WithClient<Void>() {
             @Override
-            public List<IFileSpec> run(@NotNull IOptionsServer server, @NotNull IClient client,
+            public Void run(@NotNull IOptionsServer server, @NotNull IClient client,
                     @NotNull ClientExec.ServerCount count)
                     throws P4JavaException, IOException, InterruptedException, TimeoutException, URISyntaxException, P4Exception {
                 count.invoke("sync");
-                final List<IFileSpec> ret = client.sync(files,
-                        new SyncOptions(forceSync, false, false, false, false));
-                if (ret == null) {
-                    return Collections.emptyList();
-                }
-                return ret;
+                consumer.start();
+                client.sync(files, new SyncOptions(forceSync, false, false, false, false),
+                        new IFileSpecCallback() {
+                            @Override
+                            public boolean handleSpec(IFileSpec spec, int key) {
+                                consumer.consume(spec);
+                                return true;
+                            }
+                        }, 0);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Run "p4 grep" over the depot specs, passing each line to the consumer
+     * as the server reports it.
+     */
+    public void streamMatchingLines(@NotNull final List<IFileSpec> specs, @NotNull final String pattern,
+            @NotNull final MatchingLinesOptions options, @NotNull final FileLineMatchConsumer consumer)
+            throws VcsException, CancellationException {
+        if (specs.isEmpty()) {
+            return;
+        }
+        exec.runWithClient(project, new ClientExec.WithClient<Void>() {
+            @Override
+            public Void run(@NotNull IOptionsServer server, @NotNull IClient client,
+                    @NotNull ClientExec.ServerCount count)
+                    throws P4JavaException, IOException, InterruptedException, TimeoutException, URISyntaxException, P4Exception {
+                count.invoke("grep");
+                consumer.start();
+                server.getMatchingLines(specs, pattern, options, new IFileLineMatchCallback() {
+                    @Override
+                    public boolean handleMatch(IFileLineMatch match, int key) {
+                        return consumer.consume(match);
+                    }
+
+                    @Override
+                    public boolean handleInfo(IServerMessage message, int key) {
+                        return consumer.info(message.getLocalizedMessage());
+                    }
+                }, 0);
+                return null;
             }
         });
     }
@@ -1032,78 +1232,95 @@ public class P4Exec2 {
     }
 
 
-    @NotNull
-    private MessageResult<List<IExtendedFileSpec>> loadFstatForFileResult(@NotNull IOptionsServer server,
-            @NotNull List<IFileSpec> files, boolean markFileNotFoundAsValid) throws P4JavaException, P4FileException {
-        // We will need to get the full information on these files, so grab that, too.
-        // We keep a list of all the returned specs that were messages, and include the
-        // specs for the fstat results.  The result from the "opened" operation will
-        // only ever return the depot path.
-        List<IExtendedFileSpec> retSpecs = new ArrayList<IExtendedFileSpec>(files.size());
-        List<IFileSpec> fstatSpecs = new ArrayList<IFileSpec>(files.size());
-        for (IFileSpec spec : files) {
-            if (spec.getDepotPathString() != null &&
-                    (P4StatusMessage.isValid(spec) || P4StatusMessage.isFileNotFoundError(spec))) {
-                // File is either in Perforce, or not in Perforce but is added for open,
-                // or something else.
-                // the old path is already escaped.  just shove it into a new file spec to
-                // strip off any extra information we don't want to query.
-                spec = FileSpecUtil.getAlreadyEscapedSpec(spec.getDepotPathString());
-                fstatSpecs.add(spec);
-            } else {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Found spec message (not going to fstat on it): " + spec.getOpStatus() + "/" +
-                            spec.getStatusMessage());
-                }
-                retSpecs.add(new ExtendedFileSpec(spec.getStatusMessage()));
+    private List<IExtendedFileSpec> getExtendedFiles(@NotNull List<IFileSpec> fstatSpecs,
+            @NotNull IOptionsServer server, @NotNull GetExtendedFilesOptions opts) throws P4JavaException {
+        // Streamed straight into the list, which skips the intermediate list
+        // of raw result maps.
+        final List<IExtendedFileSpec> specs = new ArrayList<IExtendedFileSpec>(fstatSpecs.size());
+        streamExtendedFiles(fstatSpecs, server, opts, new ExtendedFileSpecConsumer() {
+            @Override
+            public void start() {
+                specs.clear();
             }
-        }
-        if (! fstatSpecs.isEmpty()) {
-            GetExtendedFilesOptions opts = new GetExtendedFilesOptions(
-                    "-m", Integer.toString(files.size()));
-            final List<IExtendedFileSpec> fstatRet = getExtendedFiles(fstatSpecs, server, opts);
-            retSpecs.addAll(fstatRet);
-        }
-        return MessageResult.create(retSpecs, markFileNotFoundAsValid);
+
+            @Override
+            public void consume(@NotNull final IExtendedFileSpec spec) {
+                specs.add(spec);
+            }
+        });
+        return specs;
     }
 
 
+    private static void streamExtendedFiles(@NotNull List<IFileSpec> fstatSpecs,
+            @NotNull IOptionsServer server, @NotNull GetExtendedFilesOptions opts,
+            @NotNull final ExtendedFileSpecConsumer consumer) throws P4JavaException {
+        consumer.start();
+        server.getExtendedFiles(fstatSpecs, opts, new IExtendedFileSpecCallback() {
+            @Override
+            public boolean handleSpec(final IExtendedFileSpec spec, final int key) {
+                consumer.consume(cleanExtendedFileSpec(spec));
+                return true;
+            }
+        }, 0);
+    }
+
+
+    @NotNull
+    private static IExtendedFileSpec cleanOpenedFileSpec(@NotNull IExtendedFileSpec spec) {
+        if (! P4StatusMessage.isValid(spec)) {
+            return spec;
+        }
+
+        // The columnar specs have no original path or server to clean up.
+        unescapeDepotPath(spec);
+        fixUnknownAction(spec);
+        return spec;
+    }
 
-    private List<IExtendedFileSpec> getExtendedFiles(@NotNull List<IFileSpec> fstatSpecs,
-            @NotNull IOptionsServer server, @NotNull GetExtendedFilesOptions opts) throws P4JavaException {
-        final List<IExtendedFileSpec> specs = server.getExtendedFiles(fstatSpecs, opts);
 
+    private static void unescapeDepotPath(@NotNull IExtendedFileSpec spec) {
         // Make sure the specs are unescaped on return
-        for (IExtendedFileSpec spec : specs) {
-            //LOG.info(" >>> " + spec.getDepotPathString());
-            // this needs to be done *juuust* right, otherwise it escapes for us.
-            spec.setPath(new FilePath(PathType.DEPOT,
-                    FileSpecUtil.unescapeP4PathNullable(spec.getDepotPathString()),
-                    true));
-            // client path string is already unescaped, so don't touch it
-            //spec.setClientPath(FileSpecUtil.unescapeP4PathNullable(spec.getClientPathString()));
-
-            // original is usually messed up - it strips off the necessary escaping
-            // (e.g. if path is //a@b, this will be //a), so we make it look identical
-            // to the depot path.
-            spec.setPath(new FilePath(PathType.ORIGINAL,
-                    FileSpecUtil.unescapeP4PathNullable(spec.getDepotPathString()),
-                    true));
-
-            // local path is almost always null, so explicitly make it so
-            // spec.setLocalPath(null);
-
-            //LOG.info(" depot " + spec.getDepotPathString());
-            //LOG.info(" client: " + spec.getClientPathString());
-
-            // an "unknown" action with null head action means it's been
-            // open for add.  This looks like a weird bug with the P4Java API
-            if (spec.getAction() == FileAction.UNKNOWN && spec.getHeadAction() == null) {
-                spec.setAction(FileAction.ADD);
-            }
 
-            spec.setServer(null);
+        //LOG.info(" >>> " + spec.getDepotPathString());
+        // this needs to be done *juuust* right, otherwise it escapes for us.
+        spec.setPath(new FilePath(PathType.DEPOT,
+                FileSpecUtil.unescapeP4PathNullable(spec.getDepotPathString()),
+                true));
+    }
+
+
+    private static void fixUnknownAction(@NotNull IExtendedFileSpec spec) {
+        // an "unknown" action with null head action means it's been
+        // open for add.  This looks like a weird bug with the P4Java API
+        if (spec.getAction() == FileAction.UNKNOWN && spec.getHeadAction() == null) {
+            spec.setAction(FileAction.ADD);
         }
-        return specs;
+    }
+
+
+    @NotNull
+    private static IExtendedFileSpec cleanExtendedFileSpec(@NotNull IExtendedFileSpec spec) {
+        unescapeDepotPath(spec);
+        // client path string is already unescaped, so don't touch it
+        //spec.setClientPath(FileSpecUtil.unescapeP4PathNullable(spec.getClientPathString()));
+
+        // original is usually messed up - it strips off the necessary escaping
+        // (e.g. if path is //a@b, this will be //a), so we make it look identical
+        // to the depot path.
+        spec.setPath(new FilePath(PathType.ORIGINAL,
+                FileSpecUtil.unescapeP4PathNullable(spec.getDepotPathString()),
+                true));
+
+        // local path is almost always null, so explicitly make it so
+        // spec.setLocalPath(null);
+
+        //LOG.info(" depot " + spec.getDepotPathString());
+        //LOG.info(" client: " + spec.getClientPathString());
+
+        fixUnknownAction(spec);
+
+        spec.setServer(null);
+        return spec;
     }
 }
@@ -29,6 +29,7 @@ import net.groboclown.idea.p4ic.v2.server.cache.UpdateGroup;
 import net.groboclown.idea.p4ic.v2.server.cache.state.PendingUpdateState;
 import net.groboclown.idea.p4ic.v2.server.cache.sync.ClientCacheManager;
 import net.groboclown.idea.p4ic.v2.server.connection.Synchronizer.ActionRunner;
+import net.groboclown.idea.p4ic.v2.server.metrics.P4Metrics;
 import net.groboclown.idea.p4ic.v2.server.util.FilePathUtil;
 import net.groboclown.idea.p4ic.v2.ui.alerts.ConfigurationProblemHandler;
 import net.groboclown.idea.p4ic.v2.ui.alerts.DisconnectedHandler;
@@ -38,6 +39,7 @@ import org.jetbrains.annotations.Nullable;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -48,6 +50,7 @@ public class ServerConnection {
     private static final Logger LOG = Logger.getInstance(ServerConnection.class);
     private static final ThreadGroup CONNECTION_THREAD_GROUP = new ThreadGroup("Server Connection");
     private static final ThreadLocal<Boolean> THREAD_EXECUTION_ACTIVE = new ThreadLocal<Boolean>();
+    public static final int MAX_SEARCH_CONNECTIONS = 4;
     private final BlockingQueue<UpdateAction> pendingUpdates = new LinkedBlockingDeque<UpdateAction>();
     private final Queue<UpdateAction> redo = new ArrayDeque<UpdateAction>();
     private final Lock redoLock = new ReentrantLock();
@@ -59,11 +62,18 @@ public class ServerConnection {
     private final Object clientExecLock = new Object();
     private final Thread background;
     private final Synchronizer.ServerSynchronizer.ConnectionSynchronizer synchronizer;
+
+    // The projects sharing this connection, with the number of references each holds.
+    // Guarded by itself.
+    private final Map<Project, Integer> references = new HashMap<Project, Integer>();
     private volatile boolean disposed = false;
     private boolean loadedPendingUpdateStates = false;
     private volatile boolean setup = false;
     @Nullable
     private ClientExec clientExec;
+    // Extra connections for searchQuery; guarded by clientExecLock.
+    private final Deque<ClientExec> idleSearchExecs = new ArrayDeque<ClientExec>();
+    private final Semaphore searchPermits = new Semaphore(MAX_SEARCH_CONNECTIONS);
 
 
     public static void assertInServerConnection() {
@@ -124,8 +134,17 @@ public class ServerConnection {
             // up if we have a mistaken online mode set.  If we know we're
             // working offline, then don't check if we're online (especially since
             // the user can manually switch to offline mode).
+            // The check runs through the connection's own ClientExec, so the
+            // server connection it opens is reused by the first real query.
             if (isWorkingOnline()) {
-                ClientExec.checkIfOnline(project, config, statusController);
+                final long start = System.currentTimeMillis();
+                try {
+                    getClientExec().checkIfOnline(project);
+                } catch (P4InvalidConfigException e) {
+                    alertManager.addCriticalError(new ConfigurationProblemHandler(project, statusController, e), e);
+                }
+                LOG.info("Online check for " + clientName + " took " +
+                        (System.currentTimeMillis() - start) + " ms");
             }
 
             // Push all the cached pending updates into the queue for future
@@ -138,6 +157,49 @@ public class ServerConnection {
     }
 
 
+    /**
+     * Register one more user of this connection for the project.  Called by
+     * the {@link ServerConnectionManager} when it hands out the connection.
+     */
+    void addReference(@NotNull Project project) {
+        synchronized (references) {
+            final Integer count = references.get(project);
+            references.put(project, count == null ? 1 : count + 1);
+        }
+    }
+
+
+    /**
+     * Release one reference held by the project.
+     *
+     * @return true if no project references the connection anymore.
+     */
+    boolean removeReference(@NotNull Project project) {
+        synchronized (references) {
+            final Integer count = references.get(project);
+            if (count != null) {
+                if (count <= 1) {
+                    references.remove(project);
+                } else {
+                    references.put(project, count - 1);
+                }
+            }
+            return references.isEmpty();
+        }
+    }
+
+
+    /**
+     * @return the projects which currently share this connection.
+     */
+    @NotNull
+    public Collection<Project> getReferencingProjects() {
+        synchronized (references) {
+            return new ArrayList<Project>(references.keySet());
+        }
+    }
+
+
     public void dispose() {
         disposed = true;
         background.interrupt();
@@ -146,7 +208,9 @@ public class ServerConnection {
                 clientExec.dispose();
                 clientExec = null;
             }
+            disposeIdleSearchExecs();
         }
+        discardPendingActions();
     }
 
 
@@ -154,6 +218,10 @@ public class ServerConnection {
     public void queueAction(@NotNull Project project, @NotNull ServerUpdateAction action) {
         LOG.info("Queueing action for execution: " + action);
         pendingUpdates.add(new UpdateAction(project, action));
+        P4Metrics.getInstance().updateQueued();
+        if (disposed) {
+            discardPendingActions();
+        }
     }
 
     /**
@@ -199,6 +267,33 @@ public class ServerConnection {
     }
 
 
+    /**
+     * Run a long, read-only query, such as a depot search, on one of a small
+     * pool of extra connections.  Unlike {@link #query(Project, ServerQuery)},
+     * this doesn't wait on the connection lock or hold the IDE read lock, so
+     * the other server work isn't held up while it runs, and several can run
+     * at once.  The query must not change the cache.
+     */
+    @Nullable
+    public <T> T searchQuery(@NotNull final Project project, @NotNull final ServerQuery<T> query)
+            throws InterruptedException {
+        searchPermits.acquire();
+        ClientExec exec = null;
+        try {
+            exec = borrowSearchExec();
+            return query.query(new P4Exec2(project, exec), cacheManager, this, alertManager);
+        } catch (P4InvalidConfigException e) {
+            alertManager.addCriticalError(new ConfigurationProblemHandler(project, statusController, e), e);
+            return null;
+        } finally {
+            if (exec != null) {
+                returnSearchExec(exec);
+            }
+            searchPermits.release();
+        }
+    }
+
+
     /**
      * Retry running a command that failed.  This should usually be put back at the head
      * of the action queue.  It is sometimes necessary if the command fails due to a
@@ -286,6 +381,12 @@ public class ServerConnection {
 
 
     P4Exec2 getExec(@NotNull Project project) throws P4InvalidConfigException {
+        return new P4Exec2(project, getClientExec());
+    }
+
+
+    @NotNull
+    private ClientExec getClientExec() throws P4InvalidConfigException {
         if (disposed) {
             throw new IllegalStateException("connection disposed");
         }
@@ -294,7 +395,7 @@ public class ServerConnection {
             if (clientExec == null) {
                 clientExec = new ClientExec(config, statusController, clientName);
             }
-            return new P4Exec2(project, clientExec);
+            return clientExec;
         }
     }
 
@@ -334,7 +435,44 @@ public class ServerConnection {
                 clientExec.dispose();
                 clientExec = null;
             }
+            disposeIdleSearchExecs();
+        }
+    }
+
+
+    @NotNull
+    private ClientExec borrowSearchExec() throws P4InvalidConfigException {
+        if (disposed) {
+            throw new IllegalStateException("connection disposed");
+        }
+        synchronized (clientExecLock) {
+            final ClientExec idle = idleSearchExecs.poll();
+            if (idle != null) {
+                return idle;
+            }
+        }
+        return new ClientExec(config, statusController, clientName);
+    }
+
+
+    private void returnSearchExec(@NotNull ClientExec exec) {
+        synchronized (clientExecLock) {
+            // A connection borrowed before going offline isn't reused.
+            if (! disposed && isWorkingOnline()) {
+                idleSearchExecs.push(exec);
+                return;
+            }
         }
+        exec.dispose();
+    }
+
+
+    // must be called with the clientExecLock held
+    private void disposeIdleSearchExecs() {
+        for (ClientExec exec : idleSearchExecs) {
+            exec.dispose();
+        }
+        idleSearchExecs.clear();
     }
 
 
@@ -354,6 +492,7 @@ public class ServerConnection {
             LOG.debug("pulled action " + action + "; pending size " + pendingUpdates.size() + "; redo size " +
                     redo.size());
         }
+        P4Metrics.getInstance().updateDequeued(action.queuedNanos);
         return action;
     }
 
@@ -365,6 +504,31 @@ public class ServerConnection {
         } finally {
             redoLock.unlock();
         }
+        P4Metrics.getInstance().updateQueued();
+        if (disposed) {
+            discardPendingActions();
+        }
+    }
+
+
+    /**
+     * The queue runner has stopped, so the queued actions will never run;
+     * take them off of the metrics' queue depth.
+     */
+    private void discardPendingActions() {
+        final List<UpdateAction> discarded = new ArrayList<UpdateAction>();
+        redoLock.lock();
+        try {
+            discarded.addAll(redo);
+            redo.clear();
+        } finally {
+            redoLock.unlock();
+        }
+        pendingUpdates.drainTo(discarded);
+        if (! discarded.isEmpty()) {
+            LOG.info("Discarding " + discarded.size() + " actions queued on the disposed connection");
+            P4Metrics.getInstance().updateDiscarded(discarded.size());
+        }
     }
 
 
@@ -380,14 +544,21 @@ public class ServerConnection {
 
 
                 // Wait for something to do first
-                final UpdateAction action;
+                final UpdateAction pulled;
                 try {
-                    action = pullNextAction();
+                    pulled = pullNextAction();
                 } catch (InterruptedException e) {
                     // this is fine.
                     LOG.info(e);
                     continue;
                 }
+                final UpdateAction action = getLiveAction(pulled);
+                if (action == null) {
+                    // Its pending update states stay in the cache, so it
+                    // runs again when a project next opens this client.
+                    LOG.info("Skipping " + pulled + "; no open project uses this connection");
+                    continue;
+                }
 
                 try {
                     boolean didRun = synchronizer.runBackgroundAction(new ActionRunner<Void>() {
@@ -421,8 +592,15 @@ public class ServerConnection {
                                 // processed the action.
                                 cacheManager.removePendingUpdateStates(action.action.getPendingUpdateStates());
 
-                            // force a changelist refresh
-                            P4ChangesViewRefresher.refreshLater(exec.getProject());
+                            // force a changelist refresh in every project that shares
+                            // this client, because they all share the updated cache.
+                            final Set<Project> projects = new HashSet<Project>(getReferencingProjects());
+                            projects.add(exec.getProject());
+                            for (Project project : projects) {
+                                if (! project.isDisposed()) {
+                                    P4ChangesViewRefresher.refreshLater(project);
+                                }
+                            }
 
                             return null;
                         }
@@ -455,6 +633,28 @@ public class ServerConnection {
         }
     }
 
+    /**
+     * The project that queued the action may have been closed since.  All
+     * the projects sharing this connection share its cache, so the action
+     * can run for any of them that is still open.
+     *
+     * @return the action to run, or null if no open project uses this
+     *      connection.
+     */
+    @Nullable
+    private UpdateAction getLiveAction(@NotNull UpdateAction action) {
+        if (! action.project.isDisposed()) {
+            return action;
+        }
+        for (Project project : getReferencingProjects()) {
+            if (! project.isDisposed()) {
+                return new UpdateAction(project, action.action, action.queuedNanos);
+            }
+        }
+        return null;
+    }
+
+
     @Nullable
     private static FilePath[] getFilesFor(final Collection<PendingUpdateState> pendingUpdateStates) {
         List<FilePath> ret = new ArrayList<FilePath>(pendingUpdateStates.size());
@@ -477,9 +677,17 @@ public class ServerConnection {
         final ServerUpdateAction action;
         final Project project;
 
+        // Kept when the action is requeued, so the queue age covers every attempt.
+        final long queuedNanos;
+
         UpdateAction(@NotNull Project project, @NotNull ServerUpdateAction action) {
+            this(project, action, System.nanoTime());
+        }
+
+        UpdateAction(@NotNull Project project, @NotNull ServerUpdateAction action, long queuedNanos) {
             this.action = action;
             this.project = project;
+            this.queuedNanos = queuedNanos;
         }
 
         @Override
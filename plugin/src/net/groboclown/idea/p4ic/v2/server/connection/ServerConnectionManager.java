@@ -38,6 +38,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -76,9 +77,12 @@ public class ServerConnectionManager implements ApplicationComponent {
             @Override
             public void configUpdated(@NotNull final Project project,
                     @NotNull final List<ProjectConfigSource> sources) {
-                // FIXME update ONLY for the project.
-                // This means we need a mapping between projects and sources.
-                invalidateAllConfigs();
+                // The project's servers are recreated by its P4ServerManager,
+                // which releases the connections it no longer uses, so the
+                // connections shared with other projects stay open.  Only the
+                // connections marked invalid are dropped, so that the updated
+                // configuration gets a fresh chance to connect.
+                invalidateBadConfigs();
             }
         });
         Events.registerServerConnectionAppConfigInvalid(messageBus, new ConfigInvalidListener() {
@@ -124,14 +128,18 @@ public class ServerConnectionManager implements ApplicationComponent {
 
 
     /**
-     *
+     * Get the connection for the client, shared by every project that uses
+     * the same client and server.  Each call adds a reference for the project,
+     * which must be given back with {@link #releaseConnection(ServerConfig, ServerConnection, Project)}.
      *
      * @param clientServerId client/server ID
      * @param config configuration for the server.
+     * @param project project which will use the connection.
      * @return connection
      */
     @NotNull
-    public ServerConnection getConnectionFor(@NotNull ClientServerId clientServerId, @NotNull ServerConfig config)
+    public ServerConnection getConnectionFor(@NotNull ClientServerId clientServerId, @NotNull ServerConfig config,
+            @NotNull Project project)
             throws P4InvalidClientException {
         serverCacheLock.lock();
         try {
@@ -140,7 +148,39 @@ public class ServerConnectionManager implements ApplicationComponent {
                 status = new ServerConfigStatus(config, alerts.createServerSynchronizer());
                 serverCache.put(config, status);
             }
-            return status.getConnectionFor(clientServerId, alerts, cacheManager);
+            final ServerConnection connection = status.getConnectionFor(clientServerId, alerts, cacheManager);
+            connection.addReference(project);
+            return connection;
+        } finally {
+            serverCacheLock.unlock();
+        }
+    }
+
+
+    /**
+     * Release a reference returned by {@link #getConnectionFor(ClientServerId, ServerConfig, Project)}.
+     * When no project references the connection anymore, it is disposed.
+     *
+     * @param config configuration the connection was created with.
+     * @param connection connection to release
+     * @param project project which used the connection.
+     */
+    public void releaseConnection(@NotNull ServerConfig config, @NotNull ServerConnection connection,
+            @NotNull Project project) {
+        serverCacheLock.lock();
+        try {
+            if (! connection.removeReference(project)) {
+                return;
+            }
+            final ServerConfigStatus status = serverCache.get(config);
+            if (status == null || ! status.removeConnection(connection)) {
+                // Already removed from the cache when its configuration was
+                // invalidated; just make sure it's shut down.
+                connection.dispose();
+            } else if (status.clientNames.isEmpty()) {
+                status.dispose();
+                serverCache.remove(config);
+            }
         } finally {
             serverCacheLock.unlock();
         }
@@ -174,13 +214,17 @@ public class ServerConnectionManager implements ApplicationComponent {
     }
 
 
-    void invalidateAllConfigs() {
+    void invalidateBadConfigs() {
         serverCacheLock.lock();
         try {
-            for (ServerConfigStatus status: serverCache.values()) {
-                status.dispose();
+            final Iterator<ServerConfigStatus> iter = serverCache.values().iterator();
+            while (iter.hasNext()) {
+                final ServerConfigStatus status = iter.next();
+                if (! status.isValid()) {
+                    status.dispose();
+                    iter.remove();
+                }
             }
-            serverCache.clear();
         } finally {
             serverCacheLock.unlock();
         }
@@ -258,6 +302,23 @@ public class ServerConnectionManager implements ApplicationComponent {
             return clientNames.isEmpty();
         }
 
+        /**
+         * Dispose the connection, which is no longer referenced.
+         *
+         * @return false if the connection was not registered with this status.
+         */
+        synchronized boolean removeConnection(@NotNull ServerConnection connection) {
+            final Iterator<ServerConnection> iter = clientNames.values().iterator();
+            while (iter.hasNext()) {
+                if (iter.next() == connection) {
+                    iter.remove();
+                    connection.dispose();
+                    return true;
+                }
+            }
+            return false;
+        }
+
         @Override
         public boolean isWorkingOffline() {
             return disposed || ! valid || ! online;
@@ -17,6 +17,8 @@ package net.groboclown.idea.p4ic.v2.server.connection;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.ThrowableComputable;
+import net.groboclown.idea.p4ic.v2.server.metrics.P4Metrics;
+import net.groboclown.idea.p4ic.v2.server.metrics.P4Metrics.Phase;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.concurrent.TimeUnit;
@@ -174,8 +176,11 @@ class Synchronizer {
                             @Override
                             public T compute() throws InterruptedException {
                                 // Wait for the connection.
+                                final long waitStart = System.nanoTime();
                                 boolean acquired =
                                         connectionLock.tryLock(connectionWaitTimeMillis, TimeUnit.MILLISECONDS);
+                                P4Metrics.getInstance().record(P4Metrics.CONNECTION_LOCK, Phase.WAIT,
+                                        System.nanoTime() - waitStart);
                                 if (!acquired) {
                                     throw new InterruptedException("lock acquire timeout");
                                 }
@@ -210,7 +215,10 @@ class Synchronizer {
                             @Override
                             public Void compute() throws InterruptedException {
                                 // Wait forever for the connection.
+                                final long waitStart = System.nanoTime();
                                 connectionLock.lock();
+                                P4Metrics.getInstance().record(P4Metrics.CONNECTION_LOCK, Phase.WAIT,
+                                        System.nanoTime() - waitStart);
                                 try {
                                     // Run the action.
                                     runner.perform();
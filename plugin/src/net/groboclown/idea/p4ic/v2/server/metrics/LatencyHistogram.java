@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power-of-two microsecond buckets.
+ * Bucket 0 holds everything under a microsecond, and bucket <tt>n</tt>
+ * holds the times in [2<sup>n-1</sup>, 2<sup>n</sup>) microseconds, so the
+ * percentiles are accurate to within a factor of two, which is plenty to
+ * tell a slow lock from a slow server.
+ */
+public class LatencyHistogram {
+    static final int BUCKET_COUNT = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketFor(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && ! maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+
+    public long getCount() {
+        return count.get();
+    }
+
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+
+    public long getMeanNanos() {
+        final long c = count.get();
+        return c <= 0 ? 0 : totalNanos.get() / c;
+    }
+
+
+    /**
+     * @param percentile value between 0 and 1
+     * @return the upper bound of the bucket that contains the percentile,
+     *      capped by the largest recorded time.
+     */
+    public long getPercentileNanos(double percentile) {
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total <= 0) {
+            return 0;
+        }
+        final long target = Math.max(1L, (long) Math.ceil(total * percentile));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperNanos(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+
+    static int bucketFor(long nanos) {
+        final long micros = nanos / 1000L;
+        final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+
+    static long bucketUpperNanos(int bucket) {
+        return (1L << bucket) * 1000L;
+    }
+}
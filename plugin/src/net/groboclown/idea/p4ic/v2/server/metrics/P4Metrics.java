@@ -0,0 +1,400 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.metrics;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ApplicationComponent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.perforce.p4java.server.callback.ICommandTimingCallback;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the timing of the server activity, so that a report of "the IDE
+ * hangs" can be tracked down to where the time actually went.  The metrics
+ * are only held in memory, and are shown in the Perforce metrics tool window,
+ * through JMX, and in an exported report.
+ * <p/>
+ * The latency of each Perforce command is split into {@link Phase phases}.
+ * The wire phases (send, server, receive) are recorded by the p4java
+ * {@link ICommandTimingCallback} against the Perforce command name; the
+ * plugin records the lock wait and connection setup against fixed names,
+ * and the map phase (the time spent in the plugin around the commands)
+ * against the plugin operation.
+ */
+public class P4Metrics implements ApplicationComponent, P4MetricsMBean {
+    private static final Logger LOG = Logger.getInstance(P4Metrics.class);
+
+    public static final String MBEAN_NAME = "net.groboclown.idea.p4ic:type=Metrics";
+
+    public static final String CONNECTION_LOCK = "(connection lock)";
+    public static final String CONNECT = "(connect)";
+    private static final String UNKNOWN_OPERATION = "(unknown)";
+
+    public enum Phase {
+        /** waiting for the connection lock */
+        WAIT,
+        /** creating and authenticating a new server connection */
+        CONNECT,
+        /** writing the command to the server */
+        SEND,
+        /** from the command sent, until the first response packet */
+        SERVER,
+        /** reading and dispatching the response */
+        RECEIVE,
+        /** plugin processing around the server commands */
+        MAP
+    }
+
+    private final ConcurrentMap<String, CommandMetrics> commands = new ConcurrentHashMap<String, CommandMetrics>();
+    private final ConcurrentMap<String, CacheMetrics> caches = new ConcurrentHashMap<String, CacheMetrics>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LatencyHistogram queueAge = new LatencyHistogram();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private volatile long collectStartMillis = System.currentTimeMillis();
+
+    // Per-thread total of the wire time, so that an operation can tell how
+    // much of its own time was spent outside of the server commands.
+    private final ThreadLocal<long[]> threadWireNanos = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final ICommandTimingCallback timingCallback = new ICommandTimingCallback() {
+        @Override
+        public void commandTimed(String cmdName, long sendNanos, long serverNanos, long receiveNanos,
+                long sent, long received) {
+            final CommandMetrics metrics = getCommand(cmdName == null ? UNKNOWN_OPERATION : cmdName);
+            metrics.get(Phase.SEND).record(sendNanos);
+            metrics.get(Phase.SERVER).record(serverNanos);
+            metrics.get(Phase.RECEIVE).record(receiveNanos);
+            bytesSent.addAndGet(sent);
+            bytesReceived.addAndGet(received);
+            threadWireNanos.get()[0] += sendNanos + serverNanos + receiveNanos;
+        }
+    };
+
+    private ObjectName registeredName;
+
+
+    @NotNull
+    public static P4Metrics getInstance() {
+        return ApplicationManager.getApplication().getComponent(P4Metrics.class);
+    }
+
+
+    @Override
+    public void initComponent() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(MBEAN_NAME);
+            if (! server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                registeredName = name;
+            }
+        } catch (JMException e) {
+            LOG.info("Could not register the metrics with JMX", e);
+        }
+    }
+
+
+    @Override
+    public void disposeComponent() {
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                LOG.info("Could not unregister the metrics from JMX", e);
+            }
+            registeredName = null;
+        }
+    }
+
+
+    @NotNull
+    @Override
+    public String getComponentName() {
+        return "Perforce Metrics";
+    }
+
+
+    /**
+     * @return the callback to register with each p4java server.
+     */
+    @NotNull
+    public ICommandTimingCallback getTimingCallback() {
+        return timingCallback;
+    }
+
+
+    public void record(@NotNull String name, @NotNull Phase phase, long nanos) {
+        getCommand(name).get(phase).record(nanos);
+    }
+
+
+    /**
+     * Start timing a plugin operation, which runs zero or more server
+     * commands in the current thread.
+     */
+    @NotNull
+    public OperationTimer startOperation() {
+        return new OperationTimer();
+    }
+
+
+    public void updateQueued() {
+        final int depth = queueDepth.incrementAndGet();
+        int max = maxQueueDepth.get();
+        while (depth > max && ! maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+
+    /**
+     * @param queuedNanos the {@link System#nanoTime()} when the update was queued.
+     */
+    public void updateDequeued(long queuedNanos) {
+        queueDepth.decrementAndGet();
+        queueAge.record(System.nanoTime() - queuedNanos);
+    }
+
+
+    /**
+     * @param count number of queued updates that were dropped without running.
+     */
+    public void updateDiscarded(int count) {
+        queueDepth.addAndGet(-count);
+    }
+
+
+    public void cacheHit(@NotNull String cache) {
+        getCache(cache).hits.incrementAndGet();
+    }
+
+
+    public void cacheMiss(@NotNull String cache) {
+        getCache(cache).misses.incrementAndGet();
+    }
+
+
+    // ----------------------------------------------------------------------
+    // MBean
+
+    @Override
+    public String getReport() {
+        final StringWriter out = new StringWriter();
+        writeReport(new PrintWriter(out));
+        return out.toString();
+    }
+
+
+    @Override
+    public int getUpdateQueueDepth() {
+        return queueDepth.get();
+    }
+
+
+    @Override
+    public int getMaxUpdateQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+
+    @Override
+    public long getCollectedMillis() {
+        return System.currentTimeMillis() - collectStartMillis;
+    }
+
+
+    @Override
+    public void reset() {
+        // The queue depth is a live value, so it isn't reset.
+        commands.clear();
+        caches.clear();
+        maxQueueDepth.set(queueDepth.get());
+        queueAge.reset();
+        bytesSent.set(0);
+        bytesReceived.set(0);
+        collectStartMillis = System.currentTimeMillis();
+    }
+
+
+    @Override
+    public void exportReport(String fileName) throws IOException {
+        exportReport(new File(fileName));
+    }
+
+
+    public void exportReport(@NotNull File file) throws IOException {
+        final PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writeReport(out);
+        } finally {
+            out.close();
+        }
+        LOG.info("Exported the Perforce metrics to " + file);
+    }
+
+
+    public void writeReport(@NotNull PrintWriter out) {
+        out.printf("Perforce plugin metrics, collected over %d seconds%n", getCollectedMillis() / 1000L);
+        out.printf("%nUpdate queue: depth %d (max %d); wait %s%n",
+                queueDepth.get(), maxQueueDepth.get(), describe(queueAge));
+        out.printf("Bytes sent: %d; bytes received: %d%n", bytesSent.get(), bytesReceived.get());
+
+        out.printf("%nCaches:%n");
+        for (Map.Entry<String, CacheMetrics> entry : new TreeMap<String, CacheMetrics>(caches).entrySet()) {
+            final long hits = entry.getValue().hits.get();
+            final long misses = entry.getValue().misses.get();
+            out.printf("  %-40s %8d hits %8d misses (%d%% hit rate)%n", entry.getKey(), hits, misses,
+                    hits + misses <= 0 ? 0 : (hits * 100L) / (hits + misses));
+        }
+
+        out.printf("%nLatency (ms):%n");
+        out.printf("  %-40s %-8s %8s %9s %9s %9s %9s %9s%n",
+                "command", "phase", "count", "mean", "p50", "p90", "p99", "max");
+        for (Map.Entry<String, CommandMetrics> entry : new TreeMap<String, CommandMetrics>(commands).entrySet()) {
+            for (Phase phase : Phase.values()) {
+                final LatencyHistogram histogram = entry.getValue().phases.get(phase);
+                if (histogram.getCount() > 0) {
+                    out.printf("  %-40s %-8s %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                            entry.getKey(), phase.name().toLowerCase(Locale.ENGLISH), histogram.getCount(),
+                            toMillis(histogram.getMeanNanos()),
+                            toMillis(histogram.getPercentileNanos(0.5)),
+                            toMillis(histogram.getPercentileNanos(0.9)),
+                            toMillis(histogram.getPercentileNanos(0.99)),
+                            toMillis(histogram.getMaxNanos()));
+                }
+            }
+        }
+        out.flush();
+    }
+
+
+    @NotNull
+    private static String describe(@NotNull LatencyHistogram histogram) {
+        return String.format("count %d, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                histogram.getCount(),
+                toMillis(histogram.getPercentileNanos(0.5)),
+                toMillis(histogram.getPercentileNanos(0.99)),
+                toMillis(histogram.getMaxNanos()));
+    }
+
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+
+    @NotNull
+    private CommandMetrics getCommand(@NotNull String name) {
+        CommandMetrics ret = commands.get(name);
+        if (ret == null) {
+            ret = new CommandMetrics();
+            final CommandMetrics prev = commands.putIfAbsent(name, ret);
+            if (prev != null) {
+                ret = prev;
+            }
+        }
+        return ret;
+    }
+
+
+    @NotNull
+    private CacheMetrics getCache(@NotNull String name) {
+        CacheMetrics ret = caches.get(name);
+        if (ret == null) {
+            ret = new CacheMetrics();
+            final CacheMetrics prev = caches.putIfAbsent(name, ret);
+            if (prev != null) {
+                ret = prev;
+            }
+        }
+        return ret;
+    }
+
+
+    /**
+     * Times a single plugin operation.  Must be finished in the same thread
+     * that started it.
+     */
+    public class OperationTimer {
+        private final long startNanos = System.nanoTime();
+        private final long startWireNanos = threadWireNanos.get()[0];
+
+        private OperationTimer() {
+        }
+
+        /**
+         * @param operation the operation name, or null if it never named itself.
+         */
+        public void finish(@Nullable String operation) {
+            final long elapsed = System.nanoTime() - startNanos;
+            final long wire = threadWireNanos.get()[0] - startWireNanos;
+            record(operation == null ? UNKNOWN_OPERATION : operation, Phase.MAP, elapsed - wire);
+        }
+    }
+
+
+    private static class CommandMetrics {
+        private final Map<Phase, LatencyHistogram> phases = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+
+        private CommandMetrics() {
+            // Fully populated up front, so the map is only ever read afterwards.
+            for (Phase phase : Phase.values()) {
+                phases.put(phase, new LatencyHistogram());
+            }
+        }
+
+        @NotNull
+        LatencyHistogram get(@NotNull Phase phase) {
+            return phases.get(phase);
+        }
+    }
+
+
+    private static class CacheMetrics {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.metrics;
+
+import java.io.IOException;
+
+/**
+ * JMX view of the {@link P4Metrics}, registered with the platform MBean
+ * server as {@value P4Metrics#MBEAN_NAME}.
+ */
+public interface P4MetricsMBean {
+    String getReport();
+
+    int getUpdateQueueDepth();
+
+    int getMaxUpdateQueueDepth();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    long getCollectedMillis();
+
+    void reset();
+
+    void exportReport(String fileName) throws IOException;
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.util;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vcs.FilePath;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads the have revision contents of opened files (the "before" side of
+ * their diffs) ahead of time, in the background, so that reviewing a
+ * changelist doesn't wait on one server round trip per file as each diff
+ * is shown.
+ * <p/>
+ * Prefetched files are loaded in batches by a single background task per
+ * server.  A file that's asked for with {@link #get(FilePath)} jumps the
+ * queue: it's loaded right away (or waited on, if its batch is already
+ * being loaded).  The contents are kept softly, and only for a few
+ * minutes, as the have revision changes with syncs outside the IDE.
+ */
+public class BaseRevisionPrefetcher {
+    private static final Logger LOG = Logger.getInstance(BaseRevisionPrefetcher.class);
+
+    static final int BATCH_SIZE = 25;
+    static final long EXPIRE_MILLIS = 5L * 60L * 1000L;
+
+
+    public interface Loader {
+        /**
+         * @param files files to load the have revision of
+         * @return the contents of each file that could be loaded; a deleted
+         *      or missing file maps to null.
+         */
+        @NotNull
+        Map<FilePath, String> load(@NotNull List<FilePath> files) throws InterruptedException;
+    }
+
+
+    private final Loader loader;
+    private final Executor executor;
+    private final Object sync = new Object();
+    private final Set<FilePath> queued = new LinkedHashSet<FilePath>();
+    private final Set<FilePath> loading = new HashSet<FilePath>();
+    private final Map<FilePath, Cached> cache = new HashMap<FilePath, Cached>();
+    private boolean running = false;
+    // Bumped by invalidateAll(), so that loads started before it aren't cached.
+    private int generation = 0;
+
+
+    public BaseRevisionPrefetcher(@NotNull Loader loader, @NotNull Executor executor) {
+        this.loader = loader;
+        this.executor = executor;
+    }
+
+
+    /**
+     * Queue the files for loading in the background.  Files that are already
+     * loaded or queued are skipped.
+     */
+    public void prefetch(@NotNull Collection<FilePath> files) {
+        synchronized (sync) {
+            for (FilePath file : files) {
+                if (! loading.contains(file) && getCached(file) == null) {
+                    queued.add(file);
+                }
+            }
+            if (running || queued.isEmpty()) {
+                return;
+            }
+            running = true;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runQueue();
+            }
+        });
+    }
+
+
+    /**
+     * Get the have revision contents of the file, loading it now if it
+     * isn't already loaded.
+     *
+     * @return the contents, or null if the file has no have revision.
+     */
+    @Nullable
+    public String get(@NotNull FilePath file) throws InterruptedException {
+        final int startGeneration;
+        synchronized (sync) {
+            while (loading.contains(file)) {
+                sync.wait();
+            }
+            final Cached cached = getCached(file);
+            if (cached != null) {
+                final String content = cached.getContent();
+                // The contents may have been collected since the check.
+                if (content != null || ! cached.hasContent()) {
+                    return content;
+                }
+            }
+            queued.remove(file);
+            loading.add(file);
+            startGeneration = generation;
+        }
+        final List<FilePath> files = Collections.singletonList(file);
+        Map<FilePath, String> loaded = Collections.emptyMap();
+        try {
+            loaded = loader.load(files);
+            return loaded.get(file);
+        } finally {
+            finishLoading(files, loaded, startGeneration);
+        }
+    }
+
+
+    /**
+     * Forget the loaded contents of all files, such as after a sync.
+     */
+    public void invalidateAll() {
+        synchronized (sync) {
+            cache.clear();
+            generation++;
+        }
+    }
+
+
+    private void runQueue() {
+        while (true) {
+            final List<FilePath> batch;
+            final int startGeneration;
+            synchronized (sync) {
+                if (queued.isEmpty()) {
+                    running = false;
+                    return;
+                }
+                batch = new ArrayList<FilePath>(Math.min(BATCH_SIZE, queued.size()));
+                final Iterator<FilePath> iter = queued.iterator();
+                while (iter.hasNext() && batch.size() < BATCH_SIZE) {
+                    batch.add(iter.next());
+                    iter.remove();
+                }
+                loading.addAll(batch);
+                startGeneration = generation;
+            }
+            Map<FilePath, String> loaded = Collections.emptyMap();
+            try {
+                loaded = loader.load(batch);
+            } catch (InterruptedException e) {
+                LOG.info("Prefetch of " + batch.size() + " files interrupted");
+                synchronized (sync) {
+                    queued.clear();
+                    running = false;
+                }
+                return;
+            } catch (RuntimeException e) {
+                LOG.warn("Could not prefetch " + batch, e);
+            } finally {
+                finishLoading(batch, loaded, startGeneration);
+            }
+        }
+    }
+
+
+    private void finishLoading(@NotNull List<FilePath> files, @NotNull Map<FilePath, String> loaded,
+            int startGeneration) {
+        final long now = System.currentTimeMillis();
+        synchronized (sync) {
+            for (FilePath file : files) {
+                loading.remove(file);
+                if (startGeneration == generation && loaded.containsKey(file)) {
+                    cache.put(file, new Cached(loaded.get(file), now));
+                }
+            }
+            sync.notifyAll();
+        }
+    }
+
+
+    // must be called with the sync lock held
+    @Nullable
+    private Cached getCached(@NotNull FilePath file) {
+        final Cached cached = cache.get(file);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.isExpired(System.currentTimeMillis())) {
+            cache.remove(file);
+            return null;
+        }
+        return cached;
+    }
+
+
+    private static final class Cached {
+        // null for a file without contents
+        @Nullable
+        private final SoftReference<String> content;
+        private final long loadedAt;
+
+        Cached(@Nullable String content, long loadedAt) {
+            this.content = content == null ? null : new SoftReference<String>(content);
+            this.loadedAt = loadedAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - loadedAt > EXPIRE_MILLIS || (content != null && content.get() == null);
+        }
+
+        boolean hasContent() {
+            return content != null;
+        }
+
+        @Nullable
+        String getContent() {
+            return content == null ? null : content.get();
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.util;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.vcs.VcsException;
+import com.perforce.p4java.core.IFileLineMatch;
+import com.perforce.p4java.option.server.MatchingLinesOptions;
+import net.groboclown.idea.p4ic.v2.server.connection.P4Exec2.FileLineMatchConsumer;
+import net.groboclown.idea.p4ic.v2.server.connection.ServerConnection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A text search over depot paths and revision ranges, run on the server
+ * with "p4 grep", so that other branches and old revisions can be searched
+ * without syncing or printing them.
+ * <p/>
+ * Matches are passed to the listener as the server streams them.  The paths
+ * are split across a few connections which search at once, on threads of
+ * their own so that a long search doesn't hold up the other server work.
+ * The matches of a search over only fixed revisions (such as
+ * {@code //depot/main/...@1234}) can't change, so they're cached and
+ * replayed when the same search is run again.
+ */
+public class DepotSearch {
+    static final int MAX_PARTITIONS = ServerConnection.MAX_SEARCH_CONNECTIONS;
+    static final int MAX_CACHED_SEARCHES = 20;
+    static final int MAX_CACHED_MATCHES = 5000;
+
+    private static final ExecutorService POOL =
+            PerServerExecutor.createPool("P4 depot search", ServerConnection.MAX_SEARCH_CONNECTIONS);
+
+    private static final Map<String, List<IFileLineMatch>> CACHE =
+            new LinkedHashMap<String, List<IFileLineMatch>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, List<IFileLineMatch>> eldest) {
+                    return size() > MAX_CACHED_SEARCHES;
+                }
+            };
+
+
+    public interface Listener {
+        /**
+         * Called from the search threads, in the order the server reports
+         * the matches for each part of the search.
+         */
+        void matched(@NotNull IFileLineMatch match);
+
+        /**
+         * A server message, such as a file that was too large to search.
+         */
+        void info(@NotNull String message);
+    }
+
+
+    /**
+     * Runs the grep for one part of the depot paths.
+     */
+    public interface Searcher {
+        void search(@NotNull List<String> depotPaths, @NotNull FileLineMatchConsumer consumer)
+                throws InterruptedException, VcsException;
+    }
+
+
+    private final String pattern;
+    private final List<String> depotPaths;
+    private final boolean caseInsensitive;
+    private final boolean allRevisions;
+    private final int context;
+
+
+    /**
+     * @param pattern grep regular expression
+     * @param depotPaths depot paths to search, with optional revision specs
+     * @param caseInsensitive true to ignore case
+     * @param allRevisions true to search every revision in the ranges,
+     *                     rather than just the last one of each file
+     * @param context number of lines to show around each match
+     */
+    public DepotSearch(@NotNull String pattern, @NotNull Collection<String> depotPaths, boolean caseInsensitive,
+            boolean allRevisions, int context) {
+        this.pattern = pattern;
+        this.depotPaths = Collections.unmodifiableList(new ArrayList<String>(new LinkedHashSet<String>(depotPaths)));
+        this.caseInsensitive = caseInsensitive;
+        this.allRevisions = allRevisions;
+        this.context = context;
+    }
+
+
+    @NotNull
+    public String getPattern() {
+        return pattern;
+    }
+
+
+    @NotNull
+    public List<String> getDepotPaths() {
+        return depotPaths;
+    }
+
+
+    @NotNull
+    public MatchingLinesOptions createOptions() {
+        return new MatchingLinesOptions()
+                .setIncludeLineNumbers(true)
+                .setCaseInsensitive(caseInsensitive)
+                .setAllRevisions(allRevisions)
+                .setOutputContext(context);
+    }
+
+
+    /**
+     * @return true if every path is limited to fixed revisions, so that the
+     *      matches will never change.
+     */
+    public boolean isFixed() {
+        for (String depotPath : depotPaths) {
+            if (! isFixedRevision(depotPath)) {
+                return false;
+            }
+        }
+        return ! depotPaths.isEmpty();
+    }
+
+
+    /**
+     * Run the search, and wait for it to finish.
+     *
+     * @param serverKey identifies the server, for the cached results
+     * @param searcher runs the grep against the server
+     * @param listener receives the matches as they arrive
+     * @param progress cancels the search
+     */
+    public void run(@NotNull String serverKey, @NotNull final Searcher searcher, @NotNull final Listener listener,
+            @Nullable ProgressIndicator progress)
+            throws InterruptedException, VcsException {
+        final String cacheKey = isFixed() ? serverKey + '\n' + this : null;
+        if (cacheKey != null) {
+            final List<IFileLineMatch> cached;
+            synchronized (CACHE) {
+                cached = CACHE.get(cacheKey);
+            }
+            if (cached != null) {
+                for (IFileLineMatch match : cached) {
+                    listener.matched(match);
+                }
+                return;
+            }
+        }
+
+        final List<List<String>> partitions = partition(depotPaths, MAX_PARTITIONS);
+        final List<Integer> keys = new ArrayList<Integer>(partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            keys.add(i);
+        }
+        final Map<Integer, PerServerExecutor.Result<List<IFileLineMatch>>> results =
+                PerServerExecutor.run(POOL, keys, progress, new PerServerExecutor.Task<Integer, List<IFileLineMatch>>() {
+                    @Override
+                    public List<IFileLineMatch> run(@NotNull final Integer key,
+                            @NotNull final ProgressIndicator partProgress)
+                            throws InterruptedException, VcsException {
+                        final PartConsumer consumer = new PartConsumer(listener, partProgress, cacheKey != null);
+                        searcher.search(partitions.get(key), consumer);
+                        return partProgress.isCanceled() ? null : consumer.getMatches();
+                    }
+                });
+
+        List<IFileLineMatch> all = (cacheKey == null ? null : new ArrayList<IFileLineMatch>());
+        for (PerServerExecutor.Result<List<IFileLineMatch>> result : results.values()) {
+            final List<IFileLineMatch> matches = result.get();
+            if (all != null) {
+                if (matches == null || all.size() + matches.size() > MAX_CACHED_MATCHES) {
+                    all = null;
+                } else {
+                    all.addAll(matches);
+                }
+            }
+        }
+        if (all != null) {
+            synchronized (CACHE) {
+                CACHE.put(cacheKey, Collections.unmodifiableList(all));
+            }
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "grep " + (caseInsensitive ? "-i " : "") + (allRevisions ? "-a " : "") + "-C " + context +
+                " -e " + pattern + ' ' + depotPaths;
+    }
+
+
+    /**
+     * A path is fixed if its revision part only has revision or changelist
+     * numbers, such as {@code #3}, {@code @1234} or {@code @100,@200}.  Labels,
+     * dates, {@code #head}, {@code #have} and shelved changes ({@code @=1234})
+     * can all move.
+     */
+    static boolean isFixedRevision(@NotNull String depotPath) {
+        int start = -1;
+        for (int i = 0; i < depotPath.length(); i++) {
+            final char c = depotPath.charAt(i);
+            if (c == '#' || c == '@') {
+                start = i;
+                break;
+            }
+        }
+        if (start < 0) {
+            return false;
+        }
+        for (String part : depotPath.substring(start).split(",", -1)) {
+            if (part.length() > 0 && (part.charAt(0) == '#' || part.charAt(0) == '@')) {
+                part = part.substring(1);
+            }
+            if (part.length() == 0) {
+                return false;
+            }
+            for (int i = 0; i < part.length(); i++) {
+                if (! Character.isDigit(part.charAt(i))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Split the paths into at most {@code count} runs of neighbouring paths.
+     */
+    @NotNull
+    static List<List<String>> partition(@NotNull List<String> paths, int count) {
+        final List<List<String>> ret = new ArrayList<List<String>>();
+        if (paths.isEmpty()) {
+            return ret;
+        }
+        final int size = (paths.size() + count - 1) / count;
+        for (int i = 0; i < paths.size(); i += size) {
+            ret.add(paths.subList(i, Math.min(paths.size(), i + size)));
+        }
+        return ret;
+    }
+
+
+    /**
+     * Passes one part's results on to the listener.  A retried command
+     * sends the same lines again, so the ones already passed on are skipped.
+     */
+    static class PartConsumer implements FileLineMatchConsumer {
+        private final Listener listener;
+        private final ProgressIndicator progress;
+        private List<IFileLineMatch> matches;
+        private int sent = 0;
+        private int seen = 0;
+
+        PartConsumer(@NotNull Listener listener, @NotNull ProgressIndicator progress, boolean keepMatches) {
+            this.listener = listener;
+            this.progress = progress;
+            this.matches = keepMatches ? new ArrayList<IFileLineMatch>() : null;
+        }
+
+        @Override
+        public void start() {
+            seen = 0;
+        }
+
+        @Override
+        public boolean consume(@NotNull final IFileLineMatch match) {
+            if (progress.isCanceled()) {
+                return false;
+            }
+            if (++seen > sent) {
+                sent++;
+                listener.matched(match);
+                if (matches != null) {
+                    if (matches.size() < MAX_CACHED_MATCHES) {
+                        matches.add(match);
+                    } else {
+                        matches = null;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean info(@NotNull final String message) {
+            if (progress.isCanceled()) {
+                return false;
+            }
+            if (++seen > sent) {
+                sent++;
+                listener.info(message);
+            }
+            return true;
+        }
+
+        @Nullable
+        List<IFileLineMatch> getMatches() {
+            return matches;
+        }
+    }
+}
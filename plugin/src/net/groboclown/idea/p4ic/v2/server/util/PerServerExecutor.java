@@ -0,0 +1,254 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.util;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.vcs.VcsException;
+import net.groboclown.idea.p4ic.ui.SliceProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the same work against several Perforce servers (or clients) at once,
+ * so that a project which spans several workspaces waits on the slowest
+ * server rather than on the sum of them.  The pool is shared by all the
+ * projects, and is bounded so that a large project doesn't open a flood of
+ * connections.
+ * <p/>
+ * The results come back in the order of the keys, so the caller can merge
+ * them into the IDE's (single threaded) builders in its own thread, in a
+ * deterministic order.  A single key, or work started from inside the pool,
+ * runs directly in the calling thread.
+ */
+public final class PerServerExecutor {
+    private static final int MAX_THREADS = 4;
+    private static final long IDLE_SECONDS = 60L;
+    private static final long CANCEL_POLL_MILLIS = 100L;
+
+    private static final ThreadPoolExecutor POOL = createPool("P4 server task", MAX_THREADS);
+    private static final ThreadLocal<Boolean> IN_POOL = new ThreadLocal<Boolean>();
+
+
+    public interface Task<K, T> {
+        /**
+         * @param key the server (or other key) to run against
+         * @param progress this key's slice of the progress; check it for cancellation.
+         * @return the result for the key
+         */
+        T run(@NotNull K key, @NotNull ProgressIndicator progress) throws InterruptedException, VcsException;
+    }
+
+
+    /**
+     * The outcome of running the task for one key.
+     */
+    public static final class Result<T> {
+        private final T value;
+        private final Throwable error;
+
+        private Result(@Nullable T value, @Nullable Throwable error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        /**
+         * @return the task's value, or throws what the task threw.
+         */
+        public T get() throws InterruptedException, VcsException {
+            if (error == null) {
+                return value;
+            }
+            if (error instanceof InterruptedException) {
+                throw (InterruptedException) error;
+            }
+            if (error instanceof VcsException) {
+                throw (VcsException) error;
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            throw new RuntimeException(error);
+        }
+    }
+
+
+    private PerServerExecutor() {
+        // utility class
+    }
+
+
+    /**
+     * Run the task for each key, and wait for all of them to finish.  If the
+     * progress is cancelled while waiting, the outstanding tasks are
+     * interrupted and a {@link com.intellij.openapi.progress.ProcessCanceledException}
+     * is thrown.
+     *
+     * @param keys servers to run against
+     * @param progress parent progress; each key gets an equal slice of it.
+     * @param task work to run for each key
+     * @return the result for each key, in the iteration order of the keys.
+     */
+    @NotNull
+    public static <K, T> Map<K, Result<T>> run(@NotNull Collection<K> keys,
+            @Nullable ProgressIndicator progress, @NotNull final Task<K, T> task) {
+        return run(keys, progress, 0.0, 1.0, task);
+    }
+
+
+    /**
+     * Run the task for each key, reporting progress in a part of the
+     * progress range.
+     *
+     * @see #run(Collection, ProgressIndicator, Task)
+     */
+    @NotNull
+    public static <K, T> Map<K, Result<T>> run(@NotNull Collection<K> keys,
+            @Nullable ProgressIndicator progress, double startFraction, double endFraction,
+            @NotNull final Task<K, T> task) {
+        return run(POOL, keys, progress, startFraction, endFraction, task);
+    }
+
+
+    /**
+     * Run the task for each key on the given pool rather than the shared
+     * one, for work that would otherwise crowd out the other server tasks.
+     *
+     * @see #run(Collection, ProgressIndicator, Task)
+     * @see #createPool(String, int)
+     */
+    @NotNull
+    public static <K, T> Map<K, Result<T>> run(@NotNull ExecutorService pool, @NotNull Collection<K> keys,
+            @Nullable ProgressIndicator progress, @NotNull final Task<K, T> task) {
+        return run(pool, keys, progress, 0.0, 1.0, task);
+    }
+
+
+    @NotNull
+    private static <K, T> Map<K, Result<T>> run(@NotNull ExecutorService pool, @NotNull Collection<K> keys,
+            @Nullable ProgressIndicator progress, double startFraction, double endFraction,
+            @NotNull final Task<K, T> task) {
+        final ProgressIndicator parent = (progress == null ? new EmptyProgressIndicator() : progress);
+        final Map<K, Result<T>> ret = new LinkedHashMap<K, Result<T>>();
+        if (keys.isEmpty()) {
+            return ret;
+        }
+        final SliceProgressIndicator[] slices =
+                SliceProgressIndicator.split(parent, startFraction, endFraction, keys.size());
+
+        if (keys.size() == 1 || Boolean.TRUE.equals(IN_POOL.get())) {
+            int i = 0;
+            for (K key : keys) {
+                parent.checkCanceled();
+                ret.put(key, call(task, key, slices[i++]));
+            }
+            return ret;
+        }
+
+        final Map<K, Future<Result<T>>> futures = new LinkedHashMap<K, Future<Result<T>>>();
+        try {
+            int i = 0;
+            for (final K key : keys) {
+                final ProgressIndicator slice = slices[i++];
+                futures.put(key, pool.submit(new Callable<Result<T>>() {
+                    @Override
+                    public Result<T> call() {
+                        IN_POOL.set(Boolean.TRUE);
+                        try {
+                            slice.checkCanceled();
+                            return PerServerExecutor.call(task, key, slice);
+                        } finally {
+                            IN_POOL.remove();
+                        }
+                    }
+                }));
+            }
+            for (Entry<K, Future<Result<T>>> entry : futures.entrySet()) {
+                ret.put(entry.getKey(), await(entry.getValue(), parent));
+            }
+        } finally {
+            // Only has an effect on the tasks that haven't finished, which
+            // happens when the user cancelled.
+            for (Future<Result<T>> future : futures.values()) {
+                future.cancel(true);
+            }
+        }
+        return ret;
+    }
+
+
+    @NotNull
+    private static <K, T> Result<T> call(@NotNull Task<K, T> task, @NotNull K key,
+            @NotNull ProgressIndicator progress) {
+        try {
+            return new Result<T>(task.run(key, progress), null);
+        } catch (Throwable t) {
+            return new Result<T>(null, t);
+        }
+    }
+
+
+    @NotNull
+    private static <T> Result<T> await(@NotNull Future<Result<T>> future, @NotNull ProgressIndicator progress) {
+        while (true) {
+            progress.checkCanceled();
+            try {
+                return future.get(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // keep waiting
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Result<T>(null, e);
+            } catch (ExecutionException e) {
+                return new Result<T>(null, e.getCause());
+            } catch (CancellationException e) {
+                return new Result<T>(null, new InterruptedException());
+            }
+        }
+    }
+
+
+    /**
+     * @param threadName prefix for the names of the pool's daemon threads
+     * @param maxThreads number of tasks the pool runs at once
+     * @return a pool whose threads exit when idle.
+     */
+    @NotNull
+    public static ThreadPoolExecutor createPool(@NotNull final String threadName, int maxThreads) {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor ret = new ThreadPoolExecutor(maxThreads, maxThreads,
+                IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NotNull Runnable r) {
+                        final Thread thread = new Thread(r, threadName + ' ' + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        ret.allowCoreThreadTimeOut(true);
+        return ret;
+    }
+}
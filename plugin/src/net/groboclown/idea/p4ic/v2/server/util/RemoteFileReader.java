@@ -17,9 +17,13 @@ package net.groboclown.idea.p4ic.v2.server.util;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
+import com.intellij.vcsUtil.VcsUtil;
+import com.perforce.p4java.core.file.FileSpecOpStatus;
 import com.perforce.p4java.core.file.IExtendedFileSpec;
 import com.perforce.p4java.core.file.IFileSpec;
 import net.groboclown.idea.p4ic.P4Bundle;
+import net.groboclown.idea.p4ic.server.FileSpecUtil;
+import net.groboclown.idea.p4ic.server.exceptions.P4Exception;
 import net.groboclown.idea.p4ic.v2.server.cache.sync.ClientCacheManager;
 import net.groboclown.idea.p4ic.v2.server.connection.AlertManager;
 import net.groboclown.idea.p4ic.v2.server.connection.P4Exec2;
@@ -28,9 +32,10 @@ import net.groboclown.idea.p4ic.v2.server.connection.ServerQuery;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.List;
+import java.io.UnsupportedEncodingException;
+import java.util.*;
 
 public class RemoteFileReader {
     private static final Logger LOG = Logger.getInstance(RemoteFileReader.class);
@@ -45,6 +50,33 @@ public class RemoteFileReader {
     }
 
 
+    /**
+     * Read the have revision of several files with a single streaming print.
+     * Files that couldn't be read are left out of the returned map, and files
+     * without a have revision map to null.  The query doesn't change the
+     * cache, so it can be run with {@link ServerConnection#searchQuery}.
+     */
+    public static ServerQuery<Map<FilePath, String>> createHaveRevisionStringReader(@NotNull List<FilePath> files) {
+        return new HaveRevisionStringReader(files);
+    }
+
+
+    @NotNull
+    private static String toString(@NotNull FilePath file, @NotNull byte[] bytes, @Nullable String encoding)
+            throws UnsupportedEncodingException {
+        if (encoding == null) {
+            LOG.info("No known encoding for " + file + "; using utf-8");
+            //alerts.addNotice(exec.getProject(),
+            //        P4Bundle.message("exception.load-file-encoding"),
+            //        new P4FileException(file),
+            //        file);
+            return new String(bytes, "utf-8");
+        }
+        LOG.info("reading " + file + " with encoding " + encoding);
+        return new String(bytes, encoding);
+    }
+
+
 
     private static final class ByteReader implements ServerQuery<byte[]> {
         private final FilePath file;
@@ -103,16 +135,7 @@ public class RemoteFileReader {
                 if (! es.isEmpty()) {
                     encoding = es.get(0).getCharset();
                 }
-                if (encoding == null) {
-                    LOG.info("No known encoding for " + file + "; using utf-8");
-                    //alerts.addNotice(exec.getProject(),
-                    //        P4Bundle.message("exception.load-file-encoding"),
-                    //        new P4FileException(file),
-                    //        file);
-                    return new String(bytes, "utf-8");
-                }
-                LOG.info("reading " + file + " with encoding " + encoding);
-                return new String(bytes, encoding);
+                return RemoteFileReader.toString(file, bytes, encoding);
             } catch (VcsException e) {
                 alerts.addWarning(exec.getProject(),
                         P4Bundle.message("exception.load-file.title"),
@@ -127,4 +150,91 @@ public class RemoteFileReader {
             return null;
         }
     }
+
+
+    private static final class HaveRevisionStringReader implements ServerQuery<Map<FilePath, String>> {
+        private final List<FilePath> files;
+
+        private HaveRevisionStringReader(@NotNull final List<FilePath> files) {
+            this.files = files;
+        }
+
+        @NotNull
+        @Override
+        public Map<FilePath, String> query(@NotNull final P4Exec2 exec, @NotNull final ClientCacheManager cacheManager,
+                @NotNull final ServerConnection connection, @NotNull final AlertManager alerts)
+                throws InterruptedException {
+            final Map<FilePath, String> ret = new HashMap<FilePath, String>();
+            final Map<FilePath, IFileSpec> specs = new LinkedHashMap<FilePath, IFileSpec>();
+            for (FilePath file : files) {
+                try {
+                    specs.put(file, FileSpecUtil.getOneSpecWithRev(file, IFileSpec.HAVE_REVISION));
+                } catch (P4Exception e) {
+                    LOG.info("Not loading " + file, e);
+                }
+            }
+            if (specs.isEmpty()) {
+                return ret;
+            }
+
+            final int maxFileSize = VcsUtil.getMaxVcsLoadedFileSize();
+            final List<IFileSpec> printed = new ArrayList<IFileSpec>();
+            final List<ByteArrayOutputStream> contents = new ArrayList<ByteArrayOutputStream>();
+            try {
+                exec.streamFileContents(new ArrayList<IFileSpec>(specs.values()), new P4Exec2.FileContentsConsumer() {
+                    @Override
+                    public void start() {
+                        printed.clear();
+                        contents.clear();
+                    }
+
+                    @Override
+                    public void startFile(@NotNull final IFileSpec spec) {
+                        printed.add(spec);
+                        contents.add(new ByteArrayOutputStream());
+                    }
+
+                    @Override
+                    public void data(@NotNull final byte[] data) {
+                        if (contents.isEmpty()) {
+                            return;
+                        }
+                        final ByteArrayOutputStream out = contents.get(contents.size() - 1);
+                        if (out.size() < maxFileSize) {
+                            out.write(data, 0, data.length);
+                        }
+                    }
+                });
+            } catch (VcsException e) {
+                alerts.addWarning(exec.getProject(),
+                        P4Bundle.message("exception.load-file.title"),
+                        P4Bundle.message("exception.load-file", specs.values().toString()),
+                        e, specs.keySet());
+                return ret;
+            }
+
+            // The server sends one result per requested file, in order.
+            // Its paths aren't compared against the local ones, which can
+            // differ in case or by a symlink.  If they don't line up, the
+            // files are left to be loaded one at a time.
+            final List<FilePath> requested = new ArrayList<FilePath>(specs.keySet());
+            if (printed.size() != requested.size()) {
+                LOG.info("Could not match the printed files " + printed + " against " + requested);
+                return ret;
+            }
+            for (int i = 0; i < printed.size(); i++) {
+                final FilePath file = requested.get(i);
+                if (printed.get(i).getOpStatus() != FileSpecOpStatus.VALID) {
+                    // Such as a file that was added, so it has no have revision.
+                    LOG.info("No have revision for " + file + ": " + printed.get(i).getStatusMessage());
+                    ret.put(file, null);
+                } else {
+                    // No charset conversion is done on the streamed contents,
+                    // so text is in the server's UTF-8.
+                    ret.put(file, RemoteFileReader.toString(file, contents.get(i).toByteArray(), "UTF-8"));
+                }
+            }
+            return ret;
+        }
+    }
 }
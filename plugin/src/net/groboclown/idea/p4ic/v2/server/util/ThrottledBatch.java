@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects items that arrive one at a time, and processes them in batches:
+ * a batch is processed once it's full, or once its oldest item has waited
+ * long enough, whichever comes first.  This keeps a long stream of small
+ * events (such as each file of a large sync) from turning into as many
+ * expensive operations, while still making progress visible as it runs.
+ * <p/>
+ * Items can be added from any thread.  Batches are processed in the
+ * thread that filled them, outside of the lock.
+ */
+public abstract class ThrottledBatch<T> {
+    private final int maxSize;
+    private final long maxDelayMillis;
+    private final Object sync = new Object();
+    private List<T> pending;
+    private long pendingSinceMillis;
+
+
+    /**
+     * @param maxSize        largest number of items in a batch
+     * @param maxDelayMillis longest time an item waits for its batch to fill,
+     *                       measured when the next item arrives.
+     */
+    protected ThrottledBatch(int maxSize, long maxDelayMillis) {
+        this.maxSize = maxSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.pending = new ArrayList<T>(maxSize);
+    }
+
+
+    public void add(@NotNull T item) {
+        final List<T> batch;
+        synchronized (sync) {
+            final long now = currentTimeMillis();
+            if (pending.isEmpty()) {
+                pendingSinceMillis = now;
+            }
+            pending.add(item);
+            if (pending.size() < maxSize && now - pendingSinceMillis < maxDelayMillis) {
+                return;
+            }
+            batch = takePending();
+        }
+        process(batch);
+    }
+
+
+    /**
+     * Process the items waiting for their batch to fill, if any.
+     */
+    public void flush() {
+        final List<T> batch;
+        synchronized (sync) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takePending();
+        }
+        process(batch);
+    }
+
+
+    protected abstract void process(@NotNull List<T> batch);
+
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+
+    @NotNull
+    private List<T> takePending() {
+        final List<T> ret = pending;
+        pending = new ArrayList<T>(maxSize);
+        return ret;
+    }
+}
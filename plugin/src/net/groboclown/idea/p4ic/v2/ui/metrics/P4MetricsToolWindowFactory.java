@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.ui.metrics;
+
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import net.groboclown.idea.p4ic.P4Bundle;
+import net.groboclown.idea.p4ic.v2.server.metrics.P4Metrics;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+
+/**
+ * Shows the current {@link P4Metrics} report, with the options to reset the
+ * collected metrics or export them to a file to attach to a bug report.
+ */
+public class P4MetricsToolWindowFactory implements ToolWindowFactory {
+    @Override
+    public void createToolWindowContent(@NotNull final Project project, @NotNull final ToolWindow toolWindow) {
+        final JTextArea report = new JTextArea();
+        report.setEditable(false);
+        report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, report.getFont().getSize()));
+
+        final JButton refresh = new JButton(P4Bundle.message("metrics.refresh"));
+        refresh.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                showReport(report);
+            }
+        });
+        final JButton reset = new JButton(P4Bundle.message("metrics.reset"));
+        reset.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                P4Metrics.getInstance().reset();
+                showReport(report);
+            }
+        });
+        final JButton export = new JButton(P4Bundle.message("metrics.export"));
+        export.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                exportReport(project);
+            }
+        });
+
+        final JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.add(refresh);
+        buttons.add(reset);
+        buttons.add(export);
+
+        final JPanel panel = new JPanel(new BorderLayout());
+        panel.add(buttons, BorderLayout.NORTH);
+        panel.add(new JBScrollPane(report), BorderLayout.CENTER);
+        showReport(report);
+
+        final Content content = ContentFactory.SERVICE.getInstance().createContent(panel, "", false);
+        toolWindow.getContentManager().addContent(content);
+    }
+
+
+    private static void showReport(@NotNull JTextArea report) {
+        report.setText(P4Metrics.getInstance().getReport());
+        report.setCaretPosition(0);
+    }
+
+
+    private static void exportReport(@NotNull Project project) {
+        final VirtualFileWrapper target = FileChooserFactory.getInstance().createSaveFileDialog(
+                new FileSaverDescriptor(P4Bundle.message("metrics.export.title"),
+                        P4Bundle.message("metrics.export.description"), "txt"),
+                project).save(null, "p4ic-metrics.txt");
+        if (target == null) {
+            return;
+        }
+        try {
+            P4Metrics.getInstance().exportReport(target.getFile());
+        } catch (IOException e) {
+            Messages.showErrorDialog(project,
+                    P4Bundle.message("metrics.export.error", target.getFile(), e.getMessage()),
+                    P4Bundle.message("metrics.export.title"));
+        }
+    }
+}
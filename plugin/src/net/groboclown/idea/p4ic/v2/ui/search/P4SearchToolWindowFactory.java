@@ -0,0 +1,273 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.ui.search;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import com.perforce.p4java.core.IFileLineMatch;
+import net.groboclown.idea.p4ic.P4Bundle;
+import net.groboclown.idea.p4ic.config.ServerConfig;
+import net.groboclown.idea.p4ic.extension.P4Vcs;
+import net.groboclown.idea.p4ic.v2.server.P4Server;
+import net.groboclown.idea.p4ic.v2.server.util.DepotSearch;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Searches the depot with "p4 grep" against every online server, and lists
+ * the matching lines as the servers send them.
+ */
+public class P4SearchToolWindowFactory implements ToolWindowFactory {
+    private static final Logger LOG = Logger.getInstance(P4SearchToolWindowFactory.class);
+
+    // Lines kept in the list; a search for a common pattern would
+    // otherwise fill the memory.
+    private static final int MAX_RESULTS = 10000;
+
+    @Override
+    public void createToolWindowContent(@NotNull final Project project, @NotNull final ToolWindow toolWindow) {
+        final SearchPanel panel = new SearchPanel(project);
+        final Content content = ContentFactory.SERVICE.getInstance().createContent(panel.root, "", false);
+        toolWindow.getContentManager().addContent(content);
+    }
+
+
+    private static class SearchPanel {
+        private final Project project;
+        private final JPanel root = new JPanel(new BorderLayout());
+        private final JTextField pattern = new JTextField(30);
+        private final JTextArea paths = new JTextArea(2, 40);
+        private final JCheckBox caseInsensitive = new JCheckBox(P4Bundle.message("search.case-insensitive"));
+        private final JCheckBox allRevisions = new JCheckBox(P4Bundle.message("search.all-revisions"));
+        private final JSpinner context = new JSpinner(new SpinnerNumberModel(0, 0, 20, 1));
+        private final JButton search = new JButton(P4Bundle.message("search.run"));
+        private final JLabel status = new JLabel();
+        private final DefaultListModel results = new DefaultListModel();
+
+        // Matches waiting to be added to the list, so that a fast stream of
+        // them is shown with one event queue pass per batch.  Guarded by itself.
+        private final List<String> pending = new ArrayList<String>();
+        private int matchCount;
+        private int lineCount;
+
+        SearchPanel(@NotNull Project project) {
+            this.project = project;
+            paths.setText("//...");
+
+            final JPanel fields = new JPanel(new GridBagLayout());
+            final GridBagConstraints c = new GridBagConstraints();
+            c.anchor = GridBagConstraints.NORTHWEST;
+            c.insets = new Insets(2, 2, 2, 2);
+            c.gridx = 0;
+            c.gridy = 0;
+            fields.add(new JLabel(P4Bundle.message("search.pattern")), c);
+            c.gridy = 1;
+            fields.add(new JLabel(P4Bundle.message("search.paths")), c);
+            c.gridx = 1;
+            c.gridy = 0;
+            c.weightx = 1.0;
+            c.fill = GridBagConstraints.HORIZONTAL;
+            fields.add(pattern, c);
+            c.gridy = 1;
+            fields.add(new JBScrollPane(paths), c);
+
+            final JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            options.add(caseInsensitive);
+            options.add(allRevisions);
+            options.add(new JLabel(P4Bundle.message("search.context")));
+            options.add(context);
+            options.add(search);
+            options.add(status);
+
+            final JPanel top = new JPanel(new BorderLayout());
+            top.add(fields, BorderLayout.CENTER);
+            top.add(options, BorderLayout.SOUTH);
+
+            final JBList list = new JBList(results);
+            list.setFont(new Font(Font.MONOSPACED, Font.PLAIN, list.getFont().getSize()));
+
+            root.add(top, BorderLayout.NORTH);
+            root.add(new JBScrollPane(list), BorderLayout.CENTER);
+
+            final ActionListener run = new ActionListener() {
+                @Override
+                public void actionPerformed(final ActionEvent e) {
+                    startSearch();
+                }
+            };
+            search.addActionListener(run);
+            pattern.addActionListener(run);
+        }
+
+
+        private void startSearch() {
+            final String text = pattern.getText();
+            final List<String> depotPaths = new ArrayList<String>();
+            for (String line : paths.getText().split("\n")) {
+                if (line.trim().length() > 0) {
+                    depotPaths.add(line.trim());
+                }
+            }
+            if (text.length() == 0 || depotPaths.isEmpty()) {
+                return;
+            }
+            final DepotSearch depotSearch = new DepotSearch(text, depotPaths, caseInsensitive.isSelected(),
+                    allRevisions.isSelected(), (Integer) context.getValue());
+
+            results.clear();
+            synchronized (pending) {
+                pending.clear();
+                matchCount = 0;
+                lineCount = 0;
+            }
+            search.setEnabled(false);
+            status.setText(P4Bundle.message("search.running"));
+
+            ProgressManager.getInstance().run(new Task.Backgroundable(project,
+                    P4Bundle.message("search.progress", text), true) {
+                @Override
+                public void run(@NotNull final ProgressIndicator indicator) {
+                    search(depotSearch, indicator);
+                }
+
+                @Override
+                public void onSuccess() {
+                    done("search.done");
+                }
+
+                @Override
+                public void onCancel() {
+                    done("search.cancelled");
+                }
+            });
+        }
+
+
+        private void search(@NotNull DepotSearch depotSearch, @NotNull ProgressIndicator indicator) {
+            final DepotSearch.Listener listener = new DepotSearch.Listener() {
+                @Override
+                public void matched(@NotNull final IFileLineMatch match) {
+                    add(format(match), match.getType() == IFileLineMatch.MatchType.MATCH);
+                }
+
+                @Override
+                public void info(@NotNull final String message) {
+                    add(message, false);
+                }
+            };
+            // Several clients can share a server, and they all see the same
+            // depot, so each server is only searched once.
+            final Map<ServerConfig, P4Server> servers = new LinkedHashMap<ServerConfig, P4Server>();
+            for (P4Server server : P4Vcs.getInstance(project).getP4Servers()) {
+                if (server.isWorkingOnline() && ! servers.containsKey(server.getServerConfig())) {
+                    servers.put(server.getServerConfig(), server);
+                }
+            }
+            for (P4Server server : servers.values()) {
+                indicator.checkCanceled();
+                try {
+                    server.searchDepotOnline(depotSearch, listener, indicator);
+                } catch (VcsException e) {
+                    add(P4Bundle.message("search.error", server.getClientServerId(), e.getMessage()), false);
+                } catch (InterruptedException e) {
+                    LOG.info("search interrupted", e);
+                    return;
+                }
+            }
+        }
+
+
+        private void add(@NotNull String line, boolean isMatch) {
+            final boolean schedule;
+            synchronized (pending) {
+                if (isMatch) {
+                    matchCount++;
+                }
+                if (lineCount >= MAX_RESULTS) {
+                    return;
+                }
+                lineCount++;
+                schedule = pending.isEmpty();
+                pending.add(line);
+            }
+            if (schedule) {
+                ApplicationManager.getApplication().invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            }
+        }
+
+
+        private void flush() {
+            final List<String> lines;
+            final int count;
+            synchronized (pending) {
+                lines = new ArrayList<String>(pending);
+                pending.clear();
+                count = matchCount;
+            }
+            for (String line : lines) {
+                results.addElement(line);
+            }
+            if (! search.isEnabled()) {
+                status.setText(P4Bundle.message("search.running.count", count));
+            }
+        }
+
+
+        private void done(@NotNull String messageKey) {
+            flush();
+            final int count;
+            final boolean truncated;
+            synchronized (pending) {
+                count = matchCount;
+                truncated = lineCount >= MAX_RESULTS;
+            }
+            search.setEnabled(true);
+            status.setText(P4Bundle.message(messageKey, count) +
+                    (truncated ? ' ' + P4Bundle.message("search.truncated", MAX_RESULTS) : ""));
+        }
+
+
+        @NotNull
+        private static String format(@NotNull IFileLineMatch match) {
+            final char sep = (match.getType() == IFileLineMatch.MatchType.MATCH ? ':' : '-');
+            return match.getDepotFile() + '#' + match.getRevision() + sep + match.getLineNumber() + sep + ' ' +
+                    match.getLine();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.config;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class P4ConfigFileIndexTest {
+    private static final List<String> PARENTS = Arrays.asList("/a", "/");
+
+    @Test
+    public void testRootScannedOnce() {
+        final FakeScanner scanner = new FakeScanner("/a/b", "/a/b/c", "/a/b/c/d", "/x");
+        final P4ConfigFileIndex index = new P4ConfigFileIndex(scanner);
+
+        final P4ConfigFileIndex.Result first = index.find("/a/b", PARENTS, ".p4config");
+        assertThat(first.getConfigDirs(), is(Arrays.asList("/a/b", "/a/b/c", "/a/b/c/d")));
+        assertThat(scanner.scanned, is(Collections.singletonList("/a/b")));
+
+        final P4ConfigFileIndex.Result second = index.find("/a/b/c", Arrays.asList("/a/b", "/a", "/"), ".p4config");
+        assertThat(second.getConfigDirs(), is(Arrays.asList("/a/b/c", "/a/b/c/d")));
+        assertThat(second.getParentConfigDirs(), is(Collections.singletonList("/a/b")));
+        assertThat(scanner.scanned, is(Collections.singletonList("/a/b")));
+
+        // a different file name has its own index
+        index.find("/a/b", PARENTS, "p4.txt");
+        assertThat(scanner.scanned, is(Arrays.asList("/a/b", "/a/b")));
+    }
+
+    @Test
+    public void testParentsCheckedOnce() {
+        final FakeScanner scanner = new FakeScanner("/", "/a/b");
+        final P4ConfigFileIndex index = new P4ConfigFileIndex(scanner);
+
+        assertThat(index.find("/a/b", PARENTS, ".p4config").getParentConfigDirs(),
+                is(Collections.singletonList("/")));
+        assertThat(scanner.checked, is(PARENTS));
+
+        index.fileAdded("/a", ".p4config", false);
+        assertThat(index.find("/a/b", PARENTS, ".p4config").getParentConfigDirs(), is(PARENTS));
+        assertThat(scanner.checked, is(PARENTS));
+    }
+
+    @Test
+    public void testConfigFileChanges() {
+        final FakeScanner scanner = new FakeScanner("/a/b");
+        final P4ConfigFileIndex index = new P4ConfigFileIndex(scanner);
+        index.find("/a/b", PARENTS, ".p4config");
+
+        index.fileAdded("/a/b/c", ".p4config", false);
+        index.fileAdded("/a/b/c", "other.txt", false);
+        index.fileRemoved("/a/b", ".p4config", false);
+
+        assertThat(index.find("/a/b", PARENTS, ".p4config").getConfigDirs(),
+                is(Collections.singletonList("/a/b/c")));
+        assertThat(scanner.scanned, is(Collections.singletonList("/a/b")));
+    }
+
+    @Test
+    public void testAddedDirectoryScanned() {
+        final FakeScanner scanner = new FakeScanner("/a/b");
+        final P4ConfigFileIndex index = new P4ConfigFileIndex(scanner);
+        index.find("/a/b", PARENTS, ".p4config");
+
+        scanner.configDirs.add("/a/b/new/deep");
+        index.fileAdded("/a/b", "new", true);
+        index.fileAdded("/a/b/new", "deep", true);
+
+        assertThat(index.find("/a/b", PARENTS, ".p4config").getConfigDirs(),
+                is(Arrays.asList("/a/b", "/a/b/new/deep")));
+        assertThat(scanner.scanned, is(Arrays.asList("/a/b", "/a/b/new")));
+
+        index.find("/a/b", PARENTS, ".p4config");
+        assertThat(scanner.scanned, is(Arrays.asList("/a/b", "/a/b/new")));
+    }
+
+    @Test
+    public void testRemovedDirectory() {
+        final FakeScanner scanner = new FakeScanner("/a/b", "/a/b/c", "/a/b/c/d");
+        final P4ConfigFileIndex index = new P4ConfigFileIndex(scanner);
+        index.find("/a/b", PARENTS, ".p4config");
+
+        index.fileRemoved("/a/b", "c", true);
+
+        assertThat(index.find("/a/b", PARENTS, ".p4config").getConfigDirs(),
+                is(Collections.singletonList("/a/b")));
+        assertThat(scanner.scanned, is(Collections.singletonList("/a/b")));
+
+        // A removed root is scanned again when it comes back.
+        index.fileRemoved("/a", "b", true);
+        index.find("/a/b", PARENTS, ".p4config");
+        assertThat(scanner.scanned, is(Arrays.asList("/a/b", "/a/b")));
+    }
+
+    @Test
+    public void testChangeWhileScanningScansAgain() {
+        final FakeScanner scanner = new FakeScanner("/a/b");
+        final P4ConfigFileIndex index = new P4ConfigFileIndex(scanner);
+        scanner.duringScan = new Runnable() {
+            @Override
+            public void run() {
+                index.fileAdded("/a/b", "c", true);
+            }
+        };
+
+        index.find("/a/b", PARENTS, ".p4config");
+        scanner.duringScan = null;
+        index.find("/a/b", PARENTS, ".p4config");
+        index.find("/a/b", PARENTS, ".p4config");
+        assertThat(scanner.scanned, is(Arrays.asList("/a/b", "/a/b")));
+    }
+
+    @Test
+    public void testIsUnder() {
+        assertThat(P4ConfigFileIndex.isUnder("/a/b", "/a/b"), is(true));
+        assertThat(P4ConfigFileIndex.isUnder("/a/b/c", "/a/b"), is(true));
+        assertThat(P4ConfigFileIndex.isUnder("/a/bc", "/a/b"), is(false));
+        assertThat(P4ConfigFileIndex.isUnder("/a", "/a/b"), is(false));
+        assertThat(P4ConfigFileIndex.isUnder("/a", "/"), is(true));
+        assertThat(P4ConfigFileIndex.isUnder("C:/a", "C:/"), is(true));
+    }
+
+
+    private static class FakeScanner implements P4ConfigFileIndex.Scanner {
+        final Set<String> configDirs = new HashSet<String>();
+        final List<String> scanned = new ArrayList<String>();
+        final List<String> checked = new ArrayList<String>();
+        Runnable duringScan;
+
+        FakeScanner(@NotNull String... configDirs) {
+            this.configDirs.addAll(Arrays.asList(configDirs));
+        }
+
+        @NotNull
+        @Override
+        public Collection<String> findConfigDirs(@NotNull final String rootPath,
+                @NotNull final String configFileName) {
+            scanned.add(rootPath);
+            if (duringScan != null) {
+                duringScan.run();
+            }
+            final List<String> ret = new ArrayList<String>();
+            for (String dir : configDirs) {
+                if (P4ConfigFileIndex.isUnder(dir, rootPath)) {
+                    ret.add(dir);
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public boolean hasConfigFile(@NotNull final String dirPath, @NotNull final String configFileName) {
+            checked.add(dirPath);
+            return configDirs.contains(dirPath);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.mock;
+
+import com.perforce.p4java.CharsetDefs;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacket;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacketPreamble;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcSessionRecorder;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcSessionRecorder.Record;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcGZIPInputStream;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcGZIPOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in Perforce server that replays sessions recorded with the
+ * {@link com.perforce.p4java.impl.mapbased.rpc.RpcPropertyDefs#RPC_SESSION_RECORD_DIR_NICK}
+ * property, so the real p4java wire path can be exercised without a
+ * Perforce server.  Each accepted connection is given the next recorded
+ * session; the client packets are read and checked against the recorded
+ * function names, and the recorded server packets are written back.
+ * <p/>
+ * A round trip latency and a bandwidth limit can be set to simulate a
+ * slow network.  The latency is added each time the conversation turns
+ * from the client to the server, and the bandwidth limit applies to the
+ * bytes in both directions.
+ */
+public class RpcReplayServer {
+    private final List<List<Record>> sessions;
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final AtomicInteger roundTrips = new AtomicInteger();
+    private final AtomicLong bytesFromClient = new AtomicLong();
+    private final AtomicLong bytesToClient = new AtomicLong();
+    private final List<Throwable> failures = new ArrayList<Throwable>();
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private volatile long latencyMillis = 0;
+    private volatile long bytesPerSecond = 0;
+    private ServerSocket serverSocket;
+
+
+    public RpcReplayServer(@NotNull List<List<Record>> sessions) {
+        this.sessions = sessions;
+    }
+
+
+    @NotNull
+    public static RpcReplayServer fromDirectory(@NotNull File dir) throws IOException {
+        final List<List<Record>> sessions = new ArrayList<List<Record>>();
+        for (File file : RpcSessionRecorder.listSessions(dir)) {
+            sessions.add(RpcSessionRecorder.read(file));
+        }
+        if (sessions.isEmpty()) {
+            throw new FileNotFoundException("no recorded sessions in " + dir);
+        }
+        return new RpcReplayServer(sessions);
+    }
+
+
+    /**
+     * @param millis time added each time the client waits on the server.
+     */
+    public void setLatencyMillis(long millis) {
+        this.latencyMillis = millis;
+    }
+
+
+    /**
+     * @param bytesPerSecond the network bandwidth, or 0 for no limit.
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+
+    /**
+     * Start listening on a free loopback port.
+     *
+     * @return the port number.
+     */
+    public synchronized int start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+        final Thread acceptor = new Thread("RPC replay acceptor") {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket.getLocalPort();
+    }
+
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+
+    public int getRoundTrips() {
+        return roundTrips.get();
+    }
+
+
+    public long getBytesFromClient() {
+        return bytesFromClient.get();
+    }
+
+
+    public long getBytesToClient() {
+        return bytesToClient.get();
+    }
+
+
+    public int getSessionsStarted() {
+        return Math.min(nextSession.get(), sessions.size());
+    }
+
+
+    public void resetCounts() {
+        roundTrips.set(0);
+        bytesFromClient.set(0);
+        bytesToClient.set(0);
+    }
+
+
+    /**
+     * Stop accepting connections, wait for the started sessions to finish,
+     * and report the first replay failure, if any.
+     */
+    public void close() throws IOException, InterruptedException {
+        final List<Thread> running;
+        synchronized (this) {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            running = new ArrayList<Thread>(threads);
+        }
+        for (Thread thread : running) {
+            thread.join();
+        }
+        synchronized (failures) {
+            if (! failures.isEmpty()) {
+                final Throwable first = failures.get(0);
+                throw new IOException("replay failed: " + first.getMessage(), first);
+            }
+        }
+    }
+
+
+    private void acceptLoop() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // closed
+                return;
+            }
+            final int index = nextSession.getAndIncrement();
+            final Thread thread = new Thread("RPC replay session " + index) {
+                @Override
+                public void run() {
+                    try {
+                        if (index >= sessions.size()) {
+                            throw new IOException("connection " + (index + 1) + " but only " +
+                                    sessions.size() + " sessions were recorded");
+                        }
+                        replay(socket, sessions.get(index));
+                    } catch (Throwable t) {
+                        synchronized (failures) {
+                            failures.add(t);
+                        }
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // ignore
+                        }
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            synchronized (this) {
+                threads.add(thread);
+            }
+            thread.start();
+        }
+    }
+
+
+    private void replay(@NotNull Socket socket, @NotNull List<Record> records) throws IOException, InterruptedException {
+        socket.setTcpNoDelay(true);
+        final InputStream rawIn = new BufferedInputStream(socket.getInputStream());
+        final OutputStream rawOut = socket.getOutputStream();
+        InputStream in = rawIn;
+        OutputStream out = rawOut;
+        long turnBytes = 0;
+        boolean clientTurn = true;
+        int packetIndex = 0;
+        for (Record record : records) {
+            switch (record.getType()) {
+                case RpcSessionRecorder.SENT: {
+                    final byte[] actual = readPacket(in);
+                    if (actual == null) {
+                        throw new EOFException("client closed the connection at packet " + packetIndex +
+                                "; expected " + getFuncName(record.getBytes()));
+                    }
+                    final String expected = getFuncName(record.getBytes());
+                    final String found = getFuncName(actual);
+                    if (! expected.equals(found)) {
+                        throw new IOException("packet " + packetIndex + ": expected client to send " + expected +
+                                ", but it sent " + found);
+                    }
+                    bytesFromClient.addAndGet(actual.length);
+                    if (! clientTurn) {
+                        clientTurn = true;
+                        turnBytes = 0;
+                    }
+                    turnBytes += actual.length;
+                    break;
+                }
+                case RpcSessionRecorder.RECEIVED: {
+                    if (clientTurn) {
+                        // The server answers after the request crossed the
+                        // network, so the request bytes count against the
+                        // bandwidth here too.
+                        clientTurn = false;
+                        roundTrips.incrementAndGet();
+                        delay(latencyMillis * 1000000L + transferNanos(turnBytes));
+                        turnBytes = 0;
+                    }
+                    final long start = System.nanoTime();
+                    out.write(record.getBytes());
+                    out.flush();
+                    bytesToClient.addAndGet(record.getBytes().length);
+                    delay(transferNanos(record.getBytes().length) - (System.nanoTime() - start));
+                    break;
+                }
+                case RpcSessionRecorder.COMPRESS: {
+                    out.flush();
+                    in = new RpcGZIPInputStream(rawIn);
+                    out = new RpcGZIPOutputStream(rawOut);
+                    break;
+                }
+                default:
+                    throw new IOException("unknown record type " + record.getType());
+            }
+            packetIndex++;
+        }
+
+        // Let the client finish with the connection.
+        byte[] extra;
+        try {
+            extra = readPacket(in);
+        } catch (IOException e) {
+            // Closing a compressed stream doesn't always end it cleanly.
+            extra = null;
+        }
+        if (extra != null) {
+            throw new IOException("client sent " + getFuncName(extra) + " after the end of the recorded session");
+        }
+    }
+
+
+    private long transferNanos(long bytes) {
+        final long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return 0;
+        }
+        return (bytes * 1000000000L) / rate;
+    }
+
+
+    private static void delay(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+        }
+    }
+
+
+    /**
+     * @return the complete packet, or null if the client closed the connection.
+     */
+    @Nullable
+    private static byte[] readPacket(@NotNull InputStream in) throws IOException {
+        final byte[] preambleBytes = new byte[RpcPacketPreamble.RPC_PREAMBLE_SIZE];
+        try {
+            final int first = in.read(preambleBytes);
+            if (first < 0) {
+                return null;
+            }
+            readFully(in, preambleBytes, first, preambleBytes.length - first);
+        } catch (SocketException e) {
+            // the client may reset the connection rather than close it.
+            return null;
+        }
+        final RpcPacketPreamble preamble = RpcPacketPreamble.retrievePreamble(preambleBytes);
+        if (! preamble.isValidChecksum()) {
+            throw new IOException("bad packet preamble from the client");
+        }
+        final byte[] ret = new byte[preambleBytes.length + preamble.getPayloadSize()];
+        System.arraycopy(preambleBytes, 0, ret, 0, preambleBytes.length);
+        readFully(in, ret, preambleBytes.length, ret.length - preambleBytes.length);
+        return ret;
+    }
+
+
+    private static void readFully(@NotNull InputStream in, @NotNull byte[] buf, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            final int count = in.read(buf, offset, length);
+            if (count < 0) {
+                throw new EOFException("client closed the connection in the middle of a packet");
+            }
+            offset += count;
+            length -= count;
+        }
+    }
+
+
+    @NotNull
+    private static String getFuncName(@NotNull byte[] packetBytes) {
+        final byte[] preambleBytes = new byte[RpcPacketPreamble.RPC_PREAMBLE_SIZE];
+        System.arraycopy(packetBytes, 0, preambleBytes, 0, preambleBytes.length);
+        final byte[] payload = new byte[packetBytes.length - preambleBytes.length];
+        System.arraycopy(packetBytes, preambleBytes.length, payload, 0, payload.length);
+        final RpcPacket packet = RpcPacket.constructRpcPacket(
+                RpcPacketPreamble.retrievePreamble(preambleBytes), payload, false, CharsetDefs.UTF8);
+        final String name = packet.getFuncNameString();
+        return name == null ? "(unknown)" : name;
+    }
+}
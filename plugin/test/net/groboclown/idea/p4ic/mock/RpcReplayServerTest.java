@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.mock;
+
+import com.perforce.p4java.CharsetDefs;
+import com.perforce.p4java.impl.mapbased.rpc.ServerStats;
+import com.perforce.p4java.impl.mapbased.rpc.func.RpcFunctionMapKey;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacket;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacketField;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcPacketPreamble;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcSessionRecorder;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcSessionRecorder.Record;
+import com.perforce.p4java.impl.mapbased.rpc.stream.RpcStreamConnection;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RpcReplayServerTest {
+    private RpcReplayServer server;
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Tests that expect a failure check it themselves.
+            }
+        }
+    }
+
+
+    @Test
+    public void testReplay() throws Exception {
+        final byte[] request = packet("user-info");
+        final byte[] response = packet("client-Message", "fmt0", "hello");
+        startServer(Arrays.asList(sent(request), received(response), received(packet("release"))));
+
+        final RpcStreamConnection connection = connect();
+        connection.putRpcPacket(RpcPacket.constructRpcPacket("user-info", null, null));
+        assertThat(connection.getRpcPacket().getFuncNameString(), is("client-Message"));
+        assertThat(connection.getRpcPacket().getFuncNameString(), is("release"));
+        connection.disconnect(null);
+        server.close();
+
+        assertThat(server.getRoundTrips(), is(1));
+        assertThat(server.getBytesFromClient(), is((long) request.length));
+        assertThat(server.getBytesToClient(), is((long) (response.length + packet("release").length)));
+    }
+
+
+    @Test
+    public void testCompressedReplay() throws Exception {
+        startServer(Arrays.asList(
+                sent(packet("compress2")),
+                new Record(RpcSessionRecorder.COMPRESS, null),
+                sent(packet("user-info")),
+                received(packet("client-Message", "fmt0", "hello"))));
+
+        final RpcStreamConnection connection = connect();
+        connection.useConnectionCompression();
+        connection.putRpcPacket(RpcPacket.constructRpcPacket("user-info", null, null));
+        assertThat(connection.getRpcPacket().getFuncNameString(), is("client-Message"));
+        connection.disconnect(null);
+        server.close();
+    }
+
+
+    @Test
+    public void testLatency() throws Exception {
+        startServer(Arrays.asList(sent(packet("user-info")), received(packet("release"))));
+        server.setLatencyMillis(200);
+
+        final RpcStreamConnection connection = connect();
+        final long start = System.nanoTime();
+        connection.putRpcPacket(RpcPacket.constructRpcPacket("user-info", null, null));
+        connection.getRpcPacket();
+        final long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+        connection.disconnect(null);
+        server.close();
+
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 200);
+    }
+
+
+    @Test
+    public void testUnexpectedPacket() throws Exception {
+        startServer(Arrays.asList(sent(packet("user-info")), received(packet("release"))));
+
+        final RpcStreamConnection connection = connect();
+        connection.putRpcPacket(RpcPacket.constructRpcPacket("user-fstat", null, null));
+        try {
+            connection.getRpcPacket();
+        } catch (Exception e) {
+            // the replay server closes the connection
+        }
+        connection.disconnect(null);
+        try {
+            server.close();
+            fail("replay should have failed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("user-fstat"));
+        }
+    }
+
+
+    private void startServer(@NotNull List<Record> records) throws IOException {
+        server = new RpcReplayServer(Collections.singletonList(records));
+        server.start();
+    }
+
+
+    @NotNull
+    private RpcStreamConnection connect() throws Exception {
+        return new RpcStreamConnection("localhost", server.getPort(), new Properties(), new ServerStats(), null);
+    }
+
+
+    @NotNull
+    private static Record sent(@NotNull byte[] packet) {
+        return new Record(RpcSessionRecorder.SENT, packet);
+    }
+
+
+    @NotNull
+    private static Record received(@NotNull byte[] packet) {
+        return new Record(RpcSessionRecorder.RECEIVED, packet);
+    }
+
+
+    @NotNull
+    private static byte[] packet(@NotNull String func, @NotNull String... args) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(1024);
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            RpcPacketField.marshal(buf, args[i], args[i + 1], CharsetDefs.UTF8);
+        }
+        RpcPacketField.marshal(buf, RpcFunctionMapKey.FUNCTION, func, CharsetDefs.UTF8);
+        buf.flip();
+        final byte[] preamble = RpcPacketPreamble.constructPreamble(buf.remaining()).marshalAsBytes();
+        final byte[] ret = new byte[preamble.length + buf.remaining()];
+        System.arraycopy(preamble, 0, ret, 0, preamble.length);
+        buf.get(ret, preamble.length, buf.remaining());
+        return ret;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.cache.local;
+
+import net.groboclown.idea.p4ic.v2.server.cache.local.WorkspaceSnapshot.Status;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WorkspaceSnapshotTest {
+    // well outside the racy interval
+    private static final long SYNC_TIME = System.currentTimeMillis() - 60000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testUnknownFile() throws IOException {
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(new File(tmp.getRoot(), "s"));
+        final File file = write("a.txt", "abc", SYNC_TIME);
+
+        assertThat(snapshot.getStatus(file), is(Status.UNKNOWN));
+    }
+
+    @Test
+    public void testSyncedUnchanged() throws IOException {
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(new File(tmp.getRoot(), "s"));
+        final File file = write("a.txt", "abc", SYNC_TIME);
+        snapshot.recordSynced(file, "//depot/a.txt", 3, "text");
+
+        assertThat(snapshot.getStatus(file), is(Status.UNCHANGED));
+    }
+
+    @Test
+    public void testTouchedButSameContents() throws IOException {
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(new File(tmp.getRoot(), "s"));
+        final File file = write("a.txt", "abc", SYNC_TIME);
+        snapshot.recordSynced(file, "//depot/a.txt", 3, "text");
+        write("a.txt", "abc", SYNC_TIME + 10000L);
+
+        assertThat(snapshot.getStatus(file), is(Status.UNCHANGED));
+    }
+
+    @Test
+    public void testChangedSameSize() throws IOException {
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(new File(tmp.getRoot(), "s"));
+        final File file = write("a.txt", "abc", SYNC_TIME);
+        snapshot.recordSynced(file, "//depot/a.txt", 3, "text");
+        write("a.txt", "abd", SYNC_TIME + 10000L);
+
+        assertThat(snapshot.getStatus(file), is(Status.CHANGED));
+    }
+
+    @Test
+    public void testDeleted() throws IOException {
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(new File(tmp.getRoot(), "s"));
+        final File file = write("a.txt", "abc", SYNC_TIME);
+        snapshot.recordSynced(file, "//depot/a.txt", 3, "text");
+        assertThat(file.delete(), is(true));
+
+        assertThat(snapshot.getStatus(file), is(Status.CHANGED));
+    }
+
+    @Test
+    public void testRacyModificationUsesDigest() throws IOException {
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(new File(tmp.getRoot(), "s"));
+        final long now = System.currentTimeMillis();
+        final File file = write("a.txt", "abc", now);
+        snapshot.recordSynced(file, "//depot/a.txt", 3, "text");
+        // Same size and time stamp, but different contents.
+        write("a.txt", "abd", now);
+
+        assertThat(snapshot.getStatus(file), is(Status.CHANGED));
+    }
+
+    @Test
+    public void testHaveRevisionChanged() throws IOException {
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(new File(tmp.getRoot(), "s"));
+        final File file = write("a.txt", "abc", SYNC_TIME);
+        snapshot.recordSynced(file, "//depot/a.txt", 3, "text");
+
+        snapshot.updateHaveRevision(file, 3);
+        assertThat(snapshot.getStatus(file), is(Status.UNCHANGED));
+        snapshot.updateHaveRevision(file, 4);
+        assertThat(snapshot.getStatus(file), is(Status.UNKNOWN));
+    }
+
+    @Test
+    public void testRecordVerified() throws IOException {
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(new File(tmp.getRoot(), "s"));
+        final File file = write("a.txt", "abc", SYNC_TIME);
+        // MD5 of "abc"
+        snapshot.recordVerified(file, "//depot/a.txt", 1, "900150983CD24FB0D6963F7D28E17F72",
+                file.length(), file.lastModified());
+        write("a.txt", "abc", SYNC_TIME + 10000L);
+
+        assertThat(snapshot.getStatus(file), is(Status.UNCHANGED));
+    }
+
+    @Test
+    public void testRecordVerifiedChangedWhileDigesting() throws IOException {
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(new File(tmp.getRoot(), "s"));
+        final File file = write("a.txt", "abc", SYNC_TIME);
+        snapshot.recordSynced(file, "//depot/a.txt", 1, "text");
+        final long size = file.length();
+        final long lastModified = file.lastModified();
+        write("a.txt", "abcd", SYNC_TIME + 10000L);
+        // MD5 of "abc", as read before the change
+        snapshot.recordVerified(file, "//depot/a.txt", 1, "900150983CD24FB0D6963F7D28E17F72",
+                size, lastModified);
+
+        assertThat(snapshot.getStatus(file), is(Status.UNKNOWN));
+    }
+
+    @Test
+    public void testRecordSyncedBatch() throws IOException {
+        final File store = new File(tmp.getRoot(), "s");
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(store, new Executor() {
+            @Override
+            public void execute(@NotNull Runnable command) {
+                tasks.add(command);
+            }
+        });
+        final File a = write("a.txt", "abc", SYNC_TIME);
+        final File b = write("b.txt", "def", SYNC_TIME);
+        final File c = write("c.txt", "ghi", SYNC_TIME);
+        snapshot.recordSynced(c, "//depot/c.txt", 1, "text");
+        snapshot.recordSynced(Arrays.asList(
+                new WorkspaceSnapshot.SyncedFile(a, "//depot/a.txt", 2, "text"),
+                new WorkspaceSnapshot.SyncedFile(b, "//depot/b.txt", 2, "text")));
+        snapshot.recordSynced(Collections.singletonList(
+                new WorkspaceSnapshot.SyncedFile(c, null, 0, null)));
+        // changed after the sync, before it was digested
+        write("b.txt", "defg", SYNC_TIME + 10000L);
+
+        // Nothing is read until the executor runs, and one task handles both syncs.
+        assertThat(snapshot.getStatus(a), is(Status.UNKNOWN));
+        assertThat(snapshot.getStatus(c), is(Status.UNCHANGED));
+        assertThat(tasks.size(), is(1));
+        tasks.get(0).run();
+
+        assertThat(snapshot.getStatus(a), is(Status.UNCHANGED));
+        assertThat(snapshot.getStatus(b), is(Status.UNKNOWN));
+        assertThat(snapshot.getStatus(c), is(Status.UNKNOWN));
+        assertThat(store.isFile(), is(true));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        final File store = new File(new File(tmp.getRoot(), "dir"), "s");
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(store);
+        final File a = write("a.txt", "abc", SYNC_TIME);
+        final File b = write("b.txt", "def", SYNC_TIME);
+        snapshot.recordSynced(a, "//depot/a.txt", 3, "text");
+        snapshot.recordSynced(b, null, 1, null);
+        assertThat(snapshot.save(), is(true));
+        assertThat(store.isFile(), is(true));
+
+        final WorkspaceSnapshot loaded = new WorkspaceSnapshot(store);
+        assertThat(loaded.size(), is(2));
+        assertThat(loaded.getStatus(a), is(Status.UNCHANGED));
+        write("b.txt", "deg", SYNC_TIME + 10000L);
+        assertThat(loaded.getStatus(b), is(Status.CHANGED));
+
+        // replaces the existing store
+        loaded.remove(a);
+        assertThat(loaded.save(), is(true));
+        assertThat(new WorkspaceSnapshot(store).size(), is(1));
+    }
+
+    @Test
+    public void testUnreadableStore() throws IOException {
+        final File store = write("s", "not a snapshot", SYNC_TIME);
+        final WorkspaceSnapshot snapshot = new WorkspaceSnapshot(store);
+
+        assertThat(snapshot.size(), is(0));
+    }
+
+
+    @NotNull
+    private File write(@NotNull String name, @NotNull String contents, long lastModified) throws IOException {
+        final File file = new File(tmp.getRoot(), name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        assertThat(file.setLastModified(lastModified), is(true));
+        return file;
+    }
+}
@@ -129,6 +129,32 @@ public class FileMappingRepoTest {
         assertThat(actual, is(expected));
     }
 
+    @Test
+    public void testReleaseUnused() throws Exception {
+        final FileMappingRepo repo = new FileMappingRepo(false);
+
+        final P4ClientFileMapping kept = repo.getByDepotLocation("//depot/a/file1", createFilePath(new File("f1")));
+        final P4ClientFileMapping dropped = repo.getByDepotLocation("//depot/a/file2", createFilePath(new File("f2")));
+
+        // Recently used mappings survive the first release.
+        EncodeReferences refs = new EncodeReferences();
+        refs.getFileMappingId(kept);
+        assertThat(repo.releaseUnused(refs).size(), is(2));
+
+        // Only the referenced mapping survives the second one.
+        refs = new EncodeReferences();
+        refs.getFileMappingId(kept);
+        assertThat(repo.releaseUnused(refs).size(), is(1));
+
+        final Iterator<P4ClientFileMapping> iter = repo.getAllFiles().iterator();
+        assertThat(iter.next() == kept, is(true));
+        assertThat(iter.hasNext(), is(false));
+
+        // The released mapping is created anew on the next request.
+        assertThat(repo.getByDepotLocation("//depot/a/file2", null) == dropped, is(false));
+        assertThat(repo.getByDepotLocation("//depot/a/file1", null) == kept, is(true));
+    }
+
 
     private FilePath createFilePath(File f) {
         return new MockFilePath(f);
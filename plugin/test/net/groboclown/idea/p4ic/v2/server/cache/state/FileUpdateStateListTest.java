@@ -6,8 +6,10 @@ import net.groboclown.idea.p4ic.v2.server.cache.FileUpdateAction;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.Collections;
 
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
 
 public class FileUpdateStateListTest {
@@ -138,6 +140,43 @@ public class FileUpdateStateListTest {
         assertThat("one remove: " + list, list.copy().size(), is(0));
     }
 
+    @Test
+    public void testIndexedUpdateState_addReplace() throws Exception {
+        FileUpdateStateList list = new FileUpdateStateList();
+        P4FileUpdateState s1 = new P4FileUpdateState(
+                new P4ClientFileMapping(null, createFilePath("a.txt")),
+                1, FileUpdateAction.ADD_EDIT_FILE, true);
+        list.add(s1);
+        assertThat(list.getIndexedUpdateStateFor(createFilePath("a.txt")), is(s1));
+        assertThat(list.getIndexedUpdateStateFor(createFilePath("b.txt")), is(nullValue()));
+
+        P4FileUpdateState s2 = new P4FileUpdateState(
+                new P4ClientFileMapping(null, createFilePath("a.txt")),
+                2, FileUpdateAction.DELETE_FILE, true);
+        list.add(s2);
+        assertThat(list.getIndexedUpdateStateFor(createFilePath("a.txt")).getFileUpdateAction(),
+                is(FileUpdateAction.DELETE_FILE));
+
+        P4FileUpdateState s3 = new P4FileUpdateState(
+                new P4ClientFileMapping(null, createFilePath("b.txt")),
+                1, FileUpdateAction.EDIT_FILE, true);
+        list.replaceWith(Collections.singleton(s3));
+        assertThat(list.getIndexedUpdateStateFor(createFilePath("a.txt")), is(nullValue()));
+        assertThat(list.getIndexedUpdateStateFor(createFilePath("b.txt")), is(s3));
+    }
+
+    @Test
+    public void testIndexedUpdateState_remove() throws Exception {
+        FileUpdateStateList list = new FileUpdateStateList();
+        P4FileUpdateState s1 = new P4FileUpdateState(
+                new P4ClientFileMapping("//depot/1/2/3", createFilePath("a.txt")),
+                1, FileUpdateAction.EDIT_FILE, true);
+        list.add(s1);
+        list.remove(s1);
+        assertThat(list.getIndexedUpdateStateFor(createFilePath("a.txt")), is(nullValue()));
+        assertThat(list.getUpdateStateFor(createFilePath("a.txt")), is(nullValue()));
+    }
+
     private FilePath createFilePath(String f) {
         return createFilePath(new File(f));
     }
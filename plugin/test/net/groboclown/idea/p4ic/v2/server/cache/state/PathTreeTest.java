@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.cache.state;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PathTreeTest {
+    @Test
+    public void testSharedPrefix() {
+        final PathTree tree = new PathTree(false, '/');
+        final PathTree.Node a = tree.intern("//depot/main/a.txt");
+        final PathTree.Node b = tree.intern("//depot/main/b.txt");
+
+        assertThat(a.parent, is(sameInstance(b.parent)));
+        assertThat(a.segment, is("a.txt"));
+        assertThat(tree.find("//depot/main/a.txt"), is(sameInstance(a)));
+        assertThat(tree.find("//depot/main/b.txt"), is(sameInstance(b)));
+        assertThat(tree.find("//depot/main/c.txt"), is(nullValue()));
+        assertThat(tree.find("//depot/MAIN/a.txt"), is(nullValue()));
+    }
+
+    @Test
+    public void testCaseInsensitive() {
+        final PathTree tree = new PathTree(true, '/');
+        final PathTree.Node a = tree.intern("//depot/Main/A.txt");
+
+        assertThat(tree.find("//DEPOT/main/a.TXT"), is(sameInstance(a)));
+        assertThat(tree.intern("//depot/main/a.txt"), is(sameInstance(a)));
+    }
+
+    @Test
+    public void testRelease() {
+        final PathTree tree = new PathTree(false, '/');
+        final PathTree.Node a = tree.intern("//depot/x/a.txt");
+        final PathTree.Node b = tree.intern("//depot/y/b.txt");
+        a.mapping = new P4ClientFileMapping("//depot/x/a.txt");
+        b.mapping = new P4ClientFileMapping("//depot/y/b.txt");
+
+        tree.release(a);
+        assertThat(tree.find("//depot/x/a.txt"), is(nullValue()));
+        assertThat(tree.find("//depot/x"), is(nullValue()));
+        assertThat(tree.find("//depot/y/b.txt"), is(sameInstance(b)));
+    }
+
+    @Test
+    public void testManyChildren() {
+        final PathTree tree = new PathTree(false, '/');
+        for (int i = 0; i < 1000; i++) {
+            tree.intern("//depot/dir/file" + i).mapping = new P4ClientFileMapping("//depot/dir/file" + i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            tree.release(tree.find("//depot/dir/file" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            final PathTree.Node node = tree.find("//depot/dir/file" + i);
+            if (i % 2 == 0) {
+                assertThat(node, is(nullValue()));
+            } else {
+                assertThat(node.mapping.getDepotPath(), is("//depot/dir/file" + i));
+            }
+        }
+    }
+}
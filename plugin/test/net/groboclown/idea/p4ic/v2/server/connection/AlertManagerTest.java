@@ -13,11 +13,15 @@
  */
 package net.groboclown.idea.p4ic.v2.server.connection;
 
+import com.intellij.openapi.project.Project;
+import net.groboclown.idea.p4ic.v2.server.connection.AlertManager.PendingWarning;
 import net.groboclown.idea.p4ic.v2.server.connection.AlertManager.ThrowableHandled;
+import net.groboclown.idea.p4ic.v2.server.connection.AlertManager.WarningKey;
 import org.junit.Test;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
 
 public class AlertManagerTest {
     @Test
@@ -40,4 +44,51 @@ public class AlertManagerTest {
                 th.isHandled(new Exception()),
                 is(false));
     }
+
+    @Test
+    public void testWarningKeyGroupsByMessageId() {
+        Project project = mock(Project.class);
+        Project other = mock(Project.class);
+
+        assertThat("same message id",
+                new WarningKey(project, "title", 12).equals(new WarningKey(project, "title", 12)),
+                is(true));
+        assertThat("same message id hash",
+                new WarningKey(project, "title", 12).hashCode() == new WarningKey(project, "title", 12).hashCode(),
+                is(true));
+        assertThat("different message id",
+                new WarningKey(project, "title", 12).equals(new WarningKey(project, "title", 13)),
+                is(false));
+        assertThat("different title",
+                new WarningKey(project, "title", 12).equals(new WarningKey(project, "other", 12)),
+                is(false));
+        assertThat("different project",
+                new WarningKey(project, "title", 12).equals(new WarningKey(other, "title", 12)),
+                is(false));
+        assertThat("message id is not the text",
+                new WarningKey(project, "title", 12).equals(new WarningKey(project, "title", "12")),
+                is(false));
+    }
+
+    @Test
+    public void testPendingWarningKeepsDistinctTexts() {
+        Project project = mock(Project.class);
+        PendingWarning warning = new PendingWarning(new WarningKey(project, "title", 12), null);
+
+        assertThat("first text",
+                warning.addDetails("//depot/a.txt - file(s) not opened on this client."),
+                is(true));
+        warning.count++;
+        assertThat("second text with the same code",
+                warning.addDetails("//depot/b.txt - file(s) not opened on this client."),
+                is(true));
+        warning.count++;
+        assertThat("repeated text",
+                warning.addDetails("//depot/a.txt - file(s) not opened on this client."),
+                is(false));
+
+        assertThat("both texts reported",
+                warning.getMessage().contains("//depot/a.txt") && warning.getMessage().contains("//depot/b.txt"),
+                is(true));
+    }
 }
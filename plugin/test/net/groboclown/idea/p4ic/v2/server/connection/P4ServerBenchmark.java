@@ -0,0 +1,232 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.connection;
+
+import com.perforce.p4java.client.IClient;
+import com.perforce.p4java.core.IChangelist;
+import com.perforce.p4java.core.file.FileSpecBuilder;
+import com.perforce.p4java.core.file.FileSpecOpStatus;
+import com.perforce.p4java.core.file.IFileSpec;
+import com.perforce.p4java.impl.generic.core.file.ExtendedFileSpecColumns;
+import com.perforce.p4java.impl.mapbased.rpc.RpcPropertyDefs;
+import com.perforce.p4java.impl.mapbased.rpc.RpcServer;
+import com.perforce.p4java.impl.mapbased.rpc.packet.RpcSessionRecorder;
+import com.perforce.p4java.option.server.GetExtendedFilesOptions;
+import com.perforce.p4java.option.server.GetFileAnnotationsOptions;
+import com.perforce.p4java.option.client.SyncOptions;
+import com.perforce.p4java.server.IOptionsServer;
+import com.perforce.p4java.server.ServerFactory;
+import com.perforce.p4java.server.callback.ICommandTimingCallback;
+import net.groboclown.idea.p4ic.mock.RpcReplayServer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Measures the server operations behind the common plugin actions, either
+ * against a real Perforce server (recording the sessions), or offline
+ * against the recorded sessions with a {@link RpcReplayServer}.  The
+ * operations issue the same p4java calls as {@link P4Exec2}, so that a
+ * regression in the wire path or the p4java result handling shows up in
+ * the replayed times.
+ * <p/>
+ * Record the sessions once, with the socket pool disabled:
+ * <pre>
+ *   java -Dp4.benchmark.mode=record -Dp4.benchmark.sessions=/tmp/p4-sessions \
+ *       -Dp4.benchmark.port=perforce:1666 -Dp4.benchmark.user=me \
+ *       -Dp4.benchmark.client=my-client -Dp4.benchmark.path=//depot/project/... \
+ *       net.groboclown.idea.p4ic.v2.server.connection.P4ServerBenchmark
+ * </pre>
+ * and replay them as often as needed, with the same settings except for
+ * the mode and port, optionally with <tt>-Dp4.benchmark.latency</tt>
+ * (round trip milliseconds) and <tt>-Dp4.benchmark.bandwidth</tt> (bytes
+ * per second) to simulate a WAN.  The replay fails if the client sends
+ * something other than what was recorded.
+ * <p/>
+ * The sync re-transfers files into the workspace, and the opened files are
+ * reverted at the end, so use a workspace that has nothing else open.
+ */
+public class P4ServerBenchmark {
+    private final IOptionsServer server;
+    private final IClient client;
+    @Nullable
+    private final RpcReplayServer replay;
+    private final Counter counter = new Counter();
+    private final List<String> report = new ArrayList<String>();
+
+
+    public static void main(String[] args) throws Exception {
+        final String mode = System.getProperty("p4.benchmark.mode", "replay");
+        final File sessions = new File(required("p4.benchmark.sessions"));
+        final String path = required("p4.benchmark.path");
+        final int fileCount = Integer.getInteger("p4.benchmark.files", 5000);
+
+        final Properties props = new Properties();
+        props.setProperty(RpcPropertyDefs.RPC_SOCKET_POOL_SIZE_NICK, "0");
+        RpcReplayServer replay = null;
+        final String port;
+        if ("record".equals(mode)) {
+            for (File file : RpcSessionRecorder.listSessions(sessions)) {
+                if (! file.delete()) {
+                    throw new IllegalStateException("could not remove old session " + file);
+                }
+            }
+            props.setProperty(RpcPropertyDefs.RPC_SESSION_RECORD_DIR_NICK, sessions.getAbsolutePath());
+            port = required("p4.benchmark.port");
+        } else if ("replay".equals(mode)) {
+            replay = RpcReplayServer.fromDirectory(sessions);
+            replay.setLatencyMillis(Long.getLong("p4.benchmark.latency", 0L));
+            replay.setBytesPerSecond(Long.getLong("p4.benchmark.bandwidth", 0L));
+            port = "localhost:" + replay.start();
+        } else {
+            throw new IllegalArgumentException("p4.benchmark.mode must be record or replay: " + mode);
+        }
+
+        final IOptionsServer server = ServerFactory.getOptionsServer("p4java://" + port, props);
+        server.setUserName(required("p4.benchmark.user"));
+        server.connect();
+        final String password = System.getProperty("p4.benchmark.password");
+        if (password != null) {
+            server.login(password);
+        }
+        final IClient client = server.getClient(required("p4.benchmark.client"));
+        if (client == null) {
+            throw new IllegalArgumentException("no such client " + System.getProperty("p4.benchmark.client"));
+        }
+        server.setCurrentClient(client);
+
+        final P4ServerBenchmark benchmark = new P4ServerBenchmark(server, client, replay);
+        try {
+            benchmark.run(path, fileCount);
+        } finally {
+            server.disconnect();
+            if (replay != null) {
+                replay.close();
+            }
+        }
+        System.out.printf("%s of %s, %d files%n", mode, port, fileCount);
+        for (String line : benchmark.report) {
+            System.out.println(line);
+        }
+    }
+
+
+    P4ServerBenchmark(@NotNull IOptionsServer server, @NotNull IClient client, @Nullable RpcReplayServer replay) {
+        this.server = server;
+        this.client = client;
+        this.replay = replay;
+        ((RpcServer) server).registerTimingCallback(counter);
+    }
+
+
+    void run(@NotNull String path, int fileCount) throws Exception {
+        report.add(String.format("%-20s %10s %9s %11s %12s %12s",
+                "operation", "ms", "commands", "round trips", "bytes sent", "bytes recv"));
+
+        start();
+        final List<IFileSpec> have = client.haveList(FileSpecBuilder.makeFileSpecList(path));
+        final List<IFileSpec> files = new ArrayList<IFileSpec>();
+        for (IFileSpec spec : have) {
+            if (spec.getOpStatus() == FileSpecOpStatus.VALID && files.size() < fileCount) {
+                files.add(FileSpecBuilder.makeFileSpecList(spec.getDepotPathString()).get(0));
+            }
+        }
+        finish("have");
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("no files synced under " + path);
+        }
+
+        start();
+        client.editFiles(files, false, false, IChangelist.DEFAULT, null);
+        finish("open");
+
+        start();
+        server.getChangelists(0, Collections.<IFileSpec>emptyList(), client.getName(), null,
+                false, false, true, true);
+        final ExtendedFileSpecColumns columns = new ExtendedFileSpecColumns(P4Exec2.OPENED_FILE_FIELDS);
+        server.getExtendedFiles(FileSpecBuilder.makeFileSpecList(path), new GetExtendedFilesOptions("-Ro"), columns);
+        finish("change refresh");
+
+        final List<IFileSpec> first = files.subList(0, 1);
+        start();
+        server.getRevisionHistory(first, -1, false, true, true, false);
+        finish("history");
+
+        start();
+        server.getFileAnnotations(first, new GetFileAnnotationsOptions(
+                false, false, false, false, false, true, false));
+        finish("annotate");
+
+        start();
+        client.revertFiles(files, false, -1, false, false);
+        finish("revert");
+
+        start();
+        client.sync(files, new SyncOptions(true, false, false, false, false));
+        finish("sync");
+    }
+
+
+    private void start() {
+        counter.reset();
+        if (replay != null) {
+            replay.resetCounts();
+        }
+    }
+
+
+    private void finish(@NotNull String operation) {
+        final long millis = (System.nanoTime() - counter.startNanos) / 1000000L;
+        report.add(String.format("%-20s %10d %9d %11s %12d %12d",
+                operation, millis, counter.commands,
+                replay == null ? "-" : Integer.toString(replay.getRoundTrips()),
+                counter.bytesSent, counter.bytesReceived));
+    }
+
+
+    @NotNull
+    private static String required(@NotNull String property) {
+        final String ret = System.getProperty(property);
+        if (ret == null) {
+            throw new IllegalArgumentException("-D" + property + " is required");
+        }
+        return ret;
+    }
+
+
+    private static class Counter implements ICommandTimingCallback {
+        private long startNanos;
+        private int commands;
+        private long bytesSent;
+        private long bytesReceived;
+
+        void reset() {
+            startNanos = System.nanoTime();
+            commands = 0;
+            bytesSent = 0;
+            bytesReceived = 0;
+        }
+
+        @Override
+        public void commandTimed(String cmdName, long sendNanos, long serverNanos, long receiveNanos,
+                long sent, long received) {
+            commands++;
+            bytesSent += sent;
+            bytesReceived += received;
+        }
+    }
+}
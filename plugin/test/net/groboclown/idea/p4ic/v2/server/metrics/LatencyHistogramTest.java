@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBuckets() {
+        assertThat(LatencyHistogram.bucketFor(0), is(0));
+        assertThat(LatencyHistogram.bucketFor(999), is(0));
+        assertThat(LatencyHistogram.bucketFor(1000), is(1));
+        assertThat(LatencyHistogram.bucketFor(2000), is(2));
+        assertThat(LatencyHistogram.bucketFor(3999), is(2));
+        assertThat(LatencyHistogram.bucketFor(4000), is(3));
+        assertThat(LatencyHistogram.bucketFor(Long.MAX_VALUE), is(LatencyHistogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getMeanNanos(), is(0L));
+        assertThat(histogram.getPercentileNanos(0.99), is(0L));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1500L);
+        }
+        histogram.record(5000000L);
+
+        assertThat(histogram.getCount(), is(100L));
+        assertThat(histogram.getMaxNanos(), is(5000000L));
+        assertThat(histogram.getTotalNanos(), is(99L * 1500L + 5000000L));
+        // 1.5 us falls in the [1, 2) us bucket
+        assertThat(histogram.getPercentileNanos(0.5), is(2000L));
+        assertThat(histogram.getPercentileNanos(0.99), is(2000L));
+        // capped by the largest recorded value
+        assertThat(histogram.getPercentileNanos(1.0), is(5000000L));
+    }
+
+    @Test
+    public void testNegativeAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-10L);
+        assertThat(histogram.getCount(), is(1L));
+        assertThat(histogram.getTotalNanos(), is(0L));
+
+        histogram.reset();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getMaxNanos(), is(0L));
+    }
+}
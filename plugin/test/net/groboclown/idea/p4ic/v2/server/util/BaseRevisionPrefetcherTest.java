@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.util;
+
+import com.intellij.openapi.vcs.FilePath;
+import net.groboclown.idea.p4ic.mock.MockFilePath;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class BaseRevisionPrefetcherTest {
+    @Test
+    public void testPrefetchedInBatches() throws InterruptedException {
+        final CountingLoader loader = new CountingLoader();
+        final BaseRevisionPrefetcher prefetcher = new BaseRevisionPrefetcher(loader, new DirectExecutor());
+        final List<FilePath> files = createFiles(BaseRevisionPrefetcher.BATCH_SIZE * 2 + 3);
+
+        prefetcher.prefetch(files);
+
+        assertThat(loader.batchSizes, is(Arrays.asList(
+                BaseRevisionPrefetcher.BATCH_SIZE, BaseRevisionPrefetcher.BATCH_SIZE, 3)));
+        assertThat(prefetcher.get(files.get(4)), is("contents of f4"));
+        assertThat(loader.batchSizes.size(), is(3));
+
+        // already loaded
+        prefetcher.prefetch(files);
+        assertThat(loader.batchSizes.size(), is(3));
+    }
+
+    @Test
+    public void testGetLoadsSingleFile() throws InterruptedException {
+        final CountingLoader loader = new CountingLoader();
+        final BaseRevisionPrefetcher prefetcher = new BaseRevisionPrefetcher(loader, new DirectExecutor());
+        final FilePath file = createFiles(1).get(0);
+
+        assertThat(prefetcher.get(file), is("contents of f0"));
+        assertThat(prefetcher.get(file), is("contents of f0"));
+        assertThat(loader.batchSizes, is(Collections.singletonList(1)));
+    }
+
+    @Test
+    public void testGetJumpsTheQueue() throws InterruptedException {
+        final CountingLoader loader = new CountingLoader();
+        final QueuedExecutor executor = new QueuedExecutor();
+        final BaseRevisionPrefetcher prefetcher = new BaseRevisionPrefetcher(loader, executor);
+        final List<FilePath> files = createFiles(3);
+
+        prefetcher.prefetch(files);
+        assertThat(loader.batchSizes.isEmpty(), is(true));
+        assertThat(prefetcher.get(files.get(2)), is("contents of f2"));
+        assertThat(loader.batchSizes, is(Collections.singletonList(1)));
+
+        // The background load skips the file that was already loaded.
+        executor.runAll();
+        assertThat(loader.batchSizes, is(Arrays.asList(1, 2)));
+    }
+
+    @Test
+    public void testFileWithoutContents() throws InterruptedException {
+        final CountingLoader loader = new CountingLoader();
+        final BaseRevisionPrefetcher prefetcher = new BaseRevisionPrefetcher(loader, new DirectExecutor());
+        final FilePath file = createFiles(1).get(0);
+        loader.missing.add(file);
+
+        assertThat(prefetcher.get(file), is(nullValue()));
+        assertThat(prefetcher.get(file), is(nullValue()));
+        assertThat(loader.batchSizes, is(Collections.singletonList(1)));
+    }
+
+    @Test
+    public void testInvalidateAll() throws InterruptedException {
+        final CountingLoader loader = new CountingLoader();
+        final BaseRevisionPrefetcher prefetcher = new BaseRevisionPrefetcher(loader, new DirectExecutor());
+        final FilePath file = createFiles(1).get(0);
+
+        prefetcher.get(file);
+        prefetcher.invalidateAll();
+        prefetcher.get(file);
+        assertThat(loader.batchSizes, is(Arrays.asList(1, 1)));
+    }
+
+
+    @NotNull
+    private static List<FilePath> createFiles(int count) {
+        final List<FilePath> ret = new ArrayList<FilePath>(count);
+        for (int i = 0; i < count; i++) {
+            ret.add(new MockFilePath(new File("f" + i)));
+        }
+        return ret;
+    }
+
+
+    private static class CountingLoader implements BaseRevisionPrefetcher.Loader {
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+        final Set<FilePath> missing = new HashSet<FilePath>();
+
+        @NotNull
+        @Override
+        public Map<FilePath, String> load(@NotNull final List<FilePath> files) {
+            batchSizes.add(files.size());
+            final Map<FilePath, String> ret = new HashMap<FilePath, String>();
+            for (FilePath file : files) {
+                ret.put(file, missing.contains(file) ? null : "contents of " + file.getIOFile().getName());
+            }
+            return ret;
+        }
+    }
+
+
+    private static class DirectExecutor implements Executor {
+        @Override
+        public void execute(@NotNull final Runnable command) {
+            command.run();
+        }
+    }
+
+
+    private static class QueuedExecutor implements Executor {
+        private final List<Runnable> commands = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(@NotNull final Runnable command) {
+            commands.add(command);
+        }
+
+        void runAll() {
+            for (Runnable command : commands) {
+                command.run();
+            }
+            commands.clear();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.util;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.perforce.p4java.core.IFileLineMatch;
+import com.perforce.p4java.impl.generic.core.FileLineMatch;
+import net.groboclown.idea.p4ic.v2.server.connection.P4Exec2.FileLineMatchConsumer;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DepotSearchTest {
+    @Test
+    public void testFixedRevision() {
+        assertThat(DepotSearch.isFixedRevision("//depot/main/..."), is(false));
+        assertThat(DepotSearch.isFixedRevision("//depot/main/...#head"), is(false));
+        assertThat(DepotSearch.isFixedRevision("//depot/main/...#have"), is(false));
+        assertThat(DepotSearch.isFixedRevision("//depot/main/...@my_label"), is(false));
+        assertThat(DepotSearch.isFixedRevision("//depot/main/...@2015/01/01"), is(false));
+        assertThat(DepotSearch.isFixedRevision("//depot/main/...@=1234"), is(false));
+        assertThat(DepotSearch.isFixedRevision("//depot/main/...@100,@now"), is(false));
+        assertThat(DepotSearch.isFixedRevision("//depot/main/...@"), is(false));
+
+        assertThat(DepotSearch.isFixedRevision("//depot/main/a.txt#3"), is(true));
+        assertThat(DepotSearch.isFixedRevision("//depot/main/...@1234"), is(true));
+        assertThat(DepotSearch.isFixedRevision("//depot/main/...@100,@200"), is(true));
+        assertThat(DepotSearch.isFixedRevision("//depot/main/a.txt#1,3"), is(true));
+    }
+
+    @Test
+    public void testPartition() {
+        assertThat(DepotSearch.partition(Collections.<String>emptyList(), 4).size(), is(0));
+        assertThat(DepotSearch.partition(Arrays.asList("a", "b"), 4),
+                is(Arrays.asList(Collections.singletonList("a"), Collections.singletonList("b"))));
+        assertThat(DepotSearch.partition(Arrays.asList("a", "b", "c", "d", "e"), 2),
+                is(Arrays.asList(Arrays.asList("a", "b", "c"), Arrays.asList("d", "e"))));
+    }
+
+    @Test
+    public void testFixedSearchIsCached() throws Exception {
+        final DepotSearch search = new DepotSearch("x", Arrays.asList("//a/...@10", "//b/...@10"), false, false, 0);
+        final FakeSearcher searcher = new FakeSearcher();
+
+        final CollectingListener first = new CollectingListener();
+        search.run("testFixedSearchIsCached", searcher, first, new EmptyProgressIndicator());
+        assertThat(searcher.searched.size(), is(2));
+        assertThat(first.lines(), is(Arrays.asList("//a/...@10", "//b/...@10")));
+
+        final CollectingListener second = new CollectingListener();
+        search.run("testFixedSearchIsCached", searcher, second, new EmptyProgressIndicator());
+        assertThat(searcher.searched.size(), is(2));
+        assertThat(second.lines(), is(first.lines()));
+    }
+
+    @Test
+    public void testMovingSearchIsNotCached() throws Exception {
+        final DepotSearch search = new DepotSearch("x", Collections.singletonList("//a/..."), false, false, 0);
+        final FakeSearcher searcher = new FakeSearcher();
+
+        search.run("testMovingSearchIsNotCached", searcher, new CollectingListener(), new EmptyProgressIndicator());
+        search.run("testMovingSearchIsNotCached", searcher, new CollectingListener(), new EmptyProgressIndicator());
+        assertThat(searcher.searched.size(), is(2));
+    }
+
+    @Test
+    public void testRunsOnSearchThreads() throws Exception {
+        final DepotSearch search = new DepotSearch("x", Arrays.asList("//a/...", "//b/..."), false, false, 0);
+        final FakeSearcher searcher = new FakeSearcher();
+
+        search.run("testRunsOnSearchThreads", searcher, new CollectingListener(), new EmptyProgressIndicator());
+        assertThat(searcher.threads.size(), is(2));
+        for (String thread : searcher.threads) {
+            assertThat(thread, thread.startsWith("P4 depot search "), is(true));
+        }
+    }
+
+    @Test
+    public void testRetrySkipsReportedLines() {
+        final CollectingListener listener = new CollectingListener();
+        final DepotSearch.PartConsumer consumer =
+                new DepotSearch.PartConsumer(listener, new EmptyProgressIndicator(), true);
+
+        consumer.start();
+        consumer.consume(match("a"));
+        consumer.info("skipped");
+        // the command failed, and is retried
+        consumer.start();
+        consumer.consume(match("a"));
+        consumer.info("skipped");
+        consumer.consume(match("b"));
+
+        assertThat(listener.lines(), is(Arrays.asList("a", "b")));
+        assertThat(listener.infos, is(Collections.singletonList("skipped")));
+        assertThat(consumer.getMatches().size(), is(2));
+    }
+
+
+    @NotNull
+    private static IFileLineMatch match(@NotNull String file) {
+        return new FileLineMatch(file, 1, "x", IFileLineMatch.MatchType.MATCH);
+    }
+
+
+    private static class FakeSearcher implements DepotSearch.Searcher {
+        final List<String> searched = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void search(@NotNull final List<String> depotPaths, @NotNull final FileLineMatchConsumer consumer) {
+            threads.add(Thread.currentThread().getName());
+            consumer.start();
+            for (String depotPath : depotPaths) {
+                searched.add(depotPath);
+                consumer.consume(match(depotPath));
+            }
+        }
+    }
+
+
+    private static class CollectingListener implements DepotSearch.Listener {
+        final List<IFileLineMatch> matches = Collections.synchronizedList(new ArrayList<IFileLineMatch>());
+        final List<String> infos = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void matched(@NotNull final IFileLineMatch match) {
+            matches.add(match);
+        }
+
+        @Override
+        public void info(@NotNull final String message) {
+            infos.add(message);
+        }
+
+        @NotNull
+        List<String> lines() {
+            final List<String> ret = new ArrayList<String>();
+            synchronized (matches) {
+                for (IFileLineMatch match : matches) {
+                    ret.add(match.getDepotFile());
+                }
+            }
+            // the parts run at once, so their matches can arrive in any order
+            Collections.sort(ret);
+            return ret;
+        }
+    }
+}
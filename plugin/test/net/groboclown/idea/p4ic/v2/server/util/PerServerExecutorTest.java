@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.util;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.vcs.VcsException;
+import net.groboclown.idea.p4ic.v2.server.util.PerServerExecutor.Result;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class PerServerExecutorTest {
+    @Test
+    public void testResultsInKeyOrder() throws Exception {
+        final List<String> keys = Arrays.asList("c", "a", "b", "e", "d", "f");
+        final Map<String, Result<String>> results = PerServerExecutor.run(keys, new EmptyProgressIndicator(),
+                new PerServerExecutor.Task<String, String>() {
+                    @Override
+                    public String run(@NotNull String key, @NotNull ProgressIndicator progress)
+                            throws InterruptedException {
+                        // make the first keys finish last
+                        Thread.sleep(10L * (6 - keys.indexOf(key)));
+                        return key.toUpperCase();
+                    }
+                });
+        assertThat(new ArrayList<String>(results.keySet()), is(keys));
+        for (Map.Entry<String, Result<String>> entry : results.entrySet()) {
+            assertThat(entry.getValue().get(), is(entry.getKey().toUpperCase()));
+        }
+    }
+
+    @Test
+    public void testRunsConcurrently() throws Exception {
+        // Each task waits for the other one, so this only finishes if they
+        // run at the same time.
+        final CountDownLatch latch = new CountDownLatch(2);
+        final Map<String, Result<Boolean>> results = PerServerExecutor.run(Arrays.asList("a", "b"), null,
+                new PerServerExecutor.Task<String, Boolean>() {
+                    @Override
+                    public Boolean run(@NotNull String key, @NotNull ProgressIndicator progress)
+                            throws InterruptedException {
+                        latch.countDown();
+                        return latch.await(5, TimeUnit.SECONDS);
+                    }
+                });
+        assertThat(results.get("a").get(), is(true));
+        assertThat(results.get("b").get(), is(true));
+    }
+
+    @Test
+    public void testFailureIsPerKey() throws Exception {
+        final Map<String, Result<String>> results = PerServerExecutor.run(Arrays.asList("ok", "bad"), null,
+                new PerServerExecutor.Task<String, String>() {
+                    @Override
+                    public String run(@NotNull String key, @NotNull ProgressIndicator progress)
+                            throws VcsException {
+                        if ("bad".equals(key)) {
+                            throw new VcsException("bad server");
+                        }
+                        return key;
+                    }
+                });
+        assertThat(results.get("ok").get(), is("ok"));
+        try {
+            results.get("bad").get();
+            fail("did not throw the task exception");
+        } catch (VcsException e) {
+            assertThat(e.getMessage(), is("bad server"));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.groboclown.idea.p4ic.v2.server.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ThrottledBatchTest {
+    @Test
+    public void testBatchesBySize() {
+        final TestBatch batch = new TestBatch(3, 1000);
+        for (int i = 1; i <= 7; i++) {
+            batch.add(i);
+        }
+        assertThat(batch.batches, is(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(4, 5, 6))));
+        batch.flush();
+        assertThat(batch.batches.get(2), is(Collections.singletonList(7)));
+    }
+
+    @Test
+    public void testBatchesByDelay() {
+        final TestBatch batch = new TestBatch(100, 1000);
+        batch.add(1);
+        batch.now = 500;
+        batch.add(2);
+        assertThat(batch.batches.size(), is(0));
+        batch.now = 1000;
+        batch.add(3);
+        assertThat(batch.batches, is(Collections.singletonList(Arrays.asList(1, 2, 3))));
+
+        // The delay starts again with the next item.
+        batch.now = 1500;
+        batch.add(4);
+        batch.now = 2400;
+        batch.add(5);
+        assertThat(batch.batches.size(), is(1));
+    }
+
+    @Test
+    public void testFlushWhenEmpty() {
+        final TestBatch batch = new TestBatch(3, 1000);
+        batch.flush();
+        assertThat(batch.batches.size(), is(0));
+    }
+
+
+    private static class TestBatch extends ThrottledBatch<Integer> {
+        final List<List<Integer>> batches = new ArrayList<List<Integer>>();
+        long now = 0;
+
+        TestBatch(int maxSize, long maxDelayMillis) {
+            super(maxSize, maxDelayMillis);
+        }
+
+        @Override
+        protected void process(@NotNull List<Integer> batch) {
+            batches.add(batch);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+}